@@ -0,0 +1,32 @@
+package com.alithabet.entrep.bench;
+
+import java.io.File;
+
+/**
+ * <tt>BulkFiles</tt> finds the bulk XML files the JMH benchmarks run
+ * on, given by their <tt>file</tt> parameter, which is relative to
+ * the working directory unless it is an absolute path.
+ *
+ * @author Ali K Thabet
+ */
+final class BulkFiles {
+
+    private BulkFiles() {
+    }
+
+    /**
+     * Bulk XML file of a benchmark parameter
+     *
+     * @param fileName name or path of the file
+     * @return the file
+     * @throws IllegalStateException if there is no such file
+     */
+    static File file(String fileName) {
+        File file = new File(fileName);
+        if (!file.isFile()) {
+            throw new IllegalStateException("No file " + file.getAbsolutePath()
+                    + ", run the benchmarks from the folder holding it or set -p file=path");
+        }
+        return file;
+    }
+}
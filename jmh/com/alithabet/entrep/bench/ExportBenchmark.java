@@ -0,0 +1,62 @@
+package com.alithabet.entrep.bench;
+
+import com.alithabet.entrep.data.PatentArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <tt>ExportBenchmark</tt> measures writing the CSV file of the
+ * patents of a file with {@link PatentArray#patentArrayToCSV(String, int)},
+ * on one thread and on several. The file is written to a temporary
+ * file deleted at the end.
+ *
+ * @author Ali K Thabet
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExportBenchmark {
+
+    @Param({"test.xml", "ad20150209.xml"})
+    public String file;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private PatentArray array; // patents written
+    private File        csv;   // temporary output
+
+    @Setup
+    public void read() throws IOException {
+        array = new PatentArray(BulkFiles.file(file).getPath());
+        csv   = File.createTempFile("bench", ".csv");
+    }
+
+    @TearDown
+    public void delete() {
+        if (!csv.delete()) csv.deleteOnExit();
+    }
+
+    @Benchmark
+    public File patentArrayToCSV() {
+        array.patentArrayToCSV(csv.getPath(), threads);
+        return csv;
+    }
+}
@@ -0,0 +1,58 @@
+package com.alithabet.entrep.bench;
+
+import com.alithabet.entrep.data.CompactPatentStore;
+import com.alithabet.entrep.data.Patent;
+import com.alithabet.entrep.data.PatentArray;
+import com.alithabet.entrep.data.PatentIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <tt>IndexBenchmark</tt> measures indexing every patent of a file,
+ * as <tt>addPatentsToMap</tt> does after a read, with the patents kept
+ * as objects or as the columns of a {@link CompactPatentStore}.
+ *
+ * @author Ali K Thabet
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IndexBenchmark {
+
+    @Param({"test.xml", "ad20150209.xml"})
+    public String file;
+
+    @Param({"objects", "compact"})
+    public String store;
+
+    private List<Patent> patents; // patents indexed by each invocation
+
+    @Setup
+    public void read() {
+        PatentArray array = new PatentArray(BulkFiles.file(file).getPath());
+        if ("compact".equals(store)) array.storeCompact();
+        patents = array.getPatents();
+    }
+
+    @Benchmark
+    public PatentIndex addPatentsToMap() {
+        PatentIndex index = new PatentIndex();
+        index.update(patents);
+        return index;
+    }
+}
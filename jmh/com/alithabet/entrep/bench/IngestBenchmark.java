@@ -0,0 +1,80 @@
+package com.alithabet.entrep.bench;
+
+import com.alithabet.entrep.data.IngestMode;
+import com.alithabet.entrep.data.PatentArray;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <tt>IngestBenchmark</tt> measures reading a whole bulk file into a
+ * {@link PatentArray} with each {@link IngestMode}, on a single
+ * thread, so the ingest engines can be compared on the same file.
+ * Besides the reads per second, the <tt>records</tt> and
+ * <tt>bytes</tt> counters give the patents and the file bytes read
+ * per second.
+ *
+ * @author Ali K Thabet
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IngestBenchmark {
+
+    @Param({"test.xml", "ad20150209.xml"})
+    public String file;
+
+    @Param({"DOM", "STREAM", "MAPPED"})
+    public IngestMode mode;
+
+    private File input; // file read by each invocation
+
+    /**
+     * <tt>Counters</tt> are the patents and bytes read by the
+     * invocations, reported per second by JMH
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long records;
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            records = 0;
+            bytes   = 0;
+        }
+    }
+
+    @Setup
+    public void find() {
+        input = BulkFiles.file(file);
+    }
+
+    @Benchmark
+    public PatentArray bulkRead(Counters counters) {
+        PatentArray array = new PatentArray();
+        array.setIngestMode(mode);
+        array.setThreads(1);
+        array.read(input.getPath());
+        counters.records += array.getPatents().size();
+        counters.bytes   += input.length();
+        return array;
+    }
+}
@@ -0,0 +1,54 @@
+package com.alithabet.entrep.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+
+/**
+ * <tt>JmhBenchmarks</tt> runs the JMH benchmarks of the data package
+ * with the GC profiler, so every result comes with its allocation rate
+ * and bytes allocated per operation:
+ * <ul>
+ *     <li>{@link ParseBenchmark}: one patent from its DOM record</li>
+ *     <li>{@link IngestBenchmark}: a whole file with each ingest mode</li>
+ *     <li>{@link IndexBenchmark}: indexing the patents of a file</li>
+ *     <li>{@link QueryBenchmark}: a common and a rare word</li>
+ *     <li>{@link ExportBenchmark}: the CSV file on one and several threads</li>
+ * </ul>
+ * It takes the usual JMH options, e.g. <tt>IngestBenchmark -p mode=STREAM,MAPPED</tt>
+ * compares two ingest engines, and <tt>-p file=path</tt> runs on another file.
+ * <p>
+ * Usage, from the folder holding <tt>test.xml</tt> and
+ * <tt>ad20150209.xml</tt>: <tt>mvn -P jmh package</tt>, then
+ * <tt>java -jar target/benchmarks.jar [JMH options]</tt>.
+ * Without Maven, {@link PatentBenchmarks} gives the same figures
+ * with a plain <tt>java</tt> harness.
+ *
+ * @author Ali K Thabet
+ */
+public class JmhBenchmarks {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException, IOException {
+        CommandLineOptions command = new CommandLineOptions(args);
+        if (command.shouldHelp()) {
+            command.showHelp();
+            return;
+        }
+        if (command.shouldList()) {
+            new Runner(command).list();
+            return;
+        }
+
+        Options options = new OptionsBuilder()
+                .parent(command)
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
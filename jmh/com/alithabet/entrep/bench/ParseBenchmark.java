@@ -0,0 +1,63 @@
+package com.alithabet.entrep.bench;
+
+import com.alithabet.entrep.data.Patent;
+import com.alithabet.entrep.data.PatentDate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <tt>ParseBenchmark</tt> measures building one {@link Patent} from
+ * its DOM record, as <tt>readXML</tt> does for each record of a file.
+ * The DOM is loaded once, so only the record is measured, and each
+ * invocation takes the next record of the file.
+ *
+ * @author Ali K Thabet
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark {
+
+    @Param({"test.xml", "ad20150209.xml"})
+    public String file;
+
+    private NodeList records;  // patent-assignment elements of the file
+    private int      recorded; // recorded date of the file
+    private int      next;     // record parsed by the next invocation
+
+    @Setup
+    public void load() throws Exception {
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(BulkFiles.file(file));
+        String dateString = ((Element) doc.getElementsByTagName(Patent.DATE_ARRAY).item(0))
+                .getElementsByTagName(Patent.DATE_ELEMENT).item(0).getTextContent();
+        recorded = PatentDate.parse(dateString);
+        records  = doc.getElementsByTagName(Patent.PATENT_ARRAY);
+        if (records.getLength() == 0) {
+            throw new IllegalStateException("No patent records in " + file);
+        }
+    }
+
+    @Benchmark
+    public Patent readXML() {
+        if (next == records.getLength()) next = 0;
+        return new Patent(records.item(next++), recorded);
+    }
+}
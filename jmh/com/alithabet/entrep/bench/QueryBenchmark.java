@@ -0,0 +1,71 @@
+package com.alithabet.entrep.bench;
+
+import com.alithabet.entrep.data.Patent;
+import com.alithabet.entrep.data.PatentArray;
+import com.alithabet.entrep.data.PatentIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <tt>QueryBenchmark</tt> measures the latency of
+ * {@link PatentArray#queryIndex(String)} for the most common word of
+ * the index and for a word found in a single patent.
+ *
+ * @author Ali K Thabet
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBenchmark {
+
+    @Param({"test.xml", "ad20150209.xml"})
+    public String file;
+
+    @Param({"common", "rare"})
+    public String token;
+
+    private PatentArray array; // patents queried
+    private String      word;  // word looked up
+
+    @Setup
+    public void read() {
+        array = new PatentArray(BulkFiles.file(file).getPath());
+
+        String common = null;
+        String rare   = null;
+        int    most   = 0;
+        PatentIndex index = array.getIndex();
+        for (String key : index.keys()) {
+            int count = index.count(key);
+            if (count > most) {
+                most   = count;
+                common = key;
+            }
+            if (rare == null && count == 1) rare = key;
+        }
+        word = "common".equals(token) ? common : rare;
+        if (word == null) {
+            throw new IllegalStateException("No " + token + " word in the index of " + file);
+        }
+    }
+
+    @Benchmark
+    public ArrayList<Patent> queryIndex() {
+        return array.queryIndex(word);
+    }
+}
@@ -0,0 +1,142 @@
+package com.alithabet.entrep.bench;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+/**
+ * <tt>Benchmark</tt> runs a task a number of times after warming it up
+ * and reports the time and the heap allocated per operation, the same
+ * figures JMH reports in average time mode with its GC profiler.
+ * <p>
+ * Allocation is read from the HotSpot extension of
+ * {@link java.lang.management.ThreadMXBean}, which counts the bytes
+ * allocated by each thread. Only the calling thread is measured, so
+ * tasks should do their work on it; tasks that hand work to other
+ * threads report the allocation of the calling thread alone.
+ *
+ * @author Ali K Thabet
+ */
+public class Benchmark {
+
+    /**
+     * Body of a benchmark
+     */
+    public interface Task {
+        /**
+         * Run the measured code once
+         *
+         * @return number of operations done, e.g. records parsed
+         * @throws Exception if the code fails
+         */
+        long run() throws Exception;
+    }
+
+    private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+    private final int warmup;     // iterations run before measuring
+    private final int iterations; // measured iterations
+
+    /**
+     * Constructor with the number of iterations
+     *
+     * @param warmup     iterations run and discarded before measuring
+     * @param iterations iterations measured
+     */
+    public Benchmark(int warmup, int iterations) {
+        if (warmup < 0 || iterations < 1) {
+            throw new IllegalArgumentException("Need at least one measured iteration");
+        }
+        this.warmup     = warmup;
+        this.iterations = iterations;
+    }
+
+    private static com.sun.management.ThreadMXBean threads() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) return null;
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        if (!threads.isThreadAllocatedMemorySupported()) return null;
+        threads.setThreadAllocatedMemoryEnabled(true);
+        return threads;
+    }
+
+    // bytes allocated so far by the calling thread, or -1 if unknown
+    private static long allocatedBytes() {
+        return THREADS == null ? -1 : THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Warm up and measure a task
+     *
+     * @param name name of the benchmark
+     * @param task code to measure
+     * @return the measured figures
+     */
+    public Result run(String name, Task task) {
+        try {
+            for (int i = 0; i < warmup; i++) task.run();
+
+            long operations = 0;
+            long bytes      = allocatedBytes();
+            long start      = System.nanoTime();
+            for (int i = 0; i < iterations; i++) operations += task.run();
+            long time       = System.nanoTime() - start;
+            bytes = bytes < 0 ? -1 : allocatedBytes() - bytes;
+            return new Result(name, operations, time, bytes);
+        } catch (Exception e) {
+            throw new RuntimeException("Exception in benchmark " + name + " " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Figures of one benchmark
+     */
+    public static class Result {
+        private final String name;
+        private final long   operations; // operations over all measured iterations
+        private final long   nanos;      // time of all measured iterations
+        private final long   bytes;      // heap allocated, -1 if unknown
+
+        Result(String name, long operations, long nanos, long bytes) {
+            this.name       = name;
+            this.operations = Math.max(1, operations);
+            this.nanos      = nanos;
+            this.bytes      = bytes;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        // average time of an operation in nanoseconds
+        public double nanosPerOperation() {
+            return (double) nanos / operations;
+        }
+
+        // operations per second
+        public double throughput() {
+            return operations * 1e9 / Math.max(1, nanos);
+        }
+
+        // heap allocated per operation, NaN if unknown
+        public double bytesPerOperation() {
+            return bytes < 0 ? Double.NaN : (double) bytes / operations;
+        }
+
+        // allocation rate in MB per second, NaN if unknown
+        public double allocationRate() {
+            return bytes < 0 ? Double.NaN : bytes * 1e9 / Math.max(1, nanos) / (1 << 20);
+        }
+
+        public static String header() {
+            return String.format(Locale.ROOT, "%-44s %14s %14s %14s %12s",
+                    "Benchmark", "ns/op", "ops/s", "B/op", "MB/s alloc");
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%-44s %14.1f %14.1f %14.1f %12.1f",
+                    name, nanosPerOperation(), throughput(), bytesPerOperation(), allocationRate());
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.alithabet.entrep.bench;
+
+import com.alithabet.entrep.data.IngestMode;
+import com.alithabet.entrep.data.Patent;
+import com.alithabet.entrep.data.PatentArray;
+import com.alithabet.entrep.data.PatentBitmap;
+import com.alithabet.entrep.data.PatentDate;
+import com.alithabet.entrep.data.PatentIndex;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * <tt>PatentBenchmarks</tt> measures the hot paths of the data package
+ * on the bulk XML files of a folder:
+ * <ul>
+ *     <li>building a {@link Patent} from a DOM node, per record</li>
+ *     <li>reading a whole file with each {@link IngestMode}, in
+ *     records per second and megabytes per second</li>
+ *     <li>indexing the patents of a file, see {@link PatentIndex}</li>
+ *     <li>{@link PatentArray#queryIndex(String)} for the most common
+ *     word of the index and for a word found in a single patent</li>
+ *     <li>writing the CSV file with one and with all threads</li>
+ * </ul>
+ * Every benchmark is warmed up before it is measured, and reports
+ * time and heap allocated per operation, see {@link Benchmark}.
+ * The same cases are JMH benchmarks in the <tt>jmh</tt> folder, built
+ * by <tt>mvn -P jmh package</tt>; this harness needs no build and runs
+ * them where Maven and JMH are not at hand.
+ * <p>
+ * Usage: <tt>java com.alithabet.entrep.bench.PatentBenchmarks
+ * [folder [warmup [iterations]]]</tt>. The folder defaults to the
+ * working directory, where <tt>test.xml</tt> and
+ * <tt>ad20150209.xml</tt> are looked up.
+ *
+ * @author Ali K Thabet
+ */
+public class PatentBenchmarks {
+
+    private static final String[] FILES = {"test.xml", "ad20150209.xml"};
+
+    // queries run per iteration of the query benchmarks
+    private static final int QUERIES = 10000;
+
+    private final Benchmark              benchmark;
+    private final List<Benchmark.Result> results = new ArrayList<>();
+
+    /**
+     * Constructor with the number of iterations
+     *
+     * @param warmup     iterations run before measuring
+     * @param iterations iterations measured
+     */
+    public PatentBenchmarks(int warmup, int iterations) {
+        benchmark = new Benchmark(warmup, iterations);
+    }
+
+    // run a benchmark and print its figures
+    private Benchmark.Result run(String name, Benchmark.Task task) {
+        Benchmark.Result result = benchmark.run(name, task);
+        results.add(result);
+        System.out.println(result);
+        return result;
+    }
+
+    public List<Benchmark.Result> getResults() {
+        return results;
+    }
+
+    /**
+     * Run all the benchmarks on one XML file
+     *
+     * @param file bulk XML file
+     * @throws Exception if the file cannot be read
+     */
+    public void runFile(final File file) throws Exception {
+        final String name = file.getName();
+
+        // per record parse, excluding the DOM load
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file);
+        String dateString = ((Element) doc.getElementsByTagName(Patent.DATE_ARRAY).item(0))
+                .getElementsByTagName(Patent.DATE_ELEMENT).item(0).getTextContent();
+        final int      recorded = PatentDate.parse(dateString);
+        final NodeList records  = doc.getElementsByTagName(Patent.PATENT_ARRAY);
+        run("readXML " + name, new Benchmark.Task() {
+            @Override
+            public long run() {
+                long sink = 0;
+                for (int i = 0; i < records.getLength(); i++) {
+                    Patent patent = new Patent(records.item(i), recorded);
+                    sink += patent.getPatentAssignees().size() + patent.getInventions().size();
+                }
+                // using the sum keeps the patents alive, as a JMH blackhole would
+                return sink < 0 ? 0 : records.getLength();
+            }
+        });
+
+        final PatentArray array = new PatentArray(file.getPath());
+        final List<Patent> patents = array.getPatents();
+
+        // whole file, per ingest mode, on the calling thread
+        for (final IngestMode mode : IngestMode.values()) {
+            Benchmark.Result result = run("bulkRead " + mode + " " + name, new Benchmark.Task() {
+                @Override
+                public long run() {
+                    PatentArray read = new PatentArray();
+                    read.setIngestMode(mode);
+                    read.setThreads(1);
+                    read.read(file.getPath());
+                    return read.getPatents().size();
+                }
+            });
+            System.out.printf(Locale.ROOT, "    %.1f MB/s%n",
+                    result.throughput() * file.length() / Math.max(1, patents.size()) / (1 << 20));
+        }
+
+        run("addPatentsToMap " + name, new Benchmark.Task() {
+            @Override
+            public long run() {
+                new PatentIndex().update(patents);
+                return patents.size();
+            }
+        });
+
+        String common = null;
+        String rare   = null;
+        int    most   = 0;
+        PatentIndex index = array.getIndex();
+        for (String key : index.keys()) {
+            PatentBitmap ids = index.get(key);
+            if (ids.cardinality() > most) {
+                most   = ids.cardinality();
+                common = key;
+            }
+            if (rare == null && ids.cardinality() == 1) rare = key;
+        }
+        if (common != null) query(array, "queryIndex common '" + common + "' " + name, common);
+        if (rare != null && !rare.equals(common)) query(array, "queryIndex rare '" + rare + "' " + name, rare);
+
+        final File csv = File.createTempFile("bench", ".csv");
+        try {
+            int cores = Runtime.getRuntime().availableProcessors();
+            for (final int threads : cores > 1 ? new int[]{1, cores} : new int[]{1}) {
+                run("patentArrayToCSV " + threads + " threads " + name, new Benchmark.Task() {
+                    @Override
+                    public long run() {
+                        array.patentArrayToCSV(csv.getPath(), threads);
+                        return patents.size();
+                    }
+                });
+            }
+        } finally {
+            if (!csv.delete()) csv.deleteOnExit();
+        }
+    }
+
+    // time QUERIES lookups of one word
+    private void query(final PatentArray array, String name, final String word) {
+        run(name, new Benchmark.Task() {
+            @Override
+            public long run() {
+                long found = 0;
+                for (int i = 0; i < QUERIES; i++) found += array.queryIndex(word).size();
+                // using the sum keeps the results alive, as a JMH blackhole would
+                return found < 0 ? 0 : QUERIES;
+            }
+        });
+    }
+
+    public static void main(String[] args) throws IOException {
+        String folder     = args.length > 0 ? args[0] : ".";
+        int    warmup     = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int    iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        PatentBenchmarks benchmarks = new PatentBenchmarks(warmup, iterations);
+        System.out.println(Benchmark.Result.header());
+        for (String fileName : FILES) {
+            File file = new File(folder, fileName);
+            if (!file.isFile()) {
+                System.out.println("Skipping missing file " + file.getPath());
+                continue;
+            }
+            try {
+                benchmarks.runFile(file);
+            } catch (Exception e) {
+                throw new IOException("Exception benchmarking " + file.getPath() + " " + e.getMessage(), e);
+            }
+        }
+    }
+}
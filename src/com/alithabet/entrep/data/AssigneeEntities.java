@@ -0,0 +1,24 @@
+package com.alithabet.entrep.data;
+
+/**
+ * <tt>AssigneeEntities</tt> is implemented by the lists of patents
+ * that build a new {@link Patent} on each get, such as the patents of
+ * a loaded {@link PatentSnapshot}. An entity ID set on an assignee of
+ * such a patent would be lost with the copy, so
+ * {@link EntityResolver#resolve(java.util.List)} sets it through the
+ * list instead.
+ *
+ * @author Ali K Thabet
+ */
+interface AssigneeEntities {
+
+    /**
+     * Set the entity ID of an assignee, for every copy of the
+     * patent built from now on
+     *
+     * @param patent   position of the patent in the list
+     * @param assignee position of the assignee in the patent
+     * @param entityId the entity ID, see {@link Person#getEntityId()}
+     */
+    void setEntityId(int patent, int assignee, int entityId);
+}
@@ -0,0 +1,264 @@
+package com.alithabet.entrep.data;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Checksum;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * <tt>BulkInput</tt> opens the bulk files read by {@link PatentArray},
+ * which can be plain XML files or the compressed archives they are
+ * distributed as:
+ * <ul>
+ *     <li><tt>.xml</tt>: read as is</li>
+ *     <li><tt>.xml.gz</tt>, e.g. <tt>ad20150209.xml.gz</tt>: a gzipped XML file</li>
+ *     <li><tt>.zip</tt>, e.g. <tt>ad20150209.zip</tt>: an archive holding
+ *     a single XML file, other entries are ignored</li>
+ * </ul>
+ * Other archives, such as a zip without exactly one XML file, are
+ * skipped with a message when a folder is listed, so they do not stop
+ * the other files from being read.
+ * Compressed files are inflated on a separate thread through a
+ * {@link PrefetchInputStream}, so decompression overlaps with parsing
+ * and nothing is extracted to disk.
+ *
+ * @author Ali K Thabet
+ */
+public final class BulkInput {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private BulkInput() {
+    }
+
+    /**
+     * Check whether a file name is one of the supported bulk files
+     *
+     * @param fileName name of the file
+     * @return true for <tt>.xml</tt>, <tt>.xml.gz</tt> and <tt>.zip</tt> files
+     */
+    public static boolean isBulkFile(String fileName) {
+        return fileName.endsWith(".xml") || fileName.endsWith(".xml.gz") || fileName.endsWith(".zip");
+    }
+
+    /**
+     * Check whether a file can be read as a bulk file: its name is
+     * supported, see {@link #isBulkFile(String)}, and a zip archive
+     * holds exactly one XML file. Archives that cannot be read are
+     * reported and skipped, other files are skipped silently.
+     *
+     * @param file file to check
+     * @return true if the file can be read by {@link #open(File)}
+     */
+    public static boolean isBulkFile(File file) {
+        String name = file.getName();
+        if (name.endsWith(".gz") && !name.endsWith(".xml.gz")) {
+            System.out.println("Skipping " + file + ": not a gzipped XML file");
+            return false;
+        }
+        if (!isBulkFile(name)) return false;
+        if (!name.endsWith(".zip")) return true;
+
+        try (ZipFile zip = new ZipFile(file)) {
+            int count = xmlEntries(zip).size();
+            if (count == 1) return true;
+            System.out.println("Skipping " + file + ": holds " + count + " XML files, expected one");
+        } catch (IOException e) {
+            System.out.println("Skipping " + file + ": " + e.getMessage());
+        }
+        return false;
+    }
+
+    // XML files of a zip archive
+    private static List<ZipEntry> xmlEntries(ZipFile zip) {
+        List<ZipEntry> entries = new ArrayList<>();
+        Enumeration<? extends ZipEntry> all = zip.entries();
+        while (all.hasMoreElements()) {
+            ZipEntry entry = all.nextElement();
+            if (!entry.isDirectory() && entry.getName().endsWith(".xml")) entries.add(entry);
+        }
+        return entries;
+    }
+
+    /**
+     * Open the XML contents of a bulk file
+     *
+     * @param file bulk file, see {@link #isBulkFile(File)}
+     * @return stream of XML bytes, to be closed by the caller
+     * @throws IOException if the file cannot be opened, or a zip archive does not hold one XML file
+     */
+    public static InputStream open(File file) throws IOException {
+        String name = file.getName();
+        if (name.endsWith(".gz")) {
+            InputStream gzip = new GZIPInputStream(new FileInputStream(file), BUFFER_SIZE);
+            return new PrefetchInputStream(gzip, "inflate " + name);
+        }
+        if (name.endsWith(".zip")) {
+            return new PrefetchInputStream(openZip(file), "inflate " + name);
+        }
+        return new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+    }
+
+    /**
+     * <tt>SummedInput</tt> is the stream of XML bytes of a bulk file
+     * whose raw bytes are summed as they are read, see
+     * {@link BulkInput#open(File, Checksum)}. Closing it before the
+     * XML ends, e.g. after a parse error, reads nothing more.
+     */
+    static final class SummedInput extends FilterInputStream {
+        private volatile boolean ended;  // the XML was read to its end, so the whole file is summed
+        private boolean          closed; // parsers may close the stream before the caller does
+
+        private SummedInput(InputStream xml) {
+            super(xml);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b < 0) ended = true;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n < 0) ended = true;
+            return n;
+        }
+
+        // true once the checksum covers every byte of the file
+        boolean isSummed() {
+            return ended;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            super.close();
+        }
+    }
+
+    /**
+     * Open a bulk file like {@link #open(File)}, adding every byte of
+     * the file to <em>checksum</em> as it is read, so that the file
+     * is not read a second time to sum it. A zip archive is read as a
+     * stream, from its first XML entry. The bytes after the XML, such
+     * as the rest of a zip archive, are read once the XML ends, after
+     * which <em>checksum</em> covers the whole file, see
+     * {@link SummedInput#isSummed()}.
+     *
+     * @param file     bulk file, see {@link #isBulkFile(File)}
+     * @param checksum checksum of the raw bytes of the file
+     * @return stream of XML bytes, to be closed by the caller
+     * @throws IOException if the file cannot be opened, or a zip archive holds no XML file
+     */
+    static SummedInput open(File file, Checksum checksum) throws IOException {
+        InputStream raw = new CheckedInputStream(new FileInputStream(file), checksum);
+        String name = file.getName();
+        InputStream xml;
+        try {
+            if (name.endsWith(".gz")) {
+                xml = new PrefetchInputStream(summed(new GZIPInputStream(raw, BUFFER_SIZE), raw), "inflate " + name);
+            } else if (name.endsWith(".zip")) {
+                xml = new PrefetchInputStream(summed(openZipStream(file, raw), raw), "inflate " + name);
+            } else {
+                xml = summed(new BufferedInputStream(raw, BUFFER_SIZE), raw);
+            }
+        } catch (IOException e) {
+            raw.close();
+            throw e;
+        }
+
+        return new SummedInput(xml);
+    }
+
+    /**
+     * Sum every byte of a file, for a file whose XML was parsed
+     * without reading it to its end
+     *
+     * @param file     file to sum
+     * @param checksum checksum of the raw bytes of the file
+     * @throws IOException if the file cannot be read
+     */
+    static void sum(File file, Checksum checksum) throws IOException {
+        try (InputStream in = new CheckedInputStream(new FileInputStream(file), checksum)) {
+            drain(in);
+        }
+    }
+
+    // source that reads the rest of the raw file when it ends, so that the checksum covers every byte
+    private static InputStream summed(InputStream source, final InputStream raw) {
+        return new FilterInputStream(source) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b < 0) drain(raw);
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n < 0) drain(raw);
+                return n;
+            }
+        };
+    }
+
+    // read a stream to its end, dropping the bytes
+    private static void drain(InputStream in) throws IOException {
+        byte[] rest = new byte[BUFFER_SIZE];
+        while (in.read(rest) >= 0) {
+            // only read for the checksum
+        }
+    }
+
+    // stream of the first XML entry of a zip archive read from a stream
+    private static InputStream openZipStream(File file, InputStream raw) throws IOException {
+        ZipInputStream zip = new ZipInputStream(raw);
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            if (!entry.isDirectory() && entry.getName().endsWith(".xml")) return zip;
+        }
+        throw new IOException("Zip file " + file + " holds no XML file");
+    }
+
+    // stream of the XML entry of a zip archive, closing the archive with it
+    private static InputStream openZip(File file) throws IOException {
+        final ZipFile zip = new ZipFile(file);
+        try {
+            List<ZipEntry> entries = xmlEntries(zip);
+            if (entries.size() != 1) {
+                throw new IOException("Zip file " + file + " holds " + entries.size()
+                        + " XML files, expected one");
+            }
+
+            return new FilterInputStream(zip.getInputStream(entries.get(0))) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        zip.close();
+                    }
+                }
+            };
+        } catch (IOException e) {
+            zip.close();
+            throw e;
+        }
+    }
+}
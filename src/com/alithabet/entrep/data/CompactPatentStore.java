@@ -0,0 +1,697 @@
+package com.alithabet.entrep.data;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * <tt>CompactPatentStore</tt> keeps patents on the heap as columns
+ * of primitive arrays instead of {@link Patent} objects. A patent
+ * object holds a map of lists of properties and two lists of persons,
+ * each with its own address list, and the object headers and
+ * references take more room than the data. Here every field of the
+ * patents, persons and properties is one primitive array, and the
+ * persons and properties of a patent are ranges of their arrays given
+ * by offsets:
+ * <pre>
+ *   patent i     persons [personStart[i], personStart[i + 1]): correspondent,
+ *                assignors up to assigneeStart[i], then assignees
+ *                inventions [inventionStart[i], inventionStart[i + 1])
+ *   invention j  properties [propertyStart[j], propertyStart[j + 1])
+ *   person k     address lines [addressStart[k], addressStart[k + 1])
+ * </pre>
+ * Cities, postcodes, countries, states and kinds repeat across many
+ * persons and properties and are codes of a {@link StringDictionary}
+ * of the store. Names, address lines, invention titles and the
+ * document numbers that do not fit a
+ * {@link PatentProperty#documentKey(CharSequence) key} are kept as
+ * UTF-8 in a single <tt>byte</tt> array, and the few persons located
+ * by a {@link GeoIndex} have their coordinates in a table of their own.
+ * A patent takes a few dozen bytes plus its persons, properties and
+ * titles, several times less than the objects.
+ * <p>
+ * The patents are read through flyweight views, see {@link #view()},
+ * which have the getters of {@link Patent}, {@link Person} and
+ * {@link PatentProperty} but only hold a position, so a scan reads the
+ * arrays in order and builds no patent, person or property objects.
+ * The {@link PatentIndex}, {@link PropertyDateIndex} and
+ * {@link DocumentIndex} updates and the {@link PatentAggregator} read
+ * a store this way. The store is also a
+ * {@link List} of patents, building a new {@link Patent} on each
+ * {@link #get(int)}, so it can replace the patents of a
+ * {@link PatentArray}, see {@link PatentArray#storeCompact()}. Changes
+ * to those patents are not written back, except for the entity IDs of
+ * their assignees, which are set in place through
+ * {@link AssigneeEntities}.
+ * <p>
+ * Patents can only be appended. Appends and entity IDs must not be
+ * written while other threads read the store, reads can run in
+ * parallel.
+ *
+ * @author Ali K Thabet
+ */
+public class CompactPatentStore extends AbstractList<Patent> implements RandomAccess, AssigneeEntities {
+
+    // no string, in the text offsets
+    private static final int NO_TEXT = -1;
+
+    // person without a location
+    private static final int NO_LOCATION = -1;
+
+    // patents
+    private int[] recordedDays;   // recorded date as an epoch day
+    private int[] personStart;    // first person, the correspondent, size + 1 entries
+    private int[] assigneeStart;  // first assignee
+    private int[] inventionStart; // first invention, size + 1 entries
+    private int   size;           // number of patents
+
+    // persons, strings as IDs in the text or dictionary codes
+    private int[]    names;
+    private int[]    cities;       // dictionary code
+    private int[]    states;       // dictionary code
+    private int[]    countries;    // dictionary code
+    private int[]    postcodes;    // dictionary code
+    private int[]    locations;    // ID of the location, or NO_LOCATION
+    private int[]    entityIds;
+    private int[]    addressStart; // first address line, persons + 1 entries
+    private int      persons;      // number of persons
+    private int[]    addressLines; // address lines as IDs in the text
+    private int      lines;        // number of address lines
+
+    // locations of the few persons with one, see GeoIndex
+    private double[] latitudes;
+    private double[] longitudes;
+    private int[]    populations;
+    private int      located;      // number of locations
+
+    // inventions
+    private int[] titles;        // title, an ID in the text
+    private int[] propertyStart; // first property, inventions + 1 entries
+    private int   inventions;    // number of inventions
+
+    // properties
+    private byte[] statuses;        // status code
+    private int[]  propertyDays;    // date as an epoch day
+    private int[]  propertyCountry; // country as a dictionary code
+    private int[]  kinds;           // kind as a dictionary code
+    private long[] documentKeys;    // packed document number, or NO_DOCUMENT_KEY
+    private int[]  documentTexts;   // document number as an ID in the text, if it cannot be packed
+    private int    properties;      // number of properties
+
+    // text of the names, addresses, titles and unpacked document numbers
+    private byte[] text;      // UTF-8 bytes of all the strings
+    private int    textSize;  // bytes used
+    private int[]  textStart; // start of each string, strings + 1 entries
+    private int    strings;   // number of strings
+
+    private StringDictionary dictionary = new StringDictionary(); // cities, postcodes, countries, states and kinds
+
+    // default no argument constructor
+    public CompactPatentStore() {
+        recordedDays   = new int[1024];
+        personStart    = new int[1025];
+        assigneeStart  = new int[1024];
+        inventionStart = new int[1025];
+
+        names        = new int[2048];
+        cities       = new int[2048];
+        states       = new int[2048];
+        countries    = new int[2048];
+        postcodes    = new int[2048];
+        locations    = new int[2048];
+        entityIds    = new int[2048];
+        addressStart = new int[2049];
+        addressLines = new int[4096];
+        latitudes    = new double[64];
+        longitudes   = new double[64];
+        populations  = new int[64];
+
+        titles        = new int[1024];
+        propertyStart = new int[1025];
+
+        statuses        = new byte[1024];
+        propertyDays    = new int[1024];
+        propertyCountry = new int[1024];
+        kinds           = new int[1024];
+        documentKeys    = new long[1024];
+        documentTexts   = new int[1024];
+
+        text      = new byte[1 << 16];
+        textStart = new int[1025];
+    }
+
+    /**
+     * Append patents at the end of the store, copying their fields
+     *
+     * @param patents patents to append
+     * @return true if any patent was appended
+     */
+    @Override
+    public boolean addAll(Collection<? extends Patent> patents) {
+        for (Patent patent : patents) append(patent);
+        return !patents.isEmpty();
+    }
+
+    @Override
+    public void add(int index, Patent patent) {
+        if (index != size) {
+            throw new UnsupportedOperationException("Patents can only be appended, not inserted at " + index);
+        }
+        append(patent);
+    }
+
+    private void append(Patent patent) {
+        if (patent == null) {
+            throw new NullPointerException("Cannot store a null patent");
+        }
+        if (size == recordedDays.length) {
+            recordedDays   = Arrays.copyOf(recordedDays, size * 2);
+            assigneeStart  = Arrays.copyOf(assigneeStart, size * 2);
+            personStart    = Arrays.copyOf(personStart, size * 2 + 1);
+            inventionStart = Arrays.copyOf(inventionStart, size * 2 + 1);
+        }
+        recordedDays[size] = patent.getRecordedDay();
+
+        appendPerson(patent.getCorrespondent());
+        for (Person assignor : patent.getPatentAssignors()) appendPerson(assignor);
+        assigneeStart[size] = persons;
+        for (Person assignee : patent.getPatentAssignees()) appendPerson(assignee);
+
+        for (Map.Entry<String, ArrayList<PatentProperty>> invention : patent.getInventions().entrySet()) {
+            if (inventions == titles.length) {
+                titles        = Arrays.copyOf(titles, inventions * 2);
+                propertyStart = Arrays.copyOf(propertyStart, inventions * 2 + 1);
+            }
+            titles[inventions] = appendText(invention.getKey());
+            for (PatentProperty property : invention.getValue()) appendProperty(property);
+            propertyStart[++inventions] = properties;
+        }
+
+        size++;
+        personStart[size]    = persons;
+        inventionStart[size] = inventions;
+    }
+
+    private void appendPerson(Person person) {
+        if (persons == names.length) {
+            int capacity = persons * 2;
+            names        = Arrays.copyOf(names, capacity);
+            cities       = Arrays.copyOf(cities, capacity);
+            states       = Arrays.copyOf(states, capacity);
+            countries    = Arrays.copyOf(countries, capacity);
+            postcodes    = Arrays.copyOf(postcodes, capacity);
+            locations    = Arrays.copyOf(locations, capacity);
+            entityIds    = Arrays.copyOf(entityIds, capacity);
+            addressStart = Arrays.copyOf(addressStart, capacity + 1);
+        }
+        names[persons]       = appendText(person.getName());
+        cities[persons]      = dictionary.encode(person.getCity());
+        states[persons]      = dictionary.encode(person.getState());
+        countries[persons]   = dictionary.encode(person.getCountry());
+        postcodes[persons]   = dictionary.encode(person.getPostcode());
+        locations[persons]   = appendLocation(person);
+        entityIds[persons]   = person.getEntityId();
+
+        for (String line : person.getAddress()) {
+            if (lines == addressLines.length) addressLines = Arrays.copyOf(addressLines, lines * 2);
+            addressLines[lines++] = appendText(line);
+        }
+        addressStart[++persons] = lines;
+    }
+
+    private void appendProperty(PatentProperty property) {
+        if (properties == statuses.length) {
+            int capacity = properties * 2;
+            statuses        = Arrays.copyOf(statuses, capacity);
+            propertyDays    = Arrays.copyOf(propertyDays, capacity);
+            propertyCountry = Arrays.copyOf(propertyCountry, capacity);
+            kinds           = Arrays.copyOf(kinds, capacity);
+            documentKeys    = Arrays.copyOf(documentKeys, capacity);
+            documentTexts   = Arrays.copyOf(documentTexts, capacity);
+        }
+        statuses[properties]        = property.getStatusCode();
+        propertyDays[properties]    = property.getDay();
+        propertyCountry[properties] = dictionary.encode(property.getCountry());
+        kinds[properties]           = dictionary.encode(property.getKind());
+
+        // numbers in upper case come back unchanged from their key
+        String number = property.getDocumentNumber();
+        long key = PatentProperty.documentKey(number);
+        for (int i = 0; key != PatentProperty.NO_DOCUMENT_KEY && i < number.length(); i++) {
+            if (Character.isLowerCase(number.charAt(i))) key = PatentProperty.NO_DOCUMENT_KEY;
+        }
+        documentKeys[properties]    = key;
+        documentTexts[properties++] = key == PatentProperty.NO_DOCUMENT_KEY ? appendText(number) : NO_TEXT;
+    }
+
+    // ID of the location of a person, or NO_LOCATION
+    private int appendLocation(Person person) {
+        if (Double.isNaN(person.getLatitude()) && Double.isNaN(person.getLongitude())
+                && person.getPopulation() == Person.NO_POPULATION) {
+            return NO_LOCATION;
+        }
+        if (located == latitudes.length) {
+            latitudes   = Arrays.copyOf(latitudes, located * 2);
+            longitudes  = Arrays.copyOf(longitudes, located * 2);
+            populations = Arrays.copyOf(populations, located * 2);
+        }
+        latitudes[located]   = person.getLatitude();
+        longitudes[located]  = person.getLongitude();
+        populations[located] = person.getPopulation();
+        return located++;
+    }
+
+    // add a string to the text, returning its ID, or NO_TEXT for null
+    private int appendText(String s) {
+        if (s == null) return NO_TEXT;
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        if (textSize + bytes.length > text.length) {
+            text = Arrays.copyOf(text, Math.max(text.length * 2, textSize + bytes.length));
+        }
+        if (strings + 1 == textStart.length) textStart = Arrays.copyOf(textStart, textStart.length * 2);
+
+        System.arraycopy(bytes, 0, text, textSize, bytes.length);
+        textSize += bytes.length;
+        textStart[++strings] = textSize;
+        return strings - 1;
+    }
+
+    private String text(int id) {
+        return id == NO_TEXT ? null
+                : new String(text, textStart[id], textStart[id + 1] - textStart[id], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Patent at a position, built from the columns. Prefer a
+     * {@link #view()} to scan the store without building objects.
+     *
+     * @param index position of the patent
+     * @return a new patent with the fields of the stored one
+     */
+    @Override
+    public Patent get(int index) {
+        checkIndex(index);
+        Patent patent = new Patent();
+        patent.setRecordedDay(recordedDays[index]);
+        patent.setCorrespondent(person(personStart[index]));
+        for (int k = personStart[index] + 1; k < assigneeStart[index]; k++) {
+            patent.getPatentAssignors().add(person(k));
+        }
+        for (int k = assigneeStart[index]; k < personStart[index + 1]; k++) {
+            patent.getPatentAssignees().add(person(k));
+        }
+
+        HashMap<String, ArrayList<PatentProperty>> map = patent.getInventions();
+        for (int j = inventionStart[index]; j < inventionStart[index + 1]; j++) {
+            ArrayList<PatentProperty> list = new ArrayList<>(propertyStart[j + 1] - propertyStart[j]);
+            for (int p = propertyStart[j]; p < propertyStart[j + 1]; p++) list.add(property(p));
+            map.put(text(titles[j]), list);
+        }
+        return patent;
+    }
+
+    private Person person(int k) {
+        Person person = new Person();
+        person.setName(text(names[k]));
+        person.setCity(dictionary.decode(cities[k]));
+        person.setState(dictionary.decode(states[k]));
+        person.setCountry(dictionary.decode(countries[k]));
+        person.setPostcode(dictionary.decode(postcodes[k]));
+        if (locations[k] != NO_LOCATION) {
+            person.setLatitude(latitudes[locations[k]]);
+            person.setLongitude(longitudes[locations[k]]);
+            person.setPopulation(populations[locations[k]]);
+        }
+        person.setEntityId(entityIds[k]);
+        for (int l = addressStart[k]; l < addressStart[k + 1]; l++) {
+            person.getAddress().add(text(addressLines[l]));
+        }
+        return person;
+    }
+
+    private PatentProperty property(int p) {
+        PatentProperty property = new PatentProperty();
+        property.setStatusCode(statuses[p]);
+        property.setDay(propertyDays[p]);
+        property.setCountry(dictionary.decode(propertyCountry[p]));
+        property.setKind(dictionary.decode(kinds[p]));
+        property.setDocumentNumber(documentNumber(p));
+        return property;
+    }
+
+    private String documentNumber(int p) {
+        return documentKeys[p] == PatentProperty.NO_DOCUMENT_KEY
+                ? text(documentTexts[p]) : PatentProperty.documentNumber(documentKeys[p]);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Patent " + index + " of " + size);
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Set the entity ID of an assignee in its column
+     *
+     * @param patent   position of the patent
+     * @param assignee position of the assignee in the patent
+     * @param entityId the entity ID, see {@link Person#getEntityId()}
+     */
+    @Override
+    public void setEntityId(int patent, int assignee, int entityId) {
+        checkIndex(patent);
+        int k = assigneeStart[patent] + assignee;
+        if (assignee < 0 || k >= personStart[patent + 1]) {
+            throw new IndexOutOfBoundsException("Assignee " + assignee + " of patent " + patent);
+        }
+        entityIds[k] = entityId;
+    }
+
+    // remove all the patents, keeping the arrays for new ones
+    @Override
+    public void clear() {
+        size       = 0;
+        persons    = 0;
+        lines      = 0;
+        inventions = 0;
+        properties = 0;
+        located    = 0;
+        textSize   = 0;
+        strings    = 0;
+        dictionary = new StringDictionary();
+    }
+
+    /**
+     * A view of the first patent, to be moved with
+     * {@link PatentView#moveTo(int)}. Views are not thread safe,
+     * each thread scanning the store uses its own.
+     *
+     * @return a new view
+     */
+    public PatentView view() {
+        return new PatentView();
+    }
+
+    // number of persons, properties and address lines
+    public int personCount() {
+        return persons;
+    }
+
+    public int propertyCount() {
+        return properties;
+    }
+
+    public int addressLineCount() {
+        return lines;
+    }
+
+    // estimated bytes held by the arrays
+    public long sizeInBytes() {
+        return 16L * recordedDays.length
+                + 32L * names.length
+                + 4L * addressLines.length
+                + 20L * latitudes.length
+                + 8L * titles.length
+                + 25L * statuses.length
+                + text.length + 4L * textStart.length
+                + dictionary.sizeInBytes();
+    }
+
+    // capacity kept by trimToSize, leaving room for the arrays to double
+    private static int room(int length) {
+        return Math.max(16, length);
+    }
+
+    /**
+     * Shrink the arrays to the patents stored, e.g. once a history
+     * is loaded. Appending afterwards grows them again.
+     */
+    public void trimToSize() {
+        recordedDays   = Arrays.copyOf(recordedDays, room(size));
+        assigneeStart  = Arrays.copyOf(assigneeStart, room(size));
+        personStart    = Arrays.copyOf(personStart, room(size) + 1);
+        inventionStart = Arrays.copyOf(inventionStart, room(size) + 1);
+
+        names        = Arrays.copyOf(names, room(persons));
+        cities       = Arrays.copyOf(cities, room(persons));
+        states       = Arrays.copyOf(states, room(persons));
+        countries    = Arrays.copyOf(countries, room(persons));
+        postcodes    = Arrays.copyOf(postcodes, room(persons));
+        locations    = Arrays.copyOf(locations, room(persons));
+        entityIds    = Arrays.copyOf(entityIds, room(persons));
+        addressStart = Arrays.copyOf(addressStart, room(persons) + 1);
+        addressLines = Arrays.copyOf(addressLines, room(lines));
+        latitudes    = Arrays.copyOf(latitudes, room(located));
+        longitudes   = Arrays.copyOf(longitudes, room(located));
+        populations  = Arrays.copyOf(populations, room(located));
+
+        titles        = Arrays.copyOf(titles, room(inventions));
+        propertyStart = Arrays.copyOf(propertyStart, room(inventions) + 1);
+
+        statuses        = Arrays.copyOf(statuses, room(properties));
+        propertyDays    = Arrays.copyOf(propertyDays, room(properties));
+        propertyCountry = Arrays.copyOf(propertyCountry, room(properties));
+        kinds           = Arrays.copyOf(kinds, room(properties));
+        documentKeys    = Arrays.copyOf(documentKeys, room(properties));
+        documentTexts   = Arrays.copyOf(documentTexts, room(properties));
+
+        text      = Arrays.copyOf(text, room(textSize));
+        textStart = Arrays.copyOf(textStart, room(strings + 1));
+    }
+
+    /**
+     * <tt>PatentView</tt> reads one patent of the store with the
+     * getters of {@link Patent}. Persons and properties are read
+     * through views as well, which the view reuses: the person
+     * returned by {@link #getAssignor(int)} moves to the next
+     * assignor on the next call.
+     */
+    public final class PatentView {
+        private int id; // position of the patent
+
+        private final PersonView   person   = new PersonView();
+        private final PropertyView property = new PropertyView();
+
+        private PatentView() {
+        }
+
+        /**
+         * Move the view to another patent
+         *
+         * @param id position of the patent
+         * @return this view
+         */
+        public PatentView moveTo(int id) {
+            checkIndex(id);
+            this.id = id;
+            return this;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public int getRecordedDay() {
+            return recordedDays[id];
+        }
+
+        public Date getRecordedDate() {
+            return PatentDate.toDate(recordedDays[id]);
+        }
+
+        public PersonView getCorrespondent() {
+            return person.moveTo(personStart[id]);
+        }
+
+        public int getAssignorCount() {
+            return assigneeStart[id] - personStart[id] - 1;
+        }
+
+        public PersonView getAssignor(int i) {
+            return person.moveTo(personStart[id] + 1 + i);
+        }
+
+        public int getAssigneeCount() {
+            return personStart[id + 1] - assigneeStart[id];
+        }
+
+        public PersonView getAssignee(int i) {
+            return person.moveTo(assigneeStart[id] + i);
+        }
+
+        public int getInventionCount() {
+            return inventionStart[id + 1] - inventionStart[id];
+        }
+
+        public String getInventionTitle(int i) {
+            return text(titles[inventionStart[id] + i]);
+        }
+
+        // number of properties of the invention i of the patent
+        public int getPropertyCount(int i) {
+            int j = inventionStart[id] + i;
+            return propertyStart[j + 1] - propertyStart[j];
+        }
+
+        public PropertyView getProperty(int i, int p) {
+            return property.moveTo(propertyStart[inventionStart[id] + i] + p);
+        }
+
+        // a new patent with the fields of this one
+        public Patent toPatent() {
+            return get(id);
+        }
+    }
+
+    /**
+     * <tt>PersonView</tt> reads one person of the store with the
+     * getters of {@link Person}
+     */
+    public final class PersonView {
+        private int k; // position of the person
+
+        private PersonView() {
+        }
+
+        private PersonView moveTo(int k) {
+            this.k = k;
+            return this;
+        }
+
+        public String getName() {
+            return text(names[k]);
+        }
+
+        // true if the person has a name, without decoding it
+        public boolean hasName() {
+            return names[k] != NO_TEXT;
+        }
+
+        /**
+         * Split the fields of the person into words, in the order
+         * of {@link Person#tokenize(Tokenizer, Tokenizer.Sink)}
+         *
+         * @param tokenizer tokenizer splitting the fields
+         * @param sink      receives each word
+         */
+        public void tokenize(Tokenizer tokenizer, Tokenizer.Sink sink) {
+            tokenizer.tokenize(text(names[k]), sink);
+            for (int l = addressStart[k]; l < addressStart[k + 1]; l++) {
+                tokenizer.tokenize(text(addressLines[l]), sink);
+            }
+            tokenizer.tokenize(getCity(), sink);
+            tokenizer.tokenize(getState(), sink);
+            tokenizer.tokenize(getCountry(), sink);
+            tokenizer.tokenize(getPostcode(), sink);
+        }
+
+        // lines of the address, a new list
+        public List<String> getAddress() {
+            if (addressStart[k] == addressStart[k + 1]) return Collections.emptyList();
+            List<String> address = new ArrayList<>(addressStart[k + 1] - addressStart[k]);
+            for (int l = addressStart[k]; l < addressStart[k + 1]; l++) {
+                address.add(text(addressLines[l]));
+            }
+            return address;
+        }
+
+        public String getCity() {
+            return dictionary.decode(cities[k]);
+        }
+
+        public String getState() {
+            return dictionary.decode(states[k]);
+        }
+
+        public String getCountry() {
+            return dictionary.decode(countries[k]);
+        }
+
+        public String getPostcode() {
+            return dictionary.decode(postcodes[k]);
+        }
+
+        public double getLatitude() {
+            return locations[k] == NO_LOCATION ? Double.NaN : latitudes[locations[k]];
+        }
+
+        public double getLongitude() {
+            return locations[k] == NO_LOCATION ? Double.NaN : longitudes[locations[k]];
+        }
+
+        public int getPopulation() {
+            return locations[k] == NO_LOCATION ? Person.NO_POPULATION : populations[locations[k]];
+        }
+
+        public int getEntityId() {
+            return entityIds[k];
+        }
+
+        public boolean isLocated() {
+            return !Double.isNaN(getLatitude());
+        }
+    }
+
+    /**
+     * <tt>PropertyView</tt> reads one property of the store with the
+     * getters of {@link PatentProperty}
+     */
+    public final class PropertyView {
+        private int p; // position of the property
+
+        private PropertyView() {
+        }
+
+        private PropertyView moveTo(int p) {
+            this.p = p;
+            return this;
+        }
+
+        public String getCountry() {
+            return dictionary.decode(propertyCountry[p]);
+        }
+
+        public String getDocumentNumber() {
+            return documentNumber(p);
+        }
+
+        // packed document number as PatentProperty.documentKey gives it, only decoding numbers kept as text
+        public long getDocumentKey() {
+            return documentKeys[p] != PatentProperty.NO_DOCUMENT_KEY
+                    ? documentKeys[p] : PatentProperty.documentKey(text(documentTexts[p]));
+        }
+
+        public String getKind() {
+            return dictionary.decode(kinds[p]);
+        }
+
+        public String getStatus() {
+            return PatentProperty.statusName(statuses[p]);
+        }
+
+        public byte getStatusCode() {
+            return statuses[p];
+        }
+
+        public Date getDate() {
+            return PatentDate.toDate(propertyDays[p]);
+        }
+
+        public int getDay() {
+            return propertyDays[p];
+        }
+    }
+}
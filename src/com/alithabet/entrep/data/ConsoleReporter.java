@@ -0,0 +1,48 @@
+package com.alithabet.entrep.data;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.Locale;
+
+/**
+ * <tt>ConsoleReporter</tt> prints a line per file parsed and a
+ * summary of the array each time its index is updated, e.g.
+ * <pre>
+ * ad20150209.xml: 422 patents in 310 ms (1361 records/s)
+ * 422 patents, 1043 inventions, 2291 persons, 4554 keys, 9312 postings, 1840 KB heap per 1k patents
+ * </pre>
+ *
+ * @author Ali K Thabet
+ */
+public class ConsoleReporter implements MetricsReporter {
+
+    private final PrintStream out; // stream to print to
+
+    // reporter printing to standard output
+    public ConsoleReporter() {
+        this(System.out);
+    }
+
+    public ConsoleReporter(PrintStream out) {
+        if (out == null) {
+            throw new NullPointerException("Output stream is null");
+        }
+        this.out = out;
+    }
+
+    @Override
+    public void fileRead(IngestMetrics metrics, String path, int patents, long nanos) {
+        String name = path.substring(path.lastIndexOf(File.separatorChar) + 1);
+        out.println(String.format(Locale.ROOT, "%s: %d patents in %d ms (%.0f records/s)",
+                name, patents, nanos / 1000000, patents * 1e9 / Math.max(1, nanos)));
+    }
+
+    @Override
+    public void indexUpdated(IngestMetrics metrics) {
+        out.println(String.format(Locale.ROOT,
+                "%d patents, %d inventions, %d persons, %d keys, %d postings, %d KB heap per 1k patents",
+                metrics.getPatents(), metrics.getInventionsRead(), metrics.getPersonsRead(),
+                metrics.getIndexKeys(), metrics.getIndexPostings(),
+                metrics.getHeapBytesPer1kPatents() / 1024));
+    }
+}
@@ -0,0 +1,224 @@
+package com.alithabet.entrep.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <tt>DocumentIndex</tt> finds every assignment touching a property
+ * from its document number, so the ownership of an application, issued
+ * patent or publication can be followed across the daily files as it
+ * changes hands. Document numbers are packed into a <tt>long</tt> by
+ * {@link PatentProperty#documentKey(CharSequence)} and kept in an open
+ * addressing hash table with linear probing, which gives each number a
+ * dense ID. The patent IDs of each number are chained through primitive
+ * arrays in the order they were indexed, so a lookup builds no objects
+ * until the patents are returned.
+ * <p>
+ * Like {@link PatentIndex} the index is incremental: {@link #update(List)}
+ * only indexes the patents added since the previous call. Numbers that
+ * cannot be packed, such as numbers with punctuation, are not indexed.
+ *
+ * @author Ali K Thabet
+ */
+public class DocumentIndex {
+
+    private static final int NONE = -1; // end of a chain
+
+    // document numbers, by number ID
+    private long[] keys;   // packed document number
+    private int[]  first;  // first entry of the number
+    private int[]  last;   // last entry of the number
+    private int[]  counts; // entries of the number
+    private int    size;   // number of document numbers
+    private int[]  slots;  // number ID + 1 in each slot, 0 if empty
+
+    // entries, one per patent and document number
+    private int[] patentOf; // patent ID of each entry
+    private int[] next;     // next entry of the same number, or NONE
+    private int   entries;  // number of entries
+
+    private int indexed; // number of patents indexed so far
+
+    // default no argument constructor
+    public DocumentIndex() {
+        keys     = new long[1024];
+        first    = new int[1024];
+        last     = new int[1024];
+        counts   = new int[1024];
+        slots    = new int[2048];
+        patentOf = new int[1024];
+        next     = new int[1024];
+    }
+
+    /**
+     * Index the patents of <em>patents</em> that were added since
+     * the last update. The ID of a patent is its position in
+     * <em>patents</em>, so the list must only grow at the end.
+     *
+     * @param patents full list of patents
+     */
+    public void update(List<Patent> patents) {
+        if (patents instanceof CompactPatentStore) {
+            update((CompactPatentStore) patents);
+            return;
+        }
+        for (int id = indexed; id < patents.size(); id++) {
+            for (ArrayList<PatentProperty> invention : patents.get(id).getInventions().values()) {
+                for (int i = 0; i < invention.size(); i++) {
+                    long key = PatentProperty.documentKey(invention.get(i).getDocumentNumber());
+                    if (key != PatentProperty.NO_DOCUMENT_KEY) add(key, id);
+                }
+            }
+        }
+        indexed = Math.max(indexed, patents.size());
+    }
+
+    // same as update(List), reading the packed numbers of the columns instead of building each patent
+    private void update(CompactPatentStore store) {
+        CompactPatentStore.PatentView view = store.view();
+        for (int id = indexed; id < store.size(); id++) {
+            view.moveTo(id);
+            for (int i = 0; i < view.getInventionCount(); i++) {
+                for (int p = 0; p < view.getPropertyCount(i); p++) {
+                    long key = view.getProperty(i, p).getDocumentKey();
+                    if (key != PatentProperty.NO_DOCUMENT_KEY) add(key, id);
+                }
+            }
+        }
+        indexed = Math.max(indexed, store.size());
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    // ID of a packed number, or NONE
+    private int find(long key) {
+        int mask = slots.length - 1;
+        for (int s = hash(key) & mask; slots[s] != 0; s = (s + 1) & mask) {
+            if (keys[slots[s] - 1] == key) return slots[s] - 1;
+        }
+        return NONE;
+    }
+
+    // add a patent to the entries of a number, once per patent
+    private void add(long key, int patent) {
+        int number = find(key);
+        if (number == NONE) {
+            number = insert(key);
+        } else if (patentOf[last[number]] == patent) {
+            return; // the same number twice in one patent
+        }
+
+        if (entries == patentOf.length) {
+            patentOf = Arrays.copyOf(patentOf, entries * 2);
+            next     = Arrays.copyOf(next, entries * 2);
+        }
+        patentOf[entries] = patent;
+        next[entries]     = NONE;
+        if (first[number] == NONE) first[number] = entries;
+        else next[last[number]] = entries;
+        last[number] = entries++;
+        counts[number]++;
+    }
+
+    private int insert(long key) {
+        if (size == keys.length) {
+            keys   = Arrays.copyOf(keys, size * 2);
+            first  = Arrays.copyOf(first, size * 2);
+            last   = Arrays.copyOf(last, size * 2);
+            counts = Arrays.copyOf(counts, size * 2);
+        }
+        if (2 * (size + 1) > slots.length) rehash(slots.length * 2);
+
+        keys[size]   = key;
+        first[size]  = NONE;
+        last[size]   = NONE;
+        counts[size] = 0;
+        place(size);
+        return size++;
+    }
+
+    private void place(int number) {
+        int mask = slots.length - 1;
+        int s = hash(keys[number]) & mask;
+        while (slots[s] != 0) s = (s + 1) & mask;
+        slots[s] = number + 1;
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        for (int number = 0; number < size; number++) place(number);
+    }
+
+    /**
+     * IDs of the patents touching a document number, in the
+     * order they were indexed
+     *
+     * @param documentNumber document number, letters in any case
+     * @return patent IDs, empty if the number is not indexed
+     */
+    public int[] get(String documentNumber) {
+        long key = PatentProperty.documentKey(documentNumber);
+        int number = key == PatentProperty.NO_DOCUMENT_KEY ? NONE : find(key);
+        if (number == NONE) return new int[0];
+
+        int[] ids = new int[counts[number]];
+        int i = 0;
+        for (int e = first[number]; e != NONE; e = next[e]) ids[i++] = patentOf[e];
+        return ids;
+    }
+
+    /**
+     * Ownership timeline of a property: every assignment touching
+     * its document number, ordered by recorded date, then in the
+     * order they were read
+     *
+     * @param documentNumber document number, letters in any case
+     * @param patents        patents of the index
+     * @return assignments of the property, oldest first
+     */
+    public ArrayList<Patent> timeline(String documentNumber, List<Patent> patents) {
+        int[] ids = get(documentNumber);
+
+        // sort by recorded date then ID, usually already in order
+        long[] order = new long[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            order[i] = ((long) patents.get(ids[i]).getRecordedDay() << 32) | ids[i];
+        }
+        Arrays.sort(order);
+
+        ArrayList<Patent> timeline = new ArrayList<>(ids.length);
+        for (long entry : order) timeline.add(patents.get((int) entry));
+        return timeline;
+    }
+
+    // number of assignments touching a document number
+    public int count(String documentNumber) {
+        long key = PatentProperty.documentKey(documentNumber);
+        int number = key == PatentProperty.NO_DOCUMENT_KEY ? NONE : find(key);
+        return number == NONE ? 0 : counts[number];
+    }
+
+    // number of distinct document numbers
+    public int documentCount() {
+        return size;
+    }
+
+    // number of (document number, patent) entries
+    public int entryCount() {
+        return entries;
+    }
+
+    // number of patents indexed so far
+    public int indexedCount() {
+        return indexed;
+    }
+
+    // estimated bytes held by the arrays
+    public long sizeInBytes() {
+        return 20L * keys.length + 4L * slots.length + 8L * patentOf.length;
+    }
+}
@@ -0,0 +1,239 @@
+package com.alithabet.entrep.data;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <tt>DtaReader</tt> reads a Stata <tt>.dta</tt> file in the format
+ * 117 layout (Stata 13), the format written by {@link DtaWriter} and
+ * used by the data files shipped with the project, such as
+ * <tt>zipcodes.location.dta</tt> and <tt>population.dta</tt>.
+ * <p>
+ * The file is memory mapped and values are decoded on demand from
+ * their row and column, so reading a column does not load the rest
+ * of the table. Missing numeric values are returned as NaN.
+ *
+ * @author Ali K Thabet
+ */
+public class DtaReader {
+
+    private static final int MAP_ENTRIES = 14;
+
+    private final String     fileName;
+    private final ByteBuffer data;     // whole file, little or big endian
+    private final int        rows;
+    private final String[]   names;    // variable names
+    private final int[]      types;    // Stata type codes
+    private final int[]      offsets;  // offset of each column in a row
+    private final int        rowLength;
+    private final int        dataStart;
+
+    /**
+     * Open a <tt>.dta</tt> file and read its header
+     *
+     * @param fileName name of Stata file to read
+     * @throws IOException if the file cannot be read or is not a format 117 file
+     */
+    public DtaReader(String fileName) throws IOException {
+        if (fileName == null) {
+            throw new NullPointerException("Stata file name is null");
+        }
+
+        this.fileName = fileName;
+        try (RandomAccessFile file = new RandomAccessFile(fileName, "r")) {
+            data = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        }
+
+        expect("<stata_dta><header><release>117</release><byteorder>");
+        String order = text(3);
+        if ("LSF".equals(order)) {
+            data.order(ByteOrder.LITTLE_ENDIAN);
+        } else if ("MSF".equals(order)) {
+            data.order(ByteOrder.BIG_ENDIAN);
+        } else {
+            throw new IOException("Unknown byte order " + order + " in " + fileName);
+        }
+        expect("</byteorder><K>");
+        int k = data.getShort() & 0xFFFF;
+        expect("</K><N>");
+        rows = data.getInt();
+        if (rows < 0) {
+            throw new IOException("Too many rows in " + fileName);
+        }
+        expect("</N><label>");
+        skip(data.get() & 0xFF);
+        expect("</label><timestamp>");
+        skip(data.get() & 0xFF);
+        expect("</timestamp></header><map>");
+
+        long[] map = new long[MAP_ENTRIES];
+        for (int i = 0; i < MAP_ENTRIES; i++) map[i] = data.getLong();
+
+        types = new int[k];
+        data.position((int) map[2]);
+        expect("<variable_types>");
+        for (int i = 0; i < k; i++) types[i] = data.getShort() & 0xFFFF;
+
+        names = new String[k];
+        data.position((int) map[3]);
+        expect("<varnames>");
+        for (int i = 0; i < k; i++) names[i] = fixed(33);
+
+        offsets = new int[k];
+        int length = 0;
+        for (int i = 0; i < k; i++) {
+            offsets[i] = length;
+            length += width(types[i]);
+        }
+        rowLength = length;
+
+        data.position((int) map[9]);
+        expect("<data>");
+        dataStart = data.position();
+        if ((long) rows * rowLength > data.limit() - dataStart) {
+            throw new IOException("Truncated data in " + fileName);
+        }
+    }
+
+    // bytes taken by a value of a Stata type
+    private int width(int type) throws IOException {
+        switch (type) {
+            case DtaWriter.TYPE_BYTE:   return 1;
+            case DtaWriter.TYPE_INT:    return 2;
+            case DtaWriter.TYPE_LONG:   return 4;
+            case DtaWriter.TYPE_FLOAT:  return 4;
+            case DtaWriter.TYPE_DOUBLE: return 8;
+            default:
+                if (type >= 1 && type <= DtaWriter.MAX_STRING) return type;
+                throw new IOException("Unsupported Stata type " + type + " in " + fileName);
+        }
+    }
+
+    private void expect(String tag) throws IOException {
+        if (!tag.equals(text(tag.length()))) {
+            throw new IOException("Not a Stata 117 file " + fileName + ", expected " + tag);
+        }
+    }
+
+    private void skip(int length) {
+        data.position(data.position() + length);
+    }
+
+    private String text(int length) {
+        byte[] b = new byte[Math.min(length, data.remaining())];
+        data.get(b);
+        return new String(b, StandardCharsets.ISO_8859_1);
+    }
+
+    // zero terminated string in a fixed length field
+    private String fixed(int length) {
+        byte[] b = new byte[length];
+        data.get(b);
+        int n = 0;
+        while (n < length && b[n] != 0) n++;
+        return new String(b, 0, n, StandardCharsets.ISO_8859_1);
+    }
+
+    // number of rows
+    public int getRows() {
+        return rows;
+    }
+
+    // number of columns
+    public int getColumns() {
+        return names.length;
+    }
+
+    public String getName(int column) {
+        return names[column];
+    }
+
+    public int getType(int column) {
+        return types[column];
+    }
+
+    // true if a column holds strings
+    public boolean isString(int column) {
+        return types[column] <= DtaWriter.MAX_STRING;
+    }
+
+    /**
+     * Index of a column by name
+     *
+     * @param name variable name
+     * @return column index, or -1 if there is no such column
+     */
+    public int column(String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Value of a string column, without the padding zeros
+     *
+     * @param row    row index
+     * @param column column index
+     * @return the string value
+     */
+    public String getString(int row, int column) {
+        if (!isString(column)) {
+            throw new IllegalArgumentException("Column " + names[column] + " is not a string");
+        }
+        int position = position(row, column);
+        int width    = types[column];
+        int n = 0;
+        while (n < width && data.get(position + n) != 0) n++;
+
+        byte[] b = new byte[n];
+        for (int i = 0; i < n; i++) b[i] = data.get(position + i);
+        return new String(b, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Value of a numeric column
+     *
+     * @param row    row index
+     * @param column column index
+     * @return the value, or NaN if it is missing
+     */
+    public double getDouble(int row, int column) {
+        int position = position(row, column);
+        switch (types[column]) {
+            case DtaWriter.TYPE_BYTE: {
+                byte v = data.get(position);
+                return v > 100 ? Double.NaN : v;
+            }
+            case DtaWriter.TYPE_INT: {
+                short v = data.getShort(position);
+                return v > 32740 ? Double.NaN : v;
+            }
+            case DtaWriter.TYPE_LONG: {
+                int v = data.getInt(position);
+                return v > 2147483620 ? Double.NaN : v;
+            }
+            case DtaWriter.TYPE_FLOAT: {
+                float v = data.getFloat(position);
+                return v > 1.701e38f ? Double.NaN : v;
+            }
+            case DtaWriter.TYPE_DOUBLE: {
+                double v = data.getDouble(position);
+                return v > 8.988e307 ? Double.NaN : v;
+            }
+            default:
+                throw new IllegalArgumentException("Column " + names[column] + " is not numeric");
+        }
+    }
+
+    private int position(int row, int column) {
+        if (row < 0 || row >= rows) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + rows);
+        }
+        return dataStart + row * rowLength + offsets[column];
+    }
+}
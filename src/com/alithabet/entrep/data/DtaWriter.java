@@ -0,0 +1,430 @@
+package com.alithabet.entrep.data;
+
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * <tt>DtaWriter</tt> streams a table to a Stata <tt>.dta</tt> file in
+ * the format 117 layout (Stata 13), the same format as the
+ * <tt>.dta</tt> files used by the analysis scripts. Columns are
+ * declared up front with {@link Column}, then rows are written one
+ * value at a time in column order and closed with {@link #endRow()}.
+ * <p>
+ * Rows go through a fixed size buffer straight to a
+ * {@link FileChannel}, so tables of any length are written without
+ * keeping them in memory. The number of rows and the section map in
+ * the header are filled in by {@link #close()}.
+ *
+ * @author Ali K Thabet
+ */
+public class DtaWriter implements Closeable {
+
+    // Stata 117 type codes
+    public static final int TYPE_DOUBLE = 65526;
+    public static final int TYPE_FLOAT  = 65527;
+    public static final int TYPE_LONG   = 65528;
+    public static final int TYPE_INT    = 65529;
+    public static final int TYPE_BYTE   = 65530;
+    public static final int MAX_STRING  = 2045;
+
+    // missing values of the integer types
+    public static final byte  MISSING_BYTE = 101;
+    public static final short MISSING_INT  = 32741;
+    public static final int   MISSING_LONG = 2147483621;
+
+    // days from 1960-01-01, the origin of Stata dates, to 1970-01-01
+    public static final int STATA_EPOCH_OFFSET = 3653;
+
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int MAP_ENTRIES = 14;
+
+    /**
+     * A column of the table: its name, Stata type, display format,
+     * label, and optionally the name of its value label
+     */
+    public static class Column {
+        final String name;
+        final int    type;
+        final String format;
+        final String label;
+        final String valueLabel;
+
+        public Column(String name, int type, String format, String label, String valueLabel) {
+            if (type <= 0 || (type > MAX_STRING && type < TYPE_DOUBLE) || type > TYPE_BYTE) {
+                throw new IllegalArgumentException("Unsupported Stata type " + type + " for " + name);
+            }
+            this.name       = name;
+            this.type       = type;
+            this.format     = format;
+            this.label      = label;
+            this.valueLabel = valueLabel;
+        }
+
+        // integer column with default format
+        public static Column ofLong(String name, String label) {
+            return new Column(name, TYPE_LONG, "%12.0g", label, null);
+        }
+
+        // date column holding days since 1960-01-01, shown as a date
+        public static Column ofDate(String name, String label) {
+            return new Column(name, TYPE_LONG, "%td", label, null);
+        }
+
+        // byte column whose codes are shown through a value label
+        public static Column ofCode(String name, String label, String valueLabel) {
+            return new Column(name, TYPE_BYTE, "%8.0g", label, valueLabel);
+        }
+
+        // fixed width string column, longer values are truncated
+        public static Column ofString(String name, int width, String label) {
+            return new Column(name, Math.max(1, Math.min(width, MAX_STRING)),
+                    "%-" + Math.max(1, Math.min(width, MAX_STRING)) + "s", label, null);
+        }
+    }
+
+    private final FileChannel                         channel;
+    private final ByteBuffer                          buffer;
+    private final List<Column>                        columns;
+    private final Map<String, Map<Integer, String>>   valueLabels = new LinkedHashMap<>();
+    private final long[]                              map = new long[MAP_ENTRIES];
+    private long                                      position;   // bytes written so far
+    private long                                      nPosition;  // where the row count is stored
+    private long                                      mapPosition;
+    private long                                      rows;
+    private int                                       column;     // next column of the current row
+
+    /**
+     * Create a <tt>.dta</tt> file and write everything up to the data
+     *
+     * @param fileName name of the file to write
+     * @param label    data set label, at most 80 characters
+     * @param columns  columns of the table
+     * @throws IOException if the file cannot be created
+     */
+    public DtaWriter(String fileName, String label, List<Column> columns) throws IOException {
+        if (columns.isEmpty() || columns.size() > 32767) {
+            throw new IllegalArgumentException("A table needs between 1 and 32767 columns");
+        }
+
+        this.channel = new FileOutputStream(fileName).getChannel();
+        this.buffer  = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        this.columns = new ArrayList<>(columns);
+        writeHeader(label);
+    }
+
+    /**
+     * Define a value label, e.g. the names of the status codes.
+     * Value labels are written when the file is closed.
+     *
+     * @param name   name of the value label, as used in {@link Column}
+     * @param labels text of each value
+     */
+    public void addValueLabel(String name, Map<Integer, String> labels) {
+        valueLabels.put(name, new LinkedHashMap<>(labels));
+    }
+
+    private void writeHeader(String label) throws IOException {
+        int k = columns.size();
+
+        tag("<stata_dta><header><release>117</release><byteorder>LSF</byteorder><K>");
+        ensure(2);
+        buffer.putShort((short) k);
+        position += 2;
+        tag("</K><N>");
+        nPosition = position;
+        ensure(4);
+        buffer.putInt(0);
+        position += 4;
+        tag("</N><label>");
+        byte[] text = ascii(label == null ? "" : label, 80);
+        ensure(1);
+        buffer.put((byte) text.length);
+        position++;
+        bytes(text);
+        tag("</label><timestamp>");
+        byte[] stamp = new SimpleDateFormat("dd MMM yyyy HH:mm", Locale.ENGLISH)
+                .format(new Date()).getBytes(StandardCharsets.US_ASCII);
+        ensure(1);
+        buffer.put((byte) stamp.length);
+        position++;
+        bytes(stamp);
+        tag("</timestamp></header>");
+
+        map[1] = position;
+        tag("<map>");
+        mapPosition = position;
+        for (int i = 0; i < MAP_ENTRIES; i++) putLong(0);
+        tag("</map>");
+
+        map[2] = position;
+        tag("<variable_types>");
+        for (Column c : columns) putShort(c.type);
+        tag("</variable_types>");
+
+        map[3] = position;
+        tag("<varnames>");
+        for (Column c : columns) fixed(c.name, 33);
+        tag("</varnames>");
+
+        map[4] = position;
+        tag("<sortlist>");
+        for (int i = 0; i <= k; i++) putShort(0);
+        tag("</sortlist>");
+
+        map[5] = position;
+        tag("<formats>");
+        for (Column c : columns) fixed(c.format, 49);
+        tag("</formats>");
+
+        map[6] = position;
+        tag("<value_label_names>");
+        for (Column c : columns) fixed(c.valueLabel, 33);
+        tag("</value_label_names>");
+
+        map[7] = position;
+        tag("<variable_labels>");
+        for (Column c : columns) fixed(c.label, 81);
+        tag("</variable_labels>");
+
+        map[8] = position;
+        tag("<characteristics></characteristics>");
+
+        map[9] = position;
+        tag("<data>");
+    }
+
+    // values of the current row, in column order
+
+    public void writeByte(int value) throws IOException {
+        next(TYPE_BYTE);
+        ensure(1);
+        buffer.put((byte) value);
+        position++;
+    }
+
+    public void writeInt(int value) throws IOException {
+        next(TYPE_INT);
+        putShort(value);
+    }
+
+    public void writeLong(int value) throws IOException {
+        next(TYPE_LONG);
+        ensure(4);
+        buffer.putInt(value);
+        position += 4;
+    }
+
+    public void writeDouble(double value) throws IOException {
+        next(TYPE_DOUBLE);
+        putLong(Double.doubleToRawLongBits(value));
+    }
+
+    /**
+     * Write an epoch day into a <tt>%td</tt> date column
+     *
+     * @param epochDay date, or {@link PatentDate#NO_DATE} for missing
+     * @throws IOException if writing fails
+     */
+    public void writeDate(int epochDay) throws IOException {
+        writeLong(epochDay == PatentDate.NO_DATE ? MISSING_LONG : epochDay + STATA_EPOCH_OFFSET);
+    }
+
+    /**
+     * Write a string into a fixed width column. Characters outside
+     * Latin-1 are replaced by '?', and longer values are truncated.
+     *
+     * @param value string to write, null is written as empty
+     * @throws IOException if writing fails
+     */
+    public void writeString(String value) throws IOException {
+        Column c = columns.get(column);
+        if (c.type > MAX_STRING) {
+            throw new IllegalStateException("Column " + c.name + " is not a string");
+        }
+        column++;
+
+        int width = c.type;
+        ensure(width);
+        int n = value == null ? 0 : Math.min(width, value.length());
+        for (int i = 0; i < n; i++) {
+            char ch = value.charAt(i);
+            buffer.put(ch < 256 ? (byte) ch : (byte) '?');
+        }
+        for (int i = n; i < width; i++) buffer.put((byte) 0);
+        position += width;
+    }
+
+    /**
+     * Finish the current row
+     *
+     * @throws IllegalStateException if not all the columns were written
+     */
+    public void endRow() {
+        if (column != columns.size()) {
+            throw new IllegalStateException("Row has " + column + " values for "
+                    + columns.size() + " columns");
+        }
+        column = 0;
+        rows++;
+    }
+
+    // number of rows written so far
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * Write the value labels and the end of the file, then
+     * fill in the number of rows and the section map
+     *
+     * @throws IOException if writing fails
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (column != 0) {
+                throw new IllegalStateException("Last row is incomplete");
+            }
+            if (rows > 0xFFFFFFFFL) {
+                throw new IllegalStateException("Format 117 holds at most 4294967295 rows");
+            }
+
+            tag("</data>");
+            map[10] = position;
+            tag("<strls></strls>");
+            map[11] = position;
+            tag("<value_labels>");
+            for (Map.Entry<String, Map<Integer, String>> entry : valueLabels.entrySet()) {
+                writeValueLabel(entry.getKey(), entry.getValue());
+            }
+            tag("</value_labels>");
+            map[12] = position;
+            tag("</stata_dta>");
+            map[13] = position;
+            flush();
+
+            ByteBuffer n = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            n.putInt((int) rows).flip();
+            channel.write(n, nPosition);
+
+            ByteBuffer m = ByteBuffer.allocate(8 * MAP_ENTRIES).order(ByteOrder.LITTLE_ENDIAN);
+            for (long offset : map) m.putLong(offset);
+            m.flip();
+            channel.write(m, mapPosition);
+        } finally {
+            channel.close();
+        }
+    }
+
+    // <lbl>, table length, name, padding, then the value label table
+    private void writeValueLabel(String name, Map<Integer, String> labels) throws IOException {
+        int n = labels.size();
+        List<byte[]> texts = new ArrayList<>();
+        int textLength = 0;
+        for (String text : labels.values()) {
+            byte[] b = ascii(text, 32000);
+            texts.add(b);
+            textLength += b.length + 1;
+        }
+
+        tag("<lbl>");
+        ensure(4);
+        buffer.putInt(8 + 8 * n + textLength);
+        position += 4;
+        fixed(name, 33);
+        bytes(new byte[3]);
+        ensure(8);
+        buffer.putInt(n);
+        buffer.putInt(textLength);
+        position += 8;
+
+        int offset = 0;
+        for (byte[] b : texts) {
+            ensure(4);
+            buffer.putInt(offset);
+            position += 4;
+            offset += b.length + 1;
+        }
+        for (int value : labels.keySet()) {
+            ensure(4);
+            buffer.putInt(value);
+            position += 4;
+        }
+        for (byte[] b : texts) {
+            bytes(b);
+            bytes(new byte[1]);
+        }
+        tag("</lbl>");
+    }
+
+    // check the type of the next value of the row
+    private void next(int type) {
+        if (column >= columns.size()) {
+            throw new IllegalStateException("Row already has " + columns.size() + " values");
+        }
+        Column c = columns.get(column);
+        if (c.type != type) {
+            throw new IllegalStateException("Column " + c.name + " has type " + c.type + ", not " + type);
+        }
+        column++;
+    }
+
+    private void tag(String text) throws IOException {
+        bytes(text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private void bytes(byte[] b) throws IOException {
+        ensure(b.length);
+        buffer.put(b);
+        position += b.length;
+    }
+
+    // string padded with zeros to a fixed length, always zero terminated
+    private void fixed(String s, int length) throws IOException {
+        byte[] b = ascii(s == null ? "" : s, length - 1);
+        bytes(b);
+        bytes(new byte[length - b.length]);
+    }
+
+    private void putShort(int value) throws IOException {
+        ensure(2);
+        buffer.putShort((short) value);
+        position += 2;
+    }
+
+    private void putLong(long value) throws IOException {
+        ensure(8);
+        buffer.putLong(value);
+        position += 8;
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) flush();
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+
+    private static byte[] ascii(String s, int max) {
+        byte[] b = s.getBytes(StandardCharsets.ISO_8859_1);
+        if (b.length <= max) return b;
+        byte[] truncated = new byte[max];
+        System.arraycopy(b, 0, truncated, 0, max);
+        return truncated;
+    }
+}
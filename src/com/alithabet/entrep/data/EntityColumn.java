@@ -0,0 +1,97 @@
+package com.alithabet.entrep.data;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <tt>EntityColumn</tt> keeps the entity IDs set on the assignees of
+ * patents that are decoded on use, see {@link AssigneeEntities}, and
+ * sets them on every copy decoded afterwards. Assignees are numbered
+ * across the patents, those of patent <em>i</em> starting at
+ * <tt>assigneeStart[i]</tt>, and the IDs take room only once the
+ * first one is set. Patents can be appended to the column as they are
+ * appended to their list.
+ *
+ * @author Ali K Thabet
+ */
+final class EntityColumn {
+
+    // assignee keeping the ID decoded with its patent
+    private static final int UNSET = Integer.MIN_VALUE;
+
+    private int[] assigneeStart; // first assignee of each patent, patents + 1 entries used
+    private int   patents;       // number of patents
+    private int[] entityIds;     // ID of each assignee, null until one is set
+
+    // empty column
+    EntityColumn() {
+        this(new int[0]);
+    }
+
+    /**
+     * Column of patents with the given numbers of assignees
+     *
+     * @param assignees number of assignees of each patent
+     */
+    EntityColumn(int[] assignees) {
+        patents       = assignees.length;
+        assigneeStart = new int[patents + 1];
+        for (int i = 0; i < patents; i++) assigneeStart[i + 1] = assigneeStart[i] + assignees[i];
+    }
+
+    // append a patent with a number of assignees
+    void add(int assignees) {
+        if (patents + 1 == assigneeStart.length) {
+            assigneeStart = Arrays.copyOf(assigneeStart, 2 * assigneeStart.length);
+        }
+        int end = assigneeStart[patents] + assignees;
+        if (entityIds != null && end > entityIds.length) {
+            int length = entityIds.length;
+            entityIds = Arrays.copyOf(entityIds, Math.max(end, 2 * length));
+            Arrays.fill(entityIds, length, entityIds.length, UNSET);
+        }
+        assigneeStart[++patents] = end;
+    }
+
+    // number of assignees of a patent the column holds IDs for
+    int assignees(int patent) {
+        check(patent);
+        return assigneeStart[patent + 1] - assigneeStart[patent];
+    }
+
+    // set the entity ID of an assignee of a patent
+    void set(int patent, int assignee, int entityId) {
+        if (assignee < 0 || assignee >= assignees(patent)) {
+            throw new IndexOutOfBoundsException("Assignee " + assignee + " of patent " + patent);
+        }
+        if (entityIds == null) {
+            entityIds = new int[Math.max(1, assigneeStart[patents])];
+            Arrays.fill(entityIds, UNSET);
+        }
+        entityIds[assigneeStart[patent] + assignee] = entityId;
+    }
+
+    // forget the IDs of a patent, once it is stored again with its own
+    void clear(int patent) {
+        check(patent);
+        if (entityIds == null) return;
+        Arrays.fill(entityIds, assigneeStart[patent], assigneeStart[patent + 1], UNSET);
+    }
+
+    // set the IDs kept for a patent on the assignees of a decoded copy
+    void apply(int patent, Patent decoded) {
+        if (entityIds == null) return;
+        List<Person> assignees = decoded.getPatentAssignees();
+        int count = Math.min(assignees.size(), assignees(patent));
+        for (int i = 0; i < count; i++) {
+            int entityId = entityIds[assigneeStart[patent] + i];
+            if (entityId != UNSET) assignees.get(i).setEntityId(entityId);
+        }
+    }
+
+    private void check(int patent) {
+        if (patent < 0 || patent >= patents) {
+            throw new IndexOutOfBoundsException("Patent " + patent + " of " + patents);
+        }
+    }
+}
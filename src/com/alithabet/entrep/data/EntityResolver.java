@@ -0,0 +1,485 @@
+package com.alithabet.entrep.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * <tt>EntityResolver</tt> groups the name variants of patent assignees
+ * into canonical firm IDs, so that e.g. <tt>"NXP B.V."</tt> and
+ * <tt>"NXP BV"</tt>, or <tt>"STANFORD UNIVERSITY"</tt> and
+ * <tt>"LELAND STANFORD JUNIOR UNIVERSITY, BOARD OF TRUSTEES"</tt>,
+ * share one ID.
+ * <p>
+ * Names are first normalized: upper case, dots of abbreviations
+ * removed, other punctuation turned into spaces, and legal forms
+ * such as <tt>INC</tt> or <tt>GMBH</tt> dropped. Names with the same
+ * normalized form are one entity. The normalized names are then
+ * blocked twice, so only a few candidate pairs are compared and
+ * resolution runs in close to linear time instead of comparing every
+ * pair:
+ * <ul>
+ *     <li>MinHash locality sensitive hashing over character 3-grams:
+ *     names sharing a band of their signature are merged when the
+ *     Jaccard similarity of their 3-grams reaches the threshold</li>
+ *     <li>rarest word: a name of two words or more is compared with
+ *     the names holding its least frequent word, and merged with
+ *     those containing all its words when they all belong to one
+ *     entity. A short generic name held by several entities, such as
+ *     <tt>"BANK OF"</tt> in <tt>"BANK OF AMERICA"</tt> and
+ *     <tt>"BANK OF NEW YORK"</tt>, would otherwise join them, so it is
+ *     only merged with the names whose 3-grams reach the threshold.</li>
+ * </ul>
+ * Merges are transitive, through union-find. {@link #main(String[])}
+ * checks that such hub names keep their entities apart.
+ * <p>
+ * {@link #resolve(List)} sets the entity ID of every assignee, see
+ * {@link Person#getEntityId()}. The canonical name of an entity is
+ * its most frequent variant.
+ *
+ * @author Ali K Thabet
+ */
+public class EntityResolver {
+
+    public static final double DEFAULT_THRESHOLD = 0.75;
+
+    // prefix of the index words holding entity IDs, see indexKey
+    public static final String INDEX_PREFIX = "entity:";
+
+    private static final int BANDS     = 16; // LSH bands
+    private static final int ROWS      = 4;  // MinHash values per band
+    private static final int MAX_BLOCK = 64; // blocks larger than this are compared with a sliding window
+    private static final int WINDOW    = 8;
+    private static final int MAX_WORD  = 1000; // words used by more names are not blocked on
+
+    // words dropped from names: legal forms and articles
+    private static final Set<String> STOP_WORDS = new HashSet<>(Arrays.asList(
+            "THE", "INC", "INCORPORATED", "CORP", "CORPORATION", "CO", "COMPANY", "LTD", "LIMITED",
+            "LLC", "LLP", "LP", "PLC", "BV", "NV", "AG", "GMBH", "SA", "SAS", "SARL", "SPA", "KK",
+            "AB", "OY", "PTY", "KABUSHIKI", "KAISHA"));
+
+    private final double             threshold;
+    private HashMap<String, Integer> nodes;    // normalized name to node
+    private int[]                    parents;  // union-find forest over nodes
+    private int[]                    entities; // entity ID of each root node
+    private ArrayList<String>        names;    // canonical name of each entity
+
+    // default no argument constructor
+    public EntityResolver() {
+        this(DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Constructor with the similarity needed to merge two names
+     *
+     * @param threshold Jaccard similarity of 3-grams, between 0 and 1
+     */
+    public EntityResolver(double threshold) {
+        if (threshold <= 0 || threshold > 1) {
+            throw new IllegalArgumentException("Threshold must be in (0, 1]: " + threshold);
+        }
+        this.threshold = threshold;
+    }
+
+    /**
+     * Resolve the assignees of <em>patents</em> into entities and set
+     * their entity IDs. Names that normalize to nothing get no entity.
+     * Lists that decode a new copy of a patent on each get keep the
+     * IDs when they implement {@link AssigneeEntities}.
+     *
+     * @param patents patents whose assignees are resolved
+     * @return number of entities
+     */
+    public int resolve(List<Patent> patents) {
+        // distinct normalized names, with the node and number of persons of each raw name
+        nodes = new HashMap<>();
+        ArrayList<String>      keys     = new ArrayList<>();
+        HashMap<String, int[]> variants = new HashMap<>();
+        for (Patent patent : patents) {
+            for (Person assignee : patent.getPatentAssignees()) {
+                String name = assignee.getName();
+                if (name == null) continue;
+                int[] variant = variants.get(name);
+                if (variant == null) {
+                    String  key  = normalize(name);
+                    Integer node = nodes.get(key);
+                    if (node == null && !key.isEmpty()) {
+                        node = keys.size();
+                        nodes.put(key, node);
+                        keys.add(key);
+                    }
+                    variant = new int[] {0, node == null ? Person.NO_ENTITY : node};
+                    variants.put(name, variant);
+                }
+                variant[0]++;
+            }
+        }
+
+        int n = keys.size();
+        parents = new int[n];
+        for (int i = 0; i < n; i++) parents[i] = i;
+
+        // 3-grams, hashes of the signature bands and sorted distinct word IDs of each name
+        long[][] grams     = new long[n][];
+        int[]    bandHash  = new int[BANDS * n];
+        int[]    signature = new int[BANDS * ROWS];
+        int[][]  words     = new int[n][];
+        HashMap<String, Integer> wordIds = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            grams[i] = grams(keys.get(i));
+            signature(grams[i], signature);
+            for (int b = 0; b < BANDS; b++) {
+                int hash = 1;
+                for (int r = 0; r < ROWS; r++) hash = hash * 0x01000193 ^ signature[b * ROWS + r];
+                bandHash[i * BANDS + b] = hash;
+            }
+            words[i] = words(keys.get(i), wordIds);
+        }
+
+        // block on each band of the signature, then verify the pairs of a block
+        long[] band = new long[n];
+        for (int b = 0; b < BANDS; b++) {
+            for (int i = 0; i < n; i++) band[i] = (long) bandHash[i * BANDS + b] << 32 | i;
+            Arrays.sort(band);
+            for (int start = 0, end; start < n; start = end) {
+                end = start + 1;
+                while (end < n && (band[end] >>> 32) == (band[start] >>> 32)) end++;
+                compareBlock(band, start, end, grams);
+            }
+        }
+
+        compareWords(words, wordIds.size(), grams);
+
+        // entity IDs in order of first appearance, named after the most frequent variant
+        entities = new int[n];
+        Arrays.fill(entities, Person.NO_ENTITY);
+        names = new ArrayList<>();
+        int[] best = new int[n];
+        AssigneeEntities column = patents instanceof AssigneeEntities ? (AssigneeEntities) patents : null;
+        for (int p = 0; p < patents.size(); p++) {
+            List<Person> assignees = patents.get(p).getPatentAssignees();
+            for (int a = 0; a < assignees.size(); a++) {
+                Person assignee = assignees.get(a);
+                String name     = assignee.getName();
+                int[]  variant  = name == null ? null : variants.get(name);
+                int    entityId = Person.NO_ENTITY;
+                if (variant != null && variant[1] != Person.NO_ENTITY) {
+                    int root = find(variant[1]);
+                    if (entities[root] == Person.NO_ENTITY) {
+                        entities[root] = names.size();
+                        names.add(name);
+                    }
+                    if (variant[0] > best[root]) {
+                        best[root] = variant[0];
+                        names.set(entities[root], name);
+                    }
+                    entityId = entities[root];
+                }
+                assignee.setEntityId(entityId);
+                if (column != null) column.setEntityId(p, a, entityId);
+            }
+        }
+        return names.size();
+    }
+
+    // merge each name of two words or more with the names containing all its words.
+    // Candidates are the names holding both its two least frequent words, found by
+    // intersecting the sorted lists of names of those words. A name contained by
+    // names of several entities is a hub, e.g. "MEDICAL SYSTEMS", and is only merged
+    // with those similar enough by 3-grams, so that it does not join the entities.
+    private void compareWords(int[][] words, int wordCount, long[][] grams) {
+        int[] frequency = new int[wordCount];
+        for (int[] name : words) {
+            for (int w : name) frequency[w]++;
+        }
+        int[][] holders = new int[wordCount][];
+        for (int w = 0; w < wordCount; w++) {
+            if (frequency[w] <= MAX_WORD) holders[w] = new int[frequency[w]];
+        }
+        int[] filled = new int[wordCount];
+        for (int i = 0; i < words.length; i++) {
+            for (int w : words[i]) {
+                if (holders[w] != null) holders[w][filled[w]++] = i;
+            }
+        }
+
+        // entities before containment, so the order of the names does not matter
+        int[] roots = new int[words.length];
+        for (int i = 0; i < words.length; i++) roots[i] = find(i);
+
+        int[] candidates = new int[MAX_WORD];
+        for (int i = 0; i < words.length; i++) {
+            if (words[i].length < 2) continue;
+
+            int first = -1, second = -1;
+            for (int w : words[i]) {
+                if (first < 0 || frequency[w] < frequency[first]) {
+                    second = first;
+                    first  = w;
+                } else if (second < 0 || frequency[w] < frequency[second]) {
+                    second = w;
+                }
+            }
+            if (holders[first] == null || holders[second] == null) continue;
+
+            // keep the names containing this one, noting whether they are of one entity
+            int n = intersect(holders[first], holders[second], candidates);
+            int containers = 0, root = -1;
+            boolean single = true;
+            for (int k = 0; k < n; k++) {
+                int j = candidates[k];
+                if (j != i && words[j].length >= words[i].length && contains(words[j], words[i])) {
+                    candidates[containers++] = j;
+                    if (root < 0) root = roots[j];
+                    else if (roots[j] != root) single = false;
+                }
+            }
+            if (containers == 0) continue;
+
+            if (single) {
+                union(i, root);
+                continue;
+            }
+            for (int k = 0; k < containers; k++) {
+                int j = candidates[k];
+                if (find(i) != find(j) && jaccard(grams[i], grams[j]) >= threshold) union(i, j);
+            }
+        }
+    }
+
+    // intersection of two sorted arrays, returning its size
+    private static int intersect(int[] a, int[] b, int[] out) {
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] == b[j]) {
+                out[n++] = a[i];
+                i++;
+                j++;
+            } else if (a[i] < b[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return n;
+    }
+
+    // merge the matching names of a block of the sorted band
+    private void compareBlock(long[] band, int start, int end, long[][] grams) {
+        boolean small = end - start <= MAX_BLOCK;
+        for (int i = start; i < end; i++) {
+            int a    = (int) band[i];
+            int last = small ? end : Math.min(end, i + 1 + WINDOW);
+            for (int j = i + 1; j < last; j++) {
+                int b = (int) band[j];
+                if (find(a) == find(b)) continue;
+                if (jaccard(grams[a], grams[b]) >= threshold) union(a, b);
+            }
+        }
+    }
+
+    /**
+     * Entity ID of a name, after {@link #resolve(List)}
+     *
+     * @param name assignee name
+     * @return the entity ID, or {@link Person#NO_ENTITY} if the name was not resolved
+     */
+    public int entityOf(String name) {
+        if (nodes == null || name == null) return Person.NO_ENTITY;
+        Integer node = nodes.get(normalize(name));
+        return node == null ? Person.NO_ENTITY : entities[find(node)];
+    }
+
+    // canonical name of an entity
+    public String getName(int entityId) {
+        return names.get(entityId);
+    }
+
+    // number of entities found by the last resolve
+    public int size() {
+        return names == null ? 0 : names.size();
+    }
+
+    // word under which the patents of an entity are indexed
+    public static String indexKey(int entityId) {
+        return INDEX_PREFIX + entityId;
+    }
+
+    /**
+     * Normalized form of a name: upper case words of letters and
+     * digits, dots removed so <tt>"B.V."</tt> becomes <tt>"BV"</tt>,
+     * and legal forms and articles dropped
+     *
+     * @param name name to normalize
+     * @return normalized name, empty if nothing is left
+     */
+    public static String normalize(String name) {
+        StringBuilder builder = new StringBuilder(name.length());
+        StringBuilder word    = new StringBuilder();
+        for (int i = 0; i <= name.length(); i++) {
+            char c = i < name.length() ? name.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                word.append(Character.toUpperCase(c));
+            } else if (c != '.' && c != '\'' && word.length() > 0) {
+                String w = word.toString();
+                if (!STOP_WORDS.contains(w)) {
+                    if (builder.length() > 0) builder.append(' ');
+                    builder.append(w);
+                }
+                word.setLength(0);
+            }
+        }
+        return builder.toString();
+    }
+
+    // sorted distinct 3-grams of a name padded with spaces, three chars packed in a long
+    private static long[] grams(String key) {
+        String s = " " + key + " ";
+        long[] grams = new long[Math.max(1, s.length() - 2)];
+        for (int i = 0; i + 2 < s.length(); i++) {
+            grams[i] = (long) s.charAt(i) << 32 | (long) s.charAt(i + 1) << 16 | s.charAt(i + 2);
+        }
+        Arrays.sort(grams);
+        int n = 0;
+        for (int i = 0; i < grams.length; i++) {
+            if (i == 0 || grams[i] != grams[n - 1]) grams[n++] = grams[i];
+        }
+        return Arrays.copyOf(grams, n);
+    }
+
+    // sorted distinct IDs of the words of a name
+    private static int[] words(String key, HashMap<String, Integer> wordIds) {
+        String[] split = key.split(" ");
+        int[] ids = new int[split.length];
+        for (int i = 0; i < split.length; i++) {
+            Integer id = wordIds.get(split[i]);
+            if (id == null) {
+                id = wordIds.size();
+                wordIds.put(split[i], id);
+            }
+            ids[i] = id;
+        }
+        Arrays.sort(ids);
+        int n = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (i == 0 || ids[i] != ids[n - 1]) ids[n++] = ids[i];
+        }
+        return Arrays.copyOf(ids, n);
+    }
+
+    // MinHash signature: minimum of each hash function over the 3-grams, the
+    // k-th function being h1 + k * h2 for the two halves of one hash of the gram
+    private static void signature(long[] grams, int[] signature) {
+        Arrays.fill(signature, Integer.MAX_VALUE);
+        for (long gram : grams) {
+            long x  = mix(gram);
+            int  h1 = (int) x;
+            int  h2 = (int) (x >>> 32) | 1;
+            for (int k = 0; k < signature.length; k++) {
+                int h = h1 + k * h2;
+                if (h < signature[k]) signature[k] = h;
+            }
+        }
+    }
+
+    private static long mix(long x) {
+        x = (x ^ (x >>> 33)) * 0xFF51AFD7ED558CCDL;
+        x = (x ^ (x >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return x ^ (x >>> 33);
+    }
+
+    // Jaccard similarity of two sorted sets
+    static double jaccard(long[] a, long[] b) {
+        int i = 0, j = 0, common = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] == b[j]) {
+                common++;
+                i++;
+                j++;
+            } else if (a[i] < b[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return (double) common / (a.length + b.length - common);
+    }
+
+    // true if the sorted word set b is contained in the sorted word set a
+    static boolean contains(int[] a, int[] b) {
+        int i = 0;
+        for (int w : b) {
+            while (i < a.length && a[i] < w) i++;
+            if (i == a.length || a[i] != w) return false;
+        }
+        return true;
+    }
+
+    private int find(int x) {
+        while (parents[x] != x) {
+            parents[x] = parents[parents[x]];
+            x = parents[x];
+        }
+        return x;
+    }
+
+    private void union(int a, int b) {
+        int ra = find(a), rb = find(b);
+        if (ra != rb) parents[Math.max(ra, rb)] = Math.min(ra, rb);
+    }
+
+    // generic names contained by the names of several firms, followed by those firms
+    private static final String[][] HUBS = {
+            {"MEDICAL SYSTEMS INC", "SIEMENS MEDICAL SYSTEMS", "PHILIPS MEDICAL SYSTEMS", "GE MEDICAL SYSTEMS"},
+            {"BOARD OF TRUSTEES", "LELAND STANFORD JUNIOR UNIVERSITY, BOARD OF TRUSTEES",
+                    "UNIVERSITY OF ILLINOIS, BOARD OF TRUSTEES"},
+            {"BANK OF", "BANK OF AMERICA", "BANK OF NEW YORK"}};
+
+    /**
+     * Check that hub names do not merge the firms containing them,
+     * while a name contained by a single firm is still merged with it
+     *
+     * @return a description of the first wrong merge, or null if there is none
+     */
+    static String checkHubs() {
+        ArrayList<Patent> patents = new ArrayList<>();
+        for (String[] hub : HUBS) {
+            for (String name : hub) patents.add(assigned(name));
+        }
+        patents.add(assigned("STANFORD UNIVERSITY"));
+
+        EntityResolver resolver = new EntityResolver();
+        resolver.resolve(patents);
+        for (String[] hub : HUBS) {
+            for (int a = 1; a < hub.length; a++) {
+                for (int b = a + 1; b < hub.length; b++) {
+                    if (resolver.entityOf(hub[a]) == resolver.entityOf(hub[b])) {
+                        return "\"" + hub[a] + "\" and \"" + hub[b] + "\" merged through \"" + hub[0] + "\"";
+                    }
+                }
+            }
+        }
+        if (resolver.entityOf("STANFORD UNIVERSITY") != resolver.entityOf(HUBS[1][1])) {
+            return "\"STANFORD UNIVERSITY\" not merged with \"" + HUBS[1][1] + "\"";
+        }
+        return null;
+    }
+
+    // patent with a single assignee
+    private static Patent assigned(String name) {
+        Person assignee = new Person();
+        assignee.setName(name);
+        Patent patent = new Patent();
+        patent.getPatentAssignees().add(assignee);
+        return patent;
+    }
+
+    // run the hub check
+    public static void main(String[] args) {
+        String wrong = checkHubs();
+        System.out.println("Hub names: " + (wrong == null ? "OK" : wrong));
+    }
+}
@@ -0,0 +1,369 @@
+package com.alithabet.entrep.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * <tt>GeoIndex</tt> attaches a location and a city population to the
+ * US assignees of the patents. Coordinates come from the geocoded
+ * zip codes of <tt>zipcodes.location.dta</tt> and populations from
+ * the city table of <tt>population.dta</tt>.
+ * <p>
+ * Zip codes are kept in an open addressing table keyed by the 5 digit
+ * code as an <tt>int</tt>, and cities in a second table keyed by the
+ * normalized city name and state. Lookups hash the characters of the
+ * person's fields directly and do not allocate, so {@link #locate(Person)}
+ * can run inline for every assignee while the files are read.
+ * The index is read only once built and is safe to share between
+ * threads.
+ *
+ * @author Ali K Thabet
+ */
+public class GeoIndex {
+
+    public static final String ZIPCODE_FILE    = "zipcodes.location.dta";
+    public static final String POPULATION_FILE = "population.dta";
+
+    // country of the assignees that are located
+    private static final String US = "US";
+
+    // zip code table
+    private int[]    zipKeys;      // zip code + 1, 0 for an empty slot
+    private double[] latitudes;
+    private double[] longitudes;
+    private short[]  zipStates;    // two letter state of the zip code packed in a short
+    private int      zipCount;
+
+    // city table
+    private String[] cityKeys;     // normalized city name, null for an empty slot
+    private short[]  cityStates;   // state of the city, 0 for the entry of any state
+    private int[]    populations;
+    private int      cityCount;
+
+    /**
+     * Create an empty index with room for the given number of entries
+     *
+     * @param zipcodes expected number of zip codes
+     * @param cities   expected number of cities
+     */
+    public GeoIndex(int zipcodes, int cities) {
+        int zipSize = tableSize(zipcodes);
+        zipKeys    = new int[zipSize];
+        latitudes  = new double[zipSize];
+        longitudes = new double[zipSize];
+        zipStates  = new short[zipSize];
+
+        // every city is added once for its state and once for any state
+        int citySize = tableSize(2 * cities);
+        cityKeys    = new String[citySize];
+        cityStates  = new short[citySize];
+        populations = new int[citySize];
+    }
+
+    // power of two at least twice the number of entries
+    private static int tableSize(int entries) {
+        int size = 16;
+        while (size < 2 * entries) size <<= 1;
+        return size;
+    }
+
+    /**
+     * Load the index from the zip code and population files
+     * of a folder, see {@link #ZIPCODE_FILE} and {@link #POPULATION_FILE}
+     *
+     * @param folder folder holding the Stata files
+     * @return the index
+     * @throws IOException if a file cannot be read
+     */
+    public static GeoIndex load(String folder) throws IOException {
+        return load(new File(folder, ZIPCODE_FILE).getPath(), new File(folder, POPULATION_FILE).getPath());
+    }
+
+    /**
+     * Load the index from a geocoded zip code file, with the columns
+     * <em>zipcode</em>, <em>state</em>, <em>g_lat</em>, <em>g_lon</em>
+     * and <em>g_status</em>, and a city population file with the
+     * columns <em>city</em>, <em>pop</em> and <em>datastate</em>
+     *
+     * @param zipcodeFile    name of the zip code file
+     * @param populationFile name of the population file
+     * @return the index
+     * @throws IOException if a file cannot be read or lacks a column
+     */
+    public static GeoIndex load(String zipcodeFile, String populationFile) throws IOException {
+        DtaReader zipcodes   = new DtaReader(zipcodeFile);
+        DtaReader population = new DtaReader(populationFile);
+        GeoIndex  index      = new GeoIndex(zipcodes.getRows(), population.getRows());
+
+        int zipcode = required(zipcodes, "zipcode");
+        int state   = required(zipcodes, "state");
+        int lat     = required(zipcodes, "g_lat");
+        int lon     = required(zipcodes, "g_lon");
+        int status  = zipcodes.column("g_status");
+        for (int row = 0; row < zipcodes.getRows(); row++) {
+            if (status >= 0 && !"OK".equals(zipcodes.getString(row, status))) continue;
+            int code = zipcode(zipcodes.getString(row, zipcode));
+            if (code < 0) continue;
+            try {
+                index.addZipcode(code, zipcodes.getString(row, state),
+                        Double.parseDouble(zipcodes.getString(row, lat)),
+                        Double.parseDouble(zipcodes.getString(row, lon)));
+            } catch (NumberFormatException e) {
+                System.out.println("Zip code location exception:" + e.getMessage());
+            }
+        }
+
+        int city      = required(population, "city");
+        int pop       = required(population, "pop");
+        int dataState = required(population, "datastate");
+        for (int row = 0; row < population.getRows(); row++) {
+            double value = population.getDouble(row, pop);
+            if (Double.isNaN(value)) continue;
+            index.addCity(population.getString(row, city), population.getString(row, dataState), (int) value);
+        }
+        return index;
+    }
+
+    private static int required(DtaReader reader, String name) throws IOException {
+        int column = reader.column(name);
+        if (column < 0) {
+            throw new IOException("Missing column " + name + " in Stata file");
+        }
+        return column;
+    }
+
+    /**
+     * Add the location of a zip code
+     *
+     * @param zipcode   5 digit zip code
+     * @param state     two letter state code
+     * @param latitude  latitude in degrees
+     * @param longitude longitude in degrees
+     */
+    public void addZipcode(int zipcode, String state, double latitude, double longitude) {
+        int slot = zipSlot(zipcode);
+        if (zipKeys[slot] == 0) {
+            if (2 * (zipCount + 1) > zipKeys.length) {
+                throw new IllegalStateException("Zip code table is full");
+            }
+            zipKeys[slot] = zipcode + 1;
+            zipCount++;
+        }
+        latitudes[slot]  = latitude;
+        longitudes[slot] = longitude;
+        zipStates[slot]  = state(state);
+    }
+
+    /**
+     * Add the population of a city. The city is also added without its
+     * state, unless a city of the same name was added in another state.
+     *
+     * @param city       city name
+     * @param state      two letter state code
+     * @param population population of the city
+     */
+    public void addCity(String city, String state, int population) {
+        if (city == null) return;
+        short code = state(state);
+        boolean added = cityKeys[citySlot(city, code)] == null;
+        putCity(city, code, population);
+        if (code == 0) return;
+
+        // name alone, marked ambiguous if it exists in several states
+        int slot = citySlot(city, (short) 0);
+        if (cityKeys[slot] == null) {
+            putCity(city, (short) 0, population);
+        } else if (added) {
+            populations[slot] = Person.NO_POPULATION;
+        } else if (populations[slot] != Person.NO_POPULATION) {
+            populations[slot] = population;
+        }
+    }
+
+    private void putCity(String city, short state, int population) {
+        int slot = citySlot(city, state);
+        if (cityKeys[slot] == null) {
+            if (2 * (cityCount + 1) > cityKeys.length) {
+                throw new IllegalStateException("City table is full");
+            }
+            cityKeys[slot]   = normalize(city);
+            cityStates[slot] = state;
+            cityCount++;
+        }
+        populations[slot] = population;
+    }
+
+    /**
+     * Set the location and population of a person from its postcode
+     * and city. Only persons in the US are located; the state of the
+     * zip code, or the person's state, picks the city when the same
+     * name is used in several states.
+     *
+     * @param person person to locate
+     * @return true if a location or a population was found
+     */
+    public boolean locate(Person person) {
+        String country = person.getCountry();
+        if (country != null && !US.equals(country)) return false;
+
+        boolean found = false;
+        short state = 0;
+        int zipcode = zipcode(person.getPostcode());
+        if (zipcode >= 0) {
+            int slot = zipSlot(zipcode);
+            if (zipKeys[slot] != 0) {
+                person.setLatitude(latitudes[slot]);
+                person.setLongitude(longitudes[slot]);
+                state = zipStates[slot];
+                found = true;
+            }
+        }
+
+        String city = person.getCity();
+        if (city != null) {
+            if (state == 0) {
+                state = state(person.getState());
+            }
+            int slot = citySlot(city, state);
+            if (cityKeys[slot] != null && populations[slot] != Person.NO_POPULATION) {
+                person.setPopulation(populations[slot]);
+                found = true;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Locate all the assignees of a list of patents
+     *
+     * @param patents patents to locate
+     * @return number of assignees located
+     */
+    public int locate(List<Patent> patents) {
+        int count = 0;
+        for (Patent patent : patents) {
+            for (Person assignee : patent.getPatentAssignees()) {
+                if (locate(assignee)) count++;
+            }
+        }
+        return count;
+    }
+
+    // number of zip codes in the index
+    public int zipcodeCount() {
+        return zipCount;
+    }
+
+    // number of city entries in the index, by state and by name alone
+    public int cityCount() {
+        return cityCount;
+    }
+
+    // slot of a zip code, either holding it or empty
+    private int zipSlot(int zipcode) {
+        int mask = zipKeys.length - 1;
+        int slot = (zipcode * 0x9E3779B1) >>> 16 & mask;
+        while (zipKeys[slot] != 0 && zipKeys[slot] != zipcode + 1) slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    // slot of a city and state, either holding them or empty
+    private int citySlot(String city, short state) {
+        int mask = cityKeys.length - 1;
+        int slot = (cityHash(city) * 31 + state) * 0x9E3779B1 >>> 16 & mask;
+        while (cityKeys[slot] != null
+                && !(cityStates[slot] == state && sameCity(cityKeys[slot], city))) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Normalized form of a city name: upper case letters and digits,
+     * with every run of other characters turned into a single space,
+     * so <tt>"St. Louis"</tt> and <tt>"ST LOUIS"</tt> match
+     *
+     * @param city city name
+     * @return normalized name
+     */
+    public static String normalize(String city) {
+        StringBuilder builder = new StringBuilder(city.length());
+        boolean space = false;
+        for (int i = 0; i < city.length(); i++) {
+            char c = city.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (space && builder.length() > 0) builder.append(' ');
+                builder.append(Character.toUpperCase(c));
+                space = false;
+            } else {
+                space = true;
+            }
+        }
+        return builder.toString();
+    }
+
+    // hash of the normalized form of a city name, without building it
+    private static int cityHash(String city) {
+        int hash = 0;
+        boolean space = false, started = false;
+        for (int i = 0; i < city.length(); i++) {
+            char c = city.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (space && started) hash = hash * 31 + ' ';
+                hash = hash * 31 + Character.toUpperCase(c);
+                space = false;
+                started = true;
+            } else {
+                space = true;
+            }
+        }
+        return hash;
+    }
+
+    // true if the normalized name equals the normalized form of city
+    private static boolean sameCity(String normalized, String city) {
+        int j = 0;
+        boolean space = false;
+        for (int i = 0; i < city.length(); i++) {
+            char c = city.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (space && j > 0) {
+                    if (j >= normalized.length() || normalized.charAt(j) != ' ') return false;
+                    j++;
+                }
+                if (j >= normalized.length() || normalized.charAt(j) != Character.toUpperCase(c)) return false;
+                j++;
+                space = false;
+            } else {
+                space = true;
+            }
+        }
+        return j == normalized.length();
+    }
+
+    // two letter state code packed in a short, 0 if it is not two letters
+    private static short state(String s) {
+        if (s == null || s.length() != 2) return 0;
+        return (short) (Character.toUpperCase(s.charAt(0)) << 8 | Character.toUpperCase(s.charAt(1)));
+    }
+
+    /**
+     * 5 digit zip code at the start of a postcode,
+     * e.g. 94305 for <tt>"94305-2004"</tt>
+     *
+     * @param postcode postcode string, may be null
+     * @return the zip code, or -1 if it does not start with 5 digits
+     */
+    static int zipcode(String postcode) {
+        if (postcode == null || postcode.length() < 5) return -1;
+        int code = 0;
+        for (int i = 0; i < 5; i++) {
+            int d = postcode.charAt(i) - '0';
+            if (d < 0 || d > 9) return -1;
+            code = code * 10 + d;
+        }
+        if (postcode.length() > 5 && Character.isDigit(postcode.charAt(5))) return -1;
+        return code;
+    }
+}
@@ -0,0 +1,163 @@
+package com.alithabet.entrep.data;
+
+import java.util.ArrayList;
+
+/**
+ * <tt>HeapReport</tt> measures the heap used by a {@link PatentArray}
+ * and the savings of its {@link StringDictionary}. The input is read
+ * twice, once keeping a separate copy of every value and once sharing
+ * them through the dictionary, and the heap used by each is reported.
+ * It also counts the persons and properties of the array, estimates
+ * the bytes their cities, postcodes, countries, states and kinds would
+ * take as separate copies, and compares it with the size of the
+ * dictionary that replaces them. The words of the {@link PatentIndex}
+ * are reported the same way: the bytes they would take as separate
+ * strings, against its key table and the tries of its prefix lookups.
+ * <p>
+ * Usage: <tt>java com.alithabet.entrep.data.HeapReport fileOrFolder</tt>
+ *
+ * @author Ali K Thabet
+ */
+public class HeapReport {
+
+    // estimated heap of a separate String: header, array header and characters
+    private static final int STRING_OVERHEAD = 40;
+
+    private long patents;       // patents in the array
+    private long persons;       // persons in the array
+    private long properties;    // patent properties in the array
+    private long fields;        // dictionary encoded fields that are not null
+    private long copyBytes;     // bytes of those fields as separate strings
+    private long usedHeap;      // heap used after loading, in bytes
+    private long separateHeap;  // heap used by a load keeping every copy, -1 if not measured
+    private long keyCopyBytes;  // bytes of the index words as separate strings
+    private final PatentIndex index; // index of the array
+    private final StringDictionary dictionary; // dictionary of the array
+
+    /**
+     * Build the report for a loaded array
+     *
+     * @param array    patents to measure
+     * @param usedHeap heap used once the array is loaded, in bytes
+     */
+    public HeapReport(PatentArray array, long usedHeap) {
+        this(array, usedHeap, -1);
+    }
+
+    /**
+     * Build the report for a loaded array, with the heap the same
+     * input used when read without the dictionary
+     *
+     * @param array        patents to measure
+     * @param usedHeap     heap used once the array is loaded, in bytes
+     * @param separateHeap heap used by the input read without the dictionary, in bytes
+     */
+    public HeapReport(PatentArray array, long usedHeap, long separateHeap) {
+        this.usedHeap     = usedHeap;
+        this.separateHeap = separateHeap;
+        this.patents    = array.getPatents().size();
+        this.dictionary = array.getDictionary();
+        this.index      = array.getIndex();
+        for (String key : index.keys()) keyCopyBytes += STRING_OVERHEAD + 2L * key.length();
+        for (Patent patent : array.getPatents()) {
+            addPerson(patent.getCorrespondent());
+            for (Person p : patent.getPatentAssignors()) addPerson(p);
+            for (Person p : patent.getPatentAssignees()) addPerson(p);
+
+            for (ArrayList<PatentProperty> list : patent.getInventions().values()) {
+                for (PatentProperty property : list) {
+                    properties++;
+                    addField(property.getCountry());
+                    addField(property.getKind());
+                }
+            }
+        }
+    }
+
+    private void addPerson(Person person) {
+        persons++;
+        addField(person.getCity());
+        addField(person.getState());
+        addField(person.getCountry());
+        addField(person.getPostcode());
+    }
+
+    private void addField(String s) {
+        if (s == null) return;
+        fields++;
+        copyBytes += STRING_OVERHEAD + 2L * s.length();
+    }
+
+    // heap used by the JVM after full collections, running the finalizers
+    // in between so that what they hold on to is collected as well
+    public static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            System.runFinalization();
+        }
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @Override
+    public String toString() {
+        long dictionaryBytes = dictionary.sizeInBytes();
+
+        StringBuilder builder = new StringBuilder();
+        builder.append("Patents:                     " + patents + "\n");
+        builder.append("Persons:                     " + persons + "\n");
+        builder.append("Patent properties:           " + properties + "\n");
+        if (separateHeap >= 0) {
+            builder.append("Heap without dictionary:     " + separateHeap / 1024 + " KB\n");
+            builder.append("Per patent:                  " + separateHeap / Math.max(1, patents) + " bytes\n");
+        }
+        builder.append("Heap used:                   " + usedHeap / 1024 + " KB\n");
+        builder.append("Heap used per patent:        " + usedHeap / Math.max(1, patents) + " bytes\n");
+        if (separateHeap >= 0) {
+            builder.append("Measured heap saved:         " + (separateHeap - usedHeap) / 1024 + " KB ("
+                    + (separateHeap == 0 ? 0 : 100 * (separateHeap - usedHeap) / separateHeap) + "%)\n");
+        }
+        builder.append("Dictionary encoded fields:   " + fields + "\n");
+        builder.append("Distinct strings:            " + dictionary.size() + "\n");
+        builder.append("Dictionary hit rate:         "
+                + (dictionary.lookups() == 0 ? 0 : 100 * dictionary.hits() / dictionary.lookups()) + "%\n");
+        builder.append("Strings as separate copies:  " + copyBytes / 1024 + " KB\n");
+        builder.append("Strings in dictionary:       " + dictionaryBytes / 1024 + " KB\n");
+        builder.append("Estimated heap saved:        " + (copyBytes - dictionaryBytes) / 1024 + " KB\n");
+        builder.append("Index words:                 " + index.keyCount() + "\n");
+        builder.append("Words as separate strings:   " + keyCopyBytes / 1024 + " KB\n");
+        builder.append("Index key table:             " + index.keySizeInBytes() / 1024 + " KB\n");
+        builder.append("Index key tries:             " + index.trieSizeInBytes() / 1024 + " KB in "
+                + index.trieSegmentCount() + " segments\n");
+        return builder.toString();
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("Usage: HeapReport fileOrFolder");
+            return;
+        }
+
+        // measure twice, so the one-time allocations of the parsers are in neither measure
+        separateHeap(args[0]);
+        long separateHeap = separateHeap(args[0]);
+
+        long before = usedHeap();
+        PatentArray array = new PatentArray(args[0]);
+        long after = usedHeap();
+
+        System.out.print(new HeapReport(array, after - before, separateHeap));
+    }
+
+    // heap used by an input read without the dictionary, dropped once measured
+    private static long separateHeap(String fileName) {
+        long before = usedHeap();
+        PatentArray array = new PatentArray();
+        array.setInterning(false);
+        array.read(fileName);
+        long used = usedHeap() - before;
+        System.out.println("Read " + array.getPatents().size() + " patents without the dictionary");
+        return used;
+    }
+}
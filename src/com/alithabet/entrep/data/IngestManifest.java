@@ -0,0 +1,238 @@
+package com.alithabet.entrep.data;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * <tt>IngestManifest</tt> lists the bulk XML files already read into a
+ * {@link PatentArray}, in the order they were added, with their size,
+ * modification time, checksum, recorded date and patent count, see
+ * {@link SourceFile}. It is saved inside a {@link PatentSnapshot} and
+ * can also be written as a tab separated text file.
+ * <p>
+ * {@link #changes(List)} compares the manifest with the files now
+ * behind the inputs of the array. New files dated on or after the
+ * last ingested file can simply be appended, which is what makes a
+ * daily refresh cost a single file. Files that were modified or
+ * removed, or new files dated before the last ingested one, require
+ * the array to be rebuilt since patents are kept in recorded date order.
+ *
+ * @author Ali K Thabet
+ */
+public class IngestManifest {
+
+    private static final String HEADER = "# path\tlength\tlast modified\tcrc32\trecorded\tpatents";
+
+    private final LinkedHashMap<String, SourceFile> files = new LinkedHashMap<>(); // files by absolute path
+
+    /**
+     * Difference between a manifest and the files on disk
+     */
+    static class Changes {
+        final List<File>       added   = new ArrayList<>(); // new files, in name order
+        final List<SourceFile> touched = new ArrayList<>(); // same contents, new modification time
+        String                 rebuild;                     // reason to rebuild, null if none
+
+        boolean isEmpty() {
+            return added.isEmpty() && touched.isEmpty() && rebuild == null;
+        }
+    }
+
+    // default no argument constructor
+    public IngestManifest() {
+    }
+
+    // add a file, replacing any record with the same path
+    void add(SourceFile file) {
+        files.put(file.getPath(), file);
+    }
+
+    // record of a file by absolute path, or null
+    SourceFile get(String path) {
+        return files.get(path);
+    }
+
+    List<SourceFile> getFiles() {
+        return Collections.unmodifiableList(new ArrayList<>(files.values()));
+    }
+
+    // number of files in the manifest
+    public int size() {
+        return files.size();
+    }
+
+    // latest recorded date of the files, or NO_DATE if there are none
+    public int getRecordedDate() {
+        int latest = PatentDate.NO_DATE;
+        for (SourceFile file : files.values()) latest = Math.max(latest, file.getRecordedDate());
+        return latest;
+    }
+
+    // total number of patents read from the files
+    public long getPatents() {
+        long count = 0;
+        for (SourceFile file : files.values()) count += file.getPatents();
+        return count;
+    }
+
+    /**
+     * Check whether the files behind <em>inputs</em> are exactly
+     * the recorded ones, comparing size and modification time only
+     *
+     * @param inputs files and folders the array was read from
+     * @return true if no file was added, removed or modified
+     */
+    public boolean isCurrent(List<String> inputs) {
+        Set<SourceFile> current = new HashSet<>();
+        for (String input : inputs) {
+            for (File file : PatentArray.listSources(input)) current.add(SourceFile.of(file));
+        }
+        return current.equals(new HashSet<>(files.values()));
+    }
+
+    /**
+     * Compare the manifest with the files now behind <em>inputs</em>.
+     * A file whose modification time changed but whose size and
+     * checksum did not is reported as touched, not modified.
+     *
+     * @param inputs files and folders the array was read from
+     * @return the changes
+     * @throws IOException if a file cannot be read to compute its checksum
+     */
+    Changes changes(List<String> inputs) throws IOException {
+        Changes changes = new Changes();
+        Set<String> seen = new HashSet<>();
+        for (String input : inputs) {
+            for (File file : PatentArray.listSources(input)) {
+                String path = file.getAbsolutePath();
+                if (!seen.add(path)) continue;
+
+                SourceFile known = files.get(path);
+                if (known == null) {
+                    changes.added.add(file);
+                } else if (!known.isCurrent()) {
+                    if (known.isUnchanged()) {
+                        changes.touched.add(known.touch(file));
+                    } else if (changes.rebuild == null) {
+                        changes.rebuild = path + " was modified";
+                    }
+                }
+            }
+        }
+
+        for (String path : files.keySet()) {
+            if (!seen.contains(path) && changes.rebuild == null) {
+                changes.rebuild = path + " was removed";
+            }
+        }
+        return changes;
+    }
+
+    // binary form, used inside snapshots
+    void write(DataOutput out) throws IOException {
+        out.writeInt(files.size());
+        for (SourceFile file : files.values()) {
+            PatentCodec.writeString(out, file.getPath());
+            out.writeLong(file.getLength());
+            out.writeLong(file.getLastModified());
+            out.writeLong(file.getChecksum());
+            out.writeInt(file.getRecordedDate());
+            out.writeInt(file.getPatents());
+        }
+    }
+
+    static IngestManifest read(ByteBuffer in) {
+        IngestManifest manifest = new IngestManifest();
+        int count = in.getInt();
+        for (int i = 0; i < count; i++) {
+            manifest.add(new SourceFile(PatentCodec.readString(in), in.getLong(), in.getLong(),
+                    in.getLong(), in.getInt(), in.getInt()));
+        }
+        return manifest;
+    }
+
+    /**
+     * Write the manifest as a text file with one tab separated
+     * line per file: path, size, modification time, CRC32 in hex,
+     * recorded date as <tt>yyyyMMdd</tt> and number of patents
+     *
+     * @param fileName name of the manifest file
+     * @throws IOException if the file cannot be written
+     */
+    public void write(String fileName) throws IOException {
+        BufferedWriter writer = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(fileName), StandardCharsets.UTF_8));
+        try {
+            writer.write(HEADER);
+            writer.newLine();
+            StringBuilder line = new StringBuilder();
+            for (SourceFile file : files.values()) {
+                line.setLength(0);
+                line.append(file.getPath()).append('\t');
+                line.append(file.getLength()).append('\t');
+                line.append(file.getLastModified()).append('\t');
+                line.append(file.getChecksum() == SourceFile.NO_CHECKSUM
+                        ? "-" : Long.toHexString(file.getChecksum())).append('\t');
+                if (file.getRecordedDate() == PatentDate.NO_DATE) line.append('-');
+                PatentDate.appendSave(line, file.getRecordedDate()).append('\t');
+                line.append(file.getPatents());
+                writer.write(line.toString());
+                writer.newLine();
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Read a manifest written by {@link #write(String)}
+     *
+     * @param fileName name of the manifest file
+     * @return the manifest
+     * @throws IOException if the file cannot be read or a line is malformed
+     */
+    public static IngestManifest read(String fileName) throws IOException {
+        IngestManifest manifest = new IngestManifest();
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(fileName), StandardCharsets.UTF_8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) continue;
+
+                String[] fields = line.split("\t");
+                if (fields.length != 6) {
+                    throw new IOException("Malformed manifest line in " + fileName + ": " + line);
+                }
+                try {
+                    manifest.add(new SourceFile(fields[0],
+                            Long.parseLong(fields[1]),
+                            Long.parseLong(fields[2]),
+                            "-".equals(fields[3]) ? SourceFile.NO_CHECKSUM : Long.parseLong(fields[3], 16),
+                            "-".equals(fields[4]) ? PatentDate.NO_DATE : PatentDate.parse(fields[4]),
+                            Integer.parseInt(fields[5])));
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Malformed manifest line in " + fileName + ": " + line, e);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return manifest;
+    }
+}
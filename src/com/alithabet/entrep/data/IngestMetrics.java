@@ -0,0 +1,289 @@
+package com.alithabet.entrep.data;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <tt>IngestMetrics</tt> counts what a {@link PatentArray} does: the
+ * files it parses and how long each one takes, the patents,
+ * inventions and persons built, the size of the index, the heap used
+ * per thousand patents and the latency of index queries.
+ * <p>
+ * Counters are updated by the parser threads without locking. Query
+ * latencies are kept in a histogram of power of two buckets of
+ * microseconds, so percentiles are accurate to a factor of two and
+ * recording a query takes a few atomic updates.
+ * <p>
+ * The metrics can be registered as a JMX MBean with {@link #register(String)},
+ * and {@link MetricsReporter}s added with {@link #addReporter(MetricsReporter)}
+ * are told about every file parsed and every index update.
+ *
+ * @author Ali K Thabet
+ */
+public class IngestMetrics implements IngestMetricsMBean {
+
+    public static final String DOMAIN = "com.alithabet.entrep";
+
+    // number of latency buckets, the last one holds everything above 2^31 microseconds
+    private static final int BUCKETS = 32;
+
+    private final LongAdder             files         = new LongAdder(); // XML files parsed
+    private final LongAdder             patentsRead   = new LongAdder();
+    private final LongAdder             inventions    = new LongAdder();
+    private final LongAdder             persons       = new LongAdder();
+    private final LongAdder             parseNanos    = new LongAdder(); // summed over parser threads
+    private volatile long               lastParseNanos;                  // parse time of the last file
+    private volatile int                indexKeys;                       // index size at its last update
+    private volatile long               indexPostings;
+    private volatile int                patents;                         // patents in the array at the last update
+    private final LongAdder             queries       = new LongAdder();
+    private final LongAdder             queryNanos    = new LongAdder();
+    private final AtomicLong            maxQueryNanos = new AtomicLong();
+    private final AtomicLongArray       latencies     = new AtomicLongArray(BUCKETS); // query counts per bucket
+    private final List<MetricsReporter> reporters     = new CopyOnWriteArrayList<>();
+    private ObjectName                  name;                            // JMX name, null if not registered
+
+    // default no argument constructor
+    public IngestMetrics() {
+    }
+
+    public void addReporter(MetricsReporter reporter) {
+        if (reporter == null) {
+            throw new NullPointerException("Metrics reporter is null");
+        }
+        reporters.add(reporter);
+    }
+
+    public void removeReporter(MetricsReporter reporter) {
+        reporters.remove(reporter);
+    }
+
+    /**
+     * Register the metrics with the platform MBean server under
+     * <tt>com.alithabet.entrep:type=IngestMetrics,name=<em>name</em></tt>,
+     * replacing any metrics registered under the same name
+     *
+     * @param name name of the metrics, e.g. the input folder
+     */
+    public synchronized void register(String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(DOMAIN + ":type=IngestMetrics,name=" + ObjectName.quote(name));
+            if (server.isRegistered(objectName)) server.unregisterMBean(objectName);
+            server.registerMBean(this, objectName);
+            this.name = objectName;
+        } catch (JMException e) {
+            throw new RuntimeException("Exception registering metrics " + name + " " + e.getMessage(), e);
+        }
+    }
+
+    // remove the metrics from the MBean server
+    public synchronized void unregister() {
+        if (name == null) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+            throw new RuntimeException("Exception unregistering metrics " + name + " " + e.getMessage(), e);
+        }
+        name = null;
+    }
+
+    /**
+     * Count the patents parsed from a file
+     *
+     * @param path    path of the file
+     * @param parsed  patents read from the file
+     * @param nanos   parse time in nanoseconds
+     */
+    void fileRead(String path, List<Patent> parsed, long nanos) {
+        long inventionCount = 0;
+        long personCount    = 0;
+        for (Patent patent : parsed) {
+            inventionCount += patent.getInventions().size();
+            personCount    += 1 + patent.getPatentAssignors().size() + patent.getPatentAssignees().size();
+        }
+
+        files.increment();
+        patentsRead.add(parsed.size());
+        inventions.add(inventionCount);
+        persons.add(personCount);
+        parseNanos.add(nanos);
+        lastParseNanos = nanos;
+        for (MetricsReporter reporter : reporters) reporter.fileRead(this, path, parsed.size(), nanos);
+    }
+
+    /**
+     * Record the size of the index after an update
+     *
+     * @param index   updated index
+     * @param patents patents in the array
+     */
+    void indexUpdated(PatentIndex index, int patents) {
+        this.indexKeys     = index.keyCount();
+        this.indexPostings = index.postingCount();
+        this.patents       = patents;
+        for (MetricsReporter reporter : reporters) reporter.indexUpdated(this);
+    }
+
+    /**
+     * Record the latency of a query
+     *
+     * @param nanos time taken by the query in nanoseconds
+     */
+    void queryDone(long nanos) {
+        queries.increment();
+        queryNanos.add(nanos);
+        latencies.incrementAndGet(bucket(nanos / 1000));
+
+        long max = maxQueryNanos.get();
+        while (nanos > max && !maxQueryNanos.compareAndSet(max, nanos)) max = maxQueryNanos.get();
+    }
+
+    // bucket of a latency: i such that micros < 2^i
+    private static int bucket(long micros) {
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    // upper bound of the bucket holding the given fraction of the queries
+    private long percentile(double fraction) {
+        long[] counts = getQueryLatencyHistogram();
+        long total = 0;
+        for (long count : counts) total += count;
+        if (total == 0) return 0;
+
+        long rank = (long) Math.ceil(fraction * total);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) return 1L << i;
+        }
+        return 1L << (BUCKETS - 1);
+    }
+
+    @Override
+    public long getFilesRead() {
+        return files.sum();
+    }
+
+    @Override
+    public long getPatentsRead() {
+        return patentsRead.sum();
+    }
+
+    @Override
+    public long getInventionsRead() {
+        return inventions.sum();
+    }
+
+    @Override
+    public long getPersonsRead() {
+        return persons.sum();
+    }
+
+    @Override
+    public long getParseMillis() {
+        return parseNanos.sum() / 1000000;
+    }
+
+    @Override
+    public long getLastFileParseMillis() {
+        return lastParseNanos / 1000000;
+    }
+
+    @Override
+    public double getRecordsPerSecond() {
+        return patentsRead.sum() * 1e9 / Math.max(1, parseNanos.sum());
+    }
+
+    @Override
+    public int getIndexKeys() {
+        return indexKeys;
+    }
+
+    @Override
+    public long getIndexPostings() {
+        return indexPostings;
+    }
+
+    @Override
+    public int getPatents() {
+        return patents;
+    }
+
+    @Override
+    public long getHeapBytesPer1kPatents() {
+        if (patents == 0) return 0;
+        long used = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        return used * 1000 / patents;
+    }
+
+    @Override
+    public long getQueryCount() {
+        return queries.sum();
+    }
+
+    @Override
+    public double getQueryLatencyMeanMicros() {
+        long count = queries.sum();
+        return count == 0 ? 0 : queryNanos.sum() / 1000.0 / count;
+    }
+
+    @Override
+    public long getQueryLatencyP50Micros() {
+        return percentile(0.5);
+    }
+
+    @Override
+    public long getQueryLatencyP99Micros() {
+        return percentile(0.99);
+    }
+
+    @Override
+    public long getQueryLatencyMaxMicros() {
+        return maxQueryNanos.get() / 1000;
+    }
+
+    @Override
+    public long[] getQueryLatencyHistogram() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) counts[i] = latencies.get(i);
+        return counts;
+    }
+
+    @Override
+    public void reset() {
+        files.reset();
+        patentsRead.reset();
+        inventions.reset();
+        persons.reset();
+        parseNanos.reset();
+        lastParseNanos = 0;
+        queries.reset();
+        queryNanos.reset();
+        maxQueryNanos.set(0);
+        for (int i = 0; i < BUCKETS; i++) latencies.set(i, 0);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        s.append("Files read: ").append(getFilesRead()).append(" in ").append(getParseMillis()).append(" ms\n");
+        s.append("Records per second: ").append(Math.round(getRecordsPerSecond())).append('\n');
+        s.append("Patents: ").append(getPatentsRead()).append(", inventions: ").append(getInventionsRead())
+                .append(", persons: ").append(getPersonsRead()).append('\n');
+        s.append("Index keys: ").append(getIndexKeys()).append(", postings: ").append(getIndexPostings()).append('\n');
+        s.append("Heap per 1k patents: ").append(getHeapBytesPer1kPatents() / 1024).append(" KB\n");
+        s.append("Queries: ").append(getQueryCount())
+                .append(", p50 < ").append(getQueryLatencyP50Micros())
+                .append(" us, p99 < ").append(getQueryLatencyP99Micros())
+                .append(" us, max ").append(getQueryLatencyMaxMicros()).append(" us\n");
+        return s.toString();
+    }
+}
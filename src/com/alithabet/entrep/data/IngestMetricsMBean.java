@@ -0,0 +1,60 @@
+package com.alithabet.entrep.data;
+
+/**
+ * <tt>IngestMetricsMBean</tt> is the JMX view of {@link IngestMetrics}.
+ * Once registered, the attributes can be read with <tt>jconsole</tt>,
+ * <tt>jmc</tt> or any JMX client under
+ * <tt>com.alithabet.entrep:type=IngestMetrics,name=...</tt>.
+ *
+ * @author Ali K Thabet
+ */
+public interface IngestMetricsMBean {
+
+    // XML files parsed
+    long getFilesRead();
+
+    // patents, inventions and persons built by the parsers
+    long getPatentsRead();
+
+    long getInventionsRead();
+
+    long getPersonsRead();
+
+    // time spent parsing files, summed over all parser threads
+    long getParseMillis();
+
+    // parse time of the last file read
+    long getLastFileParseMillis();
+
+    // patents parsed per second of parse time
+    double getRecordsPerSecond();
+
+    // words and postings of the index after its last update
+    int getIndexKeys();
+
+    long getIndexPostings();
+
+    // patents in the array after its last update
+    int getPatents();
+
+    // heap in use divided by thousands of patents held, includes garbage not yet collected
+    long getHeapBytesPer1kPatents();
+
+    // queries answered by the index
+    long getQueryCount();
+
+    // query latency percentiles and maximum, in microseconds
+    double getQueryLatencyMeanMicros();
+
+    long getQueryLatencyP50Micros();
+
+    long getQueryLatencyP99Micros();
+
+    long getQueryLatencyMaxMicros();
+
+    // query counts per latency bucket, bucket i holding latencies under 2^i microseconds
+    long[] getQueryLatencyHistogram();
+
+    // clear all counters
+    void reset();
+}
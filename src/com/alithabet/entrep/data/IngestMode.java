@@ -0,0 +1,26 @@
+package com.alithabet.entrep.data;
+
+/**
+ * <tt>IngestMode</tt> selects the parser used by {@link PatentArray}
+ * to read the XML bulk files:
+ * <ul>
+ *     <li>DOM: the whole file is loaded into a
+ *     {@link org.w3c.dom.Document} and each patent is built with
+ *     {@link Patent#Patent(org.w3c.dom.Node, java.util.Date)}</li>
+ *     <li>STREAM: the file is read with StAX by
+ *     {@link PatentStreamReader}, and only a single
+ *     <em>patent-assignment</em> record is held in memory at a time</li>
+ *     <li>MAPPED: the file is memory mapped and scanned as UTF-8 bytes
+ *     by {@link MappedPatentParser}, decoding only the text that is kept.
+ *     Compressed files and files using XML features the scanner does
+ *     not handle are read as in STREAM mode</li>
+ * </ul>
+ * All modes produce the same patents.
+ *
+ * @author Ali K Thabet
+ */
+public enum IngestMode {
+    DOM,
+    STREAM,
+    MAPPED
+}
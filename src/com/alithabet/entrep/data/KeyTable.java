@@ -0,0 +1,178 @@
+package com.alithabet.entrep.data;
+
+import java.util.Arrays;
+
+/**
+ * <tt>KeyTable</tt> gives dense <tt>int</tt> IDs to distinct strings,
+ * in the order they are added, and finds them from a range of a
+ * <tt>char</tt> buffer without building a <tt>String</tt>, see
+ * {@link Tokenizer}. It is an open addressing hash table with linear
+ * probing over the IDs. The characters of the keys are packed one
+ * after the other in a single array, with the end and the hash code
+ * of each key, so a key takes its characters and 8 bytes rather than
+ * a <tt>String</tt> and its own array, and the table grows without
+ * hashing the keys again.
+ *
+ * @author Ali K Thabet
+ */
+class KeyTable {
+
+    static final int NOT_FOUND = -1;
+
+    private char[] chars;  // characters of the keys, in ID order
+    private int[]  ends;   // end of each key in chars, the key of ID i starting at ends[i - 1]
+    private int[]  hashes; // String hash code of each key
+    private int[]  slots;  // ID + 1 in each slot, 0 if empty
+    private int    size;   // number of keys
+
+    KeyTable(int expected) {
+        chars  = new char[8 * Math.max(4, expected)];
+        ends   = new int[Math.max(4, expected)];
+        hashes = new int[Math.max(4, expected)];
+        slots  = new int[Integer.highestOneBit(Math.max(4, expected) * 2 - 1) << 1];
+    }
+
+    int size() {
+        return size;
+    }
+
+    // start of a key in chars
+    private int start(int id) {
+        return id == 0 ? 0 : ends[id - 1];
+    }
+
+    // key of an ID, as a new String
+    String get(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("Key " + id + " of " + size);
+        }
+        return new String(chars, start(id), ends[id] - start(id));
+    }
+
+    // estimated heap used by the table in bytes
+    long sizeInBytes() {
+        return 16 * 5 + 2L * chars.length + 4L * ends.length + 4L * hashes.length + 4L * slots.length + 32;
+    }
+
+    // same as String.hashCode of the characters
+    private static int hash(char[] buffer, int length) {
+        int h = 0;
+        for (int i = 0; i < length; i++) h = 31 * h + buffer[i];
+        return h;
+    }
+
+    // first slot of a hash code
+    private int slot(int hash) {
+        return ((hash ^ (hash >>> 16)) * 0x9E3779B9) & (slots.length - 1);
+    }
+
+    private boolean matches(int id, int hash, char[] buffer, int length) {
+        int from = start(id);
+        if (hashes[id] != hash || ends[id] - from != length) return false;
+        for (int i = 0; i < length; i++) {
+            if (chars[from + i] != buffer[i]) return false;
+        }
+        return true;
+    }
+
+    private boolean matches(int id, int hash, String key) {
+        int from = start(id);
+        if (hashes[id] != hash || ends[id] - from != key.length()) return false;
+        for (int i = 0; i < key.length(); i++) {
+            if (chars[from + i] != key.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * ID of the word held in <em>buffer[0..length)</em>
+     *
+     * @param buffer characters of the word
+     * @param length number of characters
+     * @return ID of the word, or {@link #NOT_FOUND}
+     */
+    int find(char[] buffer, int length) {
+        return find(buffer, length, hash(buffer, length));
+    }
+
+    private int find(char[] buffer, int length, int hash) {
+        int mask = slots.length - 1;
+        for (int s = slot(hash); slots[s] != 0; s = (s + 1) & mask) {
+            if (matches(slots[s] - 1, hash, buffer, length)) return slots[s] - 1;
+        }
+        return NOT_FOUND;
+    }
+
+    // ID of a string, or NOT_FOUND
+    int find(String key) {
+        int hash = key.hashCode();
+        int mask = slots.length - 1;
+        for (int s = slot(hash); slots[s] != 0; s = (s + 1) & mask) {
+            if (matches(slots[s] - 1, hash, key)) return slots[s] - 1;
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * ID of the word held in <em>buffer[0..length)</em>, adding
+     * it if needed. Only the characters of new words are copied.
+     *
+     * @param buffer characters of the word
+     * @param length number of characters
+     * @return ID of the word
+     */
+    int add(char[] buffer, int length) {
+        int hash = hash(buffer, length);
+        int id   = find(buffer, length, hash);
+        if (id != NOT_FOUND) return id;
+
+        int from = reserve(length);
+        System.arraycopy(buffer, 0, chars, from, length);
+        return insert(hash, from + length);
+    }
+
+    // ID of a string, adding it if needed
+    int add(String key) {
+        int id = find(key);
+        if (id != NOT_FOUND) return id;
+
+        int from = reserve(key.length());
+        key.getChars(0, key.length(), chars, from);
+        return insert(key.hashCode(), from + key.length());
+    }
+
+    // make room for the characters of a new key, returning where they go
+    private int reserve(int length) {
+        int from = start(size);
+        if (from + length > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(from + length, 2 * chars.length));
+        }
+        return from;
+    }
+
+    private int insert(int hash, int end) {
+        if (size == ends.length) {
+            ends   = Arrays.copyOf(ends, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+        }
+        if (2 * (size + 1) > slots.length) rehash(slots.length * 2);
+
+        ends[size]   = end;
+        hashes[size] = hash;
+        place(size);
+        return size++;
+    }
+
+    // put an ID in the first free slot of its key
+    private void place(int id) {
+        int mask = slots.length - 1;
+        int s = slot(hashes[id]);
+        while (slots[s] != 0) s = (s + 1) & mask;
+        slots[s] = id + 1;
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        for (int id = 0; id < size; id++) place(id);
+    }
+}
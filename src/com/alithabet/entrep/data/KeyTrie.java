@@ -0,0 +1,249 @@
+package com.alithabet.entrep.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * <tt>KeyTrie</tt> is an immutable trie over the words of a
+ * {@link PatentIndex}, used for prefix lookups such as autocomplete
+ * (<tt>qualc</tt> finds <tt>qualcomm</tt>) and for typo tolerant
+ * lookups within a bounded edit distance (<tt>univrsity</tt> finds
+ * <tt>university</tt>).
+ * <p>
+ * The trie is laid out in breadth first order in three flat arrays,
+ * with no object per node: the children of a node are consecutive,
+ * so a node only stores the offset of its first edge, edge <em>e</em>
+ * leads to node <em>e + 1</em>, and edges carry a single character.
+ * This takes about 6 bytes per node, against a <tt>String</tt> and
+ * a map entry per key for a sorted map of words. The edges of a node
+ * are sorted, so a child is found by binary search and keys come out
+ * in lexicographic order.
+ * <p>
+ * Edit distance lookups walk the trie computing one row of the
+ * Levenshtein matrix per level, and skip a whole subtree as soon as
+ * every entry of the row exceeds the bound, so only a small part of
+ * the trie is visited for distances of one or two.
+ *
+ * @author Ali K Thabet
+ */
+public class KeyTrie {
+
+    private final int[]  first;     // first edge of each node, first[nodes] is the edge count
+    private final char[] labels;    // edge labels, edge e leads to node e + 1
+    private final long[] terminal;  // bit per node, set if a key ends at the node
+    private final int    size;      // number of keys
+    private final int    maxLength; // length of the longest key
+
+    private KeyTrie(int[] first, char[] labels, long[] terminal, int size, int maxLength) {
+        this.first     = first;
+        this.labels    = labels;
+        this.terminal  = terminal;
+        this.size      = size;
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * Build a trie from a set of keys
+     *
+     * @param keys keys of the trie, duplicates are ignored
+     * @return the trie
+     */
+    public static KeyTrie build(Collection<String> keys) {
+        String[] sorted = keys.toArray(new String[keys.size()]);
+        Arrays.sort(sorted);
+
+        int chars     = 0;
+        int maxLength = 0;
+        for (String key : sorted) {
+            chars    += key.length();
+            maxLength = Math.max(maxLength, key.length());
+        }
+
+        // at most one node per character plus the root; nodes are visited in id order,
+        // which is the order they were created in, so the trie comes out breadth first
+        int[]  first    = new int[chars + 2];
+        char[] labels   = new char[chars];
+        long[] terminal = new long[(chars >> 6) + 1];
+        int[]  lo       = new int[chars + 1]; // keys under each node, as a range of sorted
+        int[]  hi       = new int[chars + 1];
+        int[]  depth    = new int[chars + 1];
+        int    nodes    = 1;
+        int    edges    = 0;
+        int    size     = 0;
+        hi[0] = sorted.length;
+        for (int node = 0; node < nodes; node++) {
+            first[node] = edges;
+            int from = lo[node];
+            int to   = hi[node];
+            int d    = depth[node];
+
+            // keys ending here sort before the longer ones
+            if (from < to && sorted[from].length() == d) {
+                terminal[node >> 6] |= 1L << node;
+                size++;
+                while (from < to && sorted[from].length() == d) from++;
+            }
+            while (from < to) {
+                char c   = sorted[from].charAt(d);
+                int  end = from + 1;
+                while (end < to && sorted[end].charAt(d) == c) end++;
+
+                labels[edges++] = c;
+                lo[nodes]       = from;
+                hi[nodes]       = end;
+                depth[nodes]    = d + 1;
+                nodes++;
+                from = end;
+            }
+        }
+        first[nodes] = edges;
+
+        return new KeyTrie(Arrays.copyOf(first, nodes + 1), Arrays.copyOf(labels, edges),
+                Arrays.copyOf(terminal, (nodes >> 6) + 1), size, maxLength);
+    }
+
+    // number of keys
+    public int size() {
+        return size;
+    }
+
+    // number of nodes, including the root
+    public int nodeCount() {
+        return first.length - 1;
+    }
+
+    // estimated heap used by the trie in bytes
+    public long sizeInBytes() {
+        return 16 * 3 + 4L * first.length + 2L * labels.length + 8L * terminal.length + 40;
+    }
+
+    private boolean isTerminal(int node) {
+        return (terminal[node >> 6] & (1L << node)) != 0;
+    }
+
+    // child of a node along an edge label, or -1
+    private int child(int node, char c) {
+        int low  = first[node];
+        int high = first[node + 1] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char label = labels[mid];
+            if (label < c) {
+                low = mid + 1;
+            } else if (label > c) {
+                high = mid - 1;
+            } else {
+                return mid + 1;
+            }
+        }
+        return -1;
+    }
+
+    // node reached by a string, or -1
+    private int find(String s) {
+        int node = 0;
+        for (int i = 0; i < s.length() && node >= 0; i++) node = child(node, s.charAt(i));
+        return node;
+    }
+
+    /**
+     * Check whether a key is in the trie
+     *
+     * @param key key to look up
+     * @return true if the key was one of the keys the trie was built from
+     */
+    public boolean contains(String key) {
+        int node = find(key);
+        return node >= 0 && isTerminal(node);
+    }
+
+    /**
+     * Keys starting with a prefix, in lexicographic order
+     *
+     * @param prefix prefix of the keys, the empty prefix matches all keys
+     * @param limit  maximum number of keys returned
+     * @return the keys, at most <em>limit</em> of them
+     */
+    public List<String> prefix(String prefix, int limit) {
+        if (prefix == null) {
+            throw new NullPointerException("Prefix cannot be null");
+        }
+
+        List<String> keys = new ArrayList<>();
+        int node = find(prefix);
+        if (node < 0 || limit <= 0) return keys;
+
+        char[] path = Arrays.copyOf(prefix.toCharArray(), maxLength);
+        collect(node, path, prefix.length(), keys, limit);
+        return keys;
+    }
+
+    // add the keys under a node in order, path[0..length) spelling the node
+    private void collect(int node, char[] path, int length, List<String> keys, int limit) {
+        if (isTerminal(node)) keys.add(new String(path, 0, length));
+        for (int e = first[node]; e < first[node + 1] && keys.size() < limit; e++) {
+            path[length] = labels[e];
+            collect(e + 1, path, length + 1, keys, limit);
+        }
+    }
+
+    /**
+     * Keys within a Levenshtein distance of a word: the number of
+     * single character insertions, deletions and substitutions
+     * turning one into the other. Keys come out in lexicographic order.
+     *
+     * @param word     word to look up
+     * @param maxEdits largest distance allowed, the cost of the lookup grows quickly with it
+     * @return the keys within <em>maxEdits</em> of <em>word</em>
+     */
+    public List<String> fuzzy(String word, int maxEdits) {
+        if (word == null) {
+            throw new NullPointerException("Word cannot be null");
+        }
+        if (maxEdits < 0) {
+            throw new IllegalArgumentException("Negative edit distance " + maxEdits);
+        }
+
+        List<String> keys = new ArrayList<>();
+        int depth = Math.min(maxLength, word.length() + maxEdits);
+        int[][] rows = new int[depth + 1][word.length() + 1];
+        for (int j = 0; j <= word.length(); j++) rows[0][j] = Math.min(j, maxEdits + 1);
+
+        char[] path = new char[depth];
+        fuzzy(0, 0, word.toCharArray(), maxEdits, rows, path, keys);
+        return keys;
+    }
+
+    // visit a node whose distance row to the word is rows[length]
+    private void fuzzy(int node, int length, char[] word, int maxEdits,
+                       int[][] rows, char[] path, List<String> keys) {
+        int[] row = rows[length];
+        if (isTerminal(node) && row[word.length] <= maxEdits) keys.add(new String(path, 0, length));
+        if (length + 1 >= rows.length) return;
+
+        // only the band of columns within maxEdits of the diagonal can stay under the bound,
+        // the others are capped at maxEdits + 1
+        int   i    = length + 1;
+        int   from = Math.max(1, i - maxEdits);
+        int   to   = Math.min(word.length, i + maxEdits);
+        int   over = maxEdits + 1;
+        int[] next = rows[i];
+        Arrays.fill(next, over);
+        for (int e = first[node]; e < first[node + 1]; e++) {
+            char c   = labels[e];
+            int  min = over;
+            next[0] = Math.min(i, over);
+            for (int j = from; j <= to; j++) {
+                int cost = word[j - 1] == c ? 0 : 1;
+                next[j] = Math.min(Math.min(next[j - 1] + 1, row[j] + 1), Math.min(row[j - 1] + cost, over));
+                min = Math.min(min, next[j]);
+            }
+            if (min <= maxEdits || next[0] <= maxEdits) {
+                path[length] = c;
+                fuzzy(e + 1, i, word, maxEdits, rows, path, keys);
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.alithabet.entrep.data;
+
+import java.util.ArrayList;
+
+/**
+ * <tt>LocalShardClient</tt> serves a shard from a {@link PatentArray}
+ * held in the same JVM. It is used by {@link ShardedPatentStore} for
+ * the months it loads itself, and by {@link PatentShardServer} to
+ * answer the requests of other JVMs.
+ *
+ * @author Ali K Thabet
+ */
+class LocalShardClient implements ShardClient {
+
+    private final PatentArray array; // patents of the shard
+
+    LocalShardClient(PatentArray array) {
+        if (array == null) {
+            throw new NullPointerException("Patent array cannot be null");
+        }
+        this.array = array;
+    }
+
+    PatentArray getArray() {
+        return array;
+    }
+
+    @Override
+    public int size() {
+        return array.getPatents().size();
+    }
+
+    @Override
+    public ArrayList<Patent> queryIndex(String query, int fromDay, int toDay) {
+        ArrayList<Patent> patents = array.queryIndex(query);
+        if (fromDay == PatentDate.NO_DATE && toDay == PatentDate.NO_DATE) return patents;
+
+        ArrayList<Patent> result = new ArrayList<>();
+        for (Patent patent : patents) {
+            int day = patent.getRecordedDay();
+            if (fromDay != PatentDate.NO_DATE && day < fromDay) continue;
+            if (toDay != PatentDate.NO_DATE && day > toDay) continue;
+            result.add(patent);
+        }
+        return result;
+    }
+
+    // nothing to release, the array is dropped with the client
+    @Override
+    public void close() {
+    }
+}
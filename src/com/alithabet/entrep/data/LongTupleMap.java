@@ -0,0 +1,151 @@
+package com.alithabet.entrep.data;
+
+import java.util.Arrays;
+
+/**
+ * <tt>LongTupleMap</tt> counts tuples of a fixed number of
+ * <tt>long</tt> values, such as the keys of a group in
+ * {@link PatentAggregator}. Each distinct tuple is given a dense
+ * <tt>int</tt> ID in the order it is added, and the tuples and their
+ * counts are kept in flat primitive arrays, so adding a tuple that is
+ * already there does not allocate. It is an open addressing hash table
+ * with linear probing over the IDs, like {@link KeyTable}.
+ * <p>
+ * A map is not thread safe, parallel counts use one map per thread
+ * and add them together with {@link #addAll(LongTupleMap)}.
+ *
+ * @author Ali K Thabet
+ */
+class LongTupleMap {
+
+    private final int width;  // values per tuple
+    private long[]    keys;   // values of tuple ID at [ID * width, (ID + 1) * width)
+    private long[]    counts; // count of each ID
+    private int[]     slots;  // ID + 1 in each slot, 0 if empty
+    private int       size;   // number of tuples
+
+    LongTupleMap(int width, int expected) {
+        if (width < 1) {
+            throw new IllegalArgumentException("Tuples need at least one value, not " + width);
+        }
+        this.width = width;
+        int capacity = Math.max(4, expected);
+        keys   = new long[capacity * width];
+        counts = new long[capacity];
+        slots  = new int[Integer.highestOneBit(capacity * 2 - 1) << 1];
+    }
+
+    int width() {
+        return width;
+    }
+
+    int size() {
+        return size;
+    }
+
+    // value of column of a tuple
+    long key(int id, int column) {
+        return keys[id * width + column];
+    }
+
+    long count(int id) {
+        return counts[id];
+    }
+
+    // add to the count of a tuple
+    void add(int id, long delta) {
+        counts[id] += delta;
+    }
+
+    // hash of the values at tuple[offset..offset + width)
+    static int hash(long[] tuple, int offset, int width) {
+        long h = 0;
+        for (int i = 0; i < width; i++) h = (h + tuple[offset + i]) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private int slot(int hash) {
+        return (hash ^ (hash >>> 16)) & (slots.length - 1);
+    }
+
+    private boolean matches(int id, long[] tuple, int offset) {
+        int start = id * width;
+        for (int i = 0; i < width; i++) {
+            if (keys[start + i] != tuple[offset + i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * ID of a tuple, adding it with a count of 0 if needed
+     *
+     * @param tuple values, only the first <em>width</em> are read
+     * @return ID of the tuple, new tuples get ID {@link #size()} - 1
+     */
+    int id(long[] tuple) {
+        return id(tuple, 0, hash(tuple, 0, width));
+    }
+
+    // ID of the tuple at tuple[offset..offset + width) with a known hash, adding it if needed
+    int id(long[] tuple, int offset, int hash) {
+        if (2 * (size + 1) > slots.length) rehash(slots.length * 2);
+
+        int mask = slots.length - 1;
+        int s = slot(hash);
+        for (; slots[s] != 0; s = (s + 1) & mask) {
+            if (matches(slots[s] - 1, tuple, offset)) return slots[s] - 1;
+        }
+
+        if (size == counts.length) {
+            keys   = Arrays.copyOf(keys, keys.length * 2);
+            counts = Arrays.copyOf(counts, counts.length * 2);
+        }
+        System.arraycopy(tuple, offset, keys, size * width, width);
+        slots[s] = size + 1;
+        return size++;
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        int mask = capacity - 1;
+        for (int id = 0; id < size; id++) {
+            int s = slot(hash(keys, id * width, width));
+            while (slots[s] != 0) s = (s + 1) & mask;
+            slots[s] = id + 1;
+        }
+    }
+
+    /**
+     * Add one to the count of the first <em>target.width</em> values
+     * of every tuple, so counting the distinct last values of tuples
+     * that share a prefix
+     *
+     * @param target map of the prefixes, narrower than this one
+     */
+    void countPrefixes(LongTupleMap target) {
+        if (target.width > width) {
+            throw new IllegalArgumentException("Cannot count prefixes of " + target.width
+                    + " values in tuples of " + width);
+        }
+        for (int id = 0; id < size; id++) {
+            int offset = id * width;
+            target.add(target.id(keys, offset, hash(keys, offset, target.width)), 1);
+        }
+    }
+
+    /**
+     * Add the tuples and counts of another map of the same width
+     *
+     * @param other map to add
+     */
+    void addAll(LongTupleMap other) {
+        if (other.width != width) {
+            throw new IllegalArgumentException("Cannot add tuples of " + other.width
+                    + " values to tuples of " + width);
+        }
+        for (int id = 0; id < other.size; id++) {
+            int offset = id * width;
+            add(id(other.keys, offset, hash(other.keys, offset, width)), other.counts[id]);
+        }
+    }
+}
@@ -0,0 +1,663 @@
+package com.alithabet.entrep.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * <tt>MappedPatentParser</tt> is a fast path for the daily bulk files,
+ * which all follow the same <tt>us-patent-assignments</tt> DTD. The
+ * file is memory mapped and scanned for tags directly in its UTF-8
+ * bytes: tag names are matched as bytes, and only the text of the
+ * elements a {@link Patent} keeps (name, address-N, city,
+ * country-name, postcode, doc-number, kind, date and
+ * invention-title) is ever decoded into a <tt>String</tt>. Everything
+ * else, such as the conveyance text or reel and frame numbers, is
+ * skipped without being decoded.
+ * <p>
+ * The patents built are the same as those of {@link PatentStreamReader},
+ * element by element, including the handling of mixed content in
+ * titles, comments, CDATA sections and character references.
+ * {@link #compare(File)} checks this on a given file. Inputs the
+ * parser does not handle, such as other encodings, entities declared
+ * in the DTD or compressed files, raise a {@link FormatException}, and
+ * {@link IngestMode#MAPPED} then falls back to the XML parser.
+ *
+ * @author Ali K Thabet
+ */
+public class MappedPatentParser {
+
+    /**
+     * Thrown when a file uses XML features the mapped parser does
+     * not handle; the file should be read with the XML parser instead
+     */
+    public static class FormatException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public FormatException(String message) {
+            super(message);
+        }
+    }
+
+    // codes of the tags the parser acts on
+    private static final int OTHER             = 0;
+    private static final int PATENT_ASSIGNMENT = 1;
+    private static final int TRANSACTION_DATE  = 2;
+    private static final int DATE              = 3;
+    private static final int CORRESPONDENT     = 4;
+    private static final int ASSIGNOR          = 5;
+    private static final int ASSIGNEE          = 6;
+    private static final int PROPERTY          = 7;
+    private static final int DOCUMENT_ID       = 8;
+    private static final int INVENTION_TITLE   = 9;
+    private static final int NAME              = 10;
+    private static final int CITY              = 11;
+    private static final int COUNTRY_NAME      = 12;
+    private static final int POSTCODE          = 13;
+    private static final int DOC_NUMBER        = 14;
+    private static final int KIND              = 15;
+    private static final int ADDRESS           = 16;
+
+    // tag names in UTF-8, indexed by code
+    private static final byte[][] TAGS = bytes(
+            "", Patent.PATENT_ARRAY, Patent.DATE_ARRAY, Patent.DATE_ELEMENT, Patent.CORRESPONDENT,
+            Patent.ASSIGNORS_ARRAY, Patent.ASSIGNEE_ARRAY, Patent.PROPERTY_ARRAY, Patent.DOCUMENT_ID_ARRAY,
+            Patent.INVENTION_TITLE, Patent.NAME, Patent.CITY, Patent.COUNTRY, Patent.POSTCODE,
+            Patent.DOCUMENT_NUMBER, Patent.KIND, Patent.ADDRESS);
+
+    private static final byte[][] MARKUP = bytes("-->", "<![CDATA[", "]]>", "?>", "<!DOCTYPE", "<!ENTITY",
+            "<?xml ", "amp", "quot", "apos");
+
+    private static final byte[] COMMENT_END = MARKUP[0];
+    private static final byte[] CDATA       = MARKUP[1];
+    private static final byte[] CDATA_END   = MARKUP[2];
+    private static final byte[] PI_END      = MARKUP[3];
+    private static final byte[] DOCTYPE     = MARKUP[4];
+    private static final byte[] ENTITY      = MARKUP[5];
+    private static final byte[] XML         = MARKUP[6];
+    private static final byte[] AMP         = MARKUP[7];
+    private static final byte[] QUOT        = MARKUP[8];
+    private static final byte[] APOS        = MARKUP[9];
+
+    private final File       file;
+    private int              recordedDate = PatentDate.NO_DATE; // recorded date of the bulk file
+    private long             checksum = SourceFile.NO_CHECKSUM; // CRC32 of the file once read
+    private MappedByteBuffer buffer;                             // contents of the file
+    private char[]           chars = new char[256];             // decoded text
+    private int              charCount;                         // chars written by the last decodeChar
+
+    // parsing state for the record currently being read, as in PatentStreamReader
+    private Patent                    patent;
+    private Person                    person;
+    private int                       addressLines;
+    private boolean                   assignee;
+    private ArrayList<PatentProperty> properties;
+    private String                    title;
+    private PatentProperty            property;
+    private boolean                   transactionDate;
+    private int                       addressLine; // line number of the last address-N tag
+    private StringDictionary          dictionary;  // shares repeated values, null to keep every copy
+
+    /**
+     * Constructor with a bulk XML file as input
+     *
+     * @param file bulk XML file, not compressed
+     */
+    public MappedPatentParser(File file) {
+        if (file == null) {
+            throw new NullPointerException("File cannot be null");
+        }
+        this.file = file;
+    }
+
+    private static byte[][] bytes(String... strings) {
+        byte[][] result = new byte[strings.length][];
+        for (int i = 0; i < strings.length; i++) result[i] = strings[i].getBytes(StandardCharsets.UTF_8);
+        return result;
+    }
+
+    // true if the file can be memory mapped, i.e. it is not compressed
+    public static boolean canMap(File file) {
+        return file.getName().endsWith(".xml");
+    }
+
+    // recorded date of the bulk file as an epoch day
+    public int getRecordedDay() {
+        return recordedDate;
+    }
+
+    // CRC32 of the bytes of the file, summed from the mapping once it is scanned
+    public long getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * Share the cities, postcodes, countries and kinds read from now
+     * on through a dictionary, see {@link PatentStreamReader#setDictionary(StringDictionary)}
+     *
+     * @param dictionary dictionary to use, null to keep every copy
+     */
+    public void setDictionary(StringDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Read the whole file and pass every patent to <em>handler</em>
+     *
+     * @param handler callback receiving each patent
+     * @return number of patents read
+     * @throws FormatException if the file uses XML the parser does not handle
+     * @throws IOException if the file cannot be mapped
+     */
+    public int read(PatentHandler handler) throws IOException {
+        if (handler == null) {
+            throw new NullPointerException("Patent handler cannot be null");
+        }
+        if (!canMap(file)) {
+            throw new FormatException("Cannot map compressed file " + file);
+        }
+
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new FormatException("File " + file + " is too large to map");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            channel.close();
+        }
+
+        try {
+            int count = scan(handler);
+            // the pages were just scanned, so summing them does not read the file again
+            CRC32 crc = new CRC32();
+            crc.update(buffer.duplicate());
+            checksum = crc.getValue();
+            return count;
+        } catch (IndexOutOfBoundsException e) {
+            throw new FormatException("Unexpected end of file " + file);
+        } finally {
+            buffer = null;
+        }
+    }
+
+    // walk the tags of the file, tracking where the current text started
+    private int scan(PatentHandler handler) throws IOException {
+        int count     = 0;
+        int limit     = buffer.limit();
+        int position  = 0;
+        int textStart = 0;
+        if (limit >= 3 && (buffer.get(0) & 0xFF) == 0xEF && (buffer.get(1) & 0xFF) == 0xBB
+                && (buffer.get(2) & 0xFF) == 0xBF) {
+            position = textStart = 3; // byte order mark
+        }
+
+        while (true) {
+            int lt = indexOf((byte) '<', position, limit);
+            if (lt < 0) break;
+
+            byte next = buffer.get(lt + 1);
+            if (next == '/') {
+                int nameEnd = nameEnd(lt + 2);
+                int tag     = tagCode(lt + 2, nameEnd);
+                if (endElement(tag, textStart, lt)) {
+                    handler.handle(patent);
+                    patent = null;
+                    count++;
+                }
+                position = textStart = expect(indexOf((byte) '>', nameEnd, limit), lt) + 1;
+            } else if (next == '!') {
+                if (startsWith(CDATA, lt)) {
+                    position = find(CDATA_END, lt + CDATA.length, limit) + CDATA_END.length;
+                } else if (startsWith(DOCTYPE, lt)) {
+                    position = textStart = expect(skipDoctype(lt), lt);
+                } else {
+                    position = find(COMMENT_END, lt + 4, limit) + COMMENT_END.length;
+                }
+            } else if (next == '?') {
+                int end = find(PI_END, lt + 2, limit);
+                if (lt == textStart && startsWith(XML, lt)) checkEncoding(lt, end);
+                position = end + PI_END.length;
+            } else {
+                int nameEnd = nameEnd(lt + 1);
+                int tag     = tagCode(lt + 1, nameEnd);
+                int gt      = expect(tagEnd(nameEnd, limit), lt);
+                startElement(tag);
+                if (buffer.get(gt - 1) == '/' && endElement(tag, gt, gt)) {
+                    handler.handle(patent);
+                    patent = null;
+                    count++;
+                }
+                position = textStart = gt + 1;
+            }
+        }
+        return count;
+    }
+
+    // opening tag: set up the object the following text belongs to
+    private void startElement(int tag) {
+        if (tag == PATENT_ASSIGNMENT) {
+            patent = new Patent();
+            patent.setRecordedDay(recordedDate);
+        } else if (tag == TRANSACTION_DATE) {
+            transactionDate = true;
+        } else if (patent == null) {
+            return;
+        } else if (tag == CORRESPONDENT) {
+            startPerson(patent.getCorrespondent(), Patent.CORRESPONDENT_ADDRESS, false);
+        } else if (tag == ASSIGNOR) {
+            startPerson(new Person(), Patent.ASSIGNOR_ADDRESS, false);
+        } else if (tag == ASSIGNEE) {
+            startPerson(new Person(), Patent.ASSIGNEE_ADDRESS, true);
+        } else if (tag == PROPERTY) {
+            properties = new ArrayList<>();
+            title = null;
+        } else if (tag == DOCUMENT_ID && properties != null) {
+            property = new PatentProperty();
+        }
+    }
+
+    private void startPerson(Person p, int lines, boolean isAssignee) {
+        person       = p;
+        addressLines = lines;
+        assignee     = isAssignee;
+    }
+
+    // closing tag with its text in [from, to): decode the text only if it is
+    // kept, and return true once a full patent has been read
+    private boolean endElement(int tag, int from, int to) throws IOException {
+        if (tag == TRANSACTION_DATE) {
+            transactionDate = false;
+            return false;
+        }
+        if (transactionDate && tag == DATE) {
+            recordedDate = parseDate(text(from, to), "Recorded");
+            return false;
+        }
+        if (patent == null) return false;
+
+        if (tag == PATENT_ASSIGNMENT) {
+            person     = null;
+            properties = null;
+            property   = null;
+            return true;
+        }
+
+        if (property != null) {
+            endPropertyElement(tag, from, to);
+        } else if (properties != null) {
+            if (tag == INVENTION_TITLE && title == null) {
+                title = text(from, to);
+            } else if (tag == PROPERTY) {
+                // properties without an invention are skipped
+                if (title != null) patent.getInventions().put(title, properties);
+                properties = null;
+            }
+        } else if (person != null) {
+            endPersonElement(tag, from, to);
+        }
+        return false;
+    }
+
+    private void endPersonElement(int tag, int from, int to) throws IOException {
+        if (tag == NAME) {
+            if (person.getName() == null) person.setName(text(from, to));
+        } else if (tag == ADDRESS) {
+            if (addressLine > 0 && addressLine <= addressLines) person.addAddress(text(from, to));
+        } else if (assignee && tag == CITY) {
+            if (person.getCity() == null) person.setCity(shared(from, to));
+        } else if (assignee && tag == POSTCODE) {
+            if (person.getPostcode() == null) person.setPostcode(shared(from, to));
+        } else if (assignee && tag == COUNTRY_NAME) {
+            if (person.getCountry() == null) person.setCountry(shared(from, to));
+        } else if (tag == CORRESPONDENT) {
+            person = null;
+        } else if (tag == ASSIGNOR) {
+            patent.getPatentAssignors().add(person);
+            person = null;
+        } else if (tag == ASSIGNEE) {
+            if (person.getCountry() == null) person.setCountry("US");
+            patent.getPatentAssignees().add(person);
+            person = null;
+        }
+    }
+
+    // text of [from, to), as the copy kept by the dictionary if there is one
+    private String shared(int from, int to) throws IOException {
+        String value = text(from, to);
+        return dictionary == null ? value : dictionary.intern(value);
+    }
+
+    private void endPropertyElement(int tag, int from, int to) throws IOException {
+        if (tag == COUNTRY_NAME) {
+            if (property.getCountry() == null) property.setCountry(shared(from, to));
+        } else if (tag == DOC_NUMBER) {
+            if (property.getDocumentNumber() == null) property.setDocumentNumber(text(from, to));
+        } else if (tag == KIND) {
+            if (property.getKind() == null) property.setKind(shared(from, to));
+        } else if (tag == DATE) {
+            property.setDay(parseDate(text(from, to), "Property"));
+        } else if (tag == DOCUMENT_ID) {
+            if (property.getCountry() == null) property.setCountry("US");
+            property.setStatus(PatentProperty.statusOf(property.getDocumentNumber()));
+            properties.add(property);
+            property = null;
+        }
+    }
+
+    private static int parseDate(String dateString, String what) {
+        try {
+            return PatentDate.parse(dateString);
+        } catch (IllegalArgumentException e) {
+            System.out.println(what + " date formatter exception:"
+                    + e.getMessage());
+            return PatentDate.NO_DATE;
+        }
+    }
+
+    // code of the tag name in [from, to), setting addressLine for address-N
+    private int tagCode(int from, int to) {
+        int length = to - from;
+        for (int code = 1; code < TAGS.length; code++) {
+            byte[] tag = TAGS[code];
+            if (code == ADDRESS) {
+                if (length > tag.length && startsWith(tag, from)) {
+                    addressLine = 0;
+                    for (int i = from + tag.length; i < to; i++) {
+                        int c = buffer.get(i);
+                        if (c < '0' || c > '9') {
+                            addressLine = -1;
+                            break;
+                        }
+                        addressLine = addressLine * 10 + (c - '0');
+                    }
+                    return ADDRESS;
+                }
+            } else if (tag.length == length && startsWith(tag, from)) {
+                return code;
+            }
+        }
+        return OTHER;
+    }
+
+    // end of a tag name: the first space, '/' or '>'
+    private int nameEnd(int from) {
+        int i = from;
+        while (true) {
+            byte b = buffer.get(i);
+            if (b == '>' || b == '/' || b == ' ' || b == '\t' || b == '\n' || b == '\r') return i;
+            i++;
+        }
+    }
+
+    // '>' closing a start tag, skipping quoted attribute values
+    private int tagEnd(int from, int limit) {
+        byte quote = 0;
+        for (int i = from; i < limit; i++) {
+            byte b = buffer.get(i);
+            if (quote != 0) {
+                if (b == quote) quote = 0;
+            } else if (b == '"' || b == '\'') {
+                quote = b;
+            } else if (b == '>') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // skip the document type declaration, refusing entity declarations
+    private int skipDoctype(int from) throws FormatException {
+        int limit = buffer.limit();
+        byte quote = 0;
+        boolean subset = false;
+        for (int i = from + DOCTYPE.length; i < limit; i++) {
+            byte b = buffer.get(i);
+            if (quote != 0) {
+                if (b == quote) quote = 0;
+            } else if (b == '"' || b == '\'') {
+                quote = b;
+            } else if (b == '[') {
+                subset = true;
+            } else if (b == ']') {
+                subset = false;
+            } else if (b == '<' && subset && startsWith(ENTITY, i)) {
+                throw new FormatException("Entity declarations are not supported in " + file);
+            } else if (b == '<' && subset && i + 3 < limit && buffer.get(i + 1) == '!' && buffer.get(i + 2) == '-') {
+                i = find(COMMENT_END, i + 4, limit) + COMMENT_END.length - 1;
+            } else if (b == '>' && !subset) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    // only UTF-8 and its ASCII subset are decoded
+    private void checkEncoding(int from, int to) throws FormatException {
+        byte[] declaration = new byte[to - from];
+        for (int i = 0; i < declaration.length; i++) declaration[i] = buffer.get(from + i);
+        String text = new String(declaration, StandardCharsets.US_ASCII).toLowerCase();
+
+        int i = text.indexOf("encoding");
+        if (i < 0) return;
+        int start = text.indexOf('"', i) >= 0 ? text.indexOf('"', i) : text.indexOf('\'', i);
+        int end   = start < 0 ? -1 : text.indexOf(text.charAt(start), start + 1);
+        String encoding = end < 0 ? "" : text.substring(start + 1, end);
+        if (!encoding.equals("utf-8") && !encoding.equals("utf8") && !encoding.equals("us-ascii")) {
+            throw new FormatException("Encoding " + encoding + " is not supported in " + file);
+        }
+    }
+
+    private int indexOf(byte b, int from, int limit) {
+        for (int i = from; i < limit; i++) {
+            if (buffer.get(i) == b) return i;
+        }
+        return -1;
+    }
+
+    // start of the first occurrence of bytes at or after from
+    private int find(byte[] bytes, int from, int limit) throws FormatException {
+        for (int i = indexOf(bytes[0], from, limit); i >= 0; i = indexOf(bytes[0], i + 1, limit)) {
+            if (i + bytes.length <= limit && startsWith(bytes, i)) return i;
+        }
+        throw new FormatException("Unterminated markup after byte " + from + " of " + file);
+    }
+
+    // a position found by a search, which must exist
+    private int expect(int position, int from) throws FormatException {
+        if (position < 0) throw new FormatException("Unterminated markup after byte " + from + " of " + file);
+        return position;
+    }
+
+    private boolean startsWith(byte[] bytes, int at) {
+        if (at + bytes.length > buffer.limit()) return false;
+        for (int i = 0; i < bytes.length; i++) {
+            if (buffer.get(at + i) != bytes[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Decode the character data in [from, to) as an XML parser
+     * reports it: UTF-8 decoded, line ends normalized, character
+     * references replaced, comments and processing instructions
+     * dropped and CDATA sections kept as is
+     */
+    private String text(int from, int to) throws IOException {
+        int length = 0;
+        int i = from;
+        while (i < to) {
+            if (length + 2 > chars.length) chars = Arrays.copyOf(chars, chars.length * 2);
+
+            int b = buffer.get(i) & 0xFF;
+            if (b == '<') {
+                if (startsWith(CDATA, i)) {
+                    int end = find(CDATA_END, i + CDATA.length, to);
+                    for (int j = i + CDATA.length; j < end; ) {
+                        if (length + 2 > chars.length) chars = Arrays.copyOf(chars, chars.length * 2);
+                        j = decodeChar(j, length);
+                        length += charCount;
+                    }
+                    i = end + CDATA_END.length;
+                } else if (buffer.get(i + 1) == '?') {
+                    i = find(PI_END, i + 2, to) + PI_END.length;
+                } else {
+                    i = find(COMMENT_END, i + 4, to) + COMMENT_END.length;
+                }
+            } else if (b == '&') {
+                int semicolon = indexOf((byte) ';', i, to);
+                if (semicolon < 0) throw new FormatException("Unterminated reference at byte " + i + " of " + file);
+                length += Character.toChars(reference(i + 1, semicolon), chars, length);
+                i = semicolon + 1;
+            } else if (b == '\r') {
+                // \r\n and lone \r are reported as \n
+                chars[length++] = '\n';
+                i++;
+                if (i < to && buffer.get(i) == '\n') i++;
+            } else {
+                i = decodeChar(i, length);
+                length += charCount;
+            }
+        }
+        return new String(chars, 0, length);
+    }
+
+    // decode the UTF-8 character at i into chars[length], returning the next byte
+    private int decodeChar(int i, int length) throws FormatException {
+        int b = buffer.get(i) & 0xFF;
+        if (b < 0x80) {
+            chars[length] = (char) b;
+            charCount = 1;
+            return i + 1;
+        }
+
+        int n;
+        int c;
+        if (b >= 0xF0) {
+            n = 3;
+            c = b & 0x07;
+        } else if (b >= 0xE0) {
+            n = 2;
+            c = b & 0x0F;
+        } else if (b >= 0xC0) {
+            n = 1;
+            c = b & 0x1F;
+        } else {
+            throw new FormatException("Invalid UTF-8 at byte " + i + " of " + file);
+        }
+        for (int k = 1; k <= n; k++) c = (c << 6) | (buffer.get(i + k) & 0x3F);
+        if (c > Character.MAX_CODE_POINT) {
+            throw new FormatException("Invalid UTF-8 at byte " + i + " of " + file);
+        }
+        charCount = Character.toChars(c, chars, length);
+        return i + n + 1;
+    }
+
+    // code point of the reference in [from, to), without '&' and ';'
+    private int reference(int from, int to) throws FormatException {
+        if (buffer.get(from) == '#') {
+            boolean hex = buffer.get(from + 1) == 'x';
+            int c = 0;
+            for (int i = from + (hex ? 2 : 1); i < to; i++) {
+                int digit = Character.digit(buffer.get(i), hex ? 16 : 10);
+                if (digit < 0) throw new FormatException("Invalid character reference at byte " + from + " of " + file);
+                c = c * (hex ? 16 : 10) + digit;
+                if (c > Character.MAX_CODE_POINT) {
+                    throw new FormatException("Character reference out of range at byte " + from + " of " + file);
+                }
+            }
+            return c;
+        }
+        switch (to - from) {
+            case 2:
+                if (buffer.get(from) == 'l' && buffer.get(from + 1) == 't') return '<';
+                if (buffer.get(from) == 'g' && buffer.get(from + 1) == 't') return '>';
+                break;
+            case 3:
+                if (startsWith(AMP, from)) return '&';
+                break;
+            case 4:
+                if (startsWith(QUOT, from)) return '"';
+                if (startsWith(APOS, from)) return '\'';
+                break;
+            default:
+                break;
+        }
+        throw new FormatException("Unknown entity at byte " + from + " of " + file);
+    }
+
+    /**
+     * Conformance check: read a file with this parser and with
+     * {@link PatentStreamReader} and compare the patents field by field
+     *
+     * @param file bulk XML file
+     * @return null if both parsers give the same patents, else the first difference
+     * @throws Exception if the file cannot be read by either parser
+     */
+    public static String compare(File file) throws Exception {
+        final List<byte[]> mapped = new ArrayList<>();
+        final List<byte[]> stream = new ArrayList<>();
+        MappedPatentParser parser = new MappedPatentParser(file);
+        parser.read(new PatentHandler() {
+            @Override
+            public void handle(Patent patent) {
+                mapped.add(encode(patent));
+            }
+        });
+        PatentStreamReader reader = new PatentStreamReader(file);
+        reader.read(new PatentHandler() {
+            @Override
+            public void handle(Patent patent) {
+                stream.add(encode(patent));
+            }
+        });
+
+        if (parser.getRecordedDay() != reader.getRecordedDay()) {
+            return "recorded date " + parser.getRecordedDay() + " instead of " + reader.getRecordedDay();
+        }
+        for (int i = 0; i < Math.min(mapped.size(), stream.size()); i++) {
+            if (!Arrays.equals(mapped.get(i), stream.get(i))) return "patent " + i + " differs";
+        }
+        if (mapped.size() != stream.size()) {
+            return mapped.size() + " patents instead of " + stream.size();
+        }
+        return null;
+    }
+
+    // binary form of a patent, see PatentCodec
+    private static byte[] encode(Patent patent) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            PatentCodec.writePatent(out, patent);
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException("Exception encoding patent " + e.getMessage(), e);
+        }
+    }
+
+    // run the conformance check on files or folders given as arguments
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.out.println("Usage: MappedPatentParser fileOrFolder...");
+            return;
+        }
+        for (String arg : args) {
+            for (File file : PatentArray.listSources(arg)) {
+                if (!canMap(file)) continue;
+                String difference = compare(file);
+                System.out.println(file.getName() + ": " + (difference == null ? "OK" : difference));
+            }
+        }
+    }
+}
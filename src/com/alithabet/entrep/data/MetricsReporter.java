@@ -0,0 +1,30 @@
+package com.alithabet.entrep.data;
+
+/**
+ * <tt>MetricsReporter</tt> receives the events counted by
+ * {@link IngestMetrics} as they happen, for instance to log them,
+ * see {@link ConsoleReporter}, or to push them to a monitoring
+ * system. Reporters are called from the parser threads, so they
+ * must be thread safe and should return quickly.
+ *
+ * @author Ali K Thabet
+ */
+public interface MetricsReporter {
+
+    /**
+     * Called once a file has been parsed
+     *
+     * @param metrics metrics the file was added to
+     * @param path    path of the file
+     * @param patents patents read from the file
+     * @param nanos   parse time in nanoseconds
+     */
+    void fileRead(IngestMetrics metrics, String path, int patents, long nanos);
+
+    /**
+     * Called once the index has been brought up to date
+     *
+     * @param metrics metrics of the array
+     */
+    void indexUpdated(IngestMetrics metrics);
+}
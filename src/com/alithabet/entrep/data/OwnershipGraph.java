@@ -0,0 +1,473 @@
+package com.alithabet.entrep.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * <tt>OwnershipGraph</tt> is the graph of patent ownership transfers:
+ * every assignment is an edge from each of its assignors to each of
+ * its assignees, labeled with the recorded date, the number of
+ * inventions and the patent of the assignment. Vertices are firms:
+ * the entities of {@link EntityResolver} when the patents have been
+ * resolved, matched to assignors by name as well, and otherwise the
+ * normalized names, see {@link EntityResolver#normalize(String)}.
+ * <p>
+ * The graph is stored in compressed sparse row form: the edges are
+ * sorted by source vertex in flat <tt>int</tt> arrays with an offset
+ * per vertex, and a second set of offsets lists the edges by target.
+ * A graph of the full assignment history takes a few <tt>int</tt>s per
+ * edge and vertex, and following the edges of a vertex reads
+ * contiguous memory. Breadth first searches run level by level, the
+ * vertices of large levels being split between <em>threads</em> workers.
+ * <p>
+ * The graph is built once from a list of patents, see
+ * {@link PatentArray#buildOwnershipGraph()}, and is not updated as
+ * more patents are read.
+ *
+ * @author Ali K Thabet
+ */
+public class OwnershipGraph {
+
+    // vertex of a person without a name
+    public static final int NO_VERTEX = -1;
+
+    // levels with fewer vertices are searched on the calling thread
+    private static final int PARALLEL_LEVEL = 1024;
+
+    private final String[] names;      // name of each vertex
+    private final int[]    outOffsets; // edges of vertex v are [outOffsets[v], outOffsets[v + 1])
+    private final int[]    sources;    // source vertex of each edge
+    private final int[]    targets;    // target vertex of each edge
+    private final int[]    days;       // recorded date of each edge, as an epoch day
+    private final int[]    inventions; // number of inventions of each edge
+    private final int[]    patentIds;  // patent of each edge, its position in the patent list
+    private final int[]    inOffsets;  // edges to vertex v are inEdges[inOffsets[v] .. inOffsets[v + 1])
+    private final int[]    inEdges;    // edge IDs sorted by target vertex
+    private final EntityResolver resolver; // entities of the vertices, may be null
+    private final KeyTable       keys;     // normalized names of the vertices that are not entities
+    private final int            entities; // vertices below this are entity IDs
+    private int                  threads = Runtime.getRuntime().availableProcessors(); // search workers
+
+    private OwnershipGraph(Builder builder) {
+        resolver = builder.resolver;
+        keys     = builder.keys;
+        entities = builder.entities;
+        names    = builder.names.toArray(new String[builder.names.size()]);
+
+        int vertices = names.length;
+        int edges    = builder.edges;
+
+        // counting sort of the edges by source, keeping the patent order within a source
+        outOffsets = new int[vertices + 1];
+        for (int e = 0; e < edges; e++) outOffsets[builder.sources[e] + 1]++;
+        for (int v = 0; v < vertices; v++) outOffsets[v + 1] += outOffsets[v];
+
+        sources    = new int[edges];
+        targets    = new int[edges];
+        days       = new int[edges];
+        inventions = new int[edges];
+        patentIds  = new int[edges];
+        int[] fill = Arrays.copyOf(outOffsets, vertices);
+        for (int e = 0; e < edges; e++) {
+            int at = fill[builder.sources[e]]++;
+            sources[at]    = builder.sources[e];
+            targets[at]    = builder.targets[e];
+            days[at]       = builder.days[e];
+            inventions[at] = builder.inventions[e];
+            patentIds[at]  = builder.patents[e];
+        }
+
+        // edges by target
+        inOffsets = new int[vertices + 1];
+        for (int e = 0; e < edges; e++) inOffsets[targets[e] + 1]++;
+        for (int v = 0; v < vertices; v++) inOffsets[v + 1] += inOffsets[v];
+        inEdges = new int[edges];
+        fill = Arrays.copyOf(inOffsets, vertices);
+        for (int e = 0; e < edges; e++) inEdges[fill[targets[e]]++] = e;
+    }
+
+    /**
+     * Build the graph of the assignments of <em>patents</em>
+     *
+     * @param patents  patents to read the assignments from
+     * @param resolver entities of the assignees, after {@link EntityResolver#resolve(List)},
+     *                 or null to use the normalized names alone
+     * @return the graph
+     */
+    public static OwnershipGraph build(List<Patent> patents, EntityResolver resolver) {
+        Builder builder = new Builder(resolver);
+        int[] from = new int[8];
+        int[] to   = new int[8];
+        for (int id = 0; id < patents.size(); id++) {
+            Patent patent = patents.get(id);
+            ArrayList<Person> assignors = patent.getPatentAssignors();
+            ArrayList<Person> assignees = patent.getPatentAssignees();
+            if (assignors.size() > from.length) from = new int[assignors.size()];
+            if (assignees.size() > to.length)   to   = new int[assignees.size()];
+            for (int i = 0; i < assignors.size(); i++) from[i] = builder.vertex(assignors.get(i));
+            for (int j = 0; j < assignees.size(); j++) to[j] = builder.vertex(assignees.get(j));
+
+            int count = patent.getInventions().size();
+            for (int i = 0; i < assignors.size(); i++) {
+                if (from[i] == NO_VERTEX) continue;
+                for (int j = 0; j < assignees.size(); j++) {
+                    // an entity assigning to itself is a change of name, not a transfer
+                    if (to[j] != NO_VERTEX && to[j] != from[i]) {
+                        builder.edge(from[i], to[j], patent.getRecordedDay(), count, id);
+                    }
+                }
+            }
+        }
+        return new OwnershipGraph(builder);
+    }
+
+    // collects vertices and edges in the order of the patents
+    private static final class Builder {
+        final EntityResolver    resolver;
+        final KeyTable          keys = new KeyTable(1024);
+        final int               entities;
+        final ArrayList<String> names = new ArrayList<>();
+        int[] sources    = new int[1024];
+        int[] targets    = new int[1024];
+        int[] days       = new int[1024];
+        int[] inventions = new int[1024];
+        int[] patents    = new int[1024];
+        int   edges;
+
+        Builder(EntityResolver resolver) {
+            this.resolver = resolver;
+            entities = resolver == null ? 0 : resolver.size();
+            for (int e = 0; e < entities; e++) names.add(resolver.getName(e));
+        }
+
+        int vertex(Person person) {
+            if (person.getEntityId() != Person.NO_ENTITY && person.getEntityId() < entities) {
+                return person.getEntityId();
+            }
+            String name = person.getName();
+            if (name == null) return NO_VERTEX;
+            if (resolver != null) {
+                int entity = resolver.entityOf(name);
+                if (entity != Person.NO_ENTITY) return entity;
+            }
+
+            String key = EntityResolver.normalize(name);
+            if (key.isEmpty()) return NO_VERTEX;
+            int id = keys.add(key);
+            if (entities + id == names.size()) names.add(name);
+            return entities + id;
+        }
+
+        void edge(int source, int target, int day, int count, int patent) {
+            if (edges == sources.length) {
+                int capacity = edges * 2;
+                sources    = Arrays.copyOf(sources, capacity);
+                targets    = Arrays.copyOf(targets, capacity);
+                days       = Arrays.copyOf(days, capacity);
+                inventions = Arrays.copyOf(inventions, capacity);
+                patents    = Arrays.copyOf(patents, capacity);
+            }
+            sources[edges]    = source;
+            targets[edges]    = target;
+            days[edges]       = day;
+            inventions[edges] = count;
+            patents[edges++]  = patent;
+        }
+    }
+
+    /**
+     * Vertex of a firm or person name: its entity if the graph was
+     * built with a resolver that knows the name, otherwise the vertex
+     * of its normalized name
+     *
+     * @param name assignor or assignee name
+     * @return the vertex, or {@link #NO_VERTEX} if the name is not in the graph
+     */
+    public int vertexOf(String name) {
+        if (name == null) return NO_VERTEX;
+        if (resolver != null) {
+            int entity = resolver.entityOf(name);
+            if (entity != Person.NO_ENTITY && entity < entities) return entity;
+        }
+        int id = keys.find(EntityResolver.normalize(name));
+        return id == KeyTable.NOT_FOUND ? NO_VERTEX : entities + id;
+    }
+
+    // name of a vertex: the canonical name of its entity, or the first name seen
+    public String getName(int vertex) {
+        return names[vertex];
+    }
+
+    public int vertexCount() {
+        return names.length;
+    }
+
+    public int edgeCount() {
+        return targets.length;
+    }
+
+    // assignments made by a vertex
+    public int outDegree(int vertex) {
+        return outOffsets[vertex + 1] - outOffsets[vertex];
+    }
+
+    // assignments received by a vertex
+    public int inDegree(int vertex) {
+        return inOffsets[vertex + 1] - inOffsets[vertex];
+    }
+
+    /**
+     * Edges from a vertex, in the order of the patents
+     *
+     * @param vertex source vertex
+     * @return edge IDs, see {@link #getTarget(int)}
+     */
+    public int[] outEdges(int vertex) {
+        int[] edges = new int[outDegree(vertex)];
+        for (int i = 0; i < edges.length; i++) edges[i] = outOffsets[vertex] + i;
+        return edges;
+    }
+
+    // edges to a vertex, in the order of the patents
+    public int[] inEdges(int vertex) {
+        return Arrays.copyOfRange(inEdges, inOffsets[vertex], inOffsets[vertex + 1]);
+    }
+
+    /**
+     * Distinct vertices a vertex assigned patents to
+     *
+     * @param vertex source vertex
+     * @return sorted target vertices
+     */
+    public int[] successors(int vertex) {
+        return distinct(targets, outOffsets[vertex], outOffsets[vertex + 1], null);
+    }
+
+    // distinct vertices that assigned patents to a vertex, sorted
+    public int[] predecessors(int vertex) {
+        return distinct(sources, inOffsets[vertex], inOffsets[vertex + 1], inEdges);
+    }
+
+    // distinct values of ends[edge] for the edges in [from, to), read through order if not null
+    private static int[] distinct(int[] ends, int from, int to, int[] order) {
+        int[] values = new int[to - from];
+        for (int i = from; i < to; i++) values[i - from] = ends[order == null ? i : order[i]];
+        Arrays.sort(values);
+        int n = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (n == 0 || values[i] != values[n - 1]) values[n++] = values[i];
+        }
+        return Arrays.copyOf(values, n);
+    }
+
+    // number of inventions a vertex assigned, over all its edges
+    public long inventionsOut(int vertex) {
+        long total = 0;
+        for (int e = outOffsets[vertex]; e < outOffsets[vertex + 1]; e++) total += inventions[e];
+        return total;
+    }
+
+    // number of inventions a vertex received, over all its edges
+    public long inventionsIn(int vertex) {
+        long total = 0;
+        for (int i = inOffsets[vertex]; i < inOffsets[vertex + 1]; i++) total += inventions[inEdges[i]];
+        return total;
+    }
+
+    // labels of an edge
+    public int getSource(int edge) {
+        return sources[edge];
+    }
+
+    public int getTarget(int edge) {
+        return targets[edge];
+    }
+
+    public int getRecordedDay(int edge) {
+        return days[edge];
+    }
+
+    public int getInventions(int edge) {
+        return inventions[edge];
+    }
+
+    // position of the patent of an edge in the list the graph was built from
+    public int getPatentId(int edge) {
+        return patentIds[edge];
+    }
+
+    /**
+     * Breadth first search from a vertex, following the direction
+     * of ownership, from assignor to assignee, or against it
+     *
+     * @param source  first vertex
+     * @param maxHops largest number of edges followed
+     * @param forward true to follow edges to their assignees, false to their assignors
+     * @return number of hops to each vertex, -1 for vertices not reached
+     */
+    public int[] distances(int source, int maxHops, boolean forward) {
+        AtomicIntegerArray distance = new AtomicIntegerArray(names.length);
+        for (int v = 0; v < names.length; v++) distance.set(v, -1);
+        distance.set(source, 0);
+
+        int[] frontier = {source};
+        ForkJoinPool pool = null;
+        try {
+            for (int hop = 1; hop <= maxHops && frontier.length > 0; hop++) {
+                if (frontier.length < PARALLEL_LEVEL || threads <= 1) {
+                    frontier = expand(frontier, 0, frontier.length, hop, forward, distance);
+                    continue;
+                }
+                if (pool == null) pool = new ForkJoinPool(threads);
+                frontier = expandParallel(pool, frontier, hop, forward, distance);
+            }
+        } finally {
+            if (pool != null) pool.shutdown();
+        }
+
+        int[] result = new int[names.length];
+        for (int v = 0; v < result.length; v++) result[v] = distance.get(v);
+        return result;
+    }
+
+    // split a level between the workers and join their next levels
+    private int[] expandParallel(ForkJoinPool pool, final int[] frontier, final int hop,
+                                 final boolean forward, final AtomicIntegerArray distance) {
+        ArrayList<Callable<int[]>> tasks = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int from = (int) ((long) frontier.length * t / threads);
+            final int to   = (int) ((long) frontier.length * (t + 1) / threads);
+            tasks.add(new Callable<int[]>() {
+                @Override
+                public int[] call() {
+                    return expand(frontier, from, to, hop, forward, distance);
+                }
+            });
+        }
+
+        List<int[]> parts = new ArrayList<>();
+        int total = 0;
+        try {
+            for (Future<int[]> future : pool.invokeAll(tasks)) {
+                int[] part = future.get();
+                parts.add(part);
+                total += part.length;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted searching the ownership graph");
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause().getMessage(), e.getCause());
+        }
+
+        int[] next = new int[total];
+        int n = 0;
+        for (int[] part : parts) {
+            System.arraycopy(part, 0, next, n, part.length);
+            n += part.length;
+        }
+        return next;
+    }
+
+    // vertices first reached from frontier[from..to), claimed by setting their distance
+    private int[] expand(int[] frontier, int from, int to, int hop, boolean forward, AtomicIntegerArray distance) {
+        int[] next = new int[16];
+        int n = 0;
+        for (int i = from; i < to; i++) {
+            int v = frontier[i];
+            int start = forward ? outOffsets[v] : inOffsets[v];
+            int end   = forward ? outOffsets[v + 1] : inOffsets[v + 1];
+            for (int k = start; k < end; k++) {
+                int w = forward ? targets[k] : sources[inEdges[k]];
+                if (distance.get(w) < 0 && distance.compareAndSet(w, -1, hop)) {
+                    if (n == next.length) next = Arrays.copyOf(next, n * 2);
+                    next[n++] = w;
+                }
+            }
+        }
+        return Arrays.copyOf(next, n);
+    }
+
+    /**
+     * Vertices reached from a vertex within a number of hops
+     *
+     * @param source  first vertex
+     * @param maxHops largest number of edges followed
+     * @param forward true to follow ownership to the assignees, false back to the assignors
+     * @return reached vertices, nearest first, not including the source
+     */
+    public int[] reachable(int source, int maxHops, boolean forward) {
+        int[] distance = distances(source, maxHops, forward);
+        long[] order = new long[distance.length];
+        int n = 0;
+        for (int v = 0; v < distance.length; v++) {
+            if (distance[v] > 0) order[n++] = ((long) distance[v] << 32) | v;
+        }
+        Arrays.sort(order, 0, n);
+        int[] vertices = new int[n];
+        for (int i = 0; i < n; i++) vertices[i] = (int) order[i];
+        return vertices;
+    }
+
+    /**
+     * Chains of ownership starting at a vertex: paths of assignments,
+     * each recorded no earlier than the one before, that do not visit
+     * a vertex twice. Only maximal chains are returned, so the last
+     * vertex of each chain is a firm that ended up owning some of the
+     * patents, e.g. the acquirer of a startup's portfolio.
+     *
+     * @param source  first assignor
+     * @param maxHops largest number of assignments in a chain
+     * @param limit   largest number of chains returned
+     * @return chains as arrays of edge IDs, in the order they are found
+     */
+    public List<int[]> chains(int source, int maxHops, int limit) {
+        List<int[]> chains = new ArrayList<>();
+        int[] path = new int[maxHops];
+        boolean[] onPath = new boolean[names.length];
+        onPath[source] = true;
+        extend(source, PatentDate.NO_DATE, path, 0, onPath, chains, limit);
+        return chains;
+    }
+
+    // depth first search over the edges recorded on or after day
+    private void extend(int vertex, int day, int[] path, int length, boolean[] onPath,
+                        List<int[]> chains, int limit) {
+        boolean extended = false;
+        if (length < path.length) {
+            for (int e = outOffsets[vertex]; e < outOffsets[vertex + 1] && chains.size() < limit; e++) {
+                int next = targets[e];
+                if (onPath[next] || days[e] < day) continue;
+
+                extended = true;
+                path[length] = e;
+                onPath[next] = true;
+                extend(next, days[e], path, length + 1, onPath, chains, limit);
+                onPath[next] = false;
+            }
+        }
+        if (!extended && length > 0 && chains.size() < limit) {
+            chains.add(Arrays.copyOf(path, length));
+        }
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    // estimated bytes held by the arrays, not counting the names
+    public long sizeInBytes() {
+        return 4L * (outOffsets.length + inOffsets.length)
+                + 4L * 6 * targets.length + 8L * names.length;
+    }
+}
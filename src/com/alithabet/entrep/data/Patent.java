@@ -26,8 +26,11 @@ import java.util.HashMap;
  */
 public class Patent {
 
-    // helper to parse date strings
+    // helper to parse date strings. These formatters are not thread safe,
+    // use PatentDate to parse and format dates instead
+    @Deprecated
     public static final SimpleDateFormat SAVE_FORMATTER = new SimpleDateFormat("yyyyMMdd");
+    @Deprecated
     public static final SimpleDateFormat DISPLAY_FORMATTER = new SimpleDateFormat("dd-MM-yyyy");
 
     // XML tag names used for parsing
@@ -57,13 +60,14 @@ public class Patent {
     // Attributes of each patent. Note that each patent entry
     // has many inventions attached to it. These inventions are
     // stored in an a Map, where the unique key is the
-    // invention title
+    // invention title. The recorded date is an epoch
+    // day, see PatentDate
     private Person                     correspondent;
     private ArrayList<Person>          patentAssignors;
     private ArrayList<Person>          patentAssignees;
     private HashMap<String,
             ArrayList<PatentProperty>> inventions;
-    private Date                       recordedDate;
+    private int                        recordedDate;
 
     // default no argument constructor
     public Patent() {
@@ -78,8 +82,18 @@ public class Patent {
      * @param node Node element containing single patent data
      */
     public Patent(Node node, Date date) {
+        this(node, PatentDate.fromDate(date));
+    }
+
+    /**
+     * Constructor with Node and recorded epoch day as argument
+     *
+     * @param node         Node element containing single patent data
+     * @param recordedDate recorded date of the patent as an epoch day
+     */
+    public Patent(Node node, int recordedDate) {
         initialize();
-        recordedDate = date;
+        this.recordedDate = recordedDate;
         readXML(node);
     }
 
@@ -89,7 +103,7 @@ public class Patent {
         patentAssignors  = new ArrayList<>();
         patentAssignees  = new ArrayList<>();
         inventions       = new HashMap<>();
-        recordedDate     = new Date();
+        recordedDate     = PatentDate.today();
     }
 
     public Person getCorrespondent() {
@@ -125,13 +139,31 @@ public class Patent {
     }
 
     public Date getRecordedDate() {
-        return recordedDate;
+        return PatentDate.toDate(recordedDate);
     }
 
     public void setRecordedDate(Date recordedDate) {
+        this.recordedDate = PatentDate.fromDate(recordedDate);
+    }
+
+    public int getRecordedDay() {
+        return recordedDate;
+    }
+
+    public void setRecordedDay(int recordedDate) {
         this.recordedDate = recordedDate;
     }
 
+    // keep a single copy of the countries, states and kinds of the patent in a dictionary
+    void intern(StringDictionary dictionary) {
+        correspondent.intern(dictionary);
+        for (Person assignor : patentAssignors) assignor.intern(dictionary);
+        for (Person assignee : patentAssignees) assignee.intern(dictionary);
+        for (ArrayList<PatentProperty> list : inventions.values()) {
+            for (PatentProperty property : list) property.intern(dictionary);
+        }
+    }
+
     /**
      * Given a node from an XML {@link org.w3c.dom.Document},
      * parse all the patent data and store it
@@ -147,9 +179,10 @@ public class Patent {
         if (corr.getTextContent() == null) return;
 
         correspondent.setName(corr.getTextContent());
+        Element corrRoot = (Element) corr.getParentNode();
         ArrayList<String> address = new ArrayList<>();
         for (int j = 1; j <= CORRESPONDENT_ADDRESS; j++) {
-            NodeList temp = ((Element) node).getElementsByTagName(ADDRESS + j);
+            NodeList temp = corrRoot.getElementsByTagName(ADDRESS + j);
             if (temp != null && temp.getLength() > 0) {
                 address.add(temp.item(0).getTextContent());
             }
@@ -164,7 +197,7 @@ public class Patent {
             Element nameElement = (Element) ((Element) assignors.item(j)).getElementsByTagName(NAME).item(0);
             person.setName(nameElement.getTextContent());
 
-            address.clear();
+            address = new ArrayList<>();
             for (int k = 1; k <= ASSIGNOR_ADDRESS; k++) {
                 NodeList temp = ((Element) assignors.item(j)).getElementsByTagName(ADDRESS + k);
                 if (temp != null && temp.getLength() > 0) {
@@ -183,7 +216,7 @@ public class Patent {
 
             person.setName(root.getElementsByTagName(NAME).item(0).getTextContent());
 
-            address.clear();
+            address = new ArrayList<>();
             for (int k = 1; k <= ASSIGNEE_ADDRESS; k++) {
                 NodeList temp = root.getElementsByTagName(ADDRESS + k);
                 if (temp != null && temp.getLength() > 0) {
@@ -241,27 +274,14 @@ public class Patent {
                     String dateString = root.getElementsByTagName(DATE_ELEMENT).item(0).getTextContent();
 
                     try {
-                        property.setDate(SAVE_FORMATTER.parse(dateString));
+                        property.setDay(PatentDate.parse(dateString));
                     } catch (Exception e) {
                         System.out.println("Property date formatter exception:"
                                 + e.getMessage());
                     }
                 }
 
-                switch (property.getDocumentNumber().length()) {
-                    case PatentProperty.APPLICATION_NUMBER_LENGTH:
-                        property.setStatus(PatentProperty.APPLICATION_STATUS);
-                        break;
-                    case PatentProperty.ISSUE_NUMBER_LENGTH:
-                        property.setStatus(PatentProperty.ISSUED_STATUS);
-                        break;
-                    case PatentProperty.PUBLICATION_NUMBER_LENGTH:
-                        property.setStatus(PatentProperty.PUBLISHED_STATUS);
-                        break;
-                    default:
-                        property.setStatus(PatentProperty.NO_STATUS);
-                        break;
-                }
+                property.setStatus(PatentProperty.statusOf(property.getDocumentNumber()));
                 patentProperties.add(property);
             }
             inventions.put(title, patentProperties);
@@ -273,7 +293,7 @@ public class Patent {
         StringBuilder builder = new StringBuilder();
 //        builder.append("Invention Title:\n" + title + "\n");
         builder.append("Last Modified:\n");
-        builder.append(DISPLAY_FORMATTER.format(recordedDate) + "\n");
+        PatentDate.appendDisplay(builder, recordedDate).append('\n');
 
         builder.append("Correspondent:\n");
         builder.append(correspondent.toString() + "\n");
@@ -0,0 +1,563 @@
+package com.alithabet.entrep.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * <tt>PatentAggregator</tt> groups patents by a set of
+ * {@link Dimension}s and counts the rows of each group, or the
+ * distinct values of another dimension in each group, e.g.
+ * <pre>
+ * new PatentAggregator(ASSIGNEE_CITY, RECORDED_YEAR).countDistinct(array.getPatents(), ASSIGNMENT)
+ * new PatentAggregator(STATUS, PROPERTY_MONTH).countDistinct(array.getPatents(), DOCUMENT_NUMBER)
+ * </pre>
+ * give the assignments per assignee city per year and the inventions
+ * per status per month.
+ * <p>
+ * The rows counted depend on the dimensions used: one row per patent,
+ * times one per assignee when an assignee dimension is used, one per
+ * assignor for an assignor dimension and one per property for a
+ * property dimension. A patent without assignees has no rows when
+ * grouping by assignee city, as in an inner join. Distinct counts
+ * ignore missing values, as <tt>COUNT(DISTINCT)</tt> in SQL does.
+ * <p>
+ * Groups are keyed by the primitive values of the dimensions in a
+ * {@link LongTupleMap}, strings such as cities by their code in a
+ * {@link StringDictionary} of the aggregation, dropped with its
+ * {@link Result}, so no row objects or strings are built while
+ * counting. A {@link CompactPatentStore} is read through its views,
+ * so its patents are not built either. The patents
+ * are split between <em>threads</em> workers, each with its own maps,
+ * which are added together at the end. For distinct counts each worker
+ * also splits its values by hash, so the values are merged in parallel
+ * too.
+ *
+ * @author Ali K Thabet
+ */
+public class PatentAggregator {
+
+    // levels of the rows a dimension is read from
+    private static final int PATENT   = 0;
+    private static final int ASSIGNEE = 1;
+    private static final int ASSIGNOR = 2;
+    private static final int PROPERTY = 3;
+    private static final int LEVELS   = 4;
+
+    /**
+     * Fields the patents are grouped and counted by
+     */
+    public enum Dimension {
+        ASSIGNMENT(PATENT),        // position of the patent in the list
+        RECORDED_YEAR(PATENT),
+        RECORDED_MONTH(PATENT),    // yyyyMM
+        RECORDED_DAY(PATENT),      // epoch day
+        CORRESPONDENT_NAME(PATENT),
+        ASSIGNEE_NAME(ASSIGNEE),
+        ASSIGNEE_CITY(ASSIGNEE),
+        ASSIGNEE_STATE(ASSIGNEE),
+        ASSIGNEE_COUNTRY(ASSIGNEE),
+        ASSIGNEE_POSTCODE(ASSIGNEE),
+        ASSIGNEE_ENTITY(ASSIGNEE), // firm, see EntityResolver
+        ASSIGNOR_NAME(ASSIGNOR),
+        STATUS(PROPERTY),          // status code
+        KIND(PROPERTY),
+        PROPERTY_COUNTRY(PROPERTY),
+        DOCUMENT_NUMBER(PROPERTY), // see PatentProperty.documentKey
+        PROPERTY_YEAR(PROPERTY),
+        PROPERTY_MONTH(PROPERTY);  // yyyyMM
+
+        private final int level;
+
+        Dimension(int level) {
+            this.level = level;
+        }
+
+        // true for values standing for a missing field
+        boolean isMissing(long value) {
+            switch (this) {
+                case ASSIGNMENT:
+                case STATUS:
+                    return false;
+                case RECORDED_YEAR:
+                case RECORDED_MONTH:
+                case RECORDED_DAY:
+                case PROPERTY_YEAR:
+                case PROPERTY_MONTH:
+                    return value == PatentDate.NO_DATE;
+                default:
+                    // null dictionary codes, unresolved entities and unpacked numbers
+                    return value == -1;
+            }
+        }
+
+        // true for the dimensions whose values are strings, encoded by the aggregation
+        boolean isText() {
+            switch (this) {
+                case CORRESPONDENT_NAME:
+                case ASSIGNEE_NAME:
+                case ASSIGNEE_CITY:
+                case ASSIGNEE_STATE:
+                case ASSIGNEE_COUNTRY:
+                case ASSIGNEE_POSTCODE:
+                case ASSIGNOR_NAME:
+                case KIND:
+                case PROPERTY_COUNTRY:
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        /**
+         * Text of a value of the dimension
+         *
+         * @param value   value of a group
+         * @param strings codes of the string values, see {@link Result}
+         * @return the text, or null for a missing value
+         */
+        String label(long value, StringDictionary strings) {
+            if (isMissing(value)) return null;
+            if (isText()) return strings.decode((int) value);
+
+            switch (this) {
+                case RECORDED_DAY:
+                    return PatentDate.toDisplayString((int) value);
+                case RECORDED_MONTH:
+                case PROPERTY_MONTH:
+                    return value / 100 + "-" + (value % 100 < 10 ? "0" : "") + value % 100;
+                case STATUS:
+                    return PatentProperty.statusName((byte) value);
+                case DOCUMENT_NUMBER:
+                    return PatentProperty.documentNumber(value);
+                default:
+                    return String.valueOf(value);
+            }
+        }
+    }
+
+    private final Dimension[] groupBy; // dimensions of the groups
+    private int               threads = Runtime.getRuntime().availableProcessors(); // workers
+
+    /**
+     * Constructor with the dimensions to group by
+     *
+     * @param groupBy one or more dimensions
+     */
+    public PatentAggregator(Dimension... groupBy) {
+        if (groupBy.length == 0) {
+            throw new IllegalArgumentException("Group by at least one dimension");
+        }
+        for (Dimension dimension : groupBy) {
+            if (dimension == null) {
+                throw new NullPointerException("Dimension cannot be null");
+            }
+        }
+        this.groupBy = groupBy.clone();
+    }
+
+    /**
+     * Count the rows of each group
+     *
+     * @param patents patents to aggregate
+     * @return count of each group
+     */
+    public Result count(List<Patent> patents) {
+        return aggregate(patents, null);
+    }
+
+    /**
+     * Count the distinct values of a dimension in each group,
+     * e.g. {@link Dimension#ASSIGNMENT} counts the patents of
+     * each group however many rows they have in it
+     *
+     * @param patents  patents to aggregate
+     * @param distinct dimension whose values are counted
+     * @return number of distinct values in each group
+     */
+    public Result countDistinct(List<Patent> patents, Dimension distinct) {
+        if (distinct == null) {
+            throw new NullPointerException("Distinct dimension cannot be null");
+        }
+        return aggregate(patents, distinct);
+    }
+
+    // count rows or distinct values in parallel
+    private Result aggregate(List<Patent> patents, Dimension distinct) {
+        if (patents == null) {
+            throw new NullPointerException("Patents to aggregate cannot be null");
+        }
+
+        int workers = Math.max(1, Math.min(threads, patents.size()));
+        StringDictionary strings = new StringDictionary(); // shared by the workers, so codes match
+        List<Worker> chunks = new ArrayList<>();
+        for (int i = 0; i < workers; i++) {
+            chunks.add(new Worker(patents, (int) ((long) patents.size() * i / workers),
+                    (int) ((long) patents.size() * (i + 1) / workers), distinct, workers, strings));
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(workers);
+        try {
+            List<Worker> done = invokeAll(pool, chunks);
+            LongTupleMap groups = new LongTupleMap(groupBy.length, 64);
+            if (distinct == null) {
+                for (Worker worker : done) groups.addAll(worker.counts);
+            } else {
+                for (LongTupleMap part : invokeAll(pool, distinctTasks(done, workers))) groups.addAll(part);
+            }
+            return new Result(groupBy, distinct, groups, strings);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // one task per partition of the distinct values, counting the values of each group
+    private List<Callable<LongTupleMap>> distinctTasks(final List<Worker> workers, int partitions) {
+        List<Callable<LongTupleMap>> tasks = new ArrayList<>();
+        for (int p = 0; p < partitions; p++) {
+            final int partition = p;
+            tasks.add(new Callable<LongTupleMap>() {
+                @Override
+                public LongTupleMap call() {
+                    LongTupleMap values = workers.get(0).parts[partition];
+                    for (int i = 1; i < workers.size(); i++) values.addAll(workers.get(i).parts[partition]);
+                    LongTupleMap groups = new LongTupleMap(groupBy.length, 64);
+                    values.countPrefixes(groups);
+                    return groups;
+                }
+            });
+        }
+        return tasks;
+    }
+
+    private static <T> List<T> invokeAll(ForkJoinPool pool, List<? extends Callable<T>> tasks) {
+        List<T> results = new ArrayList<>();
+        try {
+            for (Future<T> future : pool.invokeAll(tasks)) results.add(future.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted aggregating patents");
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause().getMessage(), e.getCause());
+        }
+        return results;
+    }
+
+    // counts the rows of a range of patents
+    private final class Worker implements Callable<Worker> {
+        private final List<Patent>   patents;
+        private final int            from, to;  // range of patents
+        private final Dimension      distinct;  // null to count rows
+        private final boolean[]      levels = new boolean[LEVELS]; // levels of the dimensions used
+        private final long[]         tuple;     // values of the row, then the distinct value
+        private final LongTupleMap   counts;    // rows of each group
+        private final LongTupleMap[] parts;     // group and distinct value tuples, split by hash
+        private final StringDictionary strings; // codes of the string values
+        private final CompactPatentStore.PatentView view; // reads a compact store in place, null otherwise
+
+        // current row
+        private Patent         patent;
+        private int            index;
+        private Person         assignee;
+        private Person         assignor;
+        private PatentProperty property;
+
+        // current row of a compact store, by position in the viewed patent
+        private int assigneeAt;
+        private int assignorAt;
+        private int inventionAt;
+        private int propertyAt;
+
+        Worker(List<Patent> patents, int from, int to, Dimension distinct, int partitions,
+               StringDictionary strings) {
+            this.patents  = patents;
+            this.strings  = strings;
+            this.from     = from;
+            this.to       = to;
+            this.distinct = distinct;
+            this.view     = patents instanceof CompactPatentStore ? ((CompactPatentStore) patents).view() : null;
+            for (Dimension dimension : groupBy) levels[dimension.level] = true;
+            if (distinct != null) levels[distinct.level] = true;
+
+            tuple = new long[groupBy.length + 1];
+            if (distinct == null) {
+                counts = new LongTupleMap(groupBy.length, 64);
+                parts  = null;
+            } else {
+                counts = null;
+                parts  = new LongTupleMap[partitions];
+                for (int i = 0; i < partitions; i++) parts[i] = new LongTupleMap(groupBy.length + 1, 64);
+            }
+        }
+
+        @Override
+        public Worker call() {
+            for (index = from; index < to; index++) {
+                if (view != null) {
+                    view.moveTo(index);
+                } else {
+                    patent = patents.get(index);
+                }
+                assignees();
+            }
+            return this;
+        }
+
+        private void assignees() {
+            if (!levels[ASSIGNEE]) {
+                assignors();
+                return;
+            }
+            if (view != null) {
+                for (assigneeAt = 0; assigneeAt < view.getAssigneeCount(); assigneeAt++) assignors();
+                return;
+            }
+            ArrayList<Person> list = patent.getPatentAssignees();
+            for (int i = 0; i < list.size(); i++) {
+                assignee = list.get(i);
+                assignors();
+            }
+        }
+
+        private void assignors() {
+            if (!levels[ASSIGNOR]) {
+                properties();
+                return;
+            }
+            if (view != null) {
+                for (assignorAt = 0; assignorAt < view.getAssignorCount(); assignorAt++) properties();
+                return;
+            }
+            ArrayList<Person> list = patent.getPatentAssignors();
+            for (int i = 0; i < list.size(); i++) {
+                assignor = list.get(i);
+                properties();
+            }
+        }
+
+        private void properties() {
+            if (!levels[PROPERTY]) {
+                row();
+                return;
+            }
+            if (view != null) {
+                for (inventionAt = 0; inventionAt < view.getInventionCount(); inventionAt++) {
+                    for (propertyAt = 0; propertyAt < view.getPropertyCount(inventionAt); propertyAt++) row();
+                }
+                return;
+            }
+            for (ArrayList<PatentProperty> list : patent.getInventions().values()) {
+                for (int i = 0; i < list.size(); i++) {
+                    property = list.get(i);
+                    row();
+                }
+            }
+        }
+
+        private void row() {
+            for (int i = 0; i < groupBy.length; i++) tuple[i] = value(groupBy[i]);
+            if (distinct == null) {
+                counts.add(counts.id(tuple), 1);
+                return;
+            }
+
+            long value = value(distinct);
+            if (distinct.isMissing(value)) return;
+            tuple[groupBy.length] = value;
+            int hash = LongTupleMap.hash(tuple, 0, tuple.length);
+            parts[(hash & Integer.MAX_VALUE) % parts.length].id(tuple, 0, hash);
+        }
+
+        // value of a dimension for the current row
+        private long value(Dimension dimension) {
+            if (view != null) return viewValue(dimension);
+            switch (dimension) {
+                case ASSIGNMENT:
+                    return index;
+                case RECORDED_YEAR:
+                    return year(patent.getRecordedDay());
+                case RECORDED_MONTH:
+                    return yearMonth(patent.getRecordedDay());
+                case RECORDED_DAY:
+                    return patent.getRecordedDay();
+                case CORRESPONDENT_NAME:
+                    return strings.encode(patent.getCorrespondent().getName());
+                case ASSIGNEE_NAME:
+                    return strings.encode(assignee.getName());
+                case ASSIGNEE_CITY:
+                    return strings.encode(assignee.getCity());
+                case ASSIGNEE_STATE:
+                    return strings.encode(assignee.getState());
+                case ASSIGNEE_COUNTRY:
+                    return strings.encode(assignee.getCountry());
+                case ASSIGNEE_POSTCODE:
+                    return strings.encode(assignee.getPostcode());
+                case ASSIGNEE_ENTITY:
+                    return assignee.getEntityId();
+                case ASSIGNOR_NAME:
+                    return strings.encode(assignor.getName());
+                case STATUS:
+                    return property.getStatusCode();
+                case KIND:
+                    return strings.encode(property.getKind());
+                case PROPERTY_COUNTRY:
+                    return strings.encode(property.getCountry());
+                case DOCUMENT_NUMBER:
+                    return PatentProperty.documentKey(property.getDocumentNumber());
+                case PROPERTY_YEAR:
+                    return year(property.getDay());
+                case PROPERTY_MONTH:
+                    return yearMonth(property.getDay());
+                default:
+                    throw new IllegalArgumentException("Unknown dimension " + dimension);
+            }
+        }
+
+        // value of a dimension for the current row of a compact store, the same as value() gives
+        private long viewValue(Dimension dimension) {
+            switch (dimension) {
+                case ASSIGNMENT:
+                    return index;
+                case RECORDED_YEAR:
+                    return year(view.getRecordedDay());
+                case RECORDED_MONTH:
+                    return yearMonth(view.getRecordedDay());
+                case RECORDED_DAY:
+                    return view.getRecordedDay();
+                case CORRESPONDENT_NAME:
+                    return strings.encode(view.getCorrespondent().getName());
+                case ASSIGNEE_NAME:
+                    return strings.encode(view.getAssignee(assigneeAt).getName());
+                case ASSIGNEE_CITY:
+                    return strings.encode(view.getAssignee(assigneeAt).getCity());
+                case ASSIGNEE_STATE:
+                    return strings.encode(view.getAssignee(assigneeAt).getState());
+                case ASSIGNEE_COUNTRY:
+                    return strings.encode(view.getAssignee(assigneeAt).getCountry());
+                case ASSIGNEE_POSTCODE:
+                    return strings.encode(view.getAssignee(assigneeAt).getPostcode());
+                case ASSIGNEE_ENTITY:
+                    return view.getAssignee(assigneeAt).getEntityId();
+                case ASSIGNOR_NAME:
+                    return strings.encode(view.getAssignor(assignorAt).getName());
+                case STATUS:
+                    return view.getProperty(inventionAt, propertyAt).getStatusCode();
+                case KIND:
+                    return strings.encode(view.getProperty(inventionAt, propertyAt).getKind());
+                case PROPERTY_COUNTRY:
+                    return strings.encode(view.getProperty(inventionAt, propertyAt).getCountry());
+                case DOCUMENT_NUMBER:
+                    return view.getProperty(inventionAt, propertyAt).getDocumentKey();
+                case PROPERTY_YEAR:
+                    return year(view.getProperty(inventionAt, propertyAt).getDay());
+                case PROPERTY_MONTH:
+                    return yearMonth(view.getProperty(inventionAt, propertyAt).getDay());
+                default:
+                    throw new IllegalArgumentException("Unknown dimension " + dimension);
+            }
+        }
+    }
+
+    private static int year(int day) {
+        return day == PatentDate.NO_DATE ? PatentDate.NO_DATE : PatentDate.year(day);
+    }
+
+    private static int yearMonth(int day) {
+        return day == PatentDate.NO_DATE ? PatentDate.NO_DATE : PatentDate.yearMonth(day);
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * <tt>Result</tt> holds the groups of an aggregation. Groups are
+     * numbered from 0 to {@link #size()} - 1, and each has a value
+     * for every dimension it was grouped by and a count.
+     */
+    public static final class Result {
+        private final Dimension[]  groupBy;
+        private final Dimension    distinct; // null for row counts
+        private final LongTupleMap groups;
+        private final StringDictionary strings; // codes of the string values of the groups
+
+        private Result(Dimension[] groupBy, Dimension distinct, LongTupleMap groups, StringDictionary strings) {
+            this.groupBy  = groupBy;
+            this.distinct = distinct;
+            this.groups   = groups;
+            this.strings  = strings;
+        }
+
+        // number of groups
+        public int size() {
+            return groups.size();
+        }
+
+        public List<Dimension> getDimensions() {
+            return Collections.unmodifiableList(Arrays.asList(groupBy));
+        }
+
+        // dimension whose distinct values were counted, null for row counts
+        public Dimension getDistinct() {
+            return distinct;
+        }
+
+        // rows or distinct values of a group
+        public long getCount(int group) {
+            return groups.count(group);
+        }
+
+        // primitive value of a dimension of a group, strings are codes only valid in this result
+        public long getValue(int group, int column) {
+            return groups.key(group, column);
+        }
+
+        // text of the value of a dimension of a group
+        public String getLabel(int group, int column) {
+            return groupBy[column].label(groups.key(group, column), strings);
+        }
+
+        /**
+         * Groups in decreasing order of count
+         *
+         * @return group numbers, largest count first
+         */
+        public List<Integer> byCount() {
+            List<Integer> order = new ArrayList<>(groups.size());
+            for (int i = 0; i < groups.size(); i++) order.add(i);
+            Collections.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return Long.compare(groups.count(b), groups.count(a));
+                }
+            });
+            return order;
+        }
+
+        // one tab separated line per group, largest count first
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            for (Dimension dimension : groupBy) builder.append(dimension).append('\t');
+            builder.append(distinct == null ? "COUNT" : "DISTINCT_" + distinct).append('\n');
+
+            for (int group : byCount()) {
+                for (int column = 0; column < groupBy.length; column++) {
+                    builder.append(getLabel(group, column)).append('\t');
+                }
+                builder.append(getCount(group)).append('\n');
+            }
+            return builder.toString();
+        }
+    }
+}
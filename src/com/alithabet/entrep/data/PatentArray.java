@@ -1,19 +1,16 @@
 package com.alithabet.entrep.data;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * PatentArray is a data object to store patent information read from the
@@ -27,9 +24,22 @@ import java.util.TreeMap;
  * @author Ali K Thabet
  */
 public class PatentArray {
-    private ArrayList<Patent>              patents;      // list of patents
+    private List<Patent>                   patents;      // list of patents, in memory, compact or in segments
     private Date                           recordedDate; // recorded date
-    private Map<String, ArrayList<Patent>> map; // map of string occurance to patents
+    private PatentIndex                    index; // index of string occurance to patents
+    private PropertyDateIndex              dates; // index of recorded and property dates, updated on demand
+    private DocumentIndex                  documents; // index of document numbers, updated on demand
+    private IngestMode                     ingestMode = IngestMode.STREAM; // XML parser to use
+    private int                            threads = Runtime.getRuntime().availableProcessors(); // folder read workers
+    private ArrayList<String>              inputs;  // files and folders passed to read
+    private IngestManifest                 manifest; // XML files read
+    private GeoIndex                       geoIndex; // locates assignees as they are read, may be null
+    private EntityResolver                 entityResolver; // firms of the assignees, null until resolved
+    private PatentSegmentStore             segments; // on disk patents, null to keep them in memory
+    private CompactPatentStore             compact;  // columns of the patents, null to keep objects
+    private final StringDictionary         dictionary = new StringDictionary(); // repeated values of the patents
+    private boolean                        interning = true; // share repeated values through the dictionary
+    private IngestMetrics                  metrics = new IngestMetrics(); // parse, index and query counters
 
     // default no argument constructor
     public PatentArray() {
@@ -50,9 +60,42 @@ public class PatentArray {
      * @param fileName name of XML file (or folder of XML files) containing patent information
      */
     public PatentArray(String fileName) {
+        this(fileName, IngestMode.STREAM);
+    }
+
+    /**
+     * Constructor with xml file name and the parser
+     * used to read it. See {@link IngestMode}.
+     *
+     * @param fileName name of XML file (or folder of XML files) containing patent information
+     * @param mode     parser used to read the XML files
+     */
+    public PatentArray(String fileName, IngestMode mode) {
         initialize();
+        ingestMode = mode;
+        read(fileName);
+    }
+
+    /**
+     * Read all the patents in <em>fileName</em> and add them to
+     * this array. The input can be a single XML file or a folder
+     * of XML files, which are read in parallel by
+     * <em>threads</em> workers. Zipped and gzipped XML files
+     * are read directly, see {@link BulkInput}.
+     *
+     * @param fileName name of XML file (or folder of XML files) containing patent information
+     */
+    public void read(String fileName) {
+        if (fileName == null) {
+            throw new NullPointerException("Input to read cannot be null");
+        }
 
-        // if we get a directory then read all XML files in it
+        inputs.add(new File(fileName).getAbsolutePath());
+        readInput(fileName);
+    }
+
+    // read a file, or all XML files of a directory
+    private void readInput(String fileName) {
         File folder = new File(fileName);
         if (folder.isDirectory()) {
             folderBulkRead(fileName);
@@ -61,35 +104,208 @@ public class PatentArray {
         }
     }
 
+    /**
+     * Bring the array up to date with its inputs. Only the XML
+     * files that are not in the manifest yet are parsed, and their
+     * patents are appended and indexed, so a daily refresh of a
+     * folder costs the new file alone. If a file was modified or
+     * removed, or a new file is dated before the last one ingested,
+     * the whole array is read again. See {@link IngestManifest}.
+     *
+     * @return number of XML files parsed
+     */
+    public int refresh() {
+        IngestManifest.Changes changes;
+        try {
+            changes = manifest.changes(inputs);
+        } catch (IOException e) {
+            throw new RuntimeException("Exception checking source files " + e.getMessage(), e);
+        }
+        for (SourceFile file : changes.touched) manifest.add(file);
+
+        if (changes.rebuild == null && !changes.added.isEmpty()) {
+            List<PatentShard> shards = readShards(changes.added);
+            int last = manifest.getRecordedDate();
+            if (last == PatentDate.NO_DATE || shards.get(0).getRecordedDate() >= last) {
+                for (PatentShard shard : shards) addShard(shard);
+                indexAdded();
+                return shards.size();
+            }
+            changes.rebuild = shards.get(0).getFile() + " is dated before the last file read";
+        }
+        if (changes.rebuild == null) return 0;
+
+        System.out.println("Reading all inputs again: " + changes.rebuild);
+        patents   = emptyPatents();
+        index     = new PatentIndex();
+        dates     = new PropertyDateIndex();
+        documents = new DocumentIndex();
+        manifest  = new IngestManifest();
+        for (String input : inputs) {
+            if (new File(input).exists()) readInput(input);
+        }
+        return manifest.size();
+    }
+
     // Initialize variables
     private void initialize() {
         patents      = new ArrayList<>();
         recordedDate = new Date();
-        map          = new TreeMap<>();
+        index        = new PatentIndex();
+        dates        = new PropertyDateIndex();
+        documents    = new DocumentIndex();
+        inputs       = new ArrayList<>();
+        manifest     = new IngestManifest();
+    }
+
+    /**
+     * Open the patents of <em>fileName</em> from a binary snapshot.
+     * If <em>snapshotName</em> holds a snapshot of <em>fileName</em>
+     * it is loaded and brought up to date with {@link #refresh()},
+     * so only XML files added since the snapshot are parsed;
+     * otherwise all the XML files are read. The snapshot is
+     * written again whenever it was not current.
+     * See {@link PatentSnapshot}.
+     *
+     * @param fileName     name of XML file (or folder of XML files) containing patent information
+     * @param snapshotName name of the snapshot file
+     * @return patent array with all the patents of <em>fileName</em>
+     */
+    public static PatentArray open(String fileName, String snapshotName) {
+        String input = new File(fileName).getAbsolutePath();
+        try {
+            PatentArray array = null;
+            if (new File(snapshotName).isFile()) {
+                try {
+                    array = PatentSnapshot.load(snapshotName, false);
+                } catch (RuntimeException e) {
+                    System.out.println("Ignoring snapshot " + snapshotName + ": " + e.getMessage());
+                }
+            }
+
+            if (array == null || array.inputs.size() != 1 || !array.inputs.get(0).equals(input)) {
+                array = new PatentArray(fileName);
+                PatentSnapshot.write(array, snapshotName);
+            } else if (!array.manifest.isCurrent(array.inputs)) {
+                array.refresh();
+                PatentSnapshot.write(array, snapshotName);
+            }
+            return array;
+        } catch (IOException e) {
+            throw new RuntimeException("Exception opening snapshot " + snapshotName
+                    + " " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Save the patents and the index to a binary snapshot
+     * that can be loaded with {@link PatentSnapshot#load(String)}
+     *
+     * @param fileName name of the snapshot file
+     */
+    public void writeSnapshot(String fileName) {
+        try {
+            PatentSnapshot.write(this, fileName);
+        } catch (IOException e) {
+            throw new RuntimeException("Exception writing snapshot " + fileName
+                    + " " + e.getMessage(), e);
+        }
+    }
+
+    // replace the contents of the array with data loaded from a snapshot,
+    // whose patents are decoded on use and not interned
+    void restore(List<Patent> patents, PatentIndex index,
+                 List<String> inputs, IngestManifest manifest) {
+        this.patents   = patents;
+        this.index     = index;
+        this.dates     = new PropertyDateIndex();
+        this.documents = new DocumentIndex();
+        this.inputs    = new ArrayList<>(inputs);
+        this.manifest  = manifest;
+        metrics.indexUpdated(index, patents.size());
+    }
+
+    /**
+     * Bulk files behind an input: the file itself, or
+     * the bulk files of a folder sorted by name. Bulk
+     * files are XML files, or zipped or gzipped XML
+     * files read without extracting them, see {@link BulkInput}
+     *
+     * @param fileName name of bulk file or folder
+     * @return bulk files to read
+     */
+    static List<File> listSources(String fileName) {
+        List<File> files = new ArrayList<>();
+        File input = new File(fileName);
+        if (input.isDirectory()) {
+            File[] filesList = input.listFiles();
+            if (filesList != null) {
+                for (File file : filesList) {
+                    if (file.isFile() && BulkInput.isBulkFile(file)) files.add(file);
+                }
+            }
+            Collections.sort(files);
+        } else if (input.isFile() && BulkInput.isBulkFile(input)) {
+            files.add(input);
+        }
+        return files;
     }
 
     /**
-     * Bulk read all patents in XML file inside <em>folderName</em>
+     * Bulk read all patents in XML file inside <em>folderName</em>.
+     * Files are parsed in parallel, each one into its own
+     * {@link PatentShard}, using up to <em>threads</em> workers.
+     * The shards are then merged into <em>patents</em> in order
+     * of recorded date, regardless of which file finished first.
      *
      * @param folderName folder containing XML patent files
      */
     private void folderBulkRead(String folderName) {
-        File folder = new File(folderName);
-
-        File[] filesList = folder.listFiles();
-        if (filesList != null) {
-            System.out.println("Reading " + filesList.length + " files in folder " + folderName);
-            int count = 1;
-            for (File file : filesList) {
-                System.out.print(count++ + " ");
-                if (file.isFile()) bulkRead(file.getAbsolutePath());
+        List<File> files = listSources(folderName);
+        System.out.println("Reading " + files.size() + " files in folder " + folderName
+                + " with " + threads + " threads");
+
+        for (PatentShard shard : readShards(files)) {
+            addShard(shard);
+        }
+
+        // once all shards are merged, create index map
+        indexAdded();
+    }
+
+    // parse files in parallel, returning the shards in recorded date order
+    private List<PatentShard> readShards(List<File> files) {
+        ArrayList<Callable<PatentShard>> tasks = new ArrayList<>();
+        for (final File file : files) {
+            tasks.add(new Callable<PatentShard>() {
+                @Override
+                public PatentShard call() throws Exception {
+                    return readShard(file);
+                }
+            });
+        }
+        ArrayList<PatentShard> shards = new ArrayList<>();
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+        try {
+            for (Future<PatentShard> future : pool.invokeAll(tasks)) {
+                shards.add(future.get());
             }
-            System.out.print("\n");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted reading " + files.size() + " files");
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause().getMessage(), e.getCause());
+        } finally {
+            pool.shutdown();
         }
+
+        Collections.sort(shards, PatentShard.BY_DATE);
+        return shards;
     }
 
     /**
-     * Bulk read all patents in a given XML file
+     * Bulk read all patents in a given XML file, which
+     * can also be zipped or gzipped
      *
      * @param fileName name of XML file with patents
      */
@@ -98,41 +314,45 @@ public class PatentArray {
             throw new NullPointerException("Input to bulk read cannot be null");
         }
 
-        // check if file is xml
-        if (!fileName.endsWith(".xml")) return;
+        // check if file is xml, or compressed xml
+        if (!BulkInput.isBulkFile(new File(fileName))) return;
 
-        try {
-            File in = new File(fileName);
-            DocumentBuilderFactory factory =
-                    DocumentBuilderFactory.newInstance();
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document doc = builder.parse(in);
-
-            // first get date string and convert it to Date format
-            String dateString = ((Element) doc.getElementsByTagName(Patent.DATE_ARRAY).item(0)).getElementsByTagName(Patent.DATE_ELEMENT).item(0).getTextContent();
-            recordedDate = Patent.SAVE_FORMATTER.parse(dateString);
-            // get the list of patent assignments
-            NodeList nList = doc.getElementsByTagName(Patent.PATENT_ARRAY);
-
-            for (int i = 0; i < nList.getLength(); i++) {
-                Patent patent = new Patent(nList.item(i), recordedDate);
-//                System.out.print(patent.toString());
-                patents.add(patent);
-            }
+        addShard(readShard(new File(fileName)));
 
-            // once all patents are retrieved, create index map
-            addPatentsToMap();
+        // once all patents are retrieved, create index map
+        indexAdded();
+    }
+
+    // parse a single file into its own shard and locate its assignees
+    private PatentShard readShard(File file) {
+        try {
+            long start = System.nanoTime();
+            PatentShard shard = PatentShard.read(file, ingestMode, interning && store() == null ? dictionary : null);
+            metrics.fileRead(file.getPath(), shard.getPatents(), System.nanoTime() - start);
+            if (geoIndex != null) geoIndex.locate(shard.getPatents());
+            return shard;
         } catch (Exception e) {
-            throw new RuntimeException("Exception reading file " + fileName
-                    + " " + e.getCause());
+            throw new RuntimeException("Exception reading file " + file.getPath()
+                    + " " + e.getCause(), e);
         }
     }
 
-    // check if a file has .xml extension
-    private boolean isXML(String fileName) {
-        int i = fileName.lastIndexOf('.');
+    // append the patents of a shard, keeping the latest recorded date
+    private void addShard(PatentShard shard) {
+        patents.addAll(shard.getPatents());
+        manifest.add(shard.getSource());
+        recordedDate = PatentDate.toDate(shard.getRecordedDate());
+    }
 
-        return i > 0 && fileName.substring(i + 1).equals("xml");
+    // index the patents added since the last update. Once entities are resolved,
+    // all the patents are resolved again instead, so that the new names join
+    // their firms and every patent is indexed under the words of its firms
+    private void indexAdded() {
+        if (entityResolver != null) {
+            resolveEntities(entityResolver);
+        } else {
+            addPatentsToMap();
+        }
     }
 
     /**
@@ -142,122 +362,235 @@ public class PatentArray {
      * to people affiliated with a patent. The query
      * words could be individual names or addresses.
      * The indexed words come from the patent's
-     * correspondent, assignees, and assignors
+     * correspondent, assignees, and assignors.
+     * Only patents added since the last call are
+     * indexed, see {@link PatentIndex}.
      *
      */
     private void addPatentsToMap() {
-        for (Patent patent : patents) {
-            Person correspondent = patent.getCorrespondent();
+        index.update(patents);
+        metrics.indexUpdated(index, patents.size());
+    }
 
-            for (String s : correspondent.getAllStrings()) {
-                addStringToMap(s, patent);
-            }
+    // query the map index for a string occurrence, all its words when it has several
+    public ArrayList<Patent> queryIndex(String query) {
+        long start = System.nanoTime();
+        PatentBitmap ids = query.startsWith(EntityResolver.INDEX_PREFIX)
+                ? index.get(query) : index.getAll(query);
+        if (ids == null) {
+            metrics.queryDone(System.nanoTime() - start);
+            return new ArrayList<Patent>();
+        }
 
-            for (Person assignor : patent.getPatentAssignors()) {
-                for (String s : assignor.getAllStrings()) {
-                    addStringToMap(s, patent);
-                }
-            }
+        ArrayList<Patent> result = new ArrayList<>(ids.cardinality());
+        for (Patent patent : new PatentResults(ids, patents)) {
+            result.add(patent);
+        }
+        metrics.queryDone(System.nanoTime() - start);
+        return result;
+    }
 
-            for (Person assignee : patent.getPatentAssignees()) {
-                for (String s : assignee.getAllStrings()) {
-                    addStringToMap(s, patent);
-                }
+    /**
+     * Words of the index starting with <em>prefix</em>, the words
+     * found in the most patents first, e.g. <tt>qualc</tt> gives
+     * <tt>qualcomm</tt>. See {@link KeyTrie}.
+     *
+     * @param prefix text typed so far, the last word is completed
+     * @param limit  maximum number of words returned
+     * @return completions of the prefix
+     */
+    public List<String> autocomplete(String prefix, int limit) {
+        // no stop words, so typing "the" still completes "theodore"
+        List<String> typed = new Tokenizer(Collections.<String>emptyList()).tokens(prefix);
+        if (typed.isEmpty()) return new ArrayList<>();
+
+        List<String> words = index.prefixKeys(typed.get(typed.size() - 1), Integer.MAX_VALUE);
+        Collections.sort(words, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return Integer.compare(index.count(b), index.count(a));
             }
-        }
+        });
+        return words.size() > limit ? new ArrayList<>(words.subList(0, limit)) : words;
     }
 
-    // add a patent to the index map using the string key
-    private void addStringToMap(String key, Patent patent) {
-        if (!map.containsKey(key)) {
-            map.put(key, new ArrayList<Patent>());
+    /**
+     * Patents containing a word within <em>maxEdits</em> single
+     * character edits of <em>word</em>, so misspelled queries such
+     * as <tt>univrsity</tt> still find <tt>university</tt>
+     *
+     * @param word     word to look up
+     * @param maxEdits largest edit distance allowed, usually 1 or 2
+     * @return lazy results of the query
+     */
+    public PatentResults queryFuzzy(String word, int maxEdits) {
+        long start = System.nanoTime();
+        PatentBitmap ids = null;
+        for (String token : new Tokenizer().tokens(word)) {
+            PatentBitmap close = index.getFuzzy(token, maxEdits);
+            ids = ids == null ? close : ids.and(close);
         }
+        if (ids == null) ids = new PatentBitmap();
+        metrics.queryDone(System.nanoTime() - start);
+        return new PatentResults(ids, patents);
+    }
 
-        ArrayList<Patent> list = map.get(key);
-        list.add(patent);
+    /**
+     * Group the assignee name variants into canonical firms,
+     * see {@link EntityResolver}, and index every patent under
+     * the word of its firms, so that <tt>queryIndex("entity:42")</tt>
+     * or {@link #queryEntity(String)} find all the variants.
+     * Patents read or refreshed later are resolved again with
+     * the same resolver, together with the earlier ones.
+     *
+     * @return number of firms
+     */
+    public int resolveEntities() {
+        return resolveEntities(new EntityResolver());
     }
 
-    // query the map index for a string occurrence
-    public ArrayList<Patent> queryIndex(String query) {
-        query = query.toLowerCase();
-        if (map.containsKey(query)) {
-            return map.get(query);
-        } else {
-            return new ArrayList<Patent>();
+    /**
+     * Group the assignee name variants into canonical firms
+     * with a given resolver, see {@link #resolveEntities()}
+     *
+     * @param resolver entity resolver to use
+     * @return number of firms
+     */
+    public int resolveEntities(EntityResolver resolver) {
+        // patents in columns, segments or a snapshot are decoded one at a time and keep
+        // their entity IDs through AssigneeEntities, so the store is neither copied nor rewritten
+        int count = resolver.resolve(patents);
+        entityResolver = resolver;
+
+        // rebuild the index so it holds the entity words
+        index = new PatentIndex();
+        addPatentsToMap();
+        return count;
+    }
+
+    // patents of the firm of an assignee name, under any of its variants
+    public ArrayList<Patent> queryEntity(String name) {
+        if (entityResolver == null) {
+            throw new IllegalStateException("Entities are not resolved, call resolveEntities first");
         }
+        int entityId = entityResolver.entityOf(name);
+        if (entityId == Person.NO_ENTITY) return new ArrayList<>();
+        return queryIndex(EntityResolver.indexKey(entityId));
+    }
+
+    /**
+     * Run a boolean or phrase query against the index, e.g.
+     * <tt>stanford AND university NOT hospital</tt> or
+     * <tt>"leland stanford junior university"</tt>. See
+     * {@link PatentQuery} for the query syntax, which includes
+     * date ranges such as <tt>issued:2010..2012</tt>. The patents
+     * are only looked up while iterating over the results.
+     *
+     * @param query query text
+     * @return lazy results of the query
+     */
+    public PatentResults query(String query) {
+        long start = System.nanoTime();
+        PatentQuery parsed = PatentQuery.parse(query);
+        PatentBitmap ids = parsed.evaluate(index, parsed.hasDateRange() ? getDateIndex() : null, patents);
+        metrics.queryDone(System.nanoTime() - start);
+        return new PatentResults(ids, patents);
     }
 
     /**
-     * Create a CSV file containing all the patents
+     * Patents having a property of a status dated between two
+     * dates, e.g. the inventions issued between 2010 and 2012 for
+     * {@link PatentProperty#ISSUED_STATUS_CODE}, found by binary
+     * search in the {@link PropertyDateIndex}
+     *
+     * @param status status code of the properties
+     * @param from   first date, null for no bound
+     * @param to     last date, null for no bound
+     * @return lazy results of the query
+     */
+    public PatentResults queryDates(byte status, Date from, Date to) {
+        long start = System.nanoTime();
+        PatentBitmap ids = getDateIndex().get(status, PatentDate.fromDate(from), PatentDate.fromDate(to));
+        metrics.queryDone(System.nanoTime() - start);
+        return new PatentResults(ids, patents);
+    }
+
+    // patents recorded between two dates, null for no bound
+    public PatentResults queryRecorded(Date from, Date to) {
+        long start = System.nanoTime();
+        PatentBitmap ids = getDateIndex().getRecorded(PatentDate.fromDate(from), PatentDate.fromDate(to));
+        metrics.queryDone(System.nanoTime() - start);
+        return new PatentResults(ids, patents);
+    }
+
+    /**
+     * Ownership timeline of a property: every assignment whose
+     * properties include <em>documentNumber</em>, across all the
+     * files read, ordered by recorded date. See {@link DocumentIndex}.
+     *
+     * @param documentNumber application, issue or publication number
+     * @return assignments of the property, oldest first
+     */
+    public ArrayList<Patent> queryDocument(String documentNumber) {
+        long start = System.nanoTime();
+        ArrayList<Patent> timeline = getDocumentIndex().timeline(documentNumber, patents);
+        metrics.queryDone(System.nanoTime() - start);
+        return timeline;
+    }
+
+    /**
+     * Build the graph of ownership transfers between assignors and
+     * assignees of the patents read so far, over the firms found by
+     * {@link #resolveEntities()} if it was called, otherwise over the
+     * normalized names. See {@link OwnershipGraph}.
+     *
+     * @return ownership graph, edge patent IDs are positions in {@link #getPatents()}
+     */
+    public OwnershipGraph buildOwnershipGraph() {
+        return OwnershipGraph.build(patents, entityResolver);
+    }
+
+    /**
+     * Create a CSV file containing all the patents,
+     * see {@link PatentCsvWriter}
      *
      * @param fileName name of CSV file to write
      */
-    private void patentArrayToCSV(String fileName) {
-        if (fileName == null) {
-            throw new NullPointerException("CSV file name is null");
-        }
+    public void patentArrayToCSV(String fileName) {
+        patentArrayToCSV(fileName, 1);
+    }
 
-        // check if filename ends with .csv
-        // if not the add extension
-        if (!fileName.endsWith(".csv")) {
-            fileName = fileName + ".csv";
+    /**
+     * Create a CSV file containing all the patents, rendering
+     * chunks of patents on <em>threads</em> threads
+     *
+     * @param fileName name of CSV file to write
+     * @param threads  number of threads used to render rows
+     */
+    public void patentArrayToCSV(String fileName, int threads) {
+        try {
+            PatentCsvWriter.write(patents, fileName, threads);
+        } catch (IOException e) {
+            StringBuilder message = new StringBuilder();
+            message.append("Class: ");
+            message.append(e.getClass());
+            message.append(" Cause: ");
+            message.append(e.getCause());
+            message.append(" Message: ");
+            message.append(e.getMessage());
+            throw new RuntimeException(message.toString());
         }
+    }
 
-        // create the CSV file
+    /**
+     * Create a Stata file containing all the patents, one row
+     * per patent property, see {@link PatentDtaWriter}
+     *
+     * @param fileName name of Stata file to write
+     */
+    public void patentArrayToDta(String fileName) {
         try {
-            FileWriter writer = new FileWriter(fileName);
-
-            // First add headers
-            writer.append("Correspondent,");
-            writer.append("Assignors,");
-            writer.append("Assignees,");
-            writer.append("Invention Title,");
-            writer.append("Application Date,");
-            writer.append("Publish Date,");
-            writer.append("Issue Date\n");
-
-            for (Patent p : patents) {
-
-                // add an entry for every invention in the patent
-                HashMap<String, ArrayList<PatentProperty>> properties = p.getInventions();
-                for (String invention : properties.keySet()) {
-                    // get the correspondent
-                    writer.append(p.getCorrespondent().getName().replace(",",""));
-                    writer.append(',');
-
-                    // all the names of patent assignors
-                    StringBuilder assignors = new StringBuilder();
-                    for (Person assignor : p.getPatentAssignors()) {
-                        assignors.append(assignor.getName());
-                        assignors.append(" - ");
-                    }
-                    writer.append(assignors.toString().replace(",", ""));
-                    writer.append(',');
-
-                    // all the names of patent assignees
-                    StringBuilder assignees = new StringBuilder();
-                    for (Person assignee : p.getPatentAssignees()) {
-                        assignees.append(assignee.getName());
-                        assignees.append(" - ");
-                    }
-                    writer.append(assignees.toString().replace(",", ""));
-                    writer.append(',');
-
-                    writer.append(invention.replace(",",""));
-                    writer.append(",");
-
-                    // now add the relevant invention dates
-                    for (PatentProperty property : properties.get(invention)) {
-                        writer.append(Patent.DISPLAY_FORMATTER.format(property.getDate()));
-                        writer.append(",");
-                    }
-                    writer.append('\n');
-                }
-            }
-
-            // now flush the file and close it
-            writer.flush();
-            writer.close();
+            PatentDtaWriter.write(patents, fileName);
         } catch (IOException e) {
             StringBuilder message = new StringBuilder();
             message.append("Class: ");
@@ -268,16 +601,198 @@ public class PatentArray {
             message.append(e.getMessage());
             throw new RuntimeException(message.toString());
         }
+    }
 
+    // getters and setter
+    public EntityResolver getEntityResolver() {
+        return entityResolver;
+    }
 
+    public GeoIndex getGeoIndex() {
+        return geoIndex;
     }
-    // getters and setter
-    public ArrayList<Patent> getPatents() {
+
+    /**
+     * Set the index used to attach a location and a city
+     * population to the assignees of the files read from
+     * now on, or null to stop locating them
+     *
+     * @param geoIndex zip code and city index
+     */
+    public void setGeoIndex(GeoIndex geoIndex) {
+        this.geoIndex = geoIndex;
+    }
+
+    /**
+     * Patents of the array. When the patents are stored in segments
+     * or columns the list builds them as they are used, see
+     * {@link #storeSegments(String, long)} and {@link #storeCompact()}.
+     *
+     * @return list of patents, positions are the patent IDs of the indexes
+     */
+    public List<Patent> getPatents() {
         return patents;
     }
 
-    public void setPatents(ArrayList<Patent> patents) {
-        this.patents = patents;
+    // replace the patents, copying them to the store if patents are not kept as objects
+    public void setPatents(List<Patent> patents) {
+        if (store() != null && patents != store()) {
+            store().clear();
+            store().addAll(patents);
+            patents = store();
+        }
+        intern(patents);
+        this.patents   = patents;
+        this.index     = new PatentIndex();
+        this.dates     = new PropertyDateIndex();
+        this.documents = new DocumentIndex();
+        indexAdded();
+    }
+
+    // share the repeated values of patents kept as objects, for patents that were
+    // not parsed by this array, whose parsers share them as they read the files
+    private void intern(List<Patent> added) {
+        if (!interning || store() != null) return; // copied to columns or segments
+        for (Patent patent : added) patent.intern(dictionary);
+    }
+
+    /**
+     * Dictionary of the cities, postcodes, countries, states and kinds
+     * of the patents, which keeps one copy of each for the patents of
+     * this array. The parsers use it as they read the files.
+     *
+     * @return the dictionary
+     */
+    public StringDictionary getDictionary() {
+        return dictionary;
+    }
+
+    // keep every copy of the repeated values of the patents read from now on,
+    // to measure the heap saved by the dictionary, see HeapReport
+    void setInterning(boolean interning) {
+        this.interning = interning;
+    }
+
+    // store holding the patents, null if they are kept as objects
+    private List<Patent> store() {
+        return segments != null ? segments : compact;
+    }
+
+    // an empty patent list, the cleared store if patents are not kept as objects
+    private List<Patent> emptyPatents() {
+        if (store() == null) return new ArrayList<>();
+        store().clear();
+        return store();
+    }
+
+    /**
+     * Keep the patents in append-only segment files instead of on
+     * the heap, for histories that do not fit in memory. The patents
+     * read so far are moved to the segments, and later ones are
+     * appended as they are read. Patents are read back from the
+     * memory mapped segments when used, by {@link #getPatents()} or
+     * a query, and the most recently used are cached within
+     * <em>cacheBytes</em> of heap. The indexes stay on the heap.
+     * See {@link PatentSegmentStore}.
+     *
+     * @param directory  folder of the segment files, which must not hold a store already
+     * @param cacheBytes heap budget of the cached patents, in bytes
+     */
+    public synchronized void storeSegments(String directory, long cacheBytes) {
+        if (store() != null) {
+            throw new IllegalStateException("Patents are already stored in segments or columns");
+        }
+        try {
+            segments = new PatentSegmentStore(directory, cacheBytes);
+        } catch (IOException e) {
+            throw new RuntimeException("Exception opening segments " + directory
+                    + " " + e.getMessage(), e);
+        }
+        segments.addAll(patents);
+        patents = segments;
+    }
+
+    // segments of the patents, null if they are kept in memory
+    public PatentSegmentStore getSegmentStore() {
+        return segments;
+    }
+
+    /**
+     * Keep the patents as columns of primitive arrays instead of
+     * objects, which takes several times less heap. The patents
+     * read so far are copied to the columns, and later ones are
+     * appended as they are read. {@link #getPatents()} and query
+     * results build patent objects as they are used, while the index
+     * updates and aggregations read the columns in place through
+     * {@link CompactPatentStore#view()}.
+     */
+    public synchronized void storeCompact() {
+        if (store() != null) {
+            throw new IllegalStateException("Patents are already stored in segments or columns");
+        }
+        compact = new CompactPatentStore();
+        compact.addAll(patents);
+        patents = compact;
+    }
+
+    // columns of the patents, null if they are kept as objects
+    public CompactPatentStore getCompactStore() {
+        return compact;
+    }
+
+    /**
+     * Counters of the files parsed, the index and the queries of
+     * this array. Register them with {@link IngestMetrics#register(String)}
+     * to read them over JMX, or add a {@link MetricsReporter}.
+     *
+     * @return metrics of the array
+     */
+    public IngestMetrics getMetrics() {
+        return metrics;
+    }
+
+    // share metrics between arrays, e.g. to register them once
+    public void setMetrics(IngestMetrics metrics) {
+        if (metrics == null) {
+            throw new NullPointerException("Metrics cannot be null");
+        }
+        this.metrics = metrics;
+    }
+
+    public PatentIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Index of the recorded and property dates, brought up to
+     * date with the patents read since it was last used. It is
+     * only built by the first date query.
+     *
+     * @return date index of the patents
+     */
+    public synchronized PropertyDateIndex getDateIndex() {
+        dates.update(patents);
+        return dates;
+    }
+
+    /**
+     * Index of the document numbers of the properties, brought
+     * up to date with the patents read since it was last used.
+     * It is only built by the first document query.
+     *
+     * @return document number index of the patents
+     */
+    public synchronized DocumentIndex getDocumentIndex() {
+        documents.update(patents);
+        return documents;
+    }
+
+    public List<String> getInputs() {
+        return Collections.unmodifiableList(inputs);
+    }
+
+    public IngestManifest getManifest() {
+        return manifest;
     }
 
     public Date getRecordedDate() {
@@ -288,6 +803,22 @@ public class PatentArray {
         this.recordedDate = recordedDate;
     }
 
+    public IngestMode getIngestMode() {
+        return ingestMode;
+    }
+
+    public void setIngestMode(IngestMode ingestMode) {
+        this.ingestMode = ingestMode;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
     // unit test
     public static void main(String[] args) {
         // read all patents in fileName
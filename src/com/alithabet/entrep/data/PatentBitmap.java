@@ -0,0 +1,563 @@
+package com.alithabet.entrep.data;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * <tt>PatentBitmap</tt> is a compressed set of patent IDs in the
+ * style of a Roaring bitmap. The 32 bit ID space is split into
+ * chunks of 65536 IDs keyed by the high 16 bits. Each chunk stores
+ * its low 16 bits either as a sorted <tt>char</tt> array, when it
+ * holds at most 4096 IDs, or as a 65536 bit <tt>long</tt> bitmap
+ * when it is denser. Sparse words therefore cost 2 bytes per patent
+ * and very common words at most 1 bit per patent.
+ * <p>
+ * Intersection, union and difference work chunk by chunk and never
+ * expand the sets into lists, which keeps boolean queries over
+ * common words such as "inc" cheap. See {@link PatentQuery}.
+ *
+ * @author Ali K Thabet
+ */
+public class PatentBitmap {
+    static final int ARRAY_MAX   = 4096; // largest array chunk
+    static final int BITMAP_WORDS = 1024; // 65536 bits per bitmap chunk
+
+    private char[]      keys;       // high 16 bits of each chunk, sorted
+    private Container[] containers; // low 16 bits of each chunk
+    private int         size;       // number of chunks in use
+
+    // default no argument constructor
+    public PatentBitmap() {
+        keys       = new char[4];
+        containers = new Container[4];
+    }
+
+    /**
+     * Bitmap holding every ID from 0 (inclusive) to <em>end</em> (exclusive)
+     *
+     * @param end first ID not in the bitmap
+     * @return bitmap of the range
+     */
+    public static PatentBitmap range(int end) {
+        PatentBitmap bitmap = new PatentBitmap();
+        for (int high = 0; high <= (end - 1) >>> 16 && end > 0; high++) {
+            int count = Math.min(65536, end - (high << 16));
+            BitmapContainer c = new BitmapContainer();
+            for (int i = 0; i < count >>> 6; i++) c.words[i] = -1L;
+            if ((count & 63) != 0) c.words[count >>> 6] = (1L << (count & 63)) - 1;
+            c.cardinality = count;
+            bitmap.append((char) high, count > ARRAY_MAX ? c : c.toArray());
+        }
+        return bitmap;
+    }
+
+    /**
+     * Add a patent ID to the set
+     *
+     * @param id patent ID, must not be negative
+     * @return true if the ID was not already in the set
+     */
+    public boolean add(int id) {
+        if (id < 0) {
+            throw new IllegalArgumentException("Patent ID cannot be negative: " + id);
+        }
+
+        char high = (char) (id >>> 16);
+        char low  = (char) id;
+
+        // IDs mostly arrive in increasing order, so check the last chunk first
+        int i = size > 0 && keys[size - 1] == high ? size - 1 : find(high);
+        if (i >= 0) {
+            int before = containers[i].cardinality();
+            containers[i] = containers[i].add(low);
+            return containers[i].cardinality() != before;
+        }
+        insert(-i - 1, high, new ArrayContainer().add(low));
+        return true;
+    }
+
+    public boolean contains(int id) {
+        int i = find((char) (id >>> 16));
+        return i >= 0 && containers[i].contains((char) id);
+    }
+
+    // number of IDs in the set
+    public int cardinality() {
+        int total = 0;
+        for (int i = 0; i < size; i++) total += containers[i].cardinality();
+        return total;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // independent copy of the set
+    public PatentBitmap copy() {
+        PatentBitmap result = new PatentBitmap();
+        for (int i = 0; i < size; i++) result.append(keys[i], containers[i].copy());
+        return result;
+    }
+
+    /**
+     * IDs present in both this set and <em>that</em>
+     *
+     * @param that other set
+     * @return new set with the intersection
+     */
+    public PatentBitmap and(PatentBitmap that) {
+        PatentBitmap result = new PatentBitmap();
+        int i = 0, j = 0;
+        while (i < size && j < that.size) {
+            if (keys[i] < that.keys[j]) {
+                i++;
+            } else if (keys[i] > that.keys[j]) {
+                j++;
+            } else {
+                Container c = containers[i].and(that.containers[j]);
+                if (c.cardinality() > 0) result.append(keys[i], c);
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * IDs present in this set, in <em>that</em>, or in both
+     *
+     * @param that other set
+     * @return new set with the union
+     */
+    public PatentBitmap or(PatentBitmap that) {
+        PatentBitmap result = new PatentBitmap();
+        int i = 0, j = 0;
+        while (i < size || j < that.size) {
+            if (j >= that.size || (i < size && keys[i] < that.keys[j])) {
+                result.append(keys[i], containers[i].copy());
+                i++;
+            } else if (i >= size || keys[i] > that.keys[j]) {
+                result.append(that.keys[j], that.containers[j].copy());
+                j++;
+            } else {
+                result.append(keys[i], containers[i].or(that.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * IDs present in this set but not in <em>that</em>
+     *
+     * @param that set of IDs to remove
+     * @return new set with the difference
+     */
+    public PatentBitmap andNot(PatentBitmap that) {
+        PatentBitmap result = new PatentBitmap();
+        int j = 0;
+        for (int i = 0; i < size; i++) {
+            while (j < that.size && that.keys[j] < keys[i]) j++;
+            Container c = j < that.size && that.keys[j] == keys[i]
+                    ? containers[i].andNot(that.containers[j])
+                    : containers[i].copy();
+            if (c.cardinality() > 0) result.append(keys[i], c);
+        }
+        return result;
+    }
+
+    /**
+     * Iterator over the IDs in increasing order. IDs are
+     * decoded on demand, so the set is never expanded.
+     *
+     * @return lazy iterator over the set
+     */
+    public PrimitiveIterator.OfInt iterator() {
+        return new PrimitiveIterator.OfInt() {
+            private int  chunk = 0;  // current chunk
+            private int  pos   = 0;  // position in array chunk, or word in bitmap chunk
+            private long word  = 0;  // remaining bits of the current bitmap word
+            private int  next  = advance();
+
+            // find the next ID, or -1 at the end
+            private int advance() {
+                while (chunk < size) {
+                    int base = keys[chunk] << 16;
+                    Container c = containers[chunk];
+                    if (c instanceof ArrayContainer) {
+                        ArrayContainer a = (ArrayContainer) c;
+                        if (pos < a.cardinality) return base | a.values[pos++];
+                    } else {
+                        BitmapContainer b = (BitmapContainer) c;
+                        while (word == 0 && pos < BITMAP_WORDS) word = b.words[pos++];
+                        if (word != 0) {
+                            int bit = Long.numberOfTrailingZeros(word);
+                            word &= word - 1;
+                            return base | ((pos - 1) << 6) | bit;
+                        }
+                    }
+                    chunk++;
+                    pos  = 0;
+                    word = 0;
+                }
+                return -1;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next >= 0;
+            }
+
+            @Override
+            public int nextInt() {
+                if (next < 0) throw new NoSuchElementException();
+                int id = next;
+                next = advance();
+                return id;
+            }
+        };
+    }
+
+    // IDs of the set in increasing order
+    public int[] toArray() {
+        int[] ids = new int[cardinality()];
+        PrimitiveIterator.OfInt it = iterator();
+        for (int i = 0; i < ids.length; i++) ids[i] = it.nextInt();
+        return ids;
+    }
+
+    // estimated size of the set in bytes
+    public long sizeInBytes() {
+        long bytes = 3L * size;
+        for (int i = 0; i < size; i++) bytes += containers[i].sizeInBytes();
+        return bytes;
+    }
+
+    /**
+     * Write the set in binary form: the number of chunks, then for
+     * each chunk its key, its type (0 for array, 1 for bitmap),
+     * its cardinality and its values or bitmap words
+     *
+     * @param out output to write to
+     * @throws IOException if writing fails
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            out.writeChar(keys[i]);
+            Container c = containers[i];
+            if (c instanceof ArrayContainer) {
+                ArrayContainer a = (ArrayContainer) c;
+                out.writeByte(0);
+                out.writeInt(a.cardinality);
+                for (int j = 0; j < a.cardinality; j++) out.writeChar(a.values[j]);
+            } else {
+                BitmapContainer b = (BitmapContainer) c;
+                out.writeByte(1);
+                out.writeInt(b.cardinality);
+                for (int j = 0; j < BITMAP_WORDS; j++) out.writeLong(b.words[j]);
+            }
+        }
+    }
+
+    /**
+     * Read a set written by {@link #write(DataOutput)}
+     *
+     * @param in buffer positioned at the start of the set
+     * @return the set read
+     */
+    public static PatentBitmap read(ByteBuffer in) {
+        int chunks = in.getInt();
+        PatentBitmap bitmap = new PatentBitmap();
+        for (int i = 0; i < chunks; i++) {
+            char high = in.getChar();
+            byte type = in.get();
+            int cardinality = in.getInt();
+            if (type == 0) {
+                char[] values = new char[cardinality];
+                in.asCharBuffer().get(values);
+                in.position(in.position() + 2 * cardinality);
+                bitmap.append(high, new ArrayContainer(values, cardinality));
+            } else {
+                BitmapContainer b = new BitmapContainer();
+                in.asLongBuffer().get(b.words);
+                in.position(in.position() + 8 * BITMAP_WORDS);
+                b.cardinality = cardinality;
+                bitmap.append(high, b);
+            }
+        }
+        return bitmap;
+    }
+
+    // binary search for a chunk key, returning -(insertion point) - 1 if absent
+    private int find(char high) {
+        int lo = 0, hi = size - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid] < high) lo = mid + 1;
+            else if (keys[mid] > high) hi = mid - 1;
+            else return mid;
+        }
+        return -(lo + 1);
+    }
+
+    private void append(char high, Container c) {
+        insert(size, high, c);
+    }
+
+    private void insert(int i, char high, Container c) {
+        if (size == keys.length) {
+            keys       = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        System.arraycopy(keys, i, keys, i + 1, size - i);
+        System.arraycopy(containers, i, containers, i + 1, size - i);
+        keys[i]       = high;
+        containers[i] = c;
+        size++;
+    }
+
+    // a chunk of at most 65536 IDs sharing the same high 16 bits
+    private abstract static class Container {
+        abstract Container add(char v);
+        abstract boolean contains(char v);
+        abstract int cardinality();
+        abstract Container and(Container that);
+        abstract Container or(Container that);
+        abstract Container andNot(Container that);
+        abstract Container copy();
+        abstract long sizeInBytes();
+    }
+
+    // sorted array of low bits, used for chunks with at most ARRAY_MAX IDs
+    private static final class ArrayContainer extends Container {
+        char[] values;
+        int    cardinality;
+
+        ArrayContainer() {
+            values = new char[4];
+        }
+
+        ArrayContainer(char[] values, int cardinality) {
+            this.values      = values;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        Container add(char v) {
+            int i;
+            if (cardinality == 0 || values[cardinality - 1] < v) {
+                i = cardinality;
+            } else {
+                i = Arrays.binarySearch(values, 0, cardinality, v);
+                if (i >= 0) return this;
+                i = -i - 1;
+            }
+
+            if (cardinality == ARRAY_MAX) {
+                return toBitmap().add(v);
+            }
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_MAX, cardinality + (cardinality >> 1) + 1));
+            }
+            System.arraycopy(values, i, values, i + 1, cardinality - i);
+            values[i] = v;
+            cardinality++;
+            return this;
+        }
+
+        @Override
+        boolean contains(char v) {
+            return Arrays.binarySearch(values, 0, cardinality, v) >= 0;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        Container and(Container that) {
+            char[] out = new char[cardinality];
+            int n = 0;
+            if (that instanceof BitmapContainer) {
+                for (int i = 0; i < cardinality; i++) {
+                    if (that.contains(values[i])) out[n++] = values[i];
+                }
+            } else {
+                ArrayContainer a = (ArrayContainer) that;
+                int i = 0, j = 0;
+                while (i < cardinality && j < a.cardinality) {
+                    if (values[i] < a.values[j]) i++;
+                    else if (values[i] > a.values[j]) j++;
+                    else { out[n++] = values[i]; i++; j++; }
+                }
+            }
+            return new ArrayContainer(out, n);
+        }
+
+        @Override
+        Container or(Container that) {
+            if (that instanceof BitmapContainer) return that.or(this);
+
+            ArrayContainer a = (ArrayContainer) that;
+            char[] out = new char[cardinality + a.cardinality];
+            int i = 0, j = 0, n = 0;
+            while (i < cardinality || j < a.cardinality) {
+                if (j >= a.cardinality || (i < cardinality && values[i] < a.values[j])) {
+                    out[n++] = values[i++];
+                } else if (i >= cardinality || values[i] > a.values[j]) {
+                    out[n++] = a.values[j++];
+                } else {
+                    out[n++] = values[i];
+                    i++;
+                    j++;
+                }
+            }
+            ArrayContainer result = new ArrayContainer(out, n);
+            return n > ARRAY_MAX ? result.toBitmap() : result;
+        }
+
+        @Override
+        Container andNot(Container that) {
+            char[] out = new char[cardinality];
+            int n = 0;
+            for (int i = 0; i < cardinality; i++) {
+                if (!that.contains(values[i])) out[n++] = values[i];
+            }
+            return new ArrayContainer(out, n);
+        }
+
+        @Override
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(values, cardinality), cardinality);
+        }
+
+        @Override
+        long sizeInBytes() {
+            return 2L * values.length + 4;
+        }
+
+        BitmapContainer toBitmap() {
+            BitmapContainer b = new BitmapContainer();
+            for (int i = 0; i < cardinality; i++) {
+                b.words[values[i] >>> 6] |= 1L << values[i];
+            }
+            b.cardinality = cardinality;
+            return b;
+        }
+    }
+
+    // 65536 bit bitmap of low bits, used for chunks with more than ARRAY_MAX IDs
+    private static final class BitmapContainer extends Container {
+        final long[] words = new long[BITMAP_WORDS];
+        int          cardinality;
+
+        @Override
+        Container add(char v) {
+            long before = words[v >>> 6];
+            words[v >>> 6] = before | (1L << v);
+            if (before != words[v >>> 6]) cardinality++;
+            return this;
+        }
+
+        @Override
+        boolean contains(char v) {
+            return (words[v >>> 6] & (1L << v)) != 0;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        Container and(Container that) {
+            if (that instanceof ArrayContainer) return that.and(this);
+
+            BitmapContainer b = (BitmapContainer) that;
+            BitmapContainer result = new BitmapContainer();
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                result.words[i] = words[i] & b.words[i];
+                result.cardinality += Long.bitCount(result.words[i]);
+            }
+            return result.shrink();
+        }
+
+        @Override
+        Container or(Container that) {
+            BitmapContainer result = (BitmapContainer) copy();
+            if (that instanceof ArrayContainer) {
+                ArrayContainer a = (ArrayContainer) that;
+                for (int i = 0; i < a.cardinality; i++) result.add(a.values[i]);
+            } else {
+                BitmapContainer b = (BitmapContainer) that;
+                result.cardinality = 0;
+                for (int i = 0; i < BITMAP_WORDS; i++) {
+                    result.words[i] |= b.words[i];
+                    result.cardinality += Long.bitCount(result.words[i]);
+                }
+            }
+            return result;
+        }
+
+        @Override
+        Container andNot(Container that) {
+            BitmapContainer result = (BitmapContainer) copy();
+            if (that instanceof ArrayContainer) {
+                ArrayContainer a = (ArrayContainer) that;
+                for (int i = 0; i < a.cardinality; i++) {
+                    char v = a.values[i];
+                    if (result.contains(v)) {
+                        result.words[v >>> 6] &= ~(1L << v);
+                        result.cardinality--;
+                    }
+                }
+            } else {
+                BitmapContainer b = (BitmapContainer) that;
+                result.cardinality = 0;
+                for (int i = 0; i < BITMAP_WORDS; i++) {
+                    result.words[i] &= ~b.words[i];
+                    result.cardinality += Long.bitCount(result.words[i]);
+                }
+            }
+            return result.shrink();
+        }
+
+        @Override
+        Container copy() {
+            BitmapContainer b = new BitmapContainer();
+            System.arraycopy(words, 0, b.words, 0, BITMAP_WORDS);
+            b.cardinality = cardinality;
+            return b;
+        }
+
+        @Override
+        long sizeInBytes() {
+            return 8L * BITMAP_WORDS + 4;
+        }
+
+        // convert back to an array once the chunk is sparse again
+        Container shrink() {
+            return cardinality > ARRAY_MAX ? this : toArray();
+        }
+
+        ArrayContainer toArray() {
+            char[] values = new char[cardinality];
+            int n = 0;
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                long w = words[i];
+                while (w != 0) {
+                    values[n++] = (char) ((i << 6) | Long.numberOfTrailingZeros(w));
+                    w &= w - 1;
+                }
+            }
+            return new ArrayContainer(values, n);
+        }
+    }
+}
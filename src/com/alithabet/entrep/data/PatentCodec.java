@@ -0,0 +1,146 @@
+package com.alithabet.entrep.data;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <tt>PatentCodec</tt> converts {@link Patent} objects to and from a
+ * compact binary form. Patents are written to a {@link DataOutput}
+ * and read back from a {@link ByteBuffer}, which can be a memory
+ * mapped file. Strings are stored as length prefixed UTF-8 with a
+ * length of -1 for null, and dates as epoch days, see {@link PatentDate}.
+ *
+ * @author Ali K Thabet
+ */
+final class PatentCodec {
+
+    private PatentCodec() {
+    }
+
+    static void writePatent(DataOutput out, Patent patent) throws IOException {
+        out.writeInt(patent.getRecordedDay());
+        writePerson(out, patent.getCorrespondent());
+
+        out.writeInt(patent.getPatentAssignors().size());
+        for (Person assignor : patent.getPatentAssignors()) writePerson(out, assignor);
+
+        out.writeInt(patent.getPatentAssignees().size());
+        for (Person assignee : patent.getPatentAssignees()) writePerson(out, assignee);
+
+        out.writeInt(patent.getInventions().size());
+        for (Map.Entry<String, ArrayList<PatentProperty>> invention : patent.getInventions().entrySet()) {
+            writeString(out, invention.getKey());
+            out.writeInt(invention.getValue().size());
+            for (PatentProperty property : invention.getValue()) writeProperty(out, property);
+        }
+    }
+
+    static Patent readPatent(ByteBuffer in) {
+        Patent patent = new Patent();
+        patent.setRecordedDay(in.getInt());
+        patent.setCorrespondent(readPerson(in));
+
+        int assignors = in.getInt();
+        for (int i = 0; i < assignors; i++) patent.getPatentAssignors().add(readPerson(in));
+
+        int assignees = in.getInt();
+        for (int i = 0; i < assignees; i++) patent.getPatentAssignees().add(readPerson(in));
+
+        int inventions = in.getInt();
+        HashMap<String, ArrayList<PatentProperty>> map = patent.getInventions();
+        for (int i = 0; i < inventions; i++) {
+            String title = readString(in);
+            int count = in.getInt();
+            ArrayList<PatentProperty> properties = new ArrayList<>(count);
+            for (int j = 0; j < count; j++) properties.add(readProperty(in));
+            map.put(title, properties);
+        }
+        return patent;
+    }
+
+    static void writePerson(DataOutput out, Person person) throws IOException {
+        writeString(out, person.getName());
+        out.writeInt(person.getAddress().size());
+        for (String line : person.getAddress()) writeString(out, line);
+        writeString(out, person.getCity());
+        writeString(out, person.getState());
+        writeString(out, person.getCountry());
+        writeString(out, person.getPostcode());
+        out.writeDouble(person.getLatitude());
+        out.writeDouble(person.getLongitude());
+        out.writeInt(person.getPopulation());
+        out.writeInt(person.getEntityId());
+    }
+
+    static Person readPerson(ByteBuffer in) {
+        Person person = new Person();
+        person.setName(readString(in));
+        int lines = in.getInt();
+        for (int i = 0; i < lines; i++) person.addAddress(readString(in));
+        person.setCity(readString(in));
+        person.setState(readString(in));
+        person.setCountry(readString(in));
+        person.setPostcode(readString(in));
+        person.setLatitude(in.getDouble());
+        person.setLongitude(in.getDouble());
+        person.setPopulation(in.getInt());
+        person.setEntityId(in.getInt());
+        return person;
+    }
+
+    static void writeProperty(DataOutput out, PatentProperty property) throws IOException {
+        writeString(out, property.getCountry());
+        writeString(out, property.getDocumentNumber());
+        writeString(out, property.getKind());
+        writeString(out, property.getStatus());
+        out.writeInt(property.getDay());
+    }
+
+    static PatentProperty readProperty(ByteBuffer in) {
+        PatentProperty property = new PatentProperty();
+        property.setCountry(readString(in));
+        property.setDocumentNumber(readString(in));
+        property.setKind(readString(in));
+        property.setStatus(readString(in));
+        property.setDay(in.getInt());
+        return property;
+    }
+
+    static void writeString(DataOutput out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) return null;
+
+        if (in.hasArray()) {
+            String s = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+            return s;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeDate(DataOutput out, Date date) throws IOException {
+        out.writeInt(PatentDate.fromDate(date));
+    }
+
+    static Date readDate(ByteBuffer in) {
+        return PatentDate.toDate(in.getInt());
+    }
+}
@@ -0,0 +1,328 @@
+package com.alithabet.entrep.data;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * <tt>PatentCsvWriter</tt> writes patents to a CSV file with one row
+ * per invention. The columns are the correspondent, the assignors,
+ * the assignees, the invention title, and the application, publish
+ * and issue dates of the invention, and the entity IDs of the
+ * assignees when they were resolved, see {@link EntityResolver}, in
+ * the order of the assignee names with an empty slot for an assignee
+ * without an entity. Values are quoted following
+ * <a href="https://tools.ietf.org/html/rfc4180">RFC 4180</a>:
+ * values containing commas, quotes or line breaks are put in double
+ * quotes, quotes are doubled, and rows end with CRLF.
+ * <p>
+ * The writer is a {@link PatentHandler}, so rows can be streamed
+ * straight from a {@link PatentStreamReader} without keeping the
+ * patents in memory, see {@link #export(String, String)}. Rows are
+ * collected in a large character buffer and written to a
+ * {@link FileChannel} in blocks. {@link #write(List, String, int)}
+ * renders chunks of an in-memory list on several threads and writes
+ * them in order.
+ *
+ * @author Ali K Thabet
+ */
+public class PatentCsvWriter implements PatentHandler, Closeable {
+
+    public static final String HEADER = "Correspondent,Assignors,Assignees,Invention Title,"
+            + "Application Date,Publish Date,Issue Date,Assignee IDs\r\n";
+
+    // separator between the names of several assignors or assignees
+    public static final String NAME_SEPARATOR = " - ";
+
+    private static final int BUFFER_SIZE = 1 << 20; // characters buffered before a write
+    private static final int CHUNK_SIZE  = 4096;    // patents rendered per parallel task
+
+    private final FileChannel   channel; // output file
+    private final StringBuilder buffer;  // rows not yet written
+    private long                rows;    // rows written so far
+
+    /**
+     * Open a CSV file and write the header. The <tt>.csv</tt>
+     * extension is added if <em>fileName</em> does not have it.
+     *
+     * @param fileName name of CSV file to write
+     * @throws IOException if the file cannot be created
+     */
+    public PatentCsvWriter(String fileName) throws IOException {
+        if (fileName == null) {
+            throw new NullPointerException("CSV file name is null");
+        }
+
+        channel = new FileOutputStream(csvName(fileName)).getChannel();
+        buffer  = new StringBuilder(BUFFER_SIZE + 4096);
+        buffer.append(HEADER);
+    }
+
+    // add the .csv extension if it is missing
+    static String csvName(String fileName) {
+        return fileName.endsWith(".csv") ? fileName : fileName + ".csv";
+    }
+
+    /**
+     * Write the rows of a patent
+     *
+     * @param patent patent to write
+     */
+    @Override
+    public void handle(Patent patent) {
+        rows += appendPatent(buffer, patent);
+        if (buffer.length() >= BUFFER_SIZE) {
+            try {
+                flushBuffer();
+            } catch (IOException e) {
+                throw new RuntimeException("Exception writing CSV file " + e.getMessage(), e);
+            }
+        }
+    }
+
+    // number of rows written, not counting the header
+    public long getRows() {
+        return rows;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        writeFully(channel, buffer);
+        buffer.setLength(0);
+    }
+
+    private static void writeFully(FileChannel channel, CharSequence text) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8));
+        while (bytes.hasRemaining()) channel.write(bytes);
+    }
+
+    /**
+     * Append the rows of a patent, one per invention. The assignor
+     * and assignee columns are built once and shared by all rows.
+     *
+     * @param builder builder to append to
+     * @param patent  patent to render
+     * @return number of rows appended
+     */
+    static int appendPatent(StringBuilder builder, Patent patent) {
+        if (patent.getInventions().isEmpty()) return 0;
+
+        // columns shared by every invention of the patent
+        int start = builder.length();
+        appendField(builder, patent.getCorrespondent().getName());
+        builder.append(',');
+        appendNames(builder, patent.getPatentAssignors());
+        builder.append(',');
+        appendNames(builder, patent.getPatentAssignees());
+        builder.append(',');
+        int end = builder.length();
+
+        int count = 0;
+        for (Map.Entry<String, ArrayList<PatentProperty>> invention : patent.getInventions().entrySet()) {
+            if (count > 0) builder.append(builder, start, end);
+
+            appendField(builder, invention.getKey());
+            int application = PatentDate.NO_DATE, published = PatentDate.NO_DATE, issued = PatentDate.NO_DATE;
+            for (PatentProperty property : invention.getValue()) {
+                switch (property.getStatusCode()) {
+                    case PatentProperty.APPLICATION_STATUS_CODE:
+                        if (application == PatentDate.NO_DATE) application = property.getDay();
+                        break;
+                    case PatentProperty.PUBLISHED_STATUS_CODE:
+                        if (published == PatentDate.NO_DATE) published = property.getDay();
+                        break;
+                    case PatentProperty.ISSUED_STATUS_CODE:
+                        if (issued == PatentDate.NO_DATE) issued = property.getDay();
+                        break;
+                    default:
+                        break;
+                }
+            }
+            PatentDate.appendDisplay(builder.append(','), application);
+            PatentDate.appendDisplay(builder.append(','), published);
+            PatentDate.appendDisplay(builder.append(','), issued);
+            builder.append(',');
+            appendEntities(builder, patent.getPatentAssignees());
+            builder.append("\r\n");
+            count++;
+        }
+        return count;
+    }
+
+    // entity IDs of the persons, separated like the names and empty for a person
+    // without an entity, or nothing if none of them has one
+    private static void appendEntities(StringBuilder builder, List<Person> persons) {
+        boolean resolved = false;
+        for (Person p : persons) resolved |= p.getEntityId() != Person.NO_ENTITY;
+        if (!resolved) return;
+
+        for (int i = 0; i < persons.size(); i++) {
+            if (i > 0) builder.append(NAME_SEPARATOR);
+            int entityId = persons.get(i).getEntityId();
+            if (entityId != Person.NO_ENTITY) builder.append(entityId);
+        }
+    }
+
+    private static void appendNames(StringBuilder builder, List<Person> persons) {
+        // quote the whole column if any of the names needs it
+        boolean quote = false;
+        for (Person p : persons) quote |= needsQuotes(p.getName());
+
+        if (quote) builder.append('"');
+        for (int i = 0; i < persons.size(); i++) {
+            if (i > 0) builder.append(NAME_SEPARATOR);
+            appendEscaped(builder, persons.get(i).getName(), quote);
+        }
+        if (quote) builder.append('"');
+    }
+
+    /**
+     * Append a value, quoted if it contains a comma,
+     * a double quote or a line break
+     *
+     * @param builder builder to append to
+     * @param value   value to append, null is written as empty
+     */
+    static void appendField(StringBuilder builder, String value) {
+        if (value == null) return;
+
+        boolean quote = needsQuotes(value);
+        if (quote) builder.append('"');
+        appendEscaped(builder, value, quote);
+        if (quote) builder.append('"');
+    }
+
+    private static void appendEscaped(StringBuilder builder, String value, boolean quoted) {
+        if (value == null) return;
+        if (!quoted) {
+            builder.append(value);
+            return;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') builder.append('"');
+            builder.append(c);
+        }
+    }
+
+    private static boolean needsQuotes(String value) {
+        if (value == null) return false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') return true;
+        }
+        return false;
+    }
+
+    /**
+     * Stream all the patents of an XML file or folder straight to
+     * a CSV file. Patents are written as they are parsed and are
+     * never kept in memory; files of a folder are read in name order.
+     *
+     * @param input    name of XML file (or folder of XML files)
+     * @param fileName name of CSV file to write
+     * @return number of rows written
+     * @throws IOException if a file cannot be read or written
+     */
+    public static long export(String input, String fileName) throws IOException {
+        PatentCsvWriter writer = new PatentCsvWriter(fileName);
+        try {
+            for (File file : PatentArray.listSources(input)) {
+                try {
+                    new PatentStreamReader(file).read(writer);
+                } catch (XMLStreamException e) {
+                    throw new IOException("Exception reading file " + file + " " + e.getMessage(), e);
+                }
+            }
+        } finally {
+            writer.close();
+        }
+        return writer.getRows();
+    }
+
+    /**
+     * Write a list of patents to a CSV file. With more than one
+     * thread, chunks of patents are rendered in parallel and
+     * written in the order of the list; at most two chunks per
+     * thread are kept in memory at a time.
+     *
+     * @param patents  patents to write
+     * @param fileName name of CSV file to write
+     * @param threads  number of rendering threads
+     * @return number of rows written
+     * @throws IOException if the file cannot be written
+     */
+    public static long write(final List<Patent> patents, String fileName, int threads) throws IOException {
+        PatentCsvWriter writer = new PatentCsvWriter(fileName);
+        if (threads <= 1) {
+            try {
+                for (Patent patent : patents) writer.handle(patent);
+            } finally {
+                writer.close();
+            }
+            return writer.getRows();
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ArrayDeque<Future<Chunk>> pending = new ArrayDeque<>();
+        try {
+            writer.flushBuffer();
+            for (int from = 0; from < patents.size(); from += CHUNK_SIZE) {
+                final int start = from;
+                final int end   = Math.min(patents.size(), from + CHUNK_SIZE);
+                pending.add(pool.submit(new Callable<Chunk>() {
+                    @Override
+                    public Chunk call() {
+                        Chunk chunk = new Chunk();
+                        for (int i = start; i < end; i++) chunk.rows += appendPatent(chunk.text, patents.get(i));
+                        return chunk;
+                    }
+                }));
+                if (pending.size() >= 2 * threads) writer.writeChunk(pending.poll().get());
+            }
+            while (!pending.isEmpty()) writer.writeChunk(pending.poll().get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted writing CSV file " + fileName);
+        } catch (ExecutionException e) {
+            throw new IOException("Exception writing CSV file " + fileName + " " + e.getCause(), e.getCause());
+        } finally {
+            pool.shutdownNow();
+            writer.close();
+        }
+        return writer.getRows();
+    }
+
+    // rows of a range of patents rendered by one task
+    private static class Chunk {
+        final StringBuilder text = new StringBuilder();
+        int                 rows;
+    }
+
+    private void writeChunk(Chunk chunk) throws IOException {
+        writeFully(channel, chunk.text);
+        rows += chunk.rows;
+    }
+}
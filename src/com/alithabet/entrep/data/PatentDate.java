@@ -0,0 +1,260 @@
+package com.alithabet.entrep.data;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Date;
+
+/**
+ * <tt>PatentDate</tt> converts the dates of the bulk files to and from
+ * a compact <tt>int</tt>: the number of days since 1970-01-01, or
+ * epoch day. Dates in the XML files are 8 digit <tt>yyyyMMdd</tt>
+ * strings, and are shown as <tt>dd-MM-yyyy</tt> in CSV files and in
+ * {@link Patent#toString()}.
+ * <p>
+ * Parsing and formatting are plain arithmetic on characters. They do
+ * not allocate and keep no state, so unlike {@link java.text.SimpleDateFormat}
+ * they are safe to call from any number of threads at once.
+ * {@link #NO_DATE} marks a missing date.
+ *
+ * @author Ali K Thabet
+ */
+public final class PatentDate {
+
+    public static final int NO_DATE = Integer.MIN_VALUE;
+
+    // length of a yyyyMMdd date string
+    public static final int SAVE_LENGTH = 8;
+
+    // length of a dd-MM-yyyy date string
+    public static final int DISPLAY_LENGTH = 10;
+
+    private PatentDate() {
+    }
+
+    /**
+     * Parse a <tt>yyyyMMdd</tt> date
+     *
+     * @param s date string
+     * @return epoch day of the date
+     * @throws IllegalArgumentException if the string is not a valid date
+     */
+    public static int parse(CharSequence s) {
+        if (s == null || s.length() != SAVE_LENGTH) {
+            throw new IllegalArgumentException("Unparseable date: \"" + s + "\"");
+        }
+
+        int year  = digits(s, 0, 4);
+        int month = digits(s, 4, 2);
+        int day   = digits(s, 6, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month)) {
+            throw new IllegalArgumentException("Unparseable date: \"" + s + "\"");
+        }
+        return epochDay(year, month, day);
+    }
+
+    /**
+     * Parse a <tt>yyyyMMdd</tt> date held in a character buffer
+     *
+     * @param buffer characters of the date
+     * @param offset position of the first character
+     * @param length number of characters
+     * @return epoch day of the date, or {@link #NO_DATE} if it is not valid
+     */
+    public static int parse(char[] buffer, int offset, int length) {
+        if (length != SAVE_LENGTH) return NO_DATE;
+
+        int year = 0, month = 0, day = 0;
+        for (int i = 0; i < SAVE_LENGTH; i++) {
+            int d = buffer[offset + i] - '0';
+            if (d < 0 || d > 9) return NO_DATE;
+            if (i < 4)      year  = year * 10 + d;
+            else if (i < 6) month = month * 10 + d;
+            else            day   = day * 10 + d;
+        }
+        if (month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month)) return NO_DATE;
+        return epochDay(year, month, day);
+    }
+
+    /**
+     * Epoch day of a calendar date in the proleptic Gregorian calendar
+     *
+     * @param year  year
+     * @param month month, 1 to 12
+     * @param day   day of month, 1 to 31
+     * @return days since 1970-01-01
+     */
+    public static int epochDay(int year, int month, int day) {
+        // days from civil, counting years from March so leap days come last
+        int y   = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yoe = y - era * 400;
+        int doy = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+
+    // year of an epoch day
+    public static int year(int epochDay) {
+        return (int) (civil(epochDay) >> 16);
+    }
+
+    // month of an epoch day, 1 to 12
+    public static int month(int epochDay) {
+        return (int) ((civil(epochDay) >> 8) & 0xFF);
+    }
+
+    // yyyyMM number of the month of an epoch day, e.g. 201502
+    public static int yearMonth(int epochDay) {
+        long c = civil(epochDay);
+        return (int) (c >> 16) * 100 + (int) ((c >> 8) & 0xFF);
+    }
+
+    // day of month of an epoch day, 1 to 31
+    public static int dayOfMonth(int epochDay) {
+        return (int) (civil(epochDay) & 0xFF);
+    }
+
+    // civil date of an epoch day packed as year << 16 | month << 8 | day
+    private static long civil(int epochDay) {
+        int z   = epochDay + 719468;
+        int era = (z >= 0 ? z : z - 146096) / 146097;
+        int doe = z - era * 146097;
+        int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        int mp  = (5 * doy + 2) / 153;
+        int d   = doy - (153 * mp + 2) / 5 + 1;
+        int m   = mp < 10 ? mp + 3 : mp - 9;
+        int y   = yoe + era * 400 + (m <= 2 ? 1 : 0);
+        return ((long) y << 16) | (m << 8) | d;
+    }
+
+    /**
+     * Append a date as <tt>dd-MM-yyyy</tt>. Nothing is
+     * appended for {@link #NO_DATE}.
+     *
+     * @param builder  builder to append to
+     * @param epochDay date to format
+     * @return the builder
+     */
+    public static StringBuilder appendDisplay(StringBuilder builder, int epochDay) {
+        if (epochDay == NO_DATE) return builder;
+
+        long c = civil(epochDay);
+        append2(builder, (int) (c & 0xFF)).append('-');
+        append2(builder, (int) ((c >> 8) & 0xFF)).append('-');
+        return append4(builder, (int) (c >> 16));
+    }
+
+    /**
+     * Append a date as <tt>yyyyMMdd</tt>. Nothing is
+     * appended for {@link #NO_DATE}.
+     *
+     * @param builder  builder to append to
+     * @param epochDay date to format
+     * @return the builder
+     */
+    public static StringBuilder appendSave(StringBuilder builder, int epochDay) {
+        if (epochDay == NO_DATE) return builder;
+
+        long c = civil(epochDay);
+        append4(builder, (int) (c >> 16));
+        append2(builder, (int) ((c >> 8) & 0xFF));
+        return append2(builder, (int) (c & 0xFF));
+    }
+
+    /**
+     * Write a date as <tt>dd-MM-yyyy</tt> into a character buffer
+     *
+     * @param epochDay date to format
+     * @param buffer   buffer with at least {@link #DISPLAY_LENGTH} free characters
+     * @param offset   position of the first character
+     * @return number of characters written, 0 for {@link #NO_DATE}
+     */
+    public static int formatDisplay(int epochDay, char[] buffer, int offset) {
+        if (epochDay == NO_DATE) return 0;
+
+        long c = civil(epochDay);
+        int day = (int) (c & 0xFF), month = (int) ((c >> 8) & 0xFF), year = (int) (c >> 16);
+        buffer[offset]     = (char) ('0' + day / 10);
+        buffer[offset + 1] = (char) ('0' + day % 10);
+        buffer[offset + 2] = '-';
+        buffer[offset + 3] = (char) ('0' + month / 10);
+        buffer[offset + 4] = (char) ('0' + month % 10);
+        buffer[offset + 5] = '-';
+        buffer[offset + 6] = (char) ('0' + year / 1000 % 10);
+        buffer[offset + 7] = (char) ('0' + year / 100 % 10);
+        buffer[offset + 8] = (char) ('0' + year / 10 % 10);
+        buffer[offset + 9] = (char) ('0' + year % 10);
+        return DISPLAY_LENGTH;
+    }
+
+    // display string of a date, allocating a new string
+    public static String toDisplayString(int epochDay) {
+        return appendDisplay(new StringBuilder(DISPLAY_LENGTH), epochDay).toString();
+    }
+
+    /**
+     * {@link Date} at local midnight of an epoch day,
+     * matching what <tt>SimpleDateFormat</tt> used to return
+     *
+     * @param epochDay date to convert
+     * @return the date, or null for {@link #NO_DATE}
+     */
+    public static Date toDate(int epochDay) {
+        if (epochDay == NO_DATE) return null;
+        return Date.from(LocalDate.ofEpochDay(epochDay).atStartOfDay(ZoneId.systemDefault()).toInstant());
+    }
+
+    /**
+     * Epoch day of a {@link Date} in the local time zone
+     *
+     * @param date date to convert, may be null
+     * @return epoch day, or {@link #NO_DATE} for null
+     */
+    public static int fromDate(Date date) {
+        if (date == null) return NO_DATE;
+        return (int) date.toInstant().atZone(ZoneId.systemDefault()).toLocalDate().toEpochDay();
+    }
+
+    // today's date in the local time zone
+    public static int today() {
+        return (int) LocalDate.now().toEpochDay();
+    }
+
+    private static int lengthOfMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+                return leap ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    // value of count decimal digits, or -1 if a character is not a digit
+    private static int digits(CharSequence s, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            int d = s.charAt(i) - '0';
+            if (d < 0 || d > 9) return -1;
+            value = value * 10 + d;
+        }
+        return value;
+    }
+
+    private static StringBuilder append2(StringBuilder builder, int value) {
+        return builder.append((char) ('0' + value / 10 % 10)).append((char) ('0' + value % 10));
+    }
+
+    private static StringBuilder append4(StringBuilder builder, int value) {
+        return builder.append((char) ('0' + value / 1000 % 10))
+                .append((char) ('0' + value / 100 % 10))
+                .append((char) ('0' + value / 10 % 10))
+                .append((char) ('0' + value % 10));
+    }
+}
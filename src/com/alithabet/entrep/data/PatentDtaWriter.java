@@ -0,0 +1,187 @@
+package com.alithabet.entrep.data;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <tt>PatentDtaWriter</tt> writes patents to a Stata <tt>.dta</tt>
+ * file with one row per patent property, so every document of an
+ * invention keeps its own number, kind, status and date. Dates are
+ * real <tt>%td</tt> date columns and the status is a byte with a
+ * value label, so the file can be used in Stata without any import
+ * step.
+ * <p>
+ * Like {@link PatentCsvWriter} the writer is a {@link PatentHandler}:
+ * rows are streamed to disk through {@link DtaWriter} as patents are
+ * handled, see {@link #export(String, String)}. Names and titles
+ * longer than their column are truncated. The entity ID of the first
+ * resolved assignee is kept in a numeric column, see {@link EntityResolver}.
+ *
+ * @author Ali K Thabet
+ */
+public class PatentDtaWriter implements PatentHandler, Closeable {
+
+    public static final String LABEL        = "USPTO patent assignments";
+    public static final String STATUS_LABEL = "status";
+
+    // widths of the string columns
+    private static final int NAME_WIDTH     = 244;
+    private static final int TITLE_WIDTH    = 244;
+    private static final int DOCUMENT_WIDTH = 16;
+    private static final int CODE_WIDTH     = 4;
+
+    private static final List<DtaWriter.Column> COLUMNS = Arrays.asList(
+            DtaWriter.Column.ofDate("recorded", "Recorded date"),
+            DtaWriter.Column.ofString("correspondent", NAME_WIDTH, "Correspondent"),
+            DtaWriter.Column.ofString("assignors", NAME_WIDTH, "Assignors"),
+            DtaWriter.Column.ofString("assignees", NAME_WIDTH, "Assignees"),
+            DtaWriter.Column.ofLong("assignee_id", "Entity ID of the first assignee"),
+            DtaWriter.Column.ofString("title", TITLE_WIDTH, "Invention title"),
+            DtaWriter.Column.ofString("doc_number", DOCUMENT_WIDTH, "Document number"),
+            DtaWriter.Column.ofString("country", CODE_WIDTH, "Document country"),
+            DtaWriter.Column.ofString("kind", CODE_WIDTH, "Document kind"),
+            DtaWriter.Column.ofCode("status", "Document status", STATUS_LABEL),
+            DtaWriter.Column.ofDate("date", "Document date"));
+
+    private final DtaWriter     writer;
+    private final StringBuilder names = new StringBuilder(); // assignor or assignee column being built
+
+    /**
+     * Open a <tt>.dta</tt> file and write its header. The <tt>.dta</tt>
+     * extension is added if <em>fileName</em> does not have it.
+     *
+     * @param fileName name of Stata file to write
+     * @throws IOException if the file cannot be created
+     */
+    public PatentDtaWriter(String fileName) throws IOException {
+        if (fileName == null) {
+            throw new NullPointerException("Stata file name is null");
+        }
+
+        writer = new DtaWriter(dtaName(fileName), LABEL, COLUMNS);
+        Map<Integer, String> statuses = new LinkedHashMap<>();
+        for (byte code = PatentProperty.NO_STATUS_CODE; code <= PatentProperty.ISSUED_STATUS_CODE; code++) {
+            statuses.put((int) code, PatentProperty.statusName(code));
+        }
+        writer.addValueLabel(STATUS_LABEL, statuses);
+    }
+
+    // add the .dta extension if it is missing
+    static String dtaName(String fileName) {
+        return fileName.endsWith(".dta") ? fileName : fileName + ".dta";
+    }
+
+    /**
+     * Write the rows of a patent
+     *
+     * @param patent patent to write
+     */
+    @Override
+    public void handle(Patent patent) {
+        try {
+            writePatent(patent);
+        } catch (IOException e) {
+            throw new RuntimeException("Exception writing Stata file " + e.getMessage(), e);
+        }
+    }
+
+    private void writePatent(Patent patent) throws IOException {
+        if (patent.getInventions().isEmpty()) return;
+
+        String assignors = joinNames(patent.getPatentAssignors());
+        String assignees = joinNames(patent.getPatentAssignees());
+        int    entityId  = Person.NO_ENTITY;
+        for (Person assignee : patent.getPatentAssignees()) {
+            if (assignee.getEntityId() != Person.NO_ENTITY) {
+                entityId = assignee.getEntityId();
+                break;
+            }
+        }
+        for (Map.Entry<String, ArrayList<PatentProperty>> invention : patent.getInventions().entrySet()) {
+            for (PatentProperty property : invention.getValue()) {
+                writer.writeDate(patent.getRecordedDay());
+                writer.writeString(patent.getCorrespondent().getName());
+                writer.writeString(assignors);
+                writer.writeString(assignees);
+                writer.writeLong(entityId == Person.NO_ENTITY ? DtaWriter.MISSING_LONG : entityId);
+                writer.writeString(invention.getKey());
+                writer.writeString(property.getDocumentNumber());
+                writer.writeString(property.getCountry());
+                writer.writeString(property.getKind());
+                writer.writeByte(property.getStatusCode());
+                writer.writeDate(property.getDay());
+                writer.endRow();
+            }
+        }
+    }
+
+    // names of several persons in one column, as in the CSV files
+    private String joinNames(List<Person> persons) {
+        names.setLength(0);
+        for (int i = 0; i < persons.size() && names.length() < NAME_WIDTH; i++) {
+            if (i > 0) names.append(PatentCsvWriter.NAME_SEPARATOR);
+            names.append(persons.get(i).getName());
+        }
+        return names.toString();
+    }
+
+    // number of rows written so far
+    public long getRows() {
+        return writer.getRows();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    /**
+     * Stream all the patents of an XML file or folder straight to
+     * a <tt>.dta</tt> file, without keeping them in memory
+     *
+     * @param input    name of XML file (or folder of XML files)
+     * @param fileName name of Stata file to write
+     * @return number of rows written
+     * @throws IOException if a file cannot be read or written
+     */
+    public static long export(String input, String fileName) throws IOException {
+        PatentDtaWriter writer = new PatentDtaWriter(fileName);
+        try {
+            for (File file : PatentArray.listSources(input)) {
+                try {
+                    new PatentStreamReader(file).read(writer);
+                } catch (XMLStreamException e) {
+                    throw new IOException("Exception reading file " + file + " " + e.getMessage(), e);
+                }
+            }
+        } finally {
+            writer.close();
+        }
+        return writer.getRows();
+    }
+
+    /**
+     * Write a list of patents to a <tt>.dta</tt> file
+     *
+     * @param patents  patents to write
+     * @param fileName name of Stata file to write
+     * @return number of rows written
+     * @throws IOException if the file cannot be written
+     */
+    public static long write(List<Patent> patents, String fileName) throws IOException {
+        PatentDtaWriter writer = new PatentDtaWriter(fileName);
+        try {
+            for (Patent patent : patents) writer.handle(patent);
+        } finally {
+            writer.close();
+        }
+        return writer.getRows();
+    }
+}
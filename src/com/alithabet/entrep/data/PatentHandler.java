@@ -0,0 +1,22 @@
+package com.alithabet.entrep.data;
+
+/**
+ * <tt>PatentHandler</tt> is a callback that receives {@link Patent}
+ * objects one at a time as they are parsed from a
+ * <a href="http://www.google.com/googlebooks/uspto-patents-assignments.html">
+ *     Google USPTO Bulk Downloads</a> file. Streaming readers such as
+ * {@link PatentStreamReader} hand every <em>patent-assignment</em>
+ * record to the handler as soon as it is complete, so the caller
+ * decides whether to keep the patent, index it or write it out.
+ *
+ * @author Ali K Thabet
+ */
+public interface PatentHandler {
+
+    /**
+     * Called once for every patent read from the input
+     *
+     * @param patent fully populated patent object
+     */
+    void handle(Patent patent);
+}
@@ -0,0 +1,404 @@
+package com.alithabet.entrep.data;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * <tt>PatentIndex</tt> is an inverted index from normalized words to
+ * the IDs of the patents they occur in. The indexed words come from
+ * the patent's correspondent, assignors and assignees, split and
+ * normalized by a {@link Tokenizer} that hands them over in a reused
+ * buffer, so only words not seen before become a <tt>String</tt>.
+ * Resolved persons are also indexed under the word of their entity,
+ * see {@link EntityResolver#indexKey(int)}.
+ * <p>
+ * The index is incremental: {@link #update(List)} only indexes the
+ * patents added since the previous call, so reading many files one
+ * after the other costs time proportional to the number of new
+ * patents. The IDs of each word are kept in a compressed
+ * {@link PatentBitmap}, so a patent appears at most once per word.
+ * Prefix and typo tolerant lookups go through {@link KeyTrie} segments
+ * over consecutive ranges of word IDs. The first such lookup after new
+ * words were added builds a segment of the new words only, and merges
+ * it with the segments before it that are less than twice its size, so
+ * a daily refresh builds a small trie instead of one over every word,
+ * there are at most a logarithmic number of segments, and each word is
+ * put in a new trie a logarithmic number of times overall. Entity
+ * words are left out of the tries, so they are only found by their full
+ * key and never completed or matched by a typed word.
+ *
+ * @author Ali K Thabet
+ */
+public class PatentIndex {
+    private final KeyTable                words;     // word to ID, IDs in order of first occurrence
+    private final ArrayList<PatentBitmap> postings;  // set of patent IDs of each word ID
+    private final Tokenizer               tokenizer; // splits the fields of the persons into words
+    private int                           indexed;   // number of patents indexed so far
+    private long                          size;      // total number of postings
+    private Segment[]                     segments;  // tries of the words, oldest first, built on demand
+    private int                           current;   // patent being indexed, read by the tokenizer sink
+
+    // adds the words of the tokenizer to the current patent
+    private final Tokenizer.Sink sink = new Tokenizer.Sink() {
+        @Override
+        public void token(char[] buffer, int length) {
+            add(words.add(buffer, length));
+        }
+    };
+
+    // default no argument constructor
+    public PatentIndex() {
+        words     = new KeyTable(1024);
+        postings  = new ArrayList<>();
+        tokenizer = new Tokenizer();
+        segments  = new Segment[0];
+    }
+
+    // trie of the words with IDs in [from, to)
+    private static final class Segment {
+        final KeyTrie trie;
+        final int     from;
+        final int     to;
+
+        Segment(KeyTrie trie, int from, int to) {
+            this.trie = trie;
+            this.from = from;
+            this.to   = to;
+        }
+    }
+
+    /**
+     * Index the patents of <em>patents</em> that were added since
+     * the last update. The ID of a patent is its position in
+     * <em>patents</em>, so the list must only grow at the end.
+     *
+     * @param patents full list of patents
+     */
+    public void update(List<Patent> patents) {
+        if (patents instanceof CompactPatentStore) {
+            update((CompactPatentStore) patents);
+            return;
+        }
+        for (int id = indexed; id < patents.size(); id++) {
+            Patent patent = patents.get(id);
+
+            current = id;
+            addPerson(patent.getCorrespondent());
+            for (Person assignor : patent.getPatentAssignors()) {
+                addPerson(assignor);
+            }
+            for (Person assignee : patent.getPatentAssignees()) {
+                addPerson(assignee);
+            }
+        }
+        indexed = Math.max(indexed, patents.size());
+    }
+
+    // same as update(List), reading the columns through a view instead of building each patent
+    private void update(CompactPatentStore store) {
+        CompactPatentStore.PatentView view = store.view();
+        for (int id = indexed; id < store.size(); id++) {
+            view.moveTo(id);
+
+            current = id;
+            addPerson(view.getCorrespondent());
+            for (int i = 0; i < view.getAssignorCount(); i++) {
+                addPerson(view.getAssignor(i));
+            }
+            for (int i = 0; i < view.getAssigneeCount(); i++) {
+                addPerson(view.getAssignee(i));
+            }
+        }
+        indexed = Math.max(indexed, store.size());
+    }
+
+    private void addPerson(Person person) {
+        if (person.getName() == null) return;
+
+        person.tokenize(tokenizer, sink);
+        addEntity(person.getEntityId());
+    }
+
+    private void addPerson(CompactPatentStore.PersonView person) {
+        if (!person.hasName()) return;
+
+        person.tokenize(tokenizer, sink);
+        addEntity(person.getEntityId());
+    }
+
+    // index a resolved person under the word of its entity
+    private void addEntity(int entityId) {
+        if (entityId != Person.NO_ENTITY) add(words.add(EntityResolver.indexKey(entityId)));
+    }
+
+    // add the current patent to the postings of a word
+    private void add(int word) {
+        if (word == postings.size()) postings.add(new PatentBitmap());
+        if (postings.get(word).add(current)) size++;
+    }
+
+    /**
+     * Set of patents containing a word, as normalized by {@link Tokenizer}
+     *
+     * @param key word to look up
+     * @return copy of the IDs of patents containing the word, or null if it is not indexed
+     */
+    public PatentBitmap get(String key) {
+        PatentBitmap ids = postings(key);
+        return ids == null ? null : ids.copy();
+    }
+
+    // postings of a word, shared with the index so never changed, or null
+    private PatentBitmap postings(String key) {
+        int word = words.find(key);
+        return word == KeyTable.NOT_FOUND ? null : postings.get(word);
+    }
+
+    // number of patents containing a word, 0 if it is not indexed
+    public int count(String key) {
+        PatentBitmap ids = postings(key);
+        return ids == null ? 0 : ids.cardinality();
+    }
+
+    /**
+     * Set of patents containing the word held in a buffer, so
+     * callers with a reused buffer do not build a <tt>String</tt>
+     *
+     * @param buffer characters of the word, starting at 0
+     * @param length number of characters
+     * @return copy of the IDs of patents containing the word, or null if it is not indexed
+     */
+    public PatentBitmap get(char[] buffer, int length) {
+        int word = words.find(buffer, length);
+        return word == KeyTable.NOT_FOUND ? null : postings.get(word).copy();
+    }
+
+    /**
+     * Set of patents containing all the words of a text, split
+     * the same way as the indexed names, e.g. <tt>"Philips B.V."</tt>
+     * looks up <tt>philips</tt> and <tt>bv</tt>
+     *
+     * @param text text to look up
+     * @return IDs of patents containing every word, empty if the text has no words
+     */
+    public PatentBitmap getAll(String text) {
+        List<String> tokens = new Tokenizer().tokens(text);
+        if (tokens.isEmpty()) return new PatentBitmap();
+
+        PatentBitmap result = null;
+        for (String token : tokens) {
+            PatentBitmap ids = postings(token);
+            if (ids == null) return new PatentBitmap();
+            result = result == null ? ids : result.and(ids);
+        }
+        return tokens.size() == 1 ? result.copy() : result;
+    }
+
+    // words of the index, read only
+    public Set<String> keys() {
+        return new AbstractSet<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                return new Iterator<String>() {
+                    private int next; // ID of the next word
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < words.size();
+                    }
+
+                    @Override
+                    public String next() {
+                        if (next >= words.size()) throw new NoSuchElementException();
+                        return words.get(next++);
+                    }
+                };
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return o instanceof String && words.find((String) o) != KeyTable.NOT_FOUND;
+            }
+
+            @Override
+            public int size() {
+                return words.size();
+            }
+        };
+    }
+
+    /**
+     * Tries of the words of the index, adding a segment for the words
+     * added since the last call. Entity words, see
+     * {@link EntityResolver#indexKey(int)}, are not in the tries.
+     *
+     * @return the segments, oldest first, never modified afterwards
+     */
+    private synchronized Segment[] segments() {
+        int built = segments.length == 0 ? 0 : segments[segments.length - 1].to;
+        if (built == words.size()) return segments;
+
+        // merge with the previous segments while they are less than twice the size of the new one
+        int count = segments.length;
+        int from  = built;
+        while (count > 0 && segments[count - 1].to - segments[count - 1].from < 2 * (words.size() - from)) {
+            from = segments[--count].from;
+        }
+
+        List<String> keys = new ArrayList<>(words.size() - from);
+        for (int word = from; word < words.size(); word++) {
+            String key = words.get(word);
+            if (!key.startsWith(EntityResolver.INDEX_PREFIX)) keys.add(key);
+        }
+        Segment[] updated = Arrays.copyOf(segments, count + 1);
+        updated[count] = new Segment(KeyTrie.build(keys), from, words.size());
+        segments = updated;
+        return segments;
+    }
+
+    /**
+     * Words of the index starting with a prefix, in lexicographic
+     * order, see {@link KeyTrie#prefix(String, int)}
+     *
+     * @param prefix lowercased prefix to look up, the empty prefix matches every word
+     * @param limit  maximum number of words returned
+     * @return the words, at most <em>limit</em> of them
+     */
+    public List<String> prefixKeys(String prefix, int limit) {
+        Segment[] tries = segments();
+        List<String> keys = new ArrayList<>();
+        for (Segment segment : tries) keys.addAll(segment.trie.prefix(prefix, limit));
+        return sorted(keys, tries.length, limit);
+    }
+
+    /**
+     * Words of the index within an edit distance of <em>word</em>, in
+     * lexicographic order, see {@link KeyTrie#fuzzy(String, int)}
+     *
+     * @param word     lowercased word to look up
+     * @param maxEdits largest edit distance allowed
+     * @return the words within <em>maxEdits</em> of <em>word</em>
+     */
+    public List<String> fuzzyKeys(String word, int maxEdits) {
+        Segment[] tries = segments();
+        List<String> keys = new ArrayList<>();
+        for (Segment segment : tries) keys.addAll(segment.trie.fuzzy(word, maxEdits));
+        return sorted(keys, tries.length, Integer.MAX_VALUE);
+    }
+
+    // the first words of the ordered lists of several segments, in order; a word is in one segment only
+    private static List<String> sorted(List<String> keys, int segments, int limit) {
+        if (segments > 1) Collections.sort(keys);
+        return keys.size() > limit ? new ArrayList<>(keys.subList(0, limit)) : keys;
+    }
+
+    // number of trie segments, see prefixKeys
+    public int trieSegmentCount() {
+        return segments().length;
+    }
+
+    // estimated heap used by the tries of the words in bytes
+    public long trieSizeInBytes() {
+        long bytes = 0;
+        for (Segment segment : segments()) bytes += segment.trie.sizeInBytes() + 24;
+        return bytes;
+    }
+
+    // estimated heap used by the words of the index and their IDs in bytes
+    public long keySizeInBytes() {
+        return words.sizeInBytes();
+    }
+
+    /**
+     * Set of patents containing a word starting with a prefix
+     *
+     * @param prefix lowercased prefix to look up
+     * @return IDs of patents containing a word with the prefix
+     */
+    public PatentBitmap getPrefix(String prefix) {
+        return union(prefixKeys(prefix, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Set of patents containing a word within an edit distance
+     * of <em>word</em>, see {@link KeyTrie#fuzzy(String, int)}
+     *
+     * @param word     lowercased word to look up
+     * @param maxEdits largest edit distance allowed
+     * @return IDs of patents containing a close word
+     */
+    public PatentBitmap getFuzzy(String word, int maxEdits) {
+        return union(fuzzyKeys(word, maxEdits));
+    }
+
+    // patents containing any of the words
+    private PatentBitmap union(List<String> keys) {
+        if (keys.isEmpty()) return new PatentBitmap();
+        return keys.size() == 1 ? get(keys.get(0)) : union(keys, 0, keys.size());
+    }
+
+    // merge in halves, so each ID is copied log(keys) times rather than once per word
+    private PatentBitmap union(List<String> keys, int from, int to) {
+        if (to - from == 1) return postings(keys.get(from));
+        int mid = (from + to) >>> 1;
+        return union(keys, from, mid).or(union(keys, mid, to));
+    }
+
+    // number of distinct words in the index
+    public int keyCount() {
+        return words.size();
+    }
+
+    // total number of patent IDs over all words
+    public long postingCount() {
+        return size;
+    }
+
+    // number of patents indexed so far
+    public int indexedCount() {
+        return indexed;
+    }
+
+    /**
+     * Write the index in binary form, see {@link PatentSnapshot}
+     *
+     * @param out output to write to
+     * @throws IOException if writing fails
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(indexed);
+        out.writeLong(size);
+        out.writeInt(words.size());
+        for (int word = 0; word < words.size(); word++) {
+            PatentCodec.writeString(out, words.get(word));
+            postings.get(word).write(out);
+        }
+    }
+
+    /**
+     * Read an index written by {@link #write(DataOutput)}
+     *
+     * @param in buffer positioned at the start of the index
+     * @return the index read
+     */
+    public static PatentIndex read(ByteBuffer in) {
+        PatentIndex index = new PatentIndex();
+        index.indexed = in.getInt();
+        index.size    = in.getLong();
+        int keys = in.getInt();
+        for (int i = 0; i < keys; i++) {
+            index.words.add(PatentCodec.readString(in));
+            index.postings.add(PatentBitmap.read(in));
+        }
+        return index;
+    }
+}
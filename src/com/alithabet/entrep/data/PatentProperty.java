@@ -27,6 +27,8 @@ import java.util.Date;
  *     patent number, or the publication-date of the publication number</li>
  *     <li>Invention title: The invention title assigned to the patent property</li>
  * </ul>
+ * Countries and kinds take few values, so the array holding the
+ * property keeps a single copy of each in its {@link StringDictionary}.
  * @author Ali K Thabet
  */
 public class PatentProperty {
@@ -36,15 +38,31 @@ public class PatentProperty {
     public static final String PUBLISHED_STATUS = "Patent Published";
     public static final String NO_STATUS = "No Status Available";
 
+    // status codes, in the same order as STATUSES
+    public static final byte NO_STATUS_CODE          = 0;
+    public static final byte APPLICATION_STATUS_CODE = 1;
+    public static final byte PUBLISHED_STATUS_CODE   = 2;
+    public static final byte ISSUED_STATUS_CODE      = 3;
+
+    private static final String[] STATUSES = {
+            NO_STATUS, APPLICATION_STATUS, PUBLISHED_STATUS, ISSUED_STATUS
+    };
+
     public static final int APPLICATION_NUMBER_LENGTH = 8;
     public static final int ISSUE_NUMBER_LENGTH = 7;
     public static final int PUBLICATION_NUMBER_LENGTH = 11;
 
+    // key of a document number that cannot be packed, see documentKey
+    public static final long NO_DOCUMENT_KEY = -1;
+
+    // longest document number that fits a key
+    private static final int KEY_LENGTH = 12;
+
     private String country; // country of origin
     private String documentNumber; // document number
     private String kind; // 2 character kind
-    private String status; // patent status
-    private Date date = new Date(); // related date
+    private byte   status  = NO_STATUS_CODE; // patent status
+    private int    date    = PatentDate.NO_DATE; // related date as an epoch day
 
     // getters and setter:
 
@@ -73,26 +91,138 @@ public class PatentProperty {
     }
 
     public String getStatus() {
-        return status;
+        return STATUSES[status];
     }
 
     public void setStatus(String status) {
+        this.status = statusCode(status);
+    }
+
+    public byte getStatusCode() {
+        return status;
+    }
+
+    public void setStatusCode(byte status) {
+        if (status < 0 || status >= STATUSES.length) {
+            throw new IllegalArgumentException("Unknown status code " + status);
+        }
         this.status = status;
     }
 
+    /**
+     * Code of a status string
+     *
+     * @param status one of the status constants
+     * @return the matching status code, or {@link #NO_STATUS_CODE}
+     */
+    public static byte statusCode(String status) {
+        for (byte i = 0; i < STATUSES.length; i++) {
+            if (STATUSES[i].equals(status)) return i;
+        }
+        return NO_STATUS_CODE;
+    }
+
+    // status string of a status code
+    public static String statusName(byte status) {
+        return STATUSES[status];
+    }
+
     public Date getDate() {
-        return date;
+        return PatentDate.toDate(date);
     }
 
     public void setDate(Date date) {
+        this.date = PatentDate.fromDate(date);
+    }
+
+    // replace the country and kind by the copies kept in a dictionary
+    void intern(StringDictionary dictionary) {
+        country = dictionary.intern(country);
+        kind    = dictionary.intern(kind);
+    }
+
+    public int getDay() {
+        return date;
+    }
+
+    public void setDay(int date) {
         this.date = date;
     }
 
+    /**
+     * Classify a document number by its length: 8 digit
+     * application numbers, 7 character issue numbers and
+     * 11 digit publication numbers
+     *
+     * @param documentNumber document number of the property
+     * @return one of the status constants
+     */
+    public static String statusOf(String documentNumber) {
+        if (documentNumber == null) return NO_STATUS;
+
+        switch (documentNumber.length()) {
+            case APPLICATION_NUMBER_LENGTH:
+                return APPLICATION_STATUS;
+            case ISSUE_NUMBER_LENGTH:
+                return ISSUED_STATUS;
+            case PUBLICATION_NUMBER_LENGTH:
+                return PUBLISHED_STATUS;
+            default:
+                return NO_STATUS;
+        }
+    }
+
+    /**
+     * Pack a document number into a <tt>long</tt>, one base 37 digit
+     * per character: 1 to 10 for <tt>0</tt> to <tt>9</tt> and 11 to 36
+     * for letters, ignoring case. Leading zeros are kept, so two
+     * numbers have the same key only if they are equal, ignoring case.
+     *
+     * @param documentNumber document number, of up to 12 letters and digits
+     * @return key of the number, or {@link #NO_DOCUMENT_KEY} if it is null, empty or cannot be packed
+     */
+    public static long documentKey(CharSequence documentNumber) {
+        if (documentNumber == null) return NO_DOCUMENT_KEY;
+        int length = documentNumber.length();
+        if (length == 0 || length > KEY_LENGTH) return NO_DOCUMENT_KEY;
+
+        long key = 0;
+        for (int i = 0; i < length; i++) {
+            char c = documentNumber.charAt(i);
+            int digit;
+            if (c >= '0' && c <= '9')      digit = c - '0' + 1;
+            else if (c >= 'A' && c <= 'Z') digit = c - 'A' + 11;
+            else if (c >= 'a' && c <= 'z') digit = c - 'a' + 11;
+            else return NO_DOCUMENT_KEY;
+            key = key * 37 + digit;
+        }
+        return key;
+    }
+
+    /**
+     * Document number of a key made by {@link #documentKey(CharSequence)},
+     * with letters in upper case
+     *
+     * @param key key of the number
+     * @return the document number, or null for {@link #NO_DOCUMENT_KEY}
+     */
+    public static String documentNumber(long key) {
+        if (key <= 0) return null;
+
+        char[] chars = new char[KEY_LENGTH];
+        int start = KEY_LENGTH;
+        for (; key > 0; key /= 37) {
+            int digit = (int) (key % 37);
+            chars[--start] = (char) (digit <= 10 ? '0' + digit - 1 : 'A' + digit - 11);
+        }
+        return new String(chars, start, KEY_LENGTH - start);
+    }
+
     @Override
     public String toString() {
         StringBuilder builder = new StringBuilder();
-        builder.append(status                                + " on ");
-        builder.append(Patent.DISPLAY_FORMATTER.format(date) +   ", ");
+        builder.append(getStatus()                           + " on ");
+        PatentDate.appendDisplay(builder, date).append(", ");
         builder.append("with number " + documentNumber       +   "\n");
 
         return builder.toString();
@@ -0,0 +1,544 @@
+package com.alithabet.entrep.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PrimitiveIterator;
+
+/**
+ * <tt>PatentQuery</tt> is a parsed boolean query over a
+ * {@link PatentIndex}. The query language is:
+ * <ul>
+ *     <li>words, normalized by {@link Tokenizer} as in the index, so
+ *     matching ignores case and dots, e.g. <tt>stanford</tt> or
+ *     <tt>B.V.</tt>. Stop words are ignored</li>
+ *     <li>prefixes, matching any word that starts with them, e.g.
+ *     <tt>qualc*</tt></li>
+ *     <li>words with a tolerance for typos, matching any word within
+ *     an edit distance of one, or of the number given, e.g.
+ *     <tt>univrsity~</tt> or <tt>univrsty~2</tt>, see {@link KeyTrie}</li>
+ *     <li><tt>AND</tt>, <tt>OR</tt> and <tt>NOT</tt> operators, written
+ *     in upper case. Words next to each other are joined by <tt>AND</tt>,
+ *     so <tt>stanford university NOT hospital</tt> is the same as
+ *     <tt>stanford AND university AND NOT hospital</tt></li>
+ *     <li>date ranges on the recorded date of the assignment, or on the
+ *     date of its filed, published or issued properties, e.g.
+ *     <tt>issued:2010..2012</tt>, <tt>recorded:201502</tt> or
+ *     <tt>filed:..20091231</tt>. Dates are years, <tt>yyyyMM</tt> months
+ *     or <tt>yyyyMMdd</tt> days, either end can be left out, and both
+ *     ends are included. See {@link PropertyDateIndex}</li>
+ *     <li>parentheses for grouping</li>
+ *     <li>phrases in double quotes, e.g. <tt>"stanford university"</tt>,
+ *     which match patents having an assignee whose name contains
+ *     the words next to each other and in order</li>
+ * </ul>
+ * Queries are evaluated as intersections, unions and differences of
+ * {@link PatentBitmap} sets, smallest sets first, without building
+ * lists of patents.
+ *
+ * @author Ali K Thabet
+ */
+public class PatentQuery {
+
+    public static final String AND = "AND";
+    public static final String OR  = "OR";
+    public static final String NOT = "NOT";
+
+    public static final char PREFIX = '*';
+    public static final char FUZZY  = '~';
+
+    // fields of date ranges, e.g. issued:2010..2012
+    public static final String RECORDED  = "recorded";
+    public static final String FILED     = "filed";
+    public static final String PUBLISHED = "published";
+    public static final String ISSUED    = "issued";
+    public static final String RANGE     = "..";
+
+    private final Node    root;  // root of the parsed query
+    private final boolean dated; // true if the query has date ranges
+
+    private PatentQuery(Node root, boolean dated) {
+        this.root  = root;
+        this.dated = dated;
+    }
+
+    /**
+     * Parse a query string
+     *
+     * @param query query text
+     * @return parsed query
+     * @throws IllegalArgumentException if the query is malformed
+     */
+    public static PatentQuery parse(String query) {
+        if (query == null) {
+            throw new NullPointerException("Query cannot be null");
+        }
+
+        Parser parser = new Parser(tokenize(query));
+        Node root = parser.or();
+        if (parser.pos < parser.tokens.size()) {
+            throw new IllegalArgumentException("Unexpected '" + parser.tokens.get(parser.pos)
+                    + "' in query: " + query);
+        }
+        // a query without any word matches nothing
+        return new PatentQuery(root != null ? root : new Or(new ArrayList<Node>()), parser.dated);
+    }
+
+    // true if evaluating the query needs a PropertyDateIndex
+    public boolean hasDateRange() {
+        return dated;
+    }
+
+    /**
+     * Evaluate a query without date ranges against an index
+     *
+     * @param index   index of the patents
+     * @param patents patents of the index, used to check phrases
+     * @return set of matching patent IDs
+     */
+    public PatentBitmap evaluate(PatentIndex index, List<Patent> patents) {
+        return root.evaluate(index, null, patents);
+    }
+
+    /**
+     * Evaluate the query against an index
+     *
+     * @param index   index of the patents
+     * @param dates   date index of the same patents, up to date, for date ranges
+     * @param patents patents of the index, used to check phrases
+     * @return set of matching patent IDs
+     */
+    public PatentBitmap evaluate(PatentIndex index, PropertyDateIndex dates, List<Patent> patents) {
+        return root.evaluate(index, dates, patents);
+    }
+
+    @Override
+    public String toString() {
+        return root.toString();
+    }
+
+    // split a query into words, phrases (kept with their quotes) and parentheses
+    private static List<String> tokenize(String query) {
+        List<String> tokens = new ArrayList<>();
+        int i = 0;
+        while (i < query.length()) {
+            char c = query.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '(' || c == ')') {
+                tokens.add(String.valueOf(c));
+                i++;
+            } else if (c == '"') {
+                int end = query.indexOf('"', i + 1);
+                if (end < 0) {
+                    throw new IllegalArgumentException("Unterminated phrase in query: " + query);
+                }
+                tokens.add(query.substring(i, end + 1));
+                i = end + 1;
+            } else {
+                int start = i;
+                while (i < query.length() && !Character.isWhitespace(query.charAt(i))
+                        && "()\"".indexOf(query.charAt(i)) < 0) {
+                    i++;
+                }
+                tokens.add(query.substring(start, i));
+            }
+        }
+        return tokens;
+    }
+
+    // recursive descent parser: or := and (OR and)*, and := unary (AND? unary)*,
+    // unary := NOT unary | ( or ) | phrase | word
+    private static class Parser {
+        final List<String> tokens;
+        final Tokenizer    tokenizer = new Tokenizer(); // normalizes words as in the index
+        int                pos;
+        boolean            dated;     // a date range was parsed
+
+        Parser(List<String> tokens) {
+            this.tokens = tokens;
+        }
+
+        // nodes are null where the query has no words left, e.g. a stop word alone
+        Node or() {
+            List<Node> children = new ArrayList<>();
+            addChild(children, and());
+            while (accept(OR)) addChild(children, and());
+            return group(children, false);
+        }
+
+        Node and() {
+            List<Node> children = new ArrayList<>();
+            addChild(children, unary());
+            while (pos < tokens.size() && !OR.equals(tokens.get(pos)) && !")".equals(tokens.get(pos))) {
+                accept(AND);
+                addChild(children, unary());
+            }
+            return group(children, true);
+        }
+
+        Node unary() {
+            if (pos >= tokens.size()) {
+                throw new IllegalArgumentException("Query ends where a word was expected");
+            }
+            if (accept(NOT)) {
+                Node child = unary();
+                return child == null ? null : new Not(child);
+            }
+            if (accept("(")) {
+                Node node = or();
+                if (!accept(")")) throw new IllegalArgumentException("Missing ')' in query");
+                return node;
+            }
+
+            String token = tokens.get(pos++);
+            if (AND.equals(token) || OR.equals(token) || ")".equals(token)) {
+                throw new IllegalArgumentException("Unexpected '" + token + "' in query");
+            }
+            if (token.startsWith("\"")) {
+                Phrase phrase = new Phrase(tokenizer.tokens(token.substring(1, token.length() - 1)));
+                return phrase.words.length == 0 ? null : phrase;
+            }
+            if (token.startsWith(EntityResolver.INDEX_PREFIX)) {
+                return new Word(token);
+            }
+            int colon = token.indexOf(':');
+            if (colon > 0 && DateRange.isField(token.substring(0, colon))) {
+                dated = true;
+                return DateRange.parse(token.substring(0, colon), token.substring(colon + 1));
+            }
+            if (token.length() > 1 && token.charAt(token.length() - 1) == PREFIX) {
+                // the last word is a prefix, e.g. "philips b.v*" needs philips and a word starting with bv
+                List<String> words = tokenizer.tokens(token.substring(0, token.length() - 1));
+                List<Node> children = new ArrayList<>();
+                for (int i = 0; i < words.size(); i++) {
+                    String word = words.get(i);
+                    children.add(i == words.size() - 1 ? new Prefix(word) : new Word(word));
+                }
+                return group(children, true);
+            }
+            int fuzzy = token.lastIndexOf(FUZZY);
+            if (fuzzy > 0) {
+                String edits = token.substring(fuzzy + 1);
+                int maxEdits;
+                try {
+                    maxEdits = edits.isEmpty() ? 1 : Integer.parseInt(edits);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Bad edit distance in '" + token + "'");
+                }
+                List<Node> children = new ArrayList<>();
+                for (String word : tokenizer.tokens(token.substring(0, fuzzy))) {
+                    children.add(new Fuzzy(word, maxEdits));
+                }
+                return group(children, true);
+            }
+
+            List<Node> children = new ArrayList<>();
+            for (String word : tokenizer.tokens(token)) children.add(new Word(word));
+            return group(children, true);
+        }
+
+        void addChild(List<Node> children, Node child) {
+            if (child != null) children.add(child);
+        }
+
+        // a single node, an AND or OR of several, or null if there are none
+        Node group(List<Node> children, boolean and) {
+            if (children.isEmpty()) return null;
+            if (children.size() == 1) return children.get(0);
+            return and ? new And(children) : new Or(children);
+        }
+
+        boolean accept(String token) {
+            if (pos < tokens.size() && tokens.get(pos).equals(token)) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    // node of the parsed query
+    private abstract static class Node {
+        abstract PatentBitmap evaluate(PatentIndex index, PropertyDateIndex dates, List<Patent> patents);
+    }
+
+    private static class Word extends Node {
+        final String word;
+
+        Word(String word) {
+            this.word = word;
+        }
+
+        @Override
+        PatentBitmap evaluate(PatentIndex index, PropertyDateIndex dates, List<Patent> patents) {
+            PatentBitmap bitmap = index.get(word);
+            return bitmap != null ? bitmap : new PatentBitmap();
+        }
+
+        @Override
+        public String toString() {
+            return word;
+        }
+    }
+
+    private static class Prefix extends Node {
+        final String prefix;
+
+        Prefix(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        PatentBitmap evaluate(PatentIndex index, PropertyDateIndex dates, List<Patent> patents) {
+            return index.getPrefix(prefix);
+        }
+
+        @Override
+        public String toString() {
+            return prefix + PREFIX;
+        }
+    }
+
+    private static class Fuzzy extends Node {
+        final String word;
+        final int    maxEdits;
+
+        Fuzzy(String word, int maxEdits) {
+            if (maxEdits < 0) {
+                throw new IllegalArgumentException("Negative edit distance in '" + word + FUZZY + maxEdits + "'");
+            }
+            this.word     = word;
+            this.maxEdits = maxEdits;
+        }
+
+        @Override
+        PatentBitmap evaluate(PatentIndex index, PropertyDateIndex dates, List<Patent> patents) {
+            return index.getFuzzy(word, maxEdits);
+        }
+
+        @Override
+        public String toString() {
+            return word + FUZZY + maxEdits;
+        }
+    }
+
+    private static class DateRange extends Node {
+        final String field;
+        final int    fromDay; // NO_DATE for no bound
+        final int    toDay;   // NO_DATE for no bound
+        final String text;    // range as written
+
+        DateRange(String field, int fromDay, int toDay, String text) {
+            this.field   = field;
+            this.fromDay = fromDay;
+            this.toDay   = toDay;
+            this.text    = text;
+        }
+
+        static boolean isField(String field) {
+            return RECORDED.equals(field) || FILED.equals(field)
+                    || PUBLISHED.equals(field) || ISSUED.equals(field);
+        }
+
+        // range such as 2010..2012, ..200912 or 20150209
+        static DateRange parse(String field, String range) {
+            int dots = range.indexOf(RANGE);
+            String from = dots < 0 ? range : range.substring(0, dots);
+            String to   = dots < 0 ? range : range.substring(dots + RANGE.length());
+            if (dots < 0 && range.isEmpty()) {
+                throw new IllegalArgumentException("Missing dates in '" + field + ":'");
+            }
+            return new DateRange(field, bound(from, false), bound(to, true), range);
+        }
+
+        // first or last day of a year, month or day, NO_DATE if empty
+        static int bound(String date, boolean last) {
+            if (date.isEmpty()) return PatentDate.NO_DATE;
+            try {
+                switch (date.length()) {
+                    case 4:
+                        int year = Integer.parseInt(date);
+                        return last ? PatentDate.epochDay(year + 1, 1, 1) - 1 : PatentDate.epochDay(year, 1, 1);
+                    case 6:
+                        int first = PatentDate.parse(date + "01");
+                        if (!last) return first;
+                        int month = PatentDate.month(first);
+                        return month == 12 ? PatentDate.epochDay(PatentDate.year(first) + 1, 1, 1) - 1
+                                : PatentDate.epochDay(PatentDate.year(first), month + 1, 1) - 1;
+                    default:
+                        return PatentDate.parse(date);
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Bad date '" + date + "', expected yyyy, yyyyMM or yyyyMMdd");
+            }
+        }
+
+        @Override
+        PatentBitmap evaluate(PatentIndex index, PropertyDateIndex dates, List<Patent> patents) {
+            if (dates == null) {
+                throw new IllegalStateException("Date range " + this + " needs a date index");
+            }
+            if (RECORDED.equals(field)) return dates.getRecorded(fromDay, toDay);
+            if (FILED.equals(field))    return dates.get(PatentProperty.APPLICATION_STATUS_CODE, fromDay, toDay);
+            if (PUBLISHED.equals(field)) return dates.get(PatentProperty.PUBLISHED_STATUS_CODE, fromDay, toDay);
+            return dates.get(PatentProperty.ISSUED_STATUS_CODE, fromDay, toDay);
+        }
+
+        @Override
+        public String toString() {
+            return field + ":" + text;
+        }
+    }
+
+    private static class Phrase extends Node {
+        final String[] words;
+
+        Phrase(List<String> words) {
+            this.words = words.toArray(new String[words.size()]);
+        }
+
+        @Override
+        PatentBitmap evaluate(PatentIndex index, PropertyDateIndex dates, List<Patent> patents) {
+            // candidates have every word, then check the order on the assignee names
+            List<Node> children = new ArrayList<>();
+            for (String w : words) children.add(new Word(w));
+            PatentBitmap candidates = new And(children).evaluate(index, dates, patents);
+
+            PatentBitmap result = new PatentBitmap();
+            Tokenizer tokenizer = new Tokenizer();
+            PrimitiveIterator.OfInt it = candidates.iterator();
+            while (it.hasNext()) {
+                int id = it.nextInt();
+                for (Person assignee : patents.get(id).getPatentAssignees()) {
+                    if (matches(tokenizer, assignee.getName())) {
+                        result.add(id);
+                        break;
+                    }
+                }
+            }
+            return result;
+        }
+
+        // true if the name contains the phrase words next to each other
+        boolean matches(Tokenizer tokenizer, String name) {
+            if (name == null) return false;
+            List<String> tokens = tokenizer.tokens(name);
+            for (int i = 0; i + words.length <= tokens.size(); i++) {
+                int j = 0;
+                while (j < words.length && tokens.get(i + j).equals(words[j])) j++;
+                if (j == words.length) return true;
+            }
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder("\"");
+            for (int i = 0; i < words.length; i++) {
+                if (i > 0) builder.append(' ');
+                builder.append(words[i]);
+            }
+            return builder.append('"').toString();
+        }
+    }
+
+    private static class Not extends Node {
+        final Node child;
+
+        Not(Node child) {
+            this.child = child;
+        }
+
+        @Override
+        PatentBitmap evaluate(PatentIndex index, PropertyDateIndex dates, List<Patent> patents) {
+            return PatentBitmap.range(index.indexedCount()).andNot(child.evaluate(index, dates, patents));
+        }
+
+        @Override
+        public String toString() {
+            return NOT + " " + child;
+        }
+    }
+
+    private static class And extends Node {
+        final List<Node> children;
+
+        And(List<Node> children) {
+            this.children = children;
+        }
+
+        @Override
+        PatentBitmap evaluate(PatentIndex index, PropertyDateIndex dates, List<Patent> patents) {
+            // intersect the positive terms smallest first, then remove the negated ones
+            List<PatentBitmap> positive = new ArrayList<>();
+            List<Node>         negative = new ArrayList<>();
+            for (Node child : children) {
+                if (child instanceof Not) {
+                    negative.add(((Not) child).child);
+                } else {
+                    positive.add(child.evaluate(index, dates, patents));
+                }
+            }
+
+            PatentBitmap result;
+            if (positive.isEmpty()) {
+                result = PatentBitmap.range(index.indexedCount());
+            } else {
+                Collections.sort(positive, BY_CARDINALITY);
+                result = positive.get(0);
+                for (int i = 1; i < positive.size() && !result.isEmpty(); i++) {
+                    result = result.and(positive.get(i));
+                }
+            }
+            for (int i = 0; i < negative.size() && !result.isEmpty(); i++) {
+                result = result.andNot(negative.get(i).evaluate(index, dates, patents));
+            }
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return join(children, AND);
+        }
+    }
+
+    private static class Or extends Node {
+        final List<Node> children;
+
+        Or(List<Node> children) {
+            this.children = children;
+        }
+
+        @Override
+        PatentBitmap evaluate(PatentIndex index, PropertyDateIndex dates, List<Patent> patents) {
+            PatentBitmap result = new PatentBitmap();
+            for (Node child : children) {
+                result = result.or(child.evaluate(index, dates, patents));
+            }
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return join(children, OR);
+        }
+    }
+
+    private static final Comparator<PatentBitmap> BY_CARDINALITY = new Comparator<PatentBitmap>() {
+        @Override
+        public int compare(PatentBitmap a, PatentBitmap b) {
+            return Integer.compare(a.cardinality(), b.cardinality());
+        }
+    };
+
+    private static String join(List<Node> children, String operator) {
+        StringBuilder builder = new StringBuilder("(");
+        for (int i = 0; i < children.size(); i++) {
+            if (i > 0) builder.append(' ').append(operator).append(' ');
+            builder.append(children.get(i));
+        }
+        return builder.append(')').toString();
+    }
+}
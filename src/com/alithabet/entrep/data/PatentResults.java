@@ -0,0 +1,83 @@
+package com.alithabet.entrep.data;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * <tt>PatentResults</tt> is the answer to a {@link PatentQuery}.
+ * It keeps the matching patent IDs as a {@link PatentBitmap} and only
+ * looks up the {@link Patent} objects while iterating or when a page
+ * is requested, so queries matching a large part of the array never
+ * build a full list of patents.
+ *
+ * @author Ali K Thabet
+ */
+public class PatentResults implements Iterable<Patent> {
+    private final PatentBitmap ids;     // matching patent IDs
+    private final List<Patent> patents; // patents the IDs point into
+
+    PatentResults(PatentBitmap ids, List<Patent> patents) {
+        this.ids     = ids;
+        this.patents = patents;
+    }
+
+    // matching patent IDs
+    public PatentBitmap getIds() {
+        return ids;
+    }
+
+    // number of matching patents
+    public int size() {
+        return ids.cardinality();
+    }
+
+    public boolean isEmpty() {
+        return ids.isEmpty();
+    }
+
+    /**
+     * A page of the results, in patent ID order
+     *
+     * @param offset number of results to skip
+     * @param limit  maximum number of results to return
+     * @return patents of the page
+     */
+    public List<Patent> page(int offset, int limit) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("Offset and limit cannot be negative");
+        }
+
+        List<Patent> page = new ArrayList<>(Math.min(limit, 1024));
+        PrimitiveIterator.OfInt it = ids.iterator();
+        for (int i = 0; i < offset && it.hasNext(); i++) it.nextInt();
+        while (page.size() < limit && it.hasNext()) {
+            page.add(patents.get(it.nextInt()));
+        }
+        return page;
+    }
+
+    @Override
+    public Iterator<Patent> iterator() {
+        final PrimitiveIterator.OfInt it = ids.iterator();
+        return new Iterator<Patent>() {
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public Patent next() {
+                if (!it.hasNext()) throw new NoSuchElementException();
+                return patents.get(it.nextInt());
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("Query results are read only");
+            }
+        };
+    }
+}
@@ -0,0 +1,457 @@
+package com.alithabet.entrep.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * <tt>PatentSegmentStore</tt> keeps patents on disk instead of on the
+ * heap, for histories too large to hold as {@link Patent} objects.
+ * Patents are appended in the binary form of {@link PatentCodec} to
+ * segment files of at most <em>segmentBytes</em> bytes, which are
+ * memory mapped, so the records themselves stay off the heap and
+ * are paged in by the operating system. The heap only holds the
+ * location of each record, a <tt>long</tt> per patent, and a cache
+ * of recently used patents.
+ * <p>
+ * The store is a {@link List} of patents: {@link #get(int)} decodes a
+ * record the first time it is used and keeps it in a least recently
+ * used cache, evicting the oldest patents once their estimated size
+ * goes over <em>cacheBytes</em>. Patents can only be appended, so the
+ * position of a patent never changes and the indexes of a
+ * {@link PatentArray} can use it as an ID, see
+ * {@link PatentArray#storeSegments(String, long)}.
+ * <p>
+ * A patent taken from the store is a copy that lives until it is
+ * evicted from the cache, so changes made to it are lost unless it is
+ * stored again with {@link #set(int, Patent)}, which appends the new
+ * record and leaves the old one unused in its segment. Entity IDs are
+ * kept apart from the records instead, see {@link AssigneeEntities},
+ * so resolving the entities of the store rewrites none of them.
+ * <p>
+ * A directory holds the segments of one store, named
+ * <tt>segment-00000.pat</tt> and so on. They are written for the
+ * life of the store and are not read back by a new store.
+ *
+ * @author Ali K Thabet
+ */
+public class PatentSegmentStore extends AbstractList<Patent>
+        implements RandomAccess, Closeable, AssigneeEntities {
+
+    public static final long DEFAULT_SEGMENT_BYTES = 256L << 20;
+
+    // estimated heap of a decoded patent: fixed objects plus bytes per encoded byte
+    private static final int PATENT_OVERHEAD = 256;
+    private static final int BYTES_PER_BYTE  = 4;
+
+    // records are written to a segment in batches of about this many bytes
+    private static final int WRITE_BYTES = 1 << 20;
+
+    // an appended segment file
+    private static final class Segment {
+        final File             file;
+        final RandomAccessFile raf;
+        MappedByteBuffer       buffer; // mapping of the records written so far
+        long                   length; // bytes written
+
+        Segment(File file) throws IOException {
+            this.file = file;
+            this.raf  = new RandomAccessFile(file, "rw");
+            raf.setLength(0);
+        }
+
+        // map the records written so far, after an append
+        void remap() throws IOException {
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+        }
+    }
+
+    private final File               directory;    // folder of the segment files
+    private final long               segmentBytes; // largest segment file
+    private final ArrayList<Segment> segments = new ArrayList<>();
+    private long[]                   locations = new long[1024]; // segment << 32 | offset of each record
+    private int[]                    lengths   = new int[1024];  // encoded bytes of each record
+    private int                      size;         // number of records
+    private long                     diskBytes;    // bytes of all the records
+    private EntityColumn             entities = new EntityColumn(); // entity IDs set on the records
+
+    private final LinkedHashMap<Integer, Patent> cache; // decoded patents, least recently used first
+    private long                     cacheBytes;   // budget of the cache
+    private long                     cachedBytes;  // estimated heap of the cached patents
+    private long                     hits;         // gets found in the cache
+    private long                     misses;       // gets decoded from a segment
+    private boolean                  closed;       // true once the segment files are closed
+
+    /**
+     * Store with segments of {@link #DEFAULT_SEGMENT_BYTES}
+     *
+     * @param directory  folder for the segment files, created if needed
+     * @param cacheBytes heap budget of the decoded patents, in bytes
+     * @throws IOException if the folder cannot be created or already holds segments
+     */
+    public PatentSegmentStore(String directory, long cacheBytes) throws IOException {
+        this(directory, cacheBytes, DEFAULT_SEGMENT_BYTES);
+    }
+
+    /**
+     * Store with a given segment size
+     *
+     * @param directory    folder for the segment files, created if needed
+     * @param cacheBytes   heap budget of the decoded patents, in bytes
+     * @param segmentBytes largest segment file, at most 2 GB, a larger record gets a segment of its own
+     * @throws IOException if the folder cannot be created or already holds segments
+     */
+    public PatentSegmentStore(String directory, long cacheBytes, long segmentBytes) throws IOException {
+        if (directory == null) {
+            throw new NullPointerException("Segment directory cannot be null");
+        }
+        if (cacheBytes < 0) {
+            throw new IllegalArgumentException("Cache budget cannot be negative: " + cacheBytes);
+        }
+        if (segmentBytes <= 0 || segmentBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Segments must hold 1 to " + Integer.MAX_VALUE
+                    + " bytes, not " + segmentBytes);
+        }
+
+        this.directory    = new File(directory);
+        this.segmentBytes = segmentBytes;
+        this.cacheBytes   = cacheBytes;
+        if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+            throw new IOException("Cannot create segment directory " + directory);
+        }
+        if (segmentFile(0).exists()) {
+            throw new IOException("Segment directory " + directory + " already holds a store");
+        }
+
+        cache = new LinkedHashMap<>(256, 0.75f, true);
+    }
+
+    private File segmentFile(int number) {
+        return new File(directory, String.format("segment-%05d.pat", number));
+    }
+
+    /**
+     * Append patents at the end of the store. They are written to
+     * the segments and the last ones are kept in the cache.
+     *
+     * @param patents patents to append
+     * @return true if any patent was appended
+     */
+    @Override
+    public boolean addAll(Collection<? extends Patent> patents) {
+        if (patents.isEmpty()) return false;
+        try {
+            append(patents);
+        } catch (IOException e) {
+            throw new RuntimeException("Exception writing segment in " + directory
+                    + " " + e.getMessage(), e);
+        }
+        return true;
+    }
+
+    @Override
+    public void add(int index, Patent patent) {
+        if (index != size) {
+            throw new UnsupportedOperationException("Patents can only be appended, not inserted at " + index);
+        }
+        addAll(Collections.singletonList(patent));
+    }
+
+    private synchronized void append(Collection<? extends Patent> patents) throws IOException {
+        checkOpen();
+        ByteArrayOutputStream record  = new ByteArrayOutputStream(1 << 12);
+        ByteArrayOutputStream pending = new ByteArrayOutputStream(1 << 16); // records not written yet
+        DataOutputStream out = new DataOutputStream(record);
+        Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+
+        for (Patent patent : patents) {
+            if (patent == null) {
+                throw new NullPointerException("Cannot store a null patent");
+            }
+            record.reset();
+            PatentCodec.writePatent(out, patent);
+            out.flush();
+            int length = record.size();
+
+            long used = segment == null ? 0 : segment.length + pending.size();
+            if (segment == null || (used > 0 && used + length > segmentBytes)) {
+                if (segment != null) write(segment, pending, true);
+                segment = new Segment(segmentFile(segments.size()));
+                segments.add(segment);
+            }
+            if (size == locations.length) {
+                locations = Arrays.copyOf(locations, size * 2);
+                lengths   = Arrays.copyOf(lengths, size * 2);
+            }
+            locations[size] = ((long) (segments.size() - 1) << 32) | (segment.length + pending.size());
+            lengths[size]   = length;
+            entities.add(patent.getPatentAssignees().size());
+            record.writeTo(pending);
+            if (pending.size() >= WRITE_BYTES) write(segment, pending, false);
+            cache(size++, patent, length);
+        }
+        write(segment, pending, true);
+    }
+
+    // write the pending records at the end of a segment, mapping them if asked
+    private void write(Segment segment, ByteArrayOutputStream pending, boolean map) throws IOException {
+        if (pending.size() > 0) {
+            segment.raf.seek(segment.length);
+            segment.raf.write(pending.toByteArray(), 0, pending.size());
+            segment.length += pending.size();
+            diskBytes      += pending.size();
+            pending.reset();
+        }
+        if (map) segment.remap();
+    }
+
+    /**
+     * Patent at a position, decoded from its segment unless cached
+     *
+     * @param index position of the patent
+     * @return the patent
+     */
+    @Override
+    public Patent get(int index) {
+        ByteBuffer record;
+        synchronized (this) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Patent " + index + " of " + size);
+            }
+            checkOpen();
+            Patent patent = cache.get(index);
+            if (patent != null) {
+                hits++;
+                return patent;
+            }
+            misses++;
+            long location = locations[index];
+            record = segments.get((int) (location >>> 32)).buffer.duplicate();
+            record.position((int) location);
+        }
+
+        // decode outside the lock, so that parallel scans only wait for the cache
+        Patent patent = PatentCodec.readPatent(record);
+        synchronized (this) {
+            Patent cached = cache.get(index);
+            if (cached != null) return cached;
+            entities.apply(index, patent);
+            cache(index, patent, lengths[index]);
+        }
+        return patent;
+    }
+
+    /**
+     * Store a patent again at its position, e.g. after changing a
+     * copy taken from the store. The new record is appended to the
+     * last segment and the old one is no longer read.
+     *
+     * @param index  position of the patent
+     * @param patent the patent to store
+     * @return the patent stored before
+     */
+    @Override
+    public synchronized Patent set(int index, Patent patent) {
+        if (patent == null) {
+            throw new NullPointerException("Cannot store a null patent");
+        }
+        Patent previous = get(index);
+        try {
+            ByteArrayOutputStream record = new ByteArrayOutputStream(1 << 12);
+            DataOutputStream out = new DataOutputStream(record);
+            PatentCodec.writePatent(out, patent);
+            out.flush();
+            int length = record.size();
+
+            Segment segment = segments.get(segments.size() - 1);
+            if (segment.length > 0 && segment.length + length > segmentBytes) {
+                segment = new Segment(segmentFile(segments.size()));
+                segments.add(segment);
+            }
+            long location = ((long) (segments.size() - 1) << 32) | segment.length;
+            write(segment, record, true);
+
+            if (cache.remove(index) != null) cachedBytes -= estimate(lengths[index]);
+            locations[index] = location;
+            lengths[index]   = length;
+            entities.clear(index);
+            cache(index, patent, length);
+        } catch (IOException e) {
+            throw new RuntimeException("Exception writing segment in " + directory
+                    + " " + e.getMessage(), e);
+        }
+        return previous;
+    }
+
+    /**
+     * Set the entity ID of an assignee, on the cached copy of its
+     * patent and on every copy decoded from now on. An assignee the
+     * patent did not have when it was stored is written back with
+     * {@link #set(int, Patent)}.
+     *
+     * @param patent   position of the patent
+     * @param assignee position of the assignee in the patent
+     * @param entityId the entity ID, see {@link Person#getEntityId()}
+     */
+    @Override
+    public synchronized void setEntityId(int patent, int assignee, int entityId) {
+        checkOpen();
+        if (assignee >= 0 && patent >= 0 && patent < size && assignee < entities.assignees(patent)) {
+            entities.set(patent, assignee, entityId);
+            Patent cached = cache.get(patent);
+            if (cached != null) cached.getPatentAssignees().get(assignee).setEntityId(entityId);
+        } else {
+            Patent copy = get(patent);
+            copy.getPatentAssignees().get(assignee).setEntityId(entityId);
+            set(patent, copy);
+        }
+    }
+
+    // keep a patent in the cache, evicting the least recently used over the budget
+    private void cache(int index, Patent patent, int length) {
+        long bytes = estimate(length);
+        if (bytes > cacheBytes) return;
+        cache.put(index, patent);
+        cachedBytes += bytes;
+        evict();
+    }
+
+    // drop the least recently used patents until the cache is within its budget
+    private void evict() {
+        Iterator<Integer> eldest = cache.keySet().iterator();
+        while (cachedBytes > cacheBytes && eldest.hasNext()) {
+            int evicted = eldest.next();
+            eldest.remove();
+            cachedBytes -= estimate(lengths[evicted]);
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Segment store " + directory + " is closed");
+        }
+    }
+
+    // estimated heap of a patent decoded from a record of length bytes
+    private static long estimate(int length) {
+        return PATENT_OVERHEAD + (long) BYTES_PER_BYTE * length;
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Remove all the patents, truncating the segment files
+     * so that the store can be filled again from the start
+     */
+    @Override
+    public synchronized void clear() {
+        checkOpen();
+        try {
+            closeSegments();
+        } catch (IOException e) {
+            throw new RuntimeException("Exception clearing segments in " + directory
+                    + " " + e.getMessage(), e);
+        }
+        for (int i = 0; i < segments.size(); i++) {
+            if (!segments.get(i).file.delete()) {
+                throw new RuntimeException("Cannot delete segment " + segments.get(i).file);
+            }
+        }
+        segments.clear();
+        cache.clear();
+        entities    = new EntityColumn();
+        size        = 0;
+        diskBytes   = 0;
+        cachedBytes = 0;
+    }
+
+    private void closeSegments() throws IOException {
+        IOException error = null;
+        for (Segment segment : segments) {
+            segment.buffer = null;
+            try {
+                segment.raf.close();
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        if (error != null) throw error;
+    }
+
+    // close the segment files, the store cannot be used afterwards
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        closeSegments();
+        cache.clear();
+        cachedBytes = 0;
+    }
+
+    // change the heap budget of the cache, evicting patents if it shrinks
+    public synchronized void setCacheBytes(long cacheBytes) {
+        if (cacheBytes < 0) {
+            throw new IllegalArgumentException("Cache budget cannot be negative: " + cacheBytes);
+        }
+        this.cacheBytes = cacheBytes;
+        evict();
+    }
+
+    public synchronized long getCacheBytes() {
+        return cacheBytes;
+    }
+
+    // estimated heap of the cached patents
+    public synchronized long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    public synchronized int getCachedCount() {
+        return cache.size();
+    }
+
+    // bytes of all the records in the segment files
+    public synchronized long getDiskBytes() {
+        return diskBytes;
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    // segment files written so far
+    public synchronized List<File> getFiles() {
+        List<File> files = new ArrayList<>();
+        for (Segment segment : segments) files.add(segment.file);
+        return files;
+    }
+}
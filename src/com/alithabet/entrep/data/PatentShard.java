@@ -0,0 +1,180 @@
+package com.alithabet.entrep.data;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.zip.CRC32;
+
+/**
+ * <tt>PatentShard</tt> holds the patents read from a single
+ * bulk XML file together with the recorded date of that file.
+ * Shards are parsed independently of each other, which lets
+ * {@link PatentArray} read many files in parallel and merge
+ * the shards afterwards in recorded date order.
+ *
+ * @author Ali K Thabet
+ */
+class PatentShard {
+
+    // order shards by recorded date, then by file name for files of the same day
+    static final Comparator<PatentShard> BY_DATE = new Comparator<PatentShard>() {
+        @Override
+        public int compare(PatentShard a, PatentShard b) {
+            int c = Integer.compare(a.recordedDate, b.recordedDate);
+            return c != 0 ? c : a.file.getName().compareTo(b.file.getName());
+        }
+    };
+
+    private final File              file;         // source XML file
+    private SourceFile              source;       // size, modification time and checksum when read
+    private final ArrayList<Patent> patents;      // patents in file order
+    private int                     recordedDate; // recorded date of the file as an epoch day
+    private long                    checksum;     // CRC32 of the file, summed while it is parsed
+    private final StringDictionary  dictionary;   // shares repeated values while parsing, may be null
+
+    private PatentShard(File file, StringDictionary dictionary) {
+        this.file       = file;
+        this.source     = SourceFile.of(file);
+        this.patents    = new ArrayList<>();
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Parse all the patents in <em>file</em> into a new shard
+     *
+     * @param file bulk XML file
+     * @param mode parser used to read the file
+     * @return shard with the patents of the file
+     * @throws Exception if the file cannot be read or parsed
+     */
+    static PatentShard read(File file, IngestMode mode) throws Exception {
+        return read(file, mode, null);
+    }
+
+    /**
+     * Parse all the patents in <em>file</em> into a new shard, keeping
+     * one copy of the repeated values in <em>dictionary</em>, see
+     * {@link PatentStreamReader#setDictionary(StringDictionary)}
+     *
+     * @param file       bulk XML file
+     * @param mode       parser used to read the file
+     * @param dictionary dictionary shared by the parsers, null to keep every copy
+     * @return shard with the patents of the file
+     * @throws Exception if the file cannot be read or parsed
+     */
+    static PatentShard read(File file, IngestMode mode, StringDictionary dictionary) throws Exception {
+        PatentShard shard = new PatentShard(file, dictionary);
+        if (mode == IngestMode.DOM) {
+            shard.domRead();
+        } else if (mode == IngestMode.MAPPED && MappedPatentParser.canMap(file)) {
+            shard.mappedRead();
+        } else {
+            shard.streamRead();
+        }
+        if (shard.recordedDate == PatentDate.NO_DATE) {
+            shard.recordedDate = PatentDate.fromDate(new Date(file.lastModified()));
+        }
+
+        // size and time are taken before parsing, so a file changed meanwhile shows as modified
+        SourceFile stat = shard.source;
+        shard.source = new SourceFile(stat.getPath(), stat.getLength(), stat.getLastModified(),
+                shard.checksum, shard.recordedDate, shard.patents.size());
+        return shard;
+    }
+
+    // read the file by loading it into a DOM document
+    private void domRead() throws Exception {
+        DocumentBuilderFactory factory =
+                DocumentBuilderFactory.newInstance();
+        DocumentBuilder builder = factory.newDocumentBuilder();
+        Document doc;
+        CRC32 crc = new CRC32();
+        BulkInput.SummedInput in = BulkInput.open(file, crc);
+        try {
+            doc = builder.parse(in);
+        } finally {
+            in.close();
+        }
+        checksum = checksum(in, crc);
+
+        // first get date string and convert it to an epoch day
+        String dateString = ((Element) doc.getElementsByTagName(Patent.DATE_ARRAY).item(0)).getElementsByTagName(Patent.DATE_ELEMENT).item(0).getTextContent();
+        recordedDate = PatentDate.parse(dateString);
+        // get the list of patent assignments
+        NodeList nList = doc.getElementsByTagName(Patent.PATENT_ARRAY);
+
+        for (int i = 0; i < nList.getLength(); i++) {
+            Patent patent = new Patent(nList.item(i), recordedDate);
+            if (dictionary != null) patent.intern(dictionary);
+            patents.add(patent);
+        }
+    }
+
+    // read the file one patent-assignment record at a time
+    private void streamRead() throws Exception {
+        CRC32 crc = new CRC32();
+        BulkInput.SummedInput in = BulkInput.open(file, crc);
+        PatentStreamReader reader = new PatentStreamReader(in);
+        reader.setDictionary(dictionary);
+        reader.read(new PatentHandler() {
+            @Override
+            public void handle(Patent patent) {
+                patents.add(patent);
+            }
+        });
+        recordedDate = reader.getRecordedDay();
+        checksum     = checksum(in, crc);
+    }
+
+    // checksum of the whole file, summing it again if the parser stopped before its end
+    private long checksum(BulkInput.SummedInput in, CRC32 crc) throws IOException {
+        if (in.isSummed()) return crc.getValue();
+        crc.reset();
+        BulkInput.sum(file, crc);
+        return crc.getValue();
+    }
+
+    // scan the memory mapped bytes of the file, or fall back to the XML parser
+    private void mappedRead() throws Exception {
+        MappedPatentParser parser = new MappedPatentParser(file);
+        parser.setDictionary(dictionary);
+        try {
+            parser.read(new PatentHandler() {
+                @Override
+                public void handle(Patent patent) {
+                    patents.add(patent);
+                }
+            });
+            recordedDate = parser.getRecordedDay();
+            checksum     = parser.getChecksum();
+        } catch (MappedPatentParser.FormatException e) {
+            System.out.println("Reading " + file.getName() + " with the XML parser: " + e.getMessage());
+            patents.clear();
+            streamRead();
+        }
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    SourceFile getSource() {
+        return source;
+    }
+
+    ArrayList<Patent> getPatents() {
+        return patents;
+    }
+
+    int getRecordedDate() {
+        return recordedDate;
+    }
+}
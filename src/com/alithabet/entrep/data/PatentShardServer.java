@@ -0,0 +1,205 @@
+package com.alithabet.entrep.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * <tt>PatentShardServer</tt> serves the patents of a {@link PatentArray}
+ * over a socket, so the shards of a {@link ShardedPatentStore} can live
+ * in separate JVMs, each with its own heap, and be queried through a
+ * {@link RemoteShardClient}. Run one server per shard, e.g.
+ * <pre>
+ * java com.alithabet.entrep.data.PatentShardServer 7001 ad20150201.xml ad20150202.xml ...
+ * </pre>
+ * and attach it to the coordinator with
+ * <tt>store.attach(201502, new RemoteShardClient("localhost", 7001))</tt>.
+ * <p>
+ * Each request is a one byte operation followed by its arguments,
+ * and each response a status byte followed by a length prefixed
+ * payload. Patents are sent in the binary form of {@link PatentCodec}.
+ * Every connection is served by its own thread, one request at a time.
+ *
+ * @author Ali K Thabet
+ */
+public class PatentShardServer implements Closeable {
+
+    // operations
+    static final byte SIZE  = 1; // no arguments, payload is the number of patents
+    static final byte QUERY = 2; // query string, from day and to day, payload is the patents
+
+    // response status
+    static final byte OK    = 0;
+    static final byte ERROR = 1; // payload is the error message
+
+    private final LocalShardClient shard;  // patents served
+    private final ServerSocket     server;
+    private final Thread           acceptor;
+
+    /**
+     * Start serving an array on a port of the loopback address
+     *
+     * @param array patents to serve
+     * @param port  port to listen on, 0 for any free port
+     * @throws IOException if the port cannot be opened
+     */
+    public PatentShardServer(PatentArray array, int port) throws IOException {
+        this(array, port, InetAddress.getLoopbackAddress());
+    }
+
+    /**
+     * Start serving an array
+     *
+     * @param array   patents to serve
+     * @param port    port to listen on, 0 for any free port
+     * @param address address to listen on
+     * @throws IOException if the port cannot be opened
+     */
+    public PatentShardServer(PatentArray array, int port, InetAddress address) throws IOException {
+        shard  = new LocalShardClient(array);
+        server = new ServerSocket(port, 50, address);
+
+        acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "shard server " + server.getLocalPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    // port the server listens on
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    // hand every connection to its own thread until the server is closed
+    private void accept() {
+        while (!server.isClosed()) {
+            final Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                if (!server.isClosed()) System.out.println("Shard server failed: " + e.getMessage());
+                return;
+            }
+
+            Thread connection = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    serve(socket);
+                }
+            }, "shard connection " + socket.getRemoteSocketAddress());
+            connection.setDaemon(true);
+            connection.start();
+        }
+    }
+
+    // answer the requests of a connection until the client closes it
+    private void serve(Socket socket) {
+        try {
+            try {
+                socket.setTcpNoDelay(true);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                while (true) {
+                    byte operation;
+                    try {
+                        operation = in.readByte();
+                    } catch (EOFException e) {
+                        return;
+                    }
+                    respond(operation, in, out);
+                    out.flush();
+                }
+            } finally {
+                socket.close();
+            }
+        } catch (SocketException e) {
+            // connection dropped by the client
+        } catch (IOException e) {
+            System.out.println("Shard connection failed: " + e.getMessage());
+        }
+    }
+
+    private void respond(byte operation, DataInputStream in, DataOutputStream out) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(bytes);
+        byte status = OK;
+
+        if (operation == SIZE) {
+            payload.writeInt(shard.size());
+        } else if (operation == QUERY) {
+            String query = readString(in);
+            int fromDay = in.readInt();
+            int toDay = in.readInt();
+            try {
+                ArrayList<Patent> patents = shard.queryIndex(query, fromDay, toDay);
+                payload.writeInt(patents.size());
+                for (Patent patent : patents) PatentCodec.writePatent(payload, patent);
+            } catch (RuntimeException e) {
+                bytes.reset();
+                status = ERROR;
+                PatentCodec.writeString(payload, "Query " + query + " failed: " + e.getMessage());
+            }
+        } else {
+            // the arguments cannot be skipped, so the connection is dropped
+            throw new IOException("Unknown shard operation " + operation);
+        }
+
+        out.writeByte(status);
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+    }
+
+    // string in the form of PatentCodec.writeString
+    static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // stop accepting connections, open connections end with their clients
+    @Override
+    public void close() throws IOException {
+        server.close();
+    }
+
+    /**
+     * Serve the patents of bulk files or folders until the JVM is stopped
+     *
+     * @param args port followed by the files and folders to read
+     * @throws IOException if the port cannot be opened
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: PatentShardServer <port> <file or folder>...");
+            return;
+        }
+
+        PatentArray array = new PatentArray();
+        for (int i = 1; i < args.length; i++) array.read(args[i]);
+
+        PatentShardServer server = new PatentShardServer(array, Integer.parseInt(args[0]));
+        System.out.println("Serving " + array.getPatents().size() + " patents on port " + server.getPort());
+        try {
+            server.acceptor.join();
+        } catch (InterruptedException e) {
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,388 @@
+package com.alithabet.entrep.data;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * <tt>PatentSnapshot</tt> saves the parsed patents of a
+ * {@link PatentArray} together with its {@link PatentIndex} into a
+ * versioned binary file, and loads it back through memory mapped
+ * buffers. Loading a snapshot skips XML parsing and index building
+ * altogether, and does not decode the patents either: the array reads
+ * them from the mapped records as they are used, so a snapshot larger
+ * than the heap can still be loaded. The records are mapped in chunks
+ * of at most 2 GB, cut between records, so the file itself has no
+ * size limit; only its index must fit in a single chunk.
+ * <p>
+ * The snapshot records the inputs the array was read from and the
+ * size and modification time of every XML file behind them. A
+ * snapshot is stale, and refuses to load, if any of those files
+ * changed, disappeared, or if new XML files were added to an input
+ * folder; {@link PatentArray#open(String, String)} then reads only
+ * the new files. A text copy of the manifest is written next to the
+ * snapshot. The file layout is:
+ * <ol>
+ *     <li>magic number and format version</li>
+ *     <li>inputs, then the {@link IngestManifest} of the source files</li>
+ *     <li>recorded date and patents, see {@link PatentCodec}</li>
+ *     <li>index, see {@link PatentIndex#write(java.io.DataOutput)}</li>
+ *     <li>file offset of each patent, then its number of assignees</li>
+ *     <li>file offsets of the index and of the offsets</li>
+ * </ol>
+ *
+ * @author Ali K Thabet
+ */
+public class PatentSnapshot {
+
+    public static final int MAGIC   = 0x50415453; // "PATS"
+    public static final int VERSION = 7;
+
+    // extension of the text manifest written next to a snapshot
+    public static final String MANIFEST_EXTENSION = ".manifest";
+
+    // largest mapping of the file
+    static final long CHUNK_BYTES = Integer.MAX_VALUE;
+
+    // bytes of the offsets at the end of the file
+    private static final int TRAILER_BYTES = 16;
+
+    // entries of the offset table read at a time
+    private static final int TABLE_BLOCK = 1 << 16;
+
+    private PatentSnapshot() {
+    }
+
+    /**
+     * Write a snapshot of <em>array</em>. The file is written next to
+     * <em>fileName</em> first and renamed once complete, so a reader
+     * never sees a partial snapshot.
+     *
+     * @param array    patents to save
+     * @param fileName name of the snapshot file
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(PatentArray array, String fileName) throws IOException {
+        File target = new File(fileName);
+        File temp   = new File(target.getAbsolutePath() + ".tmp");
+
+        CountingOutputStream counter = new CountingOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp), 1 << 16));
+        DataOutputStream out = new DataOutputStream(counter);
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            out.writeInt(array.getInputs().size());
+            for (String input : array.getInputs()) PatentCodec.writeString(out, input);
+            array.getManifest().write(out);
+
+            PatentCodec.writeDate(out, array.getRecordedDate());
+            List<Patent> patents = array.getPatents();
+            int count = patents.size();
+            out.writeInt(count);
+            long[] offsets   = new long[count];
+            int[]  assignees = new int[count];
+            for (int i = 0; i < count; i++) {
+                Patent patent = patents.get(i);
+                offsets[i]   = counter.count;
+                assignees[i] = patent.getPatentAssignees().size();
+                PatentCodec.writePatent(out, patent);
+            }
+
+            long indexStart = counter.count;
+            array.getIndex().write(out);
+
+            long tableStart = counter.count;
+            for (long offset : offsets) out.writeLong(offset);
+            for (int n : assignees) out.writeInt(n);
+            out.writeLong(indexStart);
+            out.writeLong(tableStart);
+        } finally {
+            out.close();
+        }
+
+        if (target.exists() && !target.delete()) {
+            throw new IOException("Cannot replace snapshot " + fileName);
+        }
+        if (!temp.renameTo(target)) {
+            throw new IOException("Cannot rename " + temp + " to " + fileName);
+        }
+        array.getManifest().write(fileName + MANIFEST_EXTENSION);
+    }
+
+    // output stream counting the bytes written, as a long
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count; // bytes written so far
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    /**
+     * Load a snapshot written by {@link #write(PatentArray, String)}
+     *
+     * @param fileName name of the snapshot file
+     * @return patent array with the saved patents and index
+     * @throws IOException if the file cannot be read
+     * @throws IllegalStateException if the snapshot has another
+     *         format version or is stale relative to its sources
+     */
+    public static PatentArray load(String fileName) throws IOException {
+        return load(fileName, true);
+    }
+
+    /**
+     * Load a snapshot, optionally even if it is stale, e.g. to bring
+     * it up to date with {@link PatentArray#refresh()}
+     *
+     * @param fileName     name of the snapshot file
+     * @param checkCurrent true to refuse a stale snapshot
+     * @return patent array with the saved patents and index
+     * @throws IOException if the file cannot be read
+     */
+    static PatentArray load(String fileName, boolean checkCurrent) throws IOException {
+        return load(fileName, checkCurrent, CHUNK_BYTES);
+    }
+
+    // load a snapshot, mapping at most chunkBytes at a time
+    static PatentArray load(String fileName, boolean checkCurrent, long chunkBytes) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(fileName, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            long size = channel.size();
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, chunkBytes));
+            Header header = readHeader(in, fileName);
+            if (checkCurrent) checkCurrent(fileName, header);
+
+            PatentArray array = new PatentArray();
+            array.setRecordedDate(PatentCodec.readDate(in));
+            int patents = in.getInt();
+            long recordsStart = in.position();
+
+            ByteBuffer trailer = read(channel, size - TRAILER_BYTES, TRAILER_BYTES);
+            long indexStart = trailer.getLong();
+            long tableStart = trailer.getLong();
+            if (indexStart < recordsStart || tableStart < indexStart
+                    || tableStart + 12L * patents + TRAILER_BYTES != size) {
+                throw new IllegalStateException("Snapshot " + fileName + " is truncated");
+            }
+            if (tableStart - indexStart > Integer.MAX_VALUE) {
+                throw new IOException("Index of snapshot " + fileName + " is larger than 2GB");
+            }
+
+            long[] offsets   = new long[patents];
+            int[]  assignees = new int[patents];
+            for (int i = 0; i < patents; i += TABLE_BLOCK) {
+                int n = Math.min(TABLE_BLOCK, patents - i);
+                read(channel, tableStart + 8L * i, 8 * n).asLongBuffer().get(offsets, i, n);
+                read(channel, tableStart + 8L * patents + 4L * i, 4 * n).asIntBuffer().get(assignees, i, n);
+            }
+
+            PatentIndex index = PatentIndex.read(
+                    channel.map(FileChannel.MapMode.READ_ONLY, indexStart, tableStart - indexStart));
+            array.restore(new SnapshotPatents(channel, offsets, assignees, indexStart, chunkBytes),
+                    index, header.inputs, header.manifest);
+            return array;
+        } finally {
+            file.close();
+        }
+    }
+
+    // bytes of the file at a position, read into a heap buffer
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (position < 0 || channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Snapshot ends before byte " + (position + length));
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * <tt>SnapshotPatents</tt> holds the patents of a loaded snapshot,
+     * decoded from the mapped records on each get, followed by the
+     * patents appended since, e.g. by {@link PatentArray#refresh()}.
+     * The decoded patents are copies: entity IDs are kept through
+     * {@link AssigneeEntities}, other changes are not.
+     */
+    private static final class SnapshotPatents extends AbstractList<Patent>
+            implements RandomAccess, AssigneeEntities {
+        private MappedByteBuffer[]      chunks;      // mappings of the records, cut between records
+        private long[]                  chunkStarts; // file offset of each chunk
+        private long[]                  offsets;     // file offset of each record
+        private EntityColumn            entities;    // entity IDs set since loading
+        private int                     records;     // number of records
+        private final ArrayList<Patent> appended = new ArrayList<>(); // patents added after loading
+
+        SnapshotPatents(FileChannel channel, long[] offsets, int[] assignees, long recordsEnd, long chunkBytes)
+                throws IOException {
+            this.offsets  = offsets;
+            this.records  = offsets.length;
+            this.entities = new EntityColumn(assignees);
+
+            // start a chunk at a record that would end past the current chunk
+            ArrayList<MappedByteBuffer> mapped = new ArrayList<>();
+            long[] starts = new long[Math.max(1, records)];
+            for (int i = 0; i < records; ) {
+                long start = offsets[i];
+                int  next  = i + 1;
+                while (next < records && offset(next, recordsEnd) - start <= chunkBytes) next++;
+                long end = offset(next, recordsEnd);
+                if (end - start > chunkBytes && next > i + 1) end = offsets[--next];
+                if (end - start > Integer.MAX_VALUE) {
+                    throw new IOException("Patent " + i + " takes more than " + Integer.MAX_VALUE + " bytes");
+                }
+                starts[mapped.size()] = start;
+                mapped.add(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+                i = next;
+            }
+            chunks      = mapped.toArray(new MappedByteBuffer[0]);
+            chunkStarts = Arrays.copyOf(starts, chunks.length);
+        }
+
+        // start of a record, or the end of the records
+        private long offset(int record, long recordsEnd) {
+            return record < records ? offsets[record] : recordsEnd;
+        }
+
+        @Override
+        public Patent get(int index) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("Patent " + index + " of " + size());
+            }
+            if (index >= records) return appended.get(index - records);
+
+            int chunk = Arrays.binarySearch(chunkStarts, offsets[index]);
+            if (chunk < 0) chunk = -chunk - 2;
+            ByteBuffer record = chunks[chunk].duplicate();
+            record.position((int) (offsets[index] - chunkStarts[chunk]));
+            Patent patent = PatentCodec.readPatent(record);
+            entities.apply(index, patent);
+            return patent;
+        }
+
+        @Override
+        public int size() {
+            return records + appended.size();
+        }
+
+        @Override
+        public void add(int index, Patent patent) {
+            if (index != size()) {
+                throw new UnsupportedOperationException("Patents can only be appended, not inserted at " + index);
+            }
+            if (patent == null) {
+                throw new NullPointerException("Cannot add a null patent");
+            }
+            appended.add(patent);
+        }
+
+        // drop the records and the appended patents
+        @Override
+        public void clear() {
+            chunks      = new MappedByteBuffer[0];
+            chunkStarts = new long[0];
+            offsets     = new long[0];
+            entities    = new EntityColumn();
+            records     = 0;
+            appended.clear();
+        }
+
+        @Override
+        public void setEntityId(int patent, int assignee, int entityId) {
+            if (patent >= records) {
+                appended.get(patent - records).getPatentAssignees().get(assignee).setEntityId(entityId);
+            } else {
+                entities.set(patent, assignee, entityId);
+            }
+        }
+    }
+    /**
+     * Check whether a snapshot can still be loaded, without decoding it
+     *
+     * @param fileName name of the snapshot file
+     * @return true if the snapshot exists, has the current version and is not stale
+     */
+    public static boolean isCurrent(String fileName) {
+        if (!new File(fileName).isFile()) return false;
+
+        try {
+            checkCurrent(fileName, readHeader(map(fileName), fileName));
+            return true;
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    // inputs and source files recorded at the start of a snapshot
+    private static class Header {
+        final List<String> inputs = new ArrayList<>();
+        IngestManifest     manifest;
+    }
+
+    private static Header readHeader(ByteBuffer in, String fileName) {
+        if (in.getInt() != MAGIC) {
+            throw new IllegalStateException(fileName + " is not a patent snapshot");
+        }
+        int version = in.getInt();
+        if (version != VERSION) {
+            throw new IllegalStateException("Snapshot " + fileName + " has version " + version
+                    + ", expected " + VERSION);
+        }
+
+        Header header = new Header();
+        int count = in.getInt();
+        for (int i = 0; i < count; i++) header.inputs.add(PatentCodec.readString(in));
+        header.manifest = IngestManifest.read(in);
+        return header;
+    }
+
+    // throw if the XML files behind the inputs are not the recorded ones
+    private static void checkCurrent(String fileName, Header header) {
+        if (!header.manifest.isCurrent(header.inputs)) {
+            throw new IllegalStateException("Snapshot " + fileName
+                    + " is stale: its source files were added, removed or modified");
+        }
+    }
+
+    // the first chunk of a snapshot, holding its header
+    private static ByteBuffer map(String fileName) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(fileName, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), CHUNK_BYTES));
+        } finally {
+            file.close();
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package com.alithabet.entrep.data;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Date;
+
+/**
+ * <tt>PatentStreamReader</tt> reads a
+ * <a href="http://www.google.com/googlebooks/uspto-patents-assignments.html">
+ * Google USPTO Bulk Downloads</a> XML file with StAX instead of
+ * building a DOM. Each <em>patent-assignment</em> record is turned
+ * into a {@link Patent} and handed to a {@link PatentHandler} as soon
+ * as its closing tag is read, so memory is bounded by a single record
+ * instead of the whole file.
+ * <p>
+ * The fields extracted are the same as the ones read by
+ * {@link Patent#Patent(org.w3c.dom.Node, Date)}, and the resulting
+ * patents are identical.
+ *
+ * @author Ali K Thabet
+ */
+public class PatentStreamReader {
+
+    private static final XMLInputFactory FACTORY = createFactory();
+
+    private final InputStream input;
+    private int               recordedDate = PatentDate.NO_DATE; // recorded date of the bulk file
+
+    // parsing state for the record currently being read
+    private Patent                    patent;
+    private Person                    person;
+    private int                       addressLines;
+    private boolean                   assignee;
+    private ArrayList<PatentProperty> properties;
+    private String                    title;
+    private PatentProperty            property;
+    private boolean                   transactionDate;
+    private final StringBuilder       text = new StringBuilder();
+    private StringDictionary          dictionary; // shares repeated values, null to keep every copy
+
+    /**
+     * Constructor with an input stream of XML data.
+     * The stream is closed once {@link #read(PatentHandler)}
+     * returns.
+     *
+     * @param input stream containing a bulk XML file
+     */
+    public PatentStreamReader(InputStream input) {
+        if (input == null) {
+            throw new NullPointerException("Input stream cannot be null");
+        }
+        this.input = input;
+    }
+
+    /**
+     * Constructor with a bulk file as input, which can be a plain,
+     * zipped or gzipped XML file, see {@link BulkInput}
+     *
+     * @param file bulk XML file
+     * @throws IOException if the file cannot be opened
+     */
+    public PatentStreamReader(File file) throws IOException {
+        this(BulkInput.open(file));
+    }
+
+    // the DTD is declared inline in the bulk files, so we keep
+    // DTD support on but never resolve external entities
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.FALSE);
+        return factory;
+    }
+
+    /**
+     * Recorded date of the bulk file, taken from the
+     * <em>transaction-date</em> element. Only valid once
+     * the first patent has been handled.
+     *
+     * @return recorded date of the file, or null if there is none
+     */
+    public Date getRecordedDate() {
+        return PatentDate.toDate(recordedDate);
+    }
+
+    // recorded date of the bulk file as an epoch day
+    public int getRecordedDay() {
+        return recordedDate;
+    }
+
+    /**
+     * Share the cities, postcodes, countries and kinds read from now
+     * on through a dictionary, so repeated values are kept once
+     *
+     * @param dictionary dictionary to use, null to keep every copy
+     */
+    public void setDictionary(StringDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Read the whole input and pass every patent to <em>handler</em>
+     *
+     * @param handler callback receiving each patent
+     * @return number of patents read
+     * @throws XMLStreamException if the XML is malformed
+     * @throws IOException if the stream cannot be closed
+     */
+    public int read(PatentHandler handler) throws XMLStreamException, IOException {
+        if (handler == null) {
+            throw new NullPointerException("Patent handler cannot be null");
+        }
+
+        int count = 0;
+        XMLStreamReader reader = FACTORY.createXMLStreamReader(input);
+        try {
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        startElement(reader.getLocalName());
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                    case XMLStreamConstants.SPACE:
+                        text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        if (endElement(reader.getLocalName())) {
+                            handler.handle(patent);
+                            patent = null;
+                            count++;
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+        } finally {
+            reader.close();
+            input.close();
+        }
+        return count;
+    }
+
+    // opening tag: set up the object the following text belongs to
+    private void startElement(String tag) {
+        text.setLength(0);
+
+        if (Patent.PATENT_ARRAY.equals(tag)) {
+            patent = new Patent();
+            patent.setRecordedDay(recordedDate);
+        } else if (Patent.DATE_ARRAY.equals(tag)) {
+            transactionDate = true;
+        } else if (patent == null) {
+            return;
+        } else if (Patent.CORRESPONDENT.equals(tag)) {
+            startPerson(patent.getCorrespondent(), Patent.CORRESPONDENT_ADDRESS, false);
+        } else if (Patent.ASSIGNORS_ARRAY.equals(tag)) {
+            startPerson(new Person(), Patent.ASSIGNOR_ADDRESS, false);
+        } else if (Patent.ASSIGNEE_ARRAY.equals(tag)) {
+            startPerson(new Person(), Patent.ASSIGNEE_ADDRESS, true);
+        } else if (Patent.PROPERTY_ARRAY.equals(tag)) {
+            properties = new ArrayList<>();
+            title = null;
+        } else if (Patent.DOCUMENT_ID_ARRAY.equals(tag) && properties != null) {
+            property = new PatentProperty();
+        }
+    }
+
+    private void startPerson(Person p, int lines, boolean isAssignee) {
+        person       = p;
+        addressLines = lines;
+        assignee     = isAssignee;
+    }
+
+    // closing tag: store the collected text and
+    // return true once a full patent has been read
+    private boolean endElement(String tag) {
+        String value = text.toString();
+        text.setLength(0);
+
+        if (Patent.DATE_ARRAY.equals(tag)) {
+            transactionDate = false;
+            return false;
+        }
+        if (transactionDate && Patent.DATE_ELEMENT.equals(tag)) {
+            recordedDate = parseDate(value, "Recorded");
+            return false;
+        }
+        if (patent == null) return false;
+
+        if (Patent.PATENT_ARRAY.equals(tag)) {
+            person     = null;
+            properties = null;
+            property   = null;
+            return true;
+        }
+
+        if (property != null) {
+            endPropertyElement(tag, value);
+        } else if (properties != null) {
+            if (Patent.INVENTION_TITLE.equals(tag) && title == null) {
+                title = value;
+            } else if (Patent.PROPERTY_ARRAY.equals(tag)) {
+                // properties without an invention are skipped
+                if (title != null) patent.getInventions().put(title, properties);
+                properties = null;
+            }
+        } else if (person != null) {
+            endPersonElement(tag, value);
+        }
+        return false;
+    }
+
+    private void endPersonElement(String tag, String value) {
+        if (Patent.NAME.equals(tag)) {
+            if (person.getName() == null) person.setName(value);
+        } else if (tag.startsWith(Patent.ADDRESS)) {
+            int line = addressLine(tag);
+            if (line > 0 && line <= addressLines) person.addAddress(value);
+        } else if (assignee && Patent.CITY.equals(tag)) {
+            if (person.getCity() == null) person.setCity(shared(value));
+        } else if (assignee && Patent.POSTCODE.equals(tag)) {
+            if (person.getPostcode() == null) person.setPostcode(shared(value));
+        } else if (assignee && Patent.COUNTRY.equals(tag)) {
+            if (person.getCountry() == null) person.setCountry(shared(value));
+        } else if (Patent.CORRESPONDENT.equals(tag)) {
+            person = null;
+        } else if (Patent.ASSIGNORS_ARRAY.equals(tag)) {
+            patent.getPatentAssignors().add(person);
+            person = null;
+        } else if (Patent.ASSIGNEE_ARRAY.equals(tag)) {
+            if (person.getCountry() == null) person.setCountry("US");
+            patent.getPatentAssignees().add(person);
+            person = null;
+        }
+    }
+
+    // the copy of a value kept by the dictionary, if there is one
+    private String shared(String value) {
+        return dictionary == null ? value : dictionary.intern(value);
+    }
+
+    private void endPropertyElement(String tag, String value) {
+        if (Patent.COUNTRY.equals(tag)) {
+            if (property.getCountry() == null) property.setCountry(shared(value));
+        } else if (Patent.DOCUMENT_NUMBER.equals(tag)) {
+            if (property.getDocumentNumber() == null) property.setDocumentNumber(value);
+        } else if (Patent.KIND.equals(tag)) {
+            if (property.getKind() == null) property.setKind(shared(value));
+        } else if (Patent.DATE_ELEMENT.equals(tag)) {
+            property.setDay(parseDate(value, "Property"));
+        } else if (Patent.DOCUMENT_ID_ARRAY.equals(tag)) {
+            if (property.getCountry() == null) property.setCountry("US");
+            property.setStatus(PatentProperty.statusOf(property.getDocumentNumber()));
+            properties.add(property);
+            property = null;
+        }
+    }
+
+    // line number of an address-N tag, or -1 if it is not a number
+    private static int addressLine(String tag) {
+        int line = 0;
+        for (int i = Patent.ADDRESS.length(); i < tag.length(); i++) {
+            char c = tag.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            line = line * 10 + (c - '0');
+        }
+        return line;
+    }
+
+    private static int parseDate(String dateString, String what) {
+        try {
+            return PatentDate.parse(dateString);
+        } catch (IllegalArgumentException e) {
+            System.out.println(what + " date formatter exception:"
+                    + e.getMessage());
+            return PatentDate.NO_DATE;
+        }
+    }
+}
@@ -16,16 +16,33 @@ import java.util.ArrayList;
  *  - Patent Assignee: Person or entity
  *    registered as assignee of patent
  * Class implements {@link Comparable} and defines
- * the natural order to be by name.
+ * the natural order to be by name. States and
+ * countries take few values, so the array holding
+ * the person keeps a single copy of each in its
+ * {@link StringDictionary}. US assignees can be given the
+ * location of their postcode and the population of
+ * their city, see {@link GeoIndex}, and assignees
+ * the ID of the firm they belong to, see
+ * {@link EntityResolver}.
  * @author Ali K Thabet
  */
 public class Person implements Comparable<Person> {
+    // population of a person whose city is not known
+    public static final int NO_POPULATION = -1;
+
+    // entity ID of a person that was not resolved
+    public static final int NO_ENTITY = -1;
+
     private String name; // name of person or entity
     private ArrayList<String> address; // at most 4 lines of address
     private String city;
     private String state;
     private String country;
     private String postcode;
+    private double latitude   = Double.NaN;    // location of the postcode, NaN if unknown
+    private double longitude  = Double.NaN;
+    private int    population = NO_POPULATION; // population of the city
+    private int    entityId   = NO_ENTITY;     // canonical firm, see EntityResolver
 
     // default no argument constructor
     public Person() {
@@ -48,6 +65,11 @@ public class Person implements Comparable<Person> {
         this.address = address;
     }
 
+    // add a line to the address
+    public void addAddress(String line) {
+        address.add(line);
+    }
+
     public String getCity() {
         return city;
     }
@@ -80,6 +102,51 @@ public class Person implements Comparable<Person> {
         this.postcode = postcode;
     }
 
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public void setLatitude(double latitude) {
+        this.latitude = latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+    public void setLongitude(double longitude) {
+        this.longitude = longitude;
+    }
+
+    public int getPopulation() {
+        return population;
+    }
+
+    public void setPopulation(int population) {
+        this.population = population;
+    }
+
+    public int getEntityId() {
+        return entityId;
+    }
+
+    public void setEntityId(int entityId) {
+        this.entityId = entityId;
+    }
+
+    // replace the city, state, country and postcode by the copies kept in a dictionary
+    void intern(StringDictionary dictionary) {
+        city     = dictionary.intern(city);
+        state    = dictionary.intern(state);
+        country  = dictionary.intern(country);
+        postcode = dictionary.intern(postcode);
+    }
+
+    // true if the person has been given a location
+    public boolean isLocated() {
+        return !Double.isNaN(latitude);
+    }
+
     @Override
     public String toString() {
         StringBuilder builder = new StringBuilder();
@@ -100,41 +167,38 @@ public class Person implements Comparable<Person> {
     /**
      * This method returns all the strings
      * related to a person's name and address
-     * in an ArrayList
+     * in an ArrayList, split and normalized
+     * as in the index, see {@link Tokenizer}
      *
      * @return list of person related strings
      */
     public ArrayList<String> getAllStrings() {
-        ArrayList<String> list = new ArrayList<>();
-
-        String[] names = name.split(" ");
-        for (String s : names) list.add(s.toLowerCase());
-
-        for (String line : address) {
-            String[] addresses = line.split(" ");
-            for (String s : addresses) list.add(s.toLowerCase());
-        }
-
-        if (city != null) {
-            String[] cities = city.split(" ");
-            for (String s : cities) list.add(s.toLowerCase());
-        }
-        if (state != null) {
-            String[] states = state.split(" ");
-            for (String s : states) list.add(s.toLowerCase());
-        }
-        if (country != null) {
-            String[] countries = country.split(" ");
-            for (String s : countries) list.add(s.toLowerCase());
-        }
-        if (postcode != null) {
-            String[] postcodes = postcode.split(" ");
-            for (String s : postcodes) list.add(s.toLowerCase());
-        }
-
+        final ArrayList<String> list = new ArrayList<>();
+        tokenize(new Tokenizer(), new Tokenizer.Sink() {
+            @Override
+            public void token(char[] buffer, int length) {
+                list.add(new String(buffer, 0, length));
+            }
+        });
         return list;
     }
 
+    /**
+     * Pass the words of the name and address of the person
+     * to <em>sink</em>, without building any string
+     *
+     * @param tokenizer tokenizer splitting the fields
+     * @param sink      receives the words
+     */
+    public void tokenize(Tokenizer tokenizer, Tokenizer.Sink sink) {
+        tokenizer.tokenize(name, sink);
+        for (int i = 0; i < address.size(); i++) tokenizer.tokenize(address.get(i), sink);
+        tokenizer.tokenize(city, sink);
+        tokenizer.tokenize(state, sink);
+        tokenizer.tokenize(country, sink);
+        tokenizer.tokenize(postcode, sink);
+    }
+
 //    private void addStringArrayToList(String[] strings, ArrayList<String> list) {
 //        for (String s : strings) list.add(s.toLowerCase());
 //    }
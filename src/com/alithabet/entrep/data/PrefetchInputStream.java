@@ -0,0 +1,165 @@
+package com.alithabet.entrep.data;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * <tt>PrefetchInputStream</tt> reads another stream on a background
+ * thread into a bounded queue of buffers, so producing the bytes, for
+ * instance inflating a <tt>.zip</tt> or <tt>.gz</tt> bulk file, runs
+ * at the same time as consuming them in the XML parser. The
+ * background thread blocks once all buffers are full, so memory is
+ * bounded by <em>buffers</em> times <em>bufferSize</em> however far
+ * ahead the producer gets. Buffers are recycled, so after start-up
+ * the two threads exchange bytes without allocating.
+ * <p>
+ * An exception thrown by the source is rethrown by the first read
+ * that reaches it. Closing the stream stops the background thread
+ * and closes the source.
+ *
+ * @author Ali K Thabet
+ */
+class PrefetchInputStream extends InputStream {
+
+    static final int BUFFERS     = 8;
+    static final int BUFFER_SIZE = 1 << 18;
+
+    // buffer of bytes handed from the producer to the reader
+    private static final class Chunk {
+        final byte[] data;
+        int          length; // bytes in data, -1 at the end of the source
+
+        Chunk(int size) {
+            data = new byte[size];
+        }
+    }
+
+    private final ArrayBlockingQueue<Chunk> full;  // chunks ready to be read, in order
+    private final ArrayBlockingQueue<Chunk> free;  // chunks to be filled
+    private final Thread                    producer;
+    private volatile IOException            failure; // exception of the source, if any
+    private Chunk                           current; // chunk being read
+    private int                             position; // next byte of current
+    private boolean                         ended;
+
+    PrefetchInputStream(InputStream source, String name) {
+        this(source, name, BUFFERS, BUFFER_SIZE);
+    }
+
+    /**
+     * Start reading a stream in the background
+     *
+     * @param source     stream to read, closed when done
+     * @param name       name of the background thread
+     * @param buffers    number of buffers between the threads
+     * @param bufferSize size of each buffer in bytes
+     */
+    PrefetchInputStream(final InputStream source, String name, int buffers, int bufferSize) {
+        if (source == null) {
+            throw new NullPointerException("Source stream cannot be null");
+        }
+
+        full = new ArrayBlockingQueue<>(buffers);
+        free = new ArrayBlockingQueue<>(buffers);
+        for (int i = 0; i < buffers; i++) free.add(new Chunk(bufferSize));
+
+        producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                produce(source);
+            }
+        }, name);
+        producer.setDaemon(true);
+        producer.start();
+    }
+
+    // fill chunks from the source until it ends, fails or the reader closes
+    private void produce(InputStream source) {
+        try {
+            try {
+                while (true) {
+                    Chunk chunk = free.take();
+                    int n = fill(source, chunk.data);
+                    chunk.length = n > 0 ? n : -1;
+                    full.put(chunk);
+                    if (n <= 0) return;
+                }
+            } catch (IOException e) {
+                failure = e;
+            } finally {
+                source.close();
+            }
+        } catch (IOException e) {
+            if (failure == null) failure = e;
+        } catch (InterruptedException e) {
+            return; // closed by the reader
+        }
+
+        // report the failure, after the bytes read before it
+        Chunk end = free.poll();
+        if (end == null) end = new Chunk(0);
+        end.length = -1;
+        full.offer(end);
+    }
+
+    // read until a buffer is full or the source ends, returning the bytes read
+    private static int fill(InputStream source, byte[] data) throws IOException {
+        int length = 0;
+        while (length < data.length) {
+            int n = source.read(data, length, data.length - length);
+            if (n < 0) break;
+            length += n;
+        }
+        return length;
+    }
+
+    // make sure current has bytes left, returning false at the end of the source
+    private boolean next() throws IOException {
+        if (ended) return false;
+        if (current != null && position < current.length) return true;
+
+        if (current != null) free.offer(current);
+        try {
+            current = full.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for " + producer.getName());
+        }
+        position = 0;
+        if (current.length < 0) {
+            ended = true;
+            if (failure != null) throw new IOException(failure.getMessage(), failure);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return next() ? current.data[position++] & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (!next()) return -1;
+
+        int n = Math.min(len, current.length - position);
+        System.arraycopy(current.data, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return current != null && !ended ? current.length - position : 0;
+    }
+
+    @Override
+    public void close() {
+        ended = true;
+        producer.interrupt();
+    }
+}
@@ -0,0 +1,200 @@
+package com.alithabet.entrep.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <tt>PropertyDateIndex</tt> finds the patents recorded between two
+ * dates, or having a property of a given status, such as an issued
+ * patent, dated between two dates. There is one column per status and
+ * one for the recorded dates, each a pair of primitive arrays of dates
+ * and patent IDs sorted by date, so the patents of a range are found
+ * with two binary searches. Ranges come back as {@link PatentBitmap}
+ * sets, which combine with the sets of a {@link PatentIndex}, e.g. in
+ * <tt>issued:2010..2012 AND recorded:20150209..20150215 AND university</tt>,
+ * see {@link PatentQuery}.
+ * <p>
+ * Like {@link PatentIndex} the index is incremental: {@link #update(List)}
+ * sorts the patents added since the previous call and merges them into
+ * the columns. Properties without a date are not indexed.
+ *
+ * @author Ali K Thabet
+ */
+public class PropertyDateIndex {
+
+    // dates of one status, or the recorded dates, and their patents
+    private static final class Column {
+        int[] days = new int[0]; // sorted dates, as epoch days
+        int[] ids  = new int[0]; // patent of each date
+        int   size;
+
+        // merge (day, ID) pairs packed as day << 32 | ID and sorted
+        void merge(long[] entries, int count) {
+            int[] mergedDays = new int[size + count];
+            int[] mergedIds  = new int[size + count];
+            int i = 0, j = 0, k = 0;
+            while (i < size || j < count) {
+                if (j == count || (i < size && days[i] <= (int) (entries[j] >> 32))) {
+                    mergedDays[k] = days[i];
+                    mergedIds[k++] = ids[i++];
+                } else {
+                    mergedDays[k] = (int) (entries[j] >> 32);
+                    mergedIds[k++] = (int) entries[j++];
+                }
+            }
+            days = mergedDays;
+            ids  = mergedIds;
+            size += count;
+        }
+
+        // first position with a date of at least day
+        int lowerBound(int day) {
+            int lo = 0, hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (days[mid] < day) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+
+        PatentBitmap range(int fromDay, int toDay) {
+            int from = fromDay == PatentDate.NO_DATE ? 0 : lowerBound(fromDay);
+            int to   = toDay == PatentDate.NO_DATE || toDay == Integer.MAX_VALUE ? size : lowerBound(toDay + 1);
+
+            // adding the IDs in order appends to the bitmap
+            PatentBitmap bitmap = new PatentBitmap();
+            if (from >= to) return bitmap;
+            int[] found = Arrays.copyOfRange(ids, from, to);
+            Arrays.sort(found);
+            for (int id : found) bitmap.add(id);
+            return bitmap;
+        }
+    }
+
+    private static final int STATUSES = PatentProperty.ISSUED_STATUS_CODE + 1;
+
+    private final Column[] properties; // columns by status code
+    private final Column   recorded;   // recorded dates
+    private int            indexed;    // number of patents indexed so far
+
+    // default no argument constructor
+    public PropertyDateIndex() {
+        properties = new Column[STATUSES];
+        for (int i = 0; i < STATUSES; i++) properties[i] = new Column();
+        recorded = new Column();
+    }
+
+    /**
+     * Index the patents of <em>patents</em> that were added since
+     * the last update. The ID of a patent is its position in
+     * <em>patents</em>, so the list must only grow at the end.
+     *
+     * @param patents full list of patents
+     */
+    public void update(List<Patent> patents) {
+        if (indexed >= patents.size()) return;
+
+        long[][] entries = new long[STATUSES][16];
+        int[]    counts  = new int[STATUSES];
+        long[]   dates   = new long[patents.size() - indexed];
+        int      dated   = 0;
+        CompactPatentStore.PatentView view =
+                patents instanceof CompactPatentStore ? ((CompactPatentStore) patents).view() : null;
+        for (int id = indexed; id < patents.size(); id++) {
+            if (view != null) {
+                // read the columns of the store instead of building the patent
+                view.moveTo(id);
+                if (view.getRecordedDay() != PatentDate.NO_DATE) dates[dated++] = pack(view.getRecordedDay(), id);
+                for (int i = 0; i < view.getInventionCount(); i++) {
+                    for (int p = 0; p < view.getPropertyCount(i); p++) {
+                        CompactPatentStore.PropertyView property = view.getProperty(i, p);
+                        add(entries, counts, property.getStatusCode(), property.getDay(), id);
+                    }
+                }
+                continue;
+            }
+
+            Patent patent = patents.get(id);
+            if (patent.getRecordedDay() != PatentDate.NO_DATE) {
+                dates[dated++] = pack(patent.getRecordedDay(), id);
+            }
+            for (ArrayList<PatentProperty> invention : patent.getInventions().values()) {
+                for (int i = 0; i < invention.size(); i++) {
+                    PatentProperty property = invention.get(i);
+                    add(entries, counts, property.getStatusCode(), property.getDay(), id);
+                }
+            }
+        }
+
+        Arrays.sort(dates, 0, dated);
+        recorded.merge(dates, dated);
+        for (int status = 0; status < STATUSES; status++) {
+            Arrays.sort(entries[status], 0, counts[status]);
+            properties[status].merge(entries[status], counts[status]);
+        }
+        indexed = patents.size();
+    }
+
+    // add the date of a property to the entries of its status, unless it has none
+    private static void add(long[][] entries, int[] counts, int status, int day, int id) {
+        if (day == PatentDate.NO_DATE) return;
+        if (counts[status] == entries[status].length) {
+            entries[status] = Arrays.copyOf(entries[status], counts[status] * 2);
+        }
+        entries[status][counts[status]++] = pack(day, id);
+    }
+
+    // pack a date and an ID so that they sort by date, then by ID
+    private static long pack(int day, int id) {
+        return ((long) day << 32) | (id & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Patents recorded between two dates
+     *
+     * @param fromDay first date as an epoch day, or {@link PatentDate#NO_DATE} for no bound
+     * @param toDay   last date as an epoch day, or {@link PatentDate#NO_DATE} for no bound
+     * @return IDs of the patents
+     */
+    public PatentBitmap getRecorded(int fromDay, int toDay) {
+        return recorded.range(fromDay, toDay);
+    }
+
+    /**
+     * Patents having a property of a status dated between two dates,
+     * e.g. inventions issued between two dates for
+     * {@link PatentProperty#ISSUED_STATUS_CODE}
+     *
+     * @param status  status code of the properties
+     * @param fromDay first date as an epoch day, or {@link PatentDate#NO_DATE} for no bound
+     * @param toDay   last date as an epoch day, or {@link PatentDate#NO_DATE} for no bound
+     * @return IDs of the patents
+     */
+    public PatentBitmap get(byte status, int fromDay, int toDay) {
+        if (status < 0 || status >= STATUSES) {
+            throw new IllegalArgumentException("Unknown status code " + status);
+        }
+        return properties[status].range(fromDay, toDay);
+    }
+
+    // number of patents indexed so far
+    public int indexedCount() {
+        return indexed;
+    }
+
+    // number of dates in the index
+    public long dateCount() {
+        long count = recorded.size;
+        for (Column column : properties) count += column.size;
+        return count;
+    }
+
+    // estimated bytes held by the columns
+    public long sizeInBytes() {
+        long bytes = 16L + 8L * recorded.days.length;
+        for (Column column : properties) bytes += 16L + 8L * column.days.length;
+        return bytes;
+    }
+}
@@ -0,0 +1,153 @@
+package com.alithabet.entrep.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * <tt>RemoteShardClient</tt> queries a shard served by a
+ * {@link PatentShardServer} in another JVM. A single connection is
+ * opened on the first request and shared by all the threads using
+ * the client, which take turns. If a request fails the connection is
+ * dropped, and the next request opens a new one.
+ *
+ * @author Ali K Thabet
+ */
+public class RemoteShardClient implements ShardClient {
+
+    private final String     host;
+    private final int        port;
+    private int              timeout = 60000; // connect and read timeout in milliseconds
+    private Socket           socket;          // null until the first request
+    private DataInputStream  in;
+    private DataOutputStream out;
+
+    /**
+     * Constructor with the address of a shard server,
+     * the connection is only opened by the first request
+     *
+     * @param host host of the server
+     * @param port port of the server
+     */
+    public RemoteShardClient(String host, int port) {
+        if (host == null) {
+            throw new NullPointerException("Host cannot be null");
+        }
+        this.host = host;
+        this.port = port;
+    }
+
+    @Override
+    public synchronized int size() throws IOException {
+        connect();
+        try {
+            out.writeByte(PatentShardServer.SIZE);
+            out.flush();
+            return response().getInt();
+        } catch (IOException e) {
+            disconnect();
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized ArrayList<Patent> queryIndex(String query, int fromDay, int toDay) throws IOException {
+        if (query == null) {
+            throw new NullPointerException("Query cannot be null");
+        }
+
+        connect();
+        ByteBuffer payload;
+        try {
+            out.writeByte(PatentShardServer.QUERY);
+            PatentCodec.writeString(out, query);
+            out.writeInt(fromDay);
+            out.writeInt(toDay);
+            out.flush();
+            payload = response();
+        } catch (IOException e) {
+            disconnect();
+            throw e;
+        }
+
+        int count = payload.getInt();
+        ArrayList<Patent> patents = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) patents.add(PatentCodec.readPatent(payload));
+        return patents;
+    }
+
+    // payload of the next response, failing if the server reported an error
+    private ByteBuffer response() throws IOException {
+        byte status = in.readByte();
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+
+        ByteBuffer payload = ByteBuffer.wrap(bytes);
+        if (status != PatentShardServer.OK) {
+            throw new IOException("Shard " + host + ":" + port + ": " + PatentCodec.readString(payload));
+        }
+        return payload;
+    }
+
+    private void connect() throws IOException {
+        if (socket != null) return;
+
+        Socket s = new Socket();
+        try {
+            s.connect(new InetSocketAddress(host, port), timeout);
+            s.setSoTimeout(timeout);
+            s.setTcpNoDelay(true);
+            in  = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+        } catch (IOException e) {
+            s.close();
+            throw new IOException("Cannot connect to shard " + host + ":" + port + " " + e.getMessage(), e);
+        }
+        socket = s;
+    }
+
+    private void disconnect() {
+        try {
+            if (socket != null) socket.close();
+        } catch (IOException e) {
+            // the connection is dropped anyway
+        }
+        socket = null;
+        in     = null;
+        out    = null;
+    }
+
+    @Override
+    public synchronized void close() {
+        disconnect();
+    }
+
+    // getters and setter
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public int getTimeout() {
+        return timeout;
+    }
+
+    // applies to connections opened from now on
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    @Override
+    public String toString() {
+        return host + ":" + port;
+    }
+}
@@ -0,0 +1,38 @@
+package com.alithabet.entrep.data;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * <tt>ShardClient</tt> is the view a {@link ShardedPatentStore} has of
+ * one of its shards, the patents of a single month. The shard can be a
+ * {@link PatentArray} in the same JVM or a {@link PatentShardServer}
+ * in another one reached through a {@link RemoteShardClient}.
+ * Clients may be called from several threads at once.
+ *
+ * @author Ali K Thabet
+ */
+public interface ShardClient extends Closeable {
+
+    /**
+     * Number of patents held by the shard
+     *
+     * @return number of patents
+     * @throws IOException if the shard cannot be reached
+     */
+    int size() throws IOException;
+
+    /**
+     * Patents of the shard matching an index query, see
+     * {@link PatentArray#queryIndex(String)}, recorded between
+     * two dates
+     *
+     * @param query   words to look up
+     * @param fromDay first recorded date as an epoch day, or {@link PatentDate#NO_DATE} for no bound
+     * @param toDay   last recorded date as an epoch day, or {@link PatentDate#NO_DATE} for no bound
+     * @return matching patents in recorded date order
+     * @throws IOException if the shard cannot be reached
+     */
+    ArrayList<Patent> queryIndex(String query, int fromDay, int toDay) throws IOException;
+}
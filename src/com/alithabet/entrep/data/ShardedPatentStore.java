@@ -0,0 +1,468 @@
+package com.alithabet.entrep.data;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * <tt>ShardedPatentStore</tt> partitions the patents of many bulk files
+ * by the month of their recorded date, one shard per month, instead of
+ * holding them all in a single {@link PatentArray}. Months are named by
+ * a <tt>yyyyMM</tt> number, e.g. <tt>201502</tt>.
+ * <p>
+ * Each shard is loaded on its own, either explicitly with
+ * {@link #load(int)} or by the first query that needs it, and can be
+ * dropped again with {@link #evict(int)} to free its memory. A shard
+ * can also be served by another JVM, see {@link PatentShardServer},
+ * and attached to the store with {@link #attach(int, ShardClient)}.
+ * <p>
+ * {@link #queryIndex(String)} sends the query to every shard in
+ * parallel and merges the results in month order, so they come out in
+ * recorded date order as they would from a single array. A query
+ * bounded by dates only reaches the months between them. Files added
+ * to a loaded month are read while no query uses the month.
+ *
+ * @author Ali K Thabet
+ */
+public class ShardedPatentStore implements Closeable {
+
+    // a month of patents, read from its files or served by a client. Queries hold
+    // the read lock while they use the client, appends and attach hold the write
+    // lock, since a PatentArray must not be read while patents are added to it
+    private final class Shard {
+        final int           month;                        // yyyyMM
+        final List<File>    files = new ArrayList<>();    // bulk files recorded in the month, guarded by the shard
+        final ReadWriteLock lock  = new ReentrantReadWriteLock(); // taken before the shard monitor
+        ShardClient         client;                       // null until loaded
+        boolean             attached;                     // client given by attach
+        boolean             removed;                      // dropped from the store by detach
+
+        Shard(int month) {
+            this.month = month;
+        }
+
+        // client of the shard, reading its files if needed
+        synchronized ShardClient client() {
+            if (client == null) {
+                PatentArray array = new PatentArray();
+                array.setIngestMode(ingestMode);
+                array.setThreads(threads);
+                for (File file : files) array.read(file.getPath());
+                client = new LocalShardClient(array);
+            }
+            return client;
+        }
+
+        synchronized boolean isLoaded() {
+            return client != null;
+        }
+
+        // add a file to the month, reading it right away if the shard is loaded
+        boolean add(File file) {
+            lock.writeLock().lock();
+            try {
+                synchronized (this) {
+                    if (removed) return false;
+                    files.add(file);
+                    if (client instanceof LocalShardClient) {
+                        ((LocalShardClient) client).getArray().read(file.getPath());
+                    }
+                    return true;
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        // query the client, loading the shard if needed
+        ArrayList<Patent> queryIndex(String query, int fromDay, int toDay) throws IOException {
+            lock.readLock().lock();
+            try {
+                return client().queryIndex(query, fromDay, toDay);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        // number of patents of a loaded shard, 0 otherwise
+        long size() throws IOException {
+            lock.readLock().lock();
+            try {
+                ShardClient loaded;
+                synchronized (this) {
+                    loaded = client;
+                }
+                return loaded == null ? 0 : loaded.size();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        synchronized List<File> getFiles() {
+            return new ArrayList<>(files);
+        }
+
+        // serve the month with a client, replacing the patents read for it
+        boolean attach(ShardClient attachedClient) {
+            lock.writeLock().lock();
+            try {
+                synchronized (this) {
+                    if (removed) return false;
+                    closeQuietly(client);
+                    client   = attachedClient;
+                    attached = true;
+                    return true;
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        // close the attached client, once no query uses it
+        boolean detach() {
+            lock.writeLock().lock();
+            try {
+                synchronized (this) {
+                    if (!attached) return false;
+                    closeQuietly(client);
+                    client   = null;
+                    attached = false;
+                    return true;
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        // mark the shard removed unless it has files or a client
+        synchronized boolean remove() {
+            removed = files.isEmpty() && !attached;
+            return removed;
+        }
+    }
+
+    private final TreeMap<Integer, Shard> shards = new TreeMap<>(); // shards by month
+    private IngestMode                    ingestMode = IngestMode.STREAM; // XML parser to use
+    private int                           threads = Runtime.getRuntime().availableProcessors(); // query and load workers
+    private ForkJoinPool                  pool; // created by the first query
+
+    // default no argument constructor
+    public ShardedPatentStore() {
+    }
+
+    /**
+     * Constructor with a bulk file or a folder of bulk files,
+     * see {@link #add(String)}
+     *
+     * @param fileName name of bulk file or folder
+     */
+    public ShardedPatentStore(String fileName) {
+        add(fileName);
+    }
+
+    /**
+     * Add the bulk files of <em>fileName</em> to the months they
+     * were recorded in. Files are only read once their month is
+     * loaded, except for the files of a loaded month, which are
+     * read right away. The month of a file is taken from its
+     * <tt>adyyyyMMdd</tt> name, files named otherwise are parsed
+     * once to find their recorded date.
+     *
+     * @param fileName name of bulk file or folder
+     * @return number of files added
+     */
+    public int add(String fileName) {
+        if (fileName == null) {
+            throw new NullPointerException("Input to add cannot be null");
+        }
+
+        List<File> files = PatentArray.listSources(fileName);
+        for (File file : files) {
+            int month = PatentDate.yearMonth(recordedDay(file));
+            Shard shard;
+            do {
+                synchronized (this) {
+                    shard = shards.get(month);
+                    if (shard == null) {
+                        shard = new Shard(month);
+                        shards.put(month, shard);
+                    }
+                }
+            } while (!shard.add(file)); // the shard was removed by detach, add a new one
+        }
+        return files.size();
+    }
+
+    // recorded date of a bulk file, from its name when it has one
+    private int recordedDay(File file) {
+        String name = file.getName();
+        if (name.length() >= 10 && name.startsWith("ad")) {
+            try {
+                return PatentDate.parse(name.substring(2, 10));
+            } catch (IllegalArgumentException e) {
+                // not a date, read the file
+            }
+        }
+        try {
+            return PatentShard.read(file, ingestMode).getRecordedDate();
+        } catch (Exception e) {
+            throw new RuntimeException("Exception reading file " + file.getPath()
+                    + " " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Read the files of a month, if it is not loaded yet
+     *
+     * @param month month as <tt>yyyyMM</tt>
+     * @return true if the month was read
+     */
+    public boolean load(int month) {
+        Shard shard = shard(month);
+        if (shard.isLoaded()) return false;
+        shard.client();
+        return true;
+    }
+
+    /**
+     * Drop the patents of a month read by the store. They are
+     * read again by the next query or load of the month. Attached
+     * shards are not evicted, see {@link #detach(int)}.
+     *
+     * @param month month as <tt>yyyyMM</tt>
+     * @return true if patents were dropped
+     */
+    public boolean evict(int month) {
+        Shard shard = shard(month);
+        synchronized (shard) {
+            if (shard.client == null || shard.attached) return false;
+            shard.client = null;
+            return true;
+        }
+    }
+
+    /**
+     * Serve a month with a given client, usually a
+     * {@link RemoteShardClient} to a shard in another JVM,
+     * replacing any patents the store read for it
+     *
+     * @param month  month as <tt>yyyyMM</tt>
+     * @param client client answering the queries of the month
+     */
+    public void attach(int month, ShardClient client) {
+        if (client == null) {
+            throw new NullPointerException("Shard client cannot be null");
+        }
+
+        Shard shard;
+        do {
+            synchronized (this) {
+                shard = shards.get(month);
+                if (shard == null) {
+                    shard = new Shard(month);
+                    shards.put(month, shard);
+                }
+            }
+        } while (!shard.attach(client)); // the shard was removed by detach, add a new one
+    }
+
+    /**
+     * Close the client attached to a month. The month is then read
+     * from its own files, or removed if it has none.
+     *
+     * @param month month as <tt>yyyyMM</tt>
+     * @return true if a client was attached
+     */
+    public boolean detach(int month) {
+        Shard shard = shard(month);
+        if (!shard.detach()) return false;
+        synchronized (this) {
+            if (shards.get(month) == shard && shard.remove()) shards.remove(month);
+        }
+        return true;
+    }
+
+    private synchronized Shard shard(int month) {
+        Shard shard = shards.get(month);
+        if (shard == null) {
+            throw new IllegalArgumentException("No shard for month " + month);
+        }
+        return shard;
+    }
+
+    // shards recorded between two epoch days, NO_DATE for no bound
+    private synchronized List<Shard> shards(int fromDay, int toDay) {
+        if (shards.isEmpty()) return new ArrayList<>();
+        int from = fromDay == PatentDate.NO_DATE ? shards.firstKey() : PatentDate.yearMonth(fromDay);
+        int to   = toDay == PatentDate.NO_DATE ? shards.lastKey() : PatentDate.yearMonth(toDay);
+        if (from > to) return new ArrayList<>();
+        return new ArrayList<>(shards.subMap(from, true, to, true).values());
+    }
+
+    /**
+     * Query every shard for a string occurrence, see
+     * {@link PatentArray#queryIndex(String)}. Shards that are
+     * not loaded are read first.
+     *
+     * @param query words to look up
+     * @return matching patents in recorded date order
+     */
+    public ArrayList<Patent> queryIndex(String query) {
+        return queryIndex(query, PatentDate.NO_DATE, PatentDate.NO_DATE);
+    }
+
+    /**
+     * Query the shards of the months between two dates for a
+     * string occurrence, keeping the patents recorded between them.
+     * The other shards are neither loaded nor queried.
+     *
+     * @param query words to look up
+     * @param from  first recorded date, null for no bound
+     * @param to    last recorded date, null for no bound
+     * @return matching patents in recorded date order
+     */
+    public ArrayList<Patent> queryIndex(String query, Date from, Date to) {
+        return queryIndex(query, PatentDate.fromDate(from), PatentDate.fromDate(to));
+    }
+
+    // query the shards in parallel and merge the results in month order
+    private ArrayList<Patent> queryIndex(final String query, final int fromDay, final int toDay) {
+        if (query == null) {
+            throw new NullPointerException("Query cannot be null");
+        }
+
+        List<Shard> needed = shards(fromDay, toDay);
+        ArrayList<Callable<ArrayList<Patent>>> tasks = new ArrayList<>();
+        for (final Shard shard : needed) {
+            tasks.add(new Callable<ArrayList<Patent>>() {
+                @Override
+                public ArrayList<Patent> call() throws Exception {
+                    return shard.queryIndex(query, fromDay, toDay);
+                }
+            });
+        }
+
+        ArrayList<Patent> result = new ArrayList<>();
+        List<Future<ArrayList<Patent>>> futures;
+        try {
+            futures = pool().invokeAll(tasks);
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    result.addAll(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    throw new RuntimeException("Exception querying shard " + needed.get(i).month
+                            + " " + e.getCause().getMessage(), e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted querying " + needed.size() + " shards");
+        }
+        return result;
+    }
+
+    private synchronized ForkJoinPool pool() {
+        if (pool == null) pool = new ForkJoinPool(Math.max(1, threads));
+        return pool;
+    }
+
+    /**
+     * Number of patents in the loaded shards
+     *
+     * @return number of patents
+     * @throws IOException if an attached shard cannot be reached
+     */
+    public long size() throws IOException {
+        long size = 0;
+        for (Shard shard : shards(PatentDate.NO_DATE, PatentDate.NO_DATE)) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    // months of the store, in order
+    public synchronized NavigableSet<Integer> getMonths() {
+        return new TreeSet<>(shards.keySet());
+    }
+
+    // months whose patents are held or served
+    public synchronized NavigableSet<Integer> getLoadedMonths() {
+        TreeSet<Integer> months = new TreeSet<>();
+        for (Shard shard : shards.values()) {
+            if (shard.isLoaded()) months.add(shard.month);
+        }
+        return months;
+    }
+
+    public boolean isLoaded(int month) {
+        return shard(month).isLoaded();
+    }
+
+    // bulk files of a month
+    public List<File> getFiles(int month) {
+        return shard(month).getFiles();
+    }
+
+    private static void closeQuietly(ShardClient client) {
+        if (client == null) return;
+        try {
+            client.close();
+        } catch (IOException e) {
+            System.out.println("Exception closing shard " + client + " " + e.getMessage());
+        }
+    }
+
+    // close the attached clients, drop the loaded shards and stop the workers
+    @Override
+    public void close() {
+        for (Shard shard : shards(PatentDate.NO_DATE, PatentDate.NO_DATE)) {
+            shard.lock.writeLock().lock();
+            try {
+                synchronized (shard) {
+                    closeQuietly(shard.client);
+                    shard.client   = null;
+                    shard.attached = false;
+                }
+            } finally {
+                shard.lock.writeLock().unlock();
+            }
+        }
+        synchronized (this) {
+            if (pool != null) pool.shutdown();
+            pool = null;
+        }
+    }
+
+    // getters and setter
+    public IngestMode getIngestMode() {
+        return ingestMode;
+    }
+
+    // applies to shards loaded from now on
+    public void setIngestMode(IngestMode ingestMode) {
+        this.ingestMode = ingestMode;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    // applies to the next query and to shards loaded from now on
+    public synchronized void setThreads(int threads) {
+        this.threads = threads;
+        if (pool != null) pool.shutdown();
+        pool = null;
+    }
+}
@@ -0,0 +1,140 @@
+package com.alithabet.entrep.data;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+
+/**
+ * <tt>SourceFile</tt> records the path, size and last modification
+ * time of a bulk XML file read into a {@link PatentArray}, together
+ * with the CRC32 checksum of its contents, its recorded date and the
+ * number of patents read from it. The records are used to tell
+ * whether data derived from the file, such as a {@link PatentSnapshot},
+ * is still up to date, see {@link IngestManifest}.
+ * <p>
+ * Two records are equal when path, size and modification time
+ * match; the checksum is only compared to tell a file that was
+ * touched from one that was rewritten.
+ *
+ * @author Ali K Thabet
+ */
+class SourceFile {
+
+    // checksum of a file that was not read
+    static final long NO_CHECKSUM = -1;
+
+    private final String path;         // absolute path of the file
+    private final long   length;       // size in bytes
+    private final long   lastModified; // modification time in milliseconds
+    private final long   checksum;     // CRC32 of the contents, or NO_CHECKSUM
+    private final int    recordedDate; // recorded date of the file as an epoch day
+    private final int    patents;      // patents read from the file
+
+    SourceFile(String path, long length, long lastModified) {
+        this(path, length, lastModified, NO_CHECKSUM, PatentDate.NO_DATE, 0);
+    }
+
+    SourceFile(String path, long length, long lastModified, long checksum, int recordedDate, int patents) {
+        this.path         = path;
+        this.length       = length;
+        this.lastModified = lastModified;
+        this.checksum     = checksum;
+        this.recordedDate = recordedDate;
+        this.patents      = patents;
+    }
+
+    // current state of a file on disk
+    static SourceFile of(File file) {
+        return new SourceFile(file.getAbsolutePath(), file.length(), file.lastModified());
+    }
+
+    /**
+     * CRC32 checksum of the contents of a file
+     *
+     * @param file file to read
+     * @return the checksum
+     * @throws IOException if the file cannot be read
+     */
+    static long checksum(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[1 << 16];
+        InputStream in = new FileInputStream(file);
+        try {
+            int n;
+            while ((n = in.read(buffer)) > 0) crc.update(buffer, 0, n);
+        } finally {
+            in.close();
+        }
+        return crc.getValue();
+    }
+
+    String getPath() {
+        return path;
+    }
+
+    long getLength() {
+        return length;
+    }
+
+    long getLastModified() {
+        return lastModified;
+    }
+
+    long getChecksum() {
+        return checksum;
+    }
+
+    int getRecordedDate() {
+        return recordedDate;
+    }
+
+    int getPatents() {
+        return patents;
+    }
+
+    // same record with the size and modification time of the file on disk
+    SourceFile touch(File file) {
+        return new SourceFile(path, file.length(), file.lastModified(), checksum, recordedDate, patents);
+    }
+
+    // true if the file on disk is still the one recorded
+    boolean isCurrent() {
+        File file = new File(path);
+        return file.isFile() && file.length() == length && file.lastModified() == lastModified;
+    }
+
+    /**
+     * True if the file on disk has the recorded contents, even if it
+     * was touched since. The checksum is only computed when the size
+     * matches but the modification time does not.
+     *
+     * @return true if the contents did not change
+     * @throws IOException if the file cannot be read
+     */
+    boolean isUnchanged() throws IOException {
+        if (isCurrent()) return true;
+
+        File file = new File(path);
+        if (!file.isFile() || file.length() != length || checksum == NO_CHECKSUM) return false;
+        return checksum(file) == checksum;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof SourceFile)) return false;
+        SourceFile that = (SourceFile) o;
+        return path.equals(that.path) && length == that.length && lastModified == that.lastModified;
+    }
+
+    @Override
+    public int hashCode() {
+        return path.hashCode() * 31 + (int) (length ^ lastModified);
+    }
+
+    @Override
+    public String toString() {
+        return path + " (" + length + " bytes)";
+    }
+}
@@ -0,0 +1,118 @@
+package com.alithabet.entrep.data;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <tt>StringDictionary</tt> is a thread safe pool of strings that
+ * take few values across many patents, such as cities, postcodes,
+ * countries and kind codes. Every distinct string is stored once and
+ * given an <tt>int</tt> code, so the parsers of a {@link PatentArray}
+ * keep a single copy of each in its persons and properties, and a
+ * {@link CompactPatentStore} keeps 4 byte codes instead of text.
+ * Code -1 stands for null.
+ * <p>
+ * A dictionary belongs to the array or store using it and never
+ * forgets a string, so it only holds fields of bounded cardinality:
+ * names, addresses or document numbers would cost more as entries
+ * than they save as shared copies.
+ * <p>
+ * Lookups of strings already in the pool do not lock, so the pool
+ * can be used by the parallel parsers of {@link PatentArray}.
+ *
+ * @author Ali K Thabet
+ */
+public class StringDictionary {
+
+    public static final int NULL_CODE = -1;
+
+    private final ConcurrentHashMap<String, Integer> codes;  // string to code
+    private volatile String[]                        values; // code to string
+    private int                                      size;   // number of strings, guarded by this
+    private final LongAdder                          lookups = new LongAdder();
+    private final LongAdder                          hits    = new LongAdder();
+
+    // default no argument constructor
+    public StringDictionary() {
+        codes  = new ConcurrentHashMap<>();
+        values = new String[1024];
+    }
+
+    /**
+     * Code of a string, adding it to the dictionary if needed
+     *
+     * @param s string to encode, may be null
+     * @return code of the string, or {@link #NULL_CODE} for null
+     */
+    public int encode(String s) {
+        if (s == null) return NULL_CODE;
+
+        lookups.increment();
+        Integer code = codes.get(s);
+        if (code != null) {
+            hits.increment();
+            return code;
+        }
+
+        synchronized (this) {
+            code = codes.get(s);
+            if (code != null) return code;
+
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size] = s;
+            codes.put(s, size);
+            return size++;
+        }
+    }
+
+    /**
+     * String of a code returned by {@link #encode(String)}
+     *
+     * @param code code of the string
+     * @return the string, or null for {@link #NULL_CODE}
+     */
+    public String decode(int code) {
+        return code == NULL_CODE ? null : values[code];
+    }
+
+    /**
+     * The single copy of a string kept by the dictionary
+     *
+     * @param s string to look up, may be null
+     * @return equal string stored in the dictionary
+     */
+    public String intern(String s) {
+        return decode(encode(s));
+    }
+
+    // number of distinct strings
+    public int size() {
+        return codes.size();
+    }
+
+    // number of strings looked up so far
+    public long lookups() {
+        return lookups.sum();
+    }
+
+    // number of lookups that found the string already in the dictionary
+    public long hits() {
+        return hits.sum();
+    }
+
+    // estimated heap used by the dictionary in bytes
+    public long sizeInBytes() {
+        String[] v = values;
+        long bytes = 4L * v.length;
+        for (int i = 0, n = Math.min(size(), v.length); i < n; i++) {
+            String s = v[i];
+            if (s == null) continue;
+            // map entry, boxed code, string header and characters
+            bytes += 48 + 16 + 40 + 2L * s.length();
+        }
+        return bytes;
+    }
+}
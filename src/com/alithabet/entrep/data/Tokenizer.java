@@ -0,0 +1,117 @@
+package com.alithabet.entrep.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <tt>Tokenizer</tt> splits names and addresses into the words of the
+ * {@link PatentIndex}, the same way for indexing and for queries:
+ * <ul>
+ *     <li>words are runs of letters and digits, any other character
+ *     ends a word, except dots and apostrophes which are dropped, so
+ *     <tt>"B.V."</tt> gives <tt>bv</tt> and <tt>"INC."</tt> and
+ *     <tt>"INC"</tt> both give <tt>inc</tt>, as in
+ *     {@link EntityResolver#normalize(String)}</li>
+ *     <li>words are lower cased with the Unicode case mapping of
+ *     {@link Character#toLowerCase(int)}</li>
+ *     <li>empty words and stop words such as <tt>the</tt> or
+ *     <tt>of</tt> are dropped</li>
+ * </ul>
+ * Words are handed to a {@link Sink} as a range of a reused
+ * <tt>char</tt> buffer, so tokenizing allocates nothing and the
+ * index only creates a <tt>String</tt> for words it has not seen.
+ * A tokenizer is not thread safe, each thread needs its own.
+ *
+ * @author Ali K Thabet
+ */
+public class Tokenizer {
+
+    // words dropped by default, in normalized form
+    public static final List<String> STOP_WORDS = Collections.unmodifiableList(Arrays.asList(
+            "a", "an", "and", "of", "the"));
+
+    /**
+     * Receives the words of a text
+     */
+    public interface Sink {
+        /**
+         * Called once per word. The buffer is reused for the next
+         * word, so it must be copied to be kept.
+         *
+         * @param buffer characters of the word, starting at 0
+         * @param length number of characters of the word
+         */
+        void token(char[] buffer, int length);
+    }
+
+    private final KeyTable stopWords; // normalized stop words
+    private char[]         buffer;    // word being built
+
+    // tokenizer dropping the default stop words
+    public Tokenizer() {
+        this(STOP_WORDS);
+    }
+
+    /**
+     * Constructor with the stop words to drop
+     *
+     * @param stopWords words to drop, normalized by this tokenizer's rules
+     */
+    public Tokenizer(Collection<String> stopWords) {
+        this.stopWords = new KeyTable(Math.max(4, stopWords.size()));
+        for (String word : stopWords) this.stopWords.add(word);
+        buffer = new char[64];
+    }
+
+    /**
+     * Split a text into words
+     *
+     * @param text text to split, may be null
+     * @param sink receives the words in order
+     */
+    public void tokenize(CharSequence text, Sink sink) {
+        if (text == null) return;
+
+        int length = 0;
+        int n      = text.length();
+        for (int i = 0; i < n; ) {
+            int c = Character.codePointAt(text, i);
+            i += Character.charCount(c);
+
+            if (Character.isLetterOrDigit(c)) {
+                if (length + 2 > buffer.length) buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                length += Character.toChars(Character.toLowerCase(c), buffer, length);
+            } else if (c != '.' && c != '\'') {
+                emit(length, sink);
+                length = 0;
+            }
+        }
+        emit(length, sink);
+    }
+
+    // pass a word on unless it is empty or a stop word
+    private void emit(int length, Sink sink) {
+        if (length > 0 && stopWords.find(buffer, length) == KeyTable.NOT_FOUND) sink.token(buffer, length);
+    }
+
+    /**
+     * Words of a text as strings, for queries and other code
+     * where allocating is not a concern
+     *
+     * @param text text to split
+     * @return the words in order
+     */
+    public List<String> tokens(CharSequence text) {
+        final List<String> tokens = new ArrayList<>();
+        tokenize(text, new Sink() {
+            @Override
+            public void token(char[] buffer, int length) {
+                tokens.add(new String(buffer, 0, length));
+            }
+        });
+        return tokens;
+    }
+}